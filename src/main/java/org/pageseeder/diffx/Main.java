@@ -18,6 +18,7 @@ package org.pageseeder.diffx;
 import org.pageseeder.diffx.config.DiffConfig;
 import org.pageseeder.diffx.config.TextGranularity;
 import org.pageseeder.diffx.config.WhiteSpaceProcessing;
+import org.pageseeder.diffx.core.AdaptiveXMLProcessor;
 import org.pageseeder.diffx.core.DefaultXMLProcessor;
 import org.pageseeder.diffx.core.DiffProcessor;
 import org.pageseeder.diffx.core.OptimisticXMLProcessor;
@@ -290,6 +291,9 @@ public final class Main {
       }
       DiffProcessor<XMLToken> processor = getProcessor(args);
       if (processor == null) return;
+      if (profile && processor instanceof AdaptiveXMLProcessor) {
+        System.err.println(((AdaptiveXMLProcessor) processor).explain(seq1.tokens(), seq2.tokens()));
+      }
       processor.diff(seq1.tokens(), seq2.tokens(), output);
 
       long t2 = System.currentTimeMillis();
@@ -319,7 +323,7 @@ public final class Main {
     System.err.println("  -l [loader]     Choose a specific loader");
     System.err.println("                   sax* | dom | stream | stax | text");
     System.err.println("  -p [processor]  Choose a specific processor");
-    System.err.println("                   optimistic* | xml | text");
+    System.err.println("                   optimistic* | xml | text | adaptive");
     System.err.println("  -f [format]     Choose a specific formatter");
     System.err.println("                   default* | complete | strict | report");
     System.err.println("  -w [whitespace] Define whitespace processing");
@@ -377,6 +381,8 @@ public final class Main {
       return new OptimisticXMLProcessor();
     if ("text".equals(loaderArg))
       return new TextOnlyProcessor<>();
+    if ("adaptive".equals(loaderArg))
+      return new AdaptiveXMLProcessor();
     usage();
     return null;
   }
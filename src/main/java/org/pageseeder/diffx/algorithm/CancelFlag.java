@@ -0,0 +1,214 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.api.ProgressListener;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A flag used to cooperatively cancel a diff running on another thread and monitor its progress.
+ *
+ * <p>Algorithms accepting a cancel flag check it regularly in their main loop and stop by throwing
+ * a {@link DiffCancelledException} once it has been raised, or when the thread is interrupted. They
+ * report an estimate of their progress at the same time to the {@link ProgressListener} of the flag.
+ *
+ * <p>A flag may also be given a deadline, in which case it is raised automatically once the
+ * deadline has passed, or be linked to another flag, in which case it is raised with that flag.
+ *
+ * <p>Algorithms running tasks on other threads wait for them using {@link #await(Future, CancelFlag)}
+ * so that the tasks also stop when the waiting thread is interrupted.
+ *
+ * <p>A flag cannot be reset once it has been raised.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class CancelFlag {
+
+  private volatile boolean cancelled = false;
+
+  /**
+   * The deadline as returned by {@link System#nanoTime()}, only used if <code>timed</code>.
+   */
+  private final long deadline;
+
+  private final boolean timed;
+
+  /**
+   * The flag this flag is linked to.
+   */
+  private final @Nullable CancelFlag parent;
+
+  private volatile @Nullable ProgressListener listener = null;
+
+  /**
+   * The last fraction reported to the listener.
+   */
+  private volatile double reported = 0;
+
+  /**
+   * Creates a new flag without deadline.
+   */
+  public CancelFlag() {
+    this(0, false, null);
+  }
+
+  private CancelFlag(long deadline, boolean timed, @Nullable CancelFlag parent) {
+    this.deadline = deadline;
+    this.timed = timed;
+    this.parent = parent;
+  }
+
+  /**
+   * Creates a new flag raised automatically after the specified time.
+   *
+   * @param millis The time in milliseconds after which the flag is raised
+   *
+   * @return a new flag with a deadline
+   */
+  public static CancelFlag withTimeout(long millis) {
+    return new CancelFlag(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis), true, null);
+  }
+
+  /**
+   * Creates a new flag which is also raised when the specified flag is raised.
+   *
+   * <p>Raising the new flag does not raise the specified flag. Unless the new flag has its own
+   * listener, progress is reported to the listener of the specified flag.</p>
+   *
+   * @param parent The flag to link to (may be <code>null</code>)
+   *
+   * @return a new flag
+   */
+  public static CancelFlag linkedTo(@Nullable CancelFlag parent) {
+    return new CancelFlag(0, false, parent);
+  }
+
+  /**
+   * Set the listener receiving the progress of the algorithms checking this flag.
+   *
+   * @param listener The progress listener (may be <code>null</code>)
+   */
+  public void setProgressListener(@Nullable ProgressListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Raise this flag.
+   */
+  public void cancel() {
+    this.cancelled = true;
+  }
+
+  /**
+   * @return <code>true</code> if this flag has been raised, its deadline has passed or the flag it
+   *         is linked to has been raised.
+   */
+  public boolean isCancelled() {
+    if (!this.cancelled) {
+      if (this.timed && System.nanoTime() - this.deadline >= 0) this.cancelled = true;
+      else if (this.parent != null && this.parent.isCancelled()) this.cancelled = true;
+    }
+    return this.cancelled;
+  }
+
+  /**
+   * Checks whether the specified flag has been raised or the current thread was interrupted.
+   *
+   * @param flag The flag to check (may be <code>null</code>)
+   *
+   * @throws DiffCancelledException If the flag has been raised or the thread interrupted.
+   */
+  public static void check(@Nullable CancelFlag flag) {
+    if (Thread.currentThread().isInterrupted()) throw new DiffCancelledException(true);
+    if (flag != null && flag.isCancelled()) throw new DiffCancelledException(false);
+  }
+
+  /**
+   * Waits for the result of a task checking the specified flag on another thread.
+   *
+   * <p>If the current thread is interrupted while waiting, the flag is raised and the task is still
+   * waited for so that it does not outlive the comparison; the interrupt status is then restored.
+   *
+   * @param task The task to wait for
+   * @param flag The flag checked by the task
+   * @param <V>  The type of result
+   *
+   * @return the result of the task
+   *
+   * @throws DiffCancelledException If the current thread was interrupted while waiting.
+   */
+  public static <V> V await(Future<V> task, CancelFlag flag) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          V result = task.get();
+          if (interrupted) throw new DiffCancelledException(true);
+          return result;
+        } catch (InterruptedException ex) {
+          interrupted = true;
+          flag.cancel();
+        } catch (ExecutionException ex) {
+          if (interrupted) throw new DiffCancelledException(true);
+          Throwable cause = ex.getCause();
+          if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+          if (cause instanceof Error) throw (Error) cause;
+          throw new IllegalStateException(cause);
+        }
+      }
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Checks whether the specified flag has been raised and reports the progress.
+   *
+   * @param flag  The flag to check (may be <code>null</code>)
+   * @param done  The amount of work done
+   * @param total The total amount of work
+   *
+   * @throws DiffCancelledException If the flag has been raised or the thread interrupted.
+   */
+  static void check(@Nullable CancelFlag flag, long done, long total) {
+    check(flag);
+    if (flag != null && total > 0) flag.progress((double) done / total);
+  }
+
+  /**
+   * Report the progress to the listener of this flag or the flag it is linked to.
+   *
+   * <p>Only increases of at least one percent are reported.
+   */
+  private void progress(double fraction) {
+    CancelFlag flag = this;
+    while (flag.listener == null && flag.parent != null) flag = flag.parent;
+    ProgressListener listener = flag.listener;
+    if (listener == null) return;
+    double value = Math.min(fraction, 1);
+    if (value >= flag.reported + .01 || (value == 1 && flag.reported < 1)) {
+      flag.reported = value;
+      listener.progress(value);
+    }
+  }
+
+}
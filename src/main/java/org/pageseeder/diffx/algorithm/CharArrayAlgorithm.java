@@ -0,0 +1,263 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.jetbrains.annotations.NotNull;
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.token.impl.CharToken;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An implementation of Myers' linear space algorithm specialized for arrays of characters.
+ *
+ * <p>The characters are compared directly as primitive values instead of calling <code>equals</code>
+ * on tokens. When comparing character arrays, a {@link CharToken} is only created for each
+ * operation reported to the handler.</p>
+ *
+ * <p>When comparing lists of character tokens, the characters are copied into arrays first and the
+ * original tokens are reported to the handler.</p>
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ * @see <a href="https://neil.fraser.name/writing/diff/myers.pdf">An O(ND) Difference Algorithm and its Variations</a>
+ */
+public final class CharArrayAlgorithm implements DiffAlgorithm<CharToken> {
+
+  @Override
+  public void diff(@NotNull List<? extends CharToken> from, @NotNull List<? extends CharToken> to, @NotNull DiffHandler<CharToken> handler) {
+    int[] snakes = new Instance(toChars(from), toChars(to)).compute();
+    int x = 0;
+    int y = 0;
+    for (int n = 0; n < snakes.length; n += 3) {
+      for (; x < snakes[n]; x++) handler.handle(Operator.DEL, from.get(x));
+      for (; y < snakes[n + 1]; y++) handler.handle(Operator.INS, to.get(y));
+      for (int i = 0; i < snakes[n + 2]; i++, y++) handler.handle(Operator.MATCH, from.get(x++));
+    }
+    for (; x < from.size(); x++) handler.handle(Operator.DEL, from.get(x));
+    for (; y < to.size(); y++) handler.handle(Operator.INS, to.get(y));
+  }
+
+  /**
+   * Compare the specified arrays of characters.
+   *
+   * @param from    The original characters (deleted)
+   * @param to      The target characters (inserted)
+   * @param handler The handler for the results of the comparison
+   */
+  public void diff(char[] from, char[] to, DiffHandler<? super CharToken> handler) {
+    int[] snakes = new Instance(from, to).compute();
+    int x = 0;
+    int y = 0;
+    for (int n = 0; n < snakes.length; n += 3) {
+      for (; x < snakes[n]; x++) handler.handle(Operator.DEL, new CharToken(from[x]));
+      for (; y < snakes[n + 1]; y++) handler.handle(Operator.INS, new CharToken(to[y]));
+      for (int i = 0; i < snakes[n + 2]; i++, y++) handler.handle(Operator.MATCH, new CharToken(from[x++]));
+    }
+    for (; x < from.length; x++) handler.handle(Operator.DEL, new CharToken(from[x]));
+    for (; y < to.length; y++) handler.handle(Operator.INS, new CharToken(to[y]));
+  }
+
+  /**
+   * Indicates whether all the tokens in the list are character tokens.
+   *
+   * @param tokens The list of tokens to check
+   *
+   * @return <code>true</code> if the list only contains character tokens.
+   */
+  public static boolean isApplicable(List<?> tokens) {
+    for (Object token : tokens) {
+      if (!(token instanceof CharToken)) return false;
+    }
+    return true;
+  }
+
+  private static char[] toChars(List<? extends CharToken> tokens) {
+    char[] chars = new char[tokens.size()];
+    for (int i = 0; i < chars.length; i++) chars[i] = tokens.get(i).getChar();
+    return chars;
+  }
+
+  /**
+   * An instance of this algorithm for the arrays being compared.
+   */
+  private static final class Instance {
+
+    /**
+     * Type of work on the stack: a range to compare.
+     */
+    private static final int RANGE = 0;
+
+    /**
+     * Type of work on the stack: a snake to add to the path.
+     */
+    private static final int SNAKE = 1;
+
+    private final char[] a;
+    private final char[] b;
+
+    /**
+     * The snakes forming the path as consecutive triples: x, y and length.
+     */
+    private int[] snakes = new int[30];
+
+    private int snakeCount = 0;
+
+    /**
+     * The pending work as consecutive tuples of type followed by 4 values.
+     */
+    private int[] stack = new int[50];
+
+    private int stackSize = 0;
+
+    /**
+     * The furthest reaching paths forward and backward, indexed by diagonal plus offset.
+     */
+    private int[] forward;
+    private int[] backward;
+
+    Instance(char[] a, char[] b) {
+      this.a = a;
+      this.b = b;
+    }
+
+    /**
+     * @return the snakes forming the shortest path as consecutive triples.
+     */
+    int[] compute() {
+      Workspace workspace = Workspace.current();
+      int max = (this.a.length + this.b.length + 1) / 2 + 1;
+      this.forward = workspace.take(2 * max + 1);
+      this.backward = workspace.take(2 * max + 1);
+      try {
+        push(RANGE, 0, this.a.length, 0, this.b.length);
+        while (this.stackSize > 0) {
+          int base = (this.stackSize -= 5);
+          int[] s = this.stack;
+          if (s[base] == SNAKE) addSnake(s[base + 1], s[base + 2], s[base + 3]);
+          else range(s[base + 1], s[base + 2], s[base + 3], s[base + 4]);
+        }
+      } finally {
+        workspace.give(this.forward);
+        workspace.give(this.backward);
+      }
+      return Arrays.copyOf(this.snakes, this.snakeCount);
+    }
+
+    /**
+     * Compare the specified ranges, adding the common prefix first and pushing the rest.
+     */
+    private void range(int a0, int a1, int b0, int b1) {
+      int prefix = 0;
+      while (a0 + prefix < a1 && b0 + prefix < b1 && this.a[a0 + prefix] == this.b[b0 + prefix]) prefix++;
+      if (prefix > 0) addSnake(a0, b0, prefix);
+      a0 += prefix;
+      b0 += prefix;
+      int suffix = 0;
+      while (a0 < a1 - suffix && b0 < b1 - suffix && this.a[a1 - suffix - 1] == this.b[b1 - suffix - 1]) suffix++;
+      a1 -= suffix;
+      b1 -= suffix;
+      // Pushed in reverse order: the suffix is added last
+      if (suffix > 0) push(SNAKE, a1, b1, suffix, 0);
+      if (a0 == a1 || b0 == b1) return;
+      int[] middle = middleSnake(a0, a1, b0, b1);
+      push(RANGE, middle[0] + middle[2], a1, middle[1] + middle[2], b1);
+      if (middle[2] > 0) push(SNAKE, middle[0], middle[1], middle[2], 0);
+      push(RANGE, a0, middle[0], b0, middle[1]);
+    }
+
+    /**
+     * Find the middle snake of the shortest path between the specified ranges.
+     *
+     * <p>The ranges must not be empty and must not have a common prefix or suffix, so that the
+     * length of the shortest path is at least 2 and both halves are smaller.
+     *
+     * @return the start of the middle snake and its length.
+     */
+    private int[] middleSnake(int a0, int a1, int b0, int b1) {
+      final int n = a1 - a0;
+      final int m = b1 - b0;
+      final int delta = n - m;
+      final boolean odd = (delta & 1) != 0;
+      final int offset = (n + m + 1) / 2 + 1;
+      final int[] vf = this.forward;
+      final int[] vb = this.backward;
+      vf[offset + 1] = 0;
+      vb[offset + 1] = 0;
+      for (int d = 0; d <= (n + m + 1) / 2; d++) {
+        for (int k = -d; k <= d; k += 2) {
+          int x = (k == -d || (k != d && vf[offset + k - 1] < vf[offset + k + 1])) ? vf[offset + k + 1] : vf[offset + k - 1] + 1;
+          int y = x - k;
+          int xs = x;
+          while (x < n && y < m && this.a[a0 + x] == this.b[b0 + y]) {
+            x++;
+            y++;
+          }
+          vf[offset + k] = x;
+          int c = delta - k;
+          if (odd && c >= -(d - 1) && c <= d - 1 && x + vb[offset + c] >= n) {
+            return new int[]{a0 + xs, b0 + xs - k, x - xs};
+          }
+        }
+        for (int k = -d; k <= d; k += 2) {
+          int x = (k == -d || (k != d && vb[offset + k - 1] < vb[offset + k + 1])) ? vb[offset + k + 1] : vb[offset + k - 1] + 1;
+          int y = x - k;
+          int xs = x;
+          while (x < n && y < m && this.a[a1 - x - 1] == this.b[b1 - y - 1]) {
+            x++;
+            y++;
+          }
+          vb[offset + k] = x;
+          int c = delta - k;
+          if (!odd && c >= -d && c <= d && x + vf[offset + c] >= n) {
+            return new int[]{a1 - x, b1 - y, x - xs};
+          }
+        }
+      }
+      throw new IllegalStateException("Unable to find the middle snake");
+    }
+
+    private void push(int type, int v1, int v2, int v3, int v4) {
+      if (this.stackSize + 5 > this.stack.length) this.stack = Arrays.copyOf(this.stack, this.stack.length * 2);
+      int[] s = this.stack;
+      s[this.stackSize++] = type;
+      s[this.stackSize++] = v1;
+      s[this.stackSize++] = v2;
+      s[this.stackSize++] = v3;
+      s[this.stackSize++] = v4;
+    }
+
+    private void addSnake(int x, int y, int length) {
+      // Merge with the previous snake if contiguous
+      if (this.snakeCount > 0) {
+        int last = this.snakeCount - 3;
+        if (this.snakes[last] + this.snakes[last + 2] == x && this.snakes[last + 1] + this.snakes[last + 2] == y) {
+          this.snakes[last + 2] += length;
+          return;
+        }
+      }
+      if (this.snakeCount + 3 > this.snakes.length) this.snakes = Arrays.copyOf(this.snakes, this.snakes.length * 2);
+      this.snakes[this.snakeCount++] = x;
+      this.snakes[this.snakeCount++] = y;
+      this.snakes[this.snakeCount++] = length;
+    }
+  }
+
+}
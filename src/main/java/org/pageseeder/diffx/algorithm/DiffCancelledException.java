@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Exception thrown when a diff is stopped because its cancel flag was raised or the thread
+ * running it was interrupted.
+ *
+ * <p>The interrupt status of the thread is left unchanged.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class DiffCancelledException extends CancellationException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final boolean interrupted;
+
+  DiffCancelledException(boolean interrupted) {
+    super(interrupted ? "Diff thread was interrupted" : "Diff was cancelled");
+    this.interrupted = interrupted;
+  }
+
+  /**
+   * @return <code>true</code> if the diff was stopped because the thread was interrupted.
+   */
+  public boolean isInterrupted() {
+    return this.interrupted;
+  }
+
+}
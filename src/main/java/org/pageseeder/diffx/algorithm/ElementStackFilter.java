@@ -24,9 +24,7 @@ import org.pageseeder.diffx.token.AttributeToken;
 import org.pageseeder.diffx.token.EndElementToken;
 import org.pageseeder.diffx.token.StartElementToken;
 import org.pageseeder.diffx.token.XMLToken;
-
-import java.util.ArrayDeque;
-import java.util.Deque;
+import org.pageseeder.diffx.xml.ElementStack;
 
 /**
  * Maintains the state of open and closed elements during the processing the Diff-X
@@ -50,21 +48,20 @@ public final class ElementStackFilter extends DiffFilter<XMLToken> {
   /**
    * The stack of open elements.
    */
-  private final Deque<Operation<StartElementToken>> elements;
+  private ElementStack elements = ElementStack.EMPTY;
 
   /**
    * Constructs a new filter.
    */
   public ElementStackFilter(DiffHandler<XMLToken> target) {
     super(target);
-    this.elements = new ArrayDeque<>(16);
   }
 
   /**
    * @return the depth of the elements
    */
   public int depth() {
-    return this.elements.size();
+    return this.elements.depth();
   }
 
   /**
@@ -83,7 +80,18 @@ public final class ElementStackFilter extends DiffFilter<XMLToken> {
    * @return The current open element; or <code>null</code> if none.
    */
   public Operation<StartElementToken> current() {
-    return this.elements.peek();
+    return this.elements.toOperation();
+  }
+
+  /**
+   * Returns the stack of open elements.
+   *
+   * <p>The stack is immutable so it can be kept as a snapshot of the current state.
+   *
+   * @return The current stack of open elements.
+   */
+  public ElementStack stack() {
+    return this.elements;
   }
 
   /**
@@ -99,11 +107,7 @@ public final class ElementStackFilter extends DiffFilter<XMLToken> {
   @Override
   public void handle(@NotNull Operator operator, @NotNull XMLToken token) {
     this.target.handle(operator, token);
-    if (token instanceof StartElementToken) {
-      this.elements.push(new Operation<>(operator, (StartElementToken) token));
-    } else if (token instanceof EndElementToken) {
-      this.elements.pop();
-    }
+    this.elements = this.elements.update(operator, token);
   }
 
   /**
@@ -139,9 +143,7 @@ public final class ElementStackFilter extends DiffFilter<XMLToken> {
    * <code>false</code> otherwise.
    */
   public boolean matchCurrent(Operator operator, StartElementToken start) {
-    Operation<StartElementToken> current = this.current();
-    if (current == null) return false;
-    return operator == current.operator() && start.equals(current.token());
+    return this.elements.matchStart(operator, start);
   }
 
   /**
@@ -167,7 +169,7 @@ public final class ElementStackFilter extends DiffFilter<XMLToken> {
    * Removes all the elements from this list.
    */
   public void clear() {
-    this.elements.clear();
+    this.elements = ElementStack.EMPTY;
   }
 
 }
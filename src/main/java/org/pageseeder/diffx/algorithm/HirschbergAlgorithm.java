@@ -15,11 +15,17 @@
  */
 package org.pageseeder.diffx.algorithm;
 
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.action.Operations;
+import org.pageseeder.diffx.action.OperationsBuffer;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.api.Operator;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * An implementation of the Hirschberg algorithm to find the longest common subsequence (LCS).
@@ -33,6 +39,14 @@ import java.util.List;
  *
  * <p>The algorithm has been altered slightly to be able to compute the Shortest Edit Script (SES).
  *
+ * <p>The subproblems are kept on an explicit work stack rather than solved recursively, the first
+ * subproblem is always solved before the second one so that operations are reported in order.
+ *
+ * <p>In parallel mode, the two subproblems on either side of the cut are solved concurrently when they
+ * are large enough: the second subproblem is solved on the common fork-join pool and its operations
+ * are buffered until the first one is done. The handler is always called on the thread invoking the
+ * diff.
+ *
  * @author Christophe Lauret
  * @version 0.9.0
  * @link <a href="https://www.ics.uci.edu/~dan/pubs/p341-hirschberg.pdf">Algorithm for Computing Maximal Common Subsequences D.S. Hirschberg</a>
@@ -44,50 +58,125 @@ public final class HirschbergAlgorithm<T> implements DiffAlgorithm<T> {
    */
   private static final boolean DEBUG = false;
 
+  /**
+   * The default minimum number of comparisons for a problem to be split in parallel.
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 20;
+
+  private boolean parallel = false;
+
+  private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+  private @Nullable CancelFlag cancel = null;
+
+  /**
+   * Set whether subproblems can be solved in parallel on the common fork-join pool.
+   *
+   * @param parallel <code>true</code> to solve large subproblems in parallel
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  /**
+   * Set the minimum number of comparisons (m x n) for a problem to be split in parallel.
+   *
+   * @param threshold The minimum number of comparisons
+   */
+  public void setParallelThreshold(int threshold) {
+    this.parallelThreshold = threshold;
+  }
+
+  /**
+   * Set the flag used to cancel this algorithm.
+   *
+   * <p>The flag is checked for each row of the score matrix and for each subproblem, it also receives
+   * the progress.
+   *
+   * @param cancel The cancel flag (may be <code>null</code>)
+   */
+  public void setCancelFlag(@Nullable CancelFlag cancel) {
+    this.cancel = cancel;
+  }
+
+  /**
+   * @throws DiffCancelledException If the cancel flag was raised or the thread interrupted.
+   */
   @Override
   public void diff(List<? extends T> from, List<? extends T> to, DiffHandler<T> handler) {
     // It is more efficient to supply the sizes than retrieve from lists
-    algorithmC(from.size(), to.size(), from, to, handler);
+    long total = from.size() + to.size();
+    if (this.parallel) {
+      // The first subproblems are solved on this thread, only the second ones are forked
+      CancelFlag forked = CancelFlag.linkedTo(this.cancel);
+      try {
+        algorithmC(from.size(), to.size(), from, to, handler, this.parallelThreshold, new Progress(forked, total), 0);
+      } catch (RuntimeException | Error ex) {
+        // Stop the subproblems still running on the pool
+        forked.cancel();
+        throw ex;
+      }
+    } else {
+      algorithmC(from.size(), to.size(), from, to, handler, Long.MAX_VALUE, new Progress(this.cancel, total), 0);
+    }
   }
 
   /**
    * Algorithm B as described by Hirschberg
    *
+   * <p>Implementation note: the rows are taken from the workspace, only the row returned must be given back.
+   *
+   * @param cancel The flag checked for each row (may be <code>null</code>)
+   *
    * @return the last line of the Needleman-Wunsch score matrix
    */
-  private static <T> int[] algorithmB(int m, int n, List<? extends T> a, List<? extends T> b) {
-    int[][] k = new int[2][n + 1];
+  private static <T> int[] algorithmB(int m, int n, List<? extends T> a, List<? extends T> b, @Nullable CancelFlag cancel) {
+    Workspace workspace = Workspace.current();
+    int[] previous = workspace.take(n + 1);
+    int[] current = workspace.take(n + 1);
     for (int i = 1; i <= m; i++) {
-      if (n + 1 >= 0) System.arraycopy(k[1], 0, k[0], 0, n + 1);
+      CancelFlag.check(cancel);
+      int[] row = previous;
+      previous = current;
+      current = row;
       for (int j = 1; j <= n; j++) {
         if (a.get(i - 1).equals(b.get(j - 1))) {
-          k[1][j] = k[0][j - 1] + 1;
+          current[j] = previous[j - 1] + 1;
         } else {
-          k[1][j] = Math.max(k[1][j - 1], k[0][j]);
+          current[j] = Math.max(current[j - 1], previous[j]);
         }
       }
     }
-    return k[1];
+    workspace.give(previous);
+    return current;
   }
 
   /**
    * Algorithm B as described by Hirschberg (in reverse)
    *
    * <p>Implementation note: we traverse the list in reverse, it is more efficient than reversing the lists.
+   *
+   * @param cancel The flag checked for each row (may be <code>null</code>)
    */
-  private static <T> int[] algorithmBRev(int m, int n, List<? extends T> a, List<? extends T> b) {
-    int[][] k = new int[2][n + 1];
+  private static <T> int[] algorithmBRev(int m, int n, List<? extends T> a, List<? extends T> b, @Nullable CancelFlag cancel) {
+    Workspace workspace = Workspace.current();
+    int[] previous = workspace.take(n + 1);
+    int[] current = workspace.take(n + 1);
     for (int i = m - 1; i >= 0; i--) {
-      if (n + 1 >= 0) System.arraycopy(k[1], 0, k[0], 0, n + 1);
+      CancelFlag.check(cancel);
+      int[] row = previous;
+      previous = current;
+      current = row;
       for (int j = n - 1; j >= 0; j--) {
         if (a.get(i).equals(b.get(j))) {
-          k[1][n - j] = k[0][n - j - 1] + 1;
+          current[n - j] = previous[n - j - 1] + 1;
         } else {
-          k[1][n - j] = Math.max(k[1][n - j - 1], k[0][n - j]);
+          current[n - j] = Math.max(current[n - j - 1], previous[n - j]);
         }
       }
     }
-    return k[1];
+    workspace.give(previous);
+    return current;
   }
 
   /**
@@ -108,8 +197,35 @@ public final class HirschbergAlgorithm<T> implements DiffAlgorithm<T> {
 
   /**
    * Algorithm C as described by Hirschberg
+   *
+   * <p>Instead of recursing, each subproblem pushes the work left to do on a stack which is processed
+   * until it is empty.
+   *
+   * @param threshold The minimum number of comparisons to solve the subproblems in parallel
+   * @param progress  To check the cancel flag and report progress
+   * @param offset    The number of tokens in both sequences before this problem
+   */
+  private static <T> void algorithmC(int m, int n, List<? extends T> a, List<? extends T> b, DiffHandler<T> handler, long threshold,
+                                     Progress progress, long offset) {
+    Deque<Runnable> pending = new ArrayDeque<>();
+    pending.push(() -> algorithmCStep(m, n, a, b, handler, threshold, progress, offset, pending));
+    while (!pending.isEmpty()) {
+      pending.pop().run();
+    }
+  }
+
+  /**
+   * Solve a single step of algorithm C, the subproblems are pushed onto the pending work stack.
+   *
+   * @param threshold The minimum number of comparisons to solve the subproblems in parallel
+   * @param progress  To check the cancel flag and report progress
+   * @param offset    The number of tokens in both sequences before this problem
+   * @param pending   The work left to do
    */
-  private static <T> void algorithmC(int m, int n, List<? extends T> a, List<? extends T> b, DiffHandler<T> handler) {
+  private static <T> void algorithmCStep(int m, int n, List<? extends T> a, List<? extends T> b, DiffHandler<T> handler,
+                                         long threshold, Progress progress, long offset, Deque<Runnable> pending) {
+    // Subproblems are solved in order so everything before this one is done
+    CancelFlag.check(progress.cancel, offset, progress.total);
     if (DEBUG) System.out.print("[m=" + m + ",n=" + n + "," + a + "," + b + "] ->");
 
     if (n == 0) {
@@ -138,17 +254,56 @@ public final class HirschbergAlgorithm<T> implements DiffAlgorithm<T> {
       }
       if (!match) handler.handle(Operator.DEL, a0);
 
+    } else if ((long) m * n >= threshold) {
+      if (DEBUG) System.out.println(" Step2 (parallel)");
+      int h = (int) Math.floor(((double) m) / 2);
+
+      ForkJoinTask<int[]> reverse = ForkJoinTask.adapt(() -> algorithmBRev(m - h, n, a.subList(h, a.size()), b, progress.cancel)).fork();
+      int[] l1 = algorithmB(h, n, a.subList(0, h), b, progress.cancel);
+      int[] l2 = CancelFlag.await(reverse, progress.cancel);
+      int k = findK(l1, l2, n);
+      Workspace.current().give(l1);
+      Workspace.current().give(l2);
+
+      // Solve the second half in parallel, and report its operations after the first half
+      OperationsBuffer<T> buffer = new OperationsBuffer<>();
+      ForkJoinTask<?> second = ForkJoinTask.adapt(() -> algorithmC(m - h, n - k, a.subList(h, a.size()), b.subList(k, b.size()), buffer,
+          threshold, progress, offset + h + k)).fork();
+      pending.push(() -> {
+        CancelFlag.await(second, progress.cancel);
+        Operations.handle(buffer.getOperations(), handler);
+      });
+      pending.push(() -> algorithmCStep(h, k, a.subList(0, h), b.subList(0, k), handler, threshold, progress, offset, pending));
+
     } else {
       if (DEBUG) System.out.println(" Step2");
       int h = (int) Math.floor(((double) m) / 2);
 
-      int[] l1 = algorithmB(h, n, a.subList(0, h), b);
-      int[] l2 = algorithmBRev(m - h, n, a.subList(h, a.size()), b);
+      int[] l1 = algorithmB(h, n, a.subList(0, h), b, progress.cancel);
+      int[] l2 = algorithmBRev(m - h, n, a.subList(h, a.size()), b, progress.cancel);
       int k = findK(l1, l2, n);
+      Workspace.current().give(l1);
+      Workspace.current().give(l2);
+
+      // Last in, first out: the first half is solved first
+      pending.push(() -> algorithmCStep(m - h, n - k, a.subList(h, a.size()), b.subList(k, b.size()), handler, threshold, progress,
+          offset + h + k, pending));
+      pending.push(() -> algorithmCStep(h, k, a.subList(0, h), b.subList(0, k), handler, threshold, progress, offset, pending));
+    }
+  }
+
+  /**
+   * The cancel flag and the total number of tokens to estimate the progress.
+   */
+  private static final class Progress {
+
+    private final @Nullable CancelFlag cancel;
+
+    private final long total;
 
-      // Recursive call
-      algorithmC(h, k, a.subList(0, h), b.subList(0, k), handler);
-      algorithmC(m - h, n - k, a.subList(h, a.size()), b.subList(k, b.size()), handler);
+    Progress(@Nullable CancelFlag cancel, long total) {
+      this.cancel = cancel;
+      this.total = total;
     }
   }
 
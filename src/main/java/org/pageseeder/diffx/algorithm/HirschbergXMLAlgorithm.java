@@ -0,0 +1,553 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.token.AttributeToken;
+import org.pageseeder.diffx.token.EndElementToken;
+import org.pageseeder.diffx.token.StartElementToken;
+import org.pageseeder.diffx.token.XMLToken;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An XML-aware algorithm using the divide and conquer approach of Hirschberg to work in linear space.
+ *
+ * <p>The sequences are processed as forests of sibling nodes: the sequences are only ever split at
+ * positions where both prefixes are balanced, so that each half can be solved independently and the
+ * concatenated results remain well-formed. Among these positions, the split point is chosen using the
+ * last rows of the LCS score matrix computed forward and backward, as described by Hirschberg.
+ *
+ * <p>When a side cannot be split because it is a single element, the element is either matched with
+ * the element on the other side or unwrapped (its start and end are inserted or deleted) and the
+ * algorithm proceeds with its content.
+ *
+ * <p>The ranges left to compare are kept on an explicit work stack rather than solved recursively, so
+ * that deeply nested documents do not overflow the call stack; operations are still reported in order.
+ *
+ * <p>Subproblems small enough to fit under the matrix threshold are solved using the
+ * {@link MatrixXMLAlgorithm}, so the memory used by this algorithm is bounded by the threshold and
+ * is otherwise linear to the size of the sequences. Sequences which are not well-formed cannot be
+ * split, so they are only compared if they fit under the matrix threshold.
+ *
+ * <p>To speed up comparisons, tokens are mapped to integers so that equal tokens have the same value.
+ *
+ * <p>This algorithm is slower than the {@link MatrixXMLAlgorithm} and produces results of lesser
+ * quality, but it can be used on sequences that are too large for a matrix.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @see HirschbergAlgorithm
+ */
+public final class HirschbergXMLAlgorithm implements DiffAlgorithm<XMLToken> {
+
+  /**
+   * The default maximum size of the matrix used for subproblems.
+   */
+  public static final int DEFAULT_MATRIX_THRESHOLD = 1 << 16;
+
+  /**
+   * Set to <code>true</code> to show debug info.
+   */
+  private static final boolean DEBUG = false;
+
+  /**
+   * Maximum number of comparisons for which subproblems are solved using a matrix.
+   */
+  private int matrixThreshold = DEFAULT_MATRIX_THRESHOLD;
+
+  private @Nullable CancelFlag cancel = null;
+
+  /**
+   * Set the maximum number of comparisons for which subproblems are solved using the matrix-based algorithm.
+   *
+   * <p>Higher values improve the quality of the diff at the expense of memory.
+   *
+   * @param threshold Max number of token comparisons in a matrix (must be positive)
+   *
+   * @throws IllegalArgumentException If the threshold is less than 1
+   */
+  public void setMatrixThreshold(int threshold) {
+    if (threshold < 1) throw new IllegalArgumentException("Threshold must be positive");
+    this.matrixThreshold = threshold;
+  }
+
+  /**
+   * Set the flag used to cancel this algorithm.
+   *
+   * <p>The flag is checked for each row of the score matrix and for each subproblem, it also receives
+   * the progress.
+   *
+   * @param cancel The cancel flag (may be <code>null</code>)
+   */
+  public void setCancelFlag(@Nullable CancelFlag cancel) {
+    this.cancel = cancel;
+  }
+
+  /**
+   * @throws DataLengthException If the sequences are not well-formed and too large for the matrix threshold.
+   * @throws DiffCancelledException If the cancel flag was raised or the thread interrupted.
+   */
+  @Override
+  public void diff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler) {
+    // handle the case when one of the two sequences is empty
+    if (from.isEmpty() || to.isEmpty()) {
+      for (XMLToken token : to) handler.handle(Operator.INS, token);
+      for (XMLToken token : from) handler.handle(Operator.DEL, token);
+      return;
+    }
+
+    MatrixXMLAlgorithm matrix = new MatrixXMLAlgorithm();
+    matrix.setThreshold(this.matrixThreshold);
+
+    // We can only split sequences that are well-formed, the matrix must be small enough otherwise
+    if (!isBalanced(from) || !isBalanced(to)) {
+      if (DEBUG) System.err.println("Unbalanced sequences, using matrix");
+      matrix.setCancelFlag(this.cancel);
+      matrix.diff(from, to, handler);
+      return;
+    }
+
+    Instance instance = new Instance(from, to, new ElementStackFilter(handler), matrix, this.cancel);
+    instance.diff(0, from.size(), 0, to.size());
+  }
+
+  @Override
+  public String toString() {
+    return "HirschbergXMLAlgorithm{" +
+        "matrixThreshold=" + matrixThreshold +
+        '}';
+  }
+
+  /**
+   * Indicates whether all the elements opened in the sequence are closed in the same sequence.
+   */
+  private static boolean isBalanced(List<? extends XMLToken> tokens) {
+    int depth = 0;
+    for (XMLToken token : tokens) {
+      if (token instanceof StartElementToken) depth++;
+      else if (token instanceof EndElementToken && --depth < 0) return false;
+    }
+    return depth == 0;
+  }
+
+  /**
+   * Holds the state of the algorithm for a single diff.
+   */
+  private static final class Instance {
+
+    private final List<? extends XMLToken> a;
+
+    private final List<? extends XMLToken> b;
+
+    /**
+     * The tokens in A mapped to integers.
+     */
+    private final int[] x;
+
+    /**
+     * The tokens in B mapped to integers.
+     */
+    private final int[] y;
+
+    private final ElementStackFilter filter;
+
+    private final MatrixXMLAlgorithm matrix;
+
+    private final long threshold;
+
+    private final @Nullable CancelFlag cancel;
+
+    /**
+     * The work left to do, last in first out.
+     */
+    private final Deque<Runnable> pending = new ArrayDeque<>();
+
+    Instance(List<? extends XMLToken> a, List<? extends XMLToken> b, ElementStackFilter filter, MatrixXMLAlgorithm matrix,
+             @Nullable CancelFlag cancel) {
+      this.a = a;
+      this.b = b;
+      Map<XMLToken, Integer> ids = new HashMap<>();
+      this.x = toIntegers(a, ids);
+      this.y = toIntegers(b, ids);
+      this.filter = filter;
+      this.matrix = matrix;
+      this.threshold = matrix.getThreshold();
+      this.cancel = cancel;
+    }
+
+    /**
+     * Compute the diff between the balanced ranges <code>A[a0, a1)</code> and <code>B[b0, b1)</code>.
+     */
+    void diff(int a0, int a1, int b0, int b1) {
+      push(a0, a1, b0, b1);
+      while (!this.pending.isEmpty()) {
+        this.pending.pop().run();
+      }
+    }
+
+    /**
+     * Schedule the diff between the balanced ranges <code>A[a0, a1)</code> and <code>B[b0, b1)</code>.
+     *
+     * <p>Since the work stack is last in first out, ranges must be pushed in reverse order.
+     */
+    private void push(int a0, int a1, int b0, int b1) {
+      this.pending.push(() -> diffStep(a0, a1, b0, b1));
+    }
+
+    /**
+     * Compare the ranges directly, or split them and push the subproblems onto the work stack.
+     */
+    private void diffStep(int a0, int a1, int b0, int b1) {
+      // Ranges are compared in order so everything before them is done
+      CancelFlag.check(this.cancel, a0 + b0, this.a.size() + this.b.size());
+      if (DEBUG) System.err.println("A[" + a0 + "," + a1 + ") B[" + b0 + "," + b1 + ")");
+
+      // Common prefix and suffix (only complete nodes)
+      int prefix = commonPrefix(a0, a1, b0, b1);
+      handle(Operator.MATCH, this.a, a0, a0 + prefix);
+      a0 += prefix;
+      b0 += prefix;
+      int suffix = commonSuffix(a0, a1, b0, b1);
+      a1 -= suffix;
+      b1 -= suffix;
+      if (suffix > 0) {
+        final int end = a1;
+        this.pending.push(() -> handle(Operator.MATCH, this.a, end, end + suffix));
+      }
+
+      if (a0 == a1) {
+        handle(Operator.INS, this.b, b0, b1);
+      } else if (b0 == b1) {
+        handle(Operator.DEL, this.a, a0, a1);
+      } else if ((long) (a1 - a0) * (b1 - b0) <= this.threshold) {
+        this.matrix.processDiff(this.a.subList(a0, a1), this.b.subList(b0, b1), this.filter);
+      } else {
+        int[] unitsA = boundaries(this.a, a0, a1);
+        int[] unitsB = boundaries(this.b, b0, b1);
+        boolean singleA = unitsA.length == 2;
+        boolean singleB = unitsB.length == 2;
+        if (singleA && singleB) {
+          diffNodes(a0, a1, b0, b1);
+        } else if (singleA && isElement(this.a, a0) && !hasNodeStartingWith(this.b, unitsB, this.a.get(a0))) {
+          unwrap(Operator.DEL, this.a, a0, a1, b0, b1);
+        } else if (singleB && isElement(this.b, b0) && !hasNodeStartingWith(this.a, unitsA, this.b.get(b0))) {
+          unwrap(Operator.INS, this.b, b0, b1, a0, a1);
+        } else if (!singleA) {
+          int h = middle(unitsA);
+          int[] l1 = forward(this.x, a0, h, this.y, b0, b1, this.cancel);
+          int[] l2 = backward(this.x, h, a1, this.y, b0, b1, this.cancel);
+          int k = best(unitsB, l1, l2, b0, b1);
+          release(l1, l2);
+          push(h, a1, k, b1);
+          push(a0, h, b0, k);
+        } else {
+          int k = middle(unitsB);
+          int[] l1 = forward(this.y, b0, k, this.x, a0, a1, this.cancel);
+          int[] l2 = backward(this.y, k, b1, this.x, a0, a1, this.cancel);
+          int h = best(unitsA, l1, l2, a0, a1);
+          release(l1, l2);
+          push(h, a1, k, b1);
+          push(a0, h, b0, k);
+        }
+      }
+    }
+
+    /**
+     * Compute the diff between two ranges that each contain a single node, at least one of which is an element.
+     */
+    private void diffNodes(int a0, int a1, int b0, int b1) {
+      boolean elementA = isElement(this.a, a0);
+      boolean elementB = isElement(this.b, b0);
+      if (elementA && elementB) {
+        XMLToken startA = this.a.get(a0);
+        XMLToken startB = this.b.get(b0);
+        if (startA.equals(startB)) {
+          this.filter.handle(Operator.MATCH, startA);
+          this.pending.push(() -> this.filter.handle(Operator.MATCH, this.a.get(a1 - 1)));
+          diffContent(a0, a1, b0, b1);
+        } else {
+          this.filter.handle(Operator.DEL, startA);
+          this.filter.handle(Operator.INS, startB);
+          this.pending.push(() -> {
+            this.filter.handle(Operator.INS, this.b.get(b1 - 1));
+            this.filter.handle(Operator.DEL, this.a.get(a1 - 1));
+          });
+          diffContent(a0, a1, b0, b1);
+        }
+      } else if (elementA && !(this.b.get(b0) instanceof AttributeToken)) {
+        unwrap(Operator.DEL, this.a, a0, a1, b0, b1);
+      } else if (elementB && !(this.a.get(a0) instanceof AttributeToken)) {
+        unwrap(Operator.INS, this.b, b0, b1, a0, a1);
+      } else if (elementA) {
+        handle(Operator.INS, this.b, b0, b1);
+        handle(Operator.DEL, this.a, a0, a1);
+      } else if (elementB) {
+        handle(Operator.DEL, this.a, a0, a1);
+        handle(Operator.INS, this.b, b0, b1);
+      } else {
+        this.matrix.processDiff(this.a.subList(a0, a1), this.b.subList(b0, b1), this.filter);
+      }
+    }
+
+    /**
+     * Schedule the diff of the content (attributes, then child nodes) of two elements.
+     */
+    private void diffContent(int a0, int a1, int b0, int b1) {
+      int attA = attributesEnd(this.a, a0 + 1, a1 - 1);
+      int attB = attributesEnd(this.b, b0 + 1, b1 - 1);
+      push(attA, a1 - 1, attB, b1 - 1);
+      push(a0 + 1, attA, b0 + 1, attB);
+    }
+
+    /**
+     * Insert or delete the element wrapping the content and compare its content with the other range.
+     *
+     * @param operator The operator to use for the element (INS or DEL)
+     * @param tokens   The list containing the element
+     * @param e0       The start of the element (inclusive)
+     * @param e1       The end of the element (exclusive)
+     * @param o0       The start of the other range (inclusive)
+     * @param o1       The end of the other range (exclusive)
+     */
+    private void unwrap(Operator operator, List<? extends XMLToken> tokens, int e0, int e1, int o0, int o1) {
+      int att = attributesEnd(tokens, e0 + 1, e1 - 1);
+      handle(operator, tokens, e0, att);
+      this.pending.push(() -> this.filter.handle(operator, tokens.get(e1 - 1)));
+      if (operator == Operator.DEL) {
+        push(att, e1 - 1, o0, o1);
+      } else {
+        push(o0, o1, att, e1 - 1);
+      }
+    }
+
+    /**
+     * Report the same operation for a range of tokens.
+     */
+    private void handle(Operator operator, List<? extends XMLToken> tokens, int from, int to) {
+      for (int i = from; i < to; i++) {
+        this.filter.handle(operator, tokens.get(i));
+      }
+    }
+
+    /**
+     * @return the length of the longest common prefix made of complete nodes.
+     */
+    private int commonPrefix(int a0, int a1, int b0, int b1) {
+      int prefix = 0;
+      int depth = 0;
+      for (int i = 0; a0 + i < a1 && b0 + i < b1; i++) {
+        if (this.x[a0 + i] != this.y[b0 + i]) break;
+        XMLToken token = this.a.get(a0 + i);
+        if (token instanceof StartElementToken) depth++;
+        else if (token instanceof EndElementToken) depth--;
+        if (depth == 0) prefix = i + 1;
+      }
+      return prefix;
+    }
+
+    /**
+     * @return the length of the longest common suffix made of complete nodes.
+     */
+    private int commonSuffix(int a0, int a1, int b0, int b1) {
+      int suffix = 0;
+      int depth = 0;
+      for (int i = 1; a1 - i >= a0 && b1 - i >= b0; i++) {
+        if (this.x[a1 - i] != this.y[b1 - i]) break;
+        XMLToken token = this.a.get(a1 - i);
+        if (token instanceof EndElementToken) depth++;
+        else if (token instanceof StartElementToken) depth--;
+        if (depth == 0) suffix = i;
+      }
+      return suffix;
+    }
+
+  }
+
+  /**
+   * Returns the positions of the top-level nodes in the specified balanced range.
+   *
+   * <p>The returned array includes the start and the end of the range, so a range containing
+   * <i>n</i> nodes returns <i>n+1</i> positions.
+   */
+  private static int[] boundaries(List<? extends XMLToken> tokens, int from, int to) {
+    int count = 0;
+    int depth = 0;
+    for (int i = from; i < to; i++) {
+      XMLToken token = tokens.get(i);
+      if (token instanceof StartElementToken) depth++;
+      else if (token instanceof EndElementToken) depth--;
+      if (depth == 0) count++;
+    }
+    int[] positions = new int[count + 1];
+    positions[0] = from;
+    int n = 1;
+    for (int i = from; i < to; i++) {
+      XMLToken token = tokens.get(i);
+      if (token instanceof StartElementToken) depth++;
+      else if (token instanceof EndElementToken) depth--;
+      if (depth == 0) positions[n++] = i + 1;
+    }
+    return positions;
+  }
+
+  /**
+   * @return the position of the internal boundary closest to the middle of the range.
+   */
+  private static int middle(int[] boundaries) {
+    int first = boundaries[0];
+    int last = boundaries[boundaries.length - 1];
+    int target = first + (last - first) / 2;
+    int position = boundaries[1];
+    for (int i = 2; i < boundaries.length - 1; i++) {
+      if (Math.abs(boundaries[i] - target) < Math.abs(position - target)) position = boundaries[i];
+    }
+    return position;
+  }
+
+  /**
+   * Find the boundary with the maximum sum of L1 and L2, as described by Hirschberg.
+   */
+  private static int best(int[] boundaries, int[] l1, int[] l2, int from, int to) {
+    int max = -1;
+    int k = from;
+    for (int position : boundaries) {
+      int s = l1[position - from] + l2[to - position];
+      if (max < s) {
+        max = s;
+        k = position;
+      }
+    }
+    return k;
+  }
+
+  /**
+   * Gives the score rows back to the workspace.
+   */
+  private static void release(int[] l1, int[] l2) {
+    Workspace workspace = Workspace.current();
+    workspace.give(l1);
+    workspace.give(l2);
+  }
+
+  /**
+   * Algorithm B as described by Hirschberg.
+   *
+   * @param cancel The flag checked for each row (may be <code>null</code>)
+   *
+   * @return the last line of the LCS score matrix of <code>X[x0, x1)</code> and <code>Y[y0, y1)</code>
+   */
+  private static int[] forward(int[] x, int x0, int x1, int[] y, int y0, int y1, @Nullable CancelFlag cancel) {
+    int n = y1 - y0;
+    Workspace workspace = Workspace.current();
+    int[] previous = workspace.take(n + 1);
+    int[] current = workspace.take(n + 1);
+    for (int i = x0; i < x1; i++) {
+      CancelFlag.check(cancel);
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+      int token = x[i];
+      for (int j = 1; j <= n; j++) {
+        if (token == y[y0 + j - 1]) {
+          current[j] = previous[j - 1] + 1;
+        } else {
+          current[j] = Math.max(current[j - 1], previous[j]);
+        }
+      }
+    }
+    workspace.give(previous);
+    return current;
+  }
+
+  /**
+   * Algorithm B as described by Hirschberg, in reverse.
+   *
+   * @param cancel The flag checked for each row (may be <code>null</code>)
+   *
+   * @return the last line of the LCS score matrix of the reversed <code>X[x0, x1)</code> and <code>Y[y0, y1)</code>
+   */
+  private static int[] backward(int[] x, int x0, int x1, int[] y, int y0, int y1, @Nullable CancelFlag cancel) {
+    int n = y1 - y0;
+    Workspace workspace = Workspace.current();
+    int[] previous = workspace.take(n + 1);
+    int[] current = workspace.take(n + 1);
+    for (int i = x1 - 1; i >= x0; i--) {
+      CancelFlag.check(cancel);
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+      int token = x[i];
+      for (int j = 1; j <= n; j++) {
+        if (token == y[y1 - j]) {
+          current[j] = previous[j - 1] + 1;
+        } else {
+          current[j] = Math.max(current[j - 1], previous[j]);
+        }
+      }
+    }
+    workspace.give(previous);
+    return current;
+  }
+
+  /**
+   * Maps each token to an integer so that equal tokens are mapped to the same value.
+   */
+  private static int[] toIntegers(List<? extends XMLToken> tokens, Map<XMLToken, Integer> ids) {
+    int[] values = new int[tokens.size()];
+    int i = 0;
+    for (XMLToken token : tokens) {
+      Integer id = ids.get(token);
+      if (id == null) {
+        id = ids.size();
+        ids.put(token, id);
+      }
+      values[i++] = id;
+    }
+    return values;
+  }
+
+  private static boolean isElement(List<? extends XMLToken> tokens, int index) {
+    return tokens.get(index) instanceof StartElementToken;
+  }
+
+  /**
+   * @return the position of the first token after the attributes starting at <code>from</code>.
+   */
+  private static int attributesEnd(List<? extends XMLToken> tokens, int from, int to) {
+    int i = from;
+    while (i < to && tokens.get(i) instanceof AttributeToken) i++;
+    return i;
+  }
+
+  /**
+   * Indicates whether any of the top-level nodes in the range starts with the specified token.
+   */
+  private static boolean hasNodeStartingWith(List<? extends XMLToken> tokens, int[] boundaries, XMLToken start) {
+    for (int i = 0; i < boundaries.length - 1; i++) {
+      if (start.equals(tokens.get(boundaries[i]))) return true;
+    }
+    return false;
+  }
+
+}
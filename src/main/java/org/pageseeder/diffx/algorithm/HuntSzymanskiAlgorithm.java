@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.api.Operator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An implementation of the Hunt-Szymanski algorithm which only processes the match points.
+ *
+ * <p>The positions of each distinct token in the smaller sequence are indexed, then the tokens of the
+ * larger sequence are processed in order to maintain the threshold values: the smallest position in
+ * the smaller sequence at which a common subsequence of each length can end.
+ *
+ * <p>If <i>r</i> is the number of match points, that is the number of pairs of equal tokens, this
+ * algorithm takes O((r + n) log n) time and O(r + n) space. It is efficient when the sequences have
+ * few tokens in common, for example when a short sequence is compared with a long one, but degrades
+ * to O(nm log n) when most tokens match each other.
+ *
+ * <p>Tokens must implement <code>hashCode</code> consistently with <code>equals</code>.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @see <a href="https://doi.org/10.1145/359581.359603">A fast algorithm for computing longest common subsequences</a>
+ */
+public final class HuntSzymanskiAlgorithm<T> implements DiffAlgorithm<T> {
+
+  /**
+   * Value used for nodes without predecessors.
+   */
+  private static final int NONE = -1;
+
+  @Override
+  public void diff(List<? extends T> from, List<? extends T> to, DiffHandler<T> handler) {
+    // The smaller sequence is indexed and the larger one is processed in order
+    boolean swap = to.size() > from.size();
+    List<? extends T> rows = swap ? to : from;
+    List<? extends T> columns = swap ? from : to;
+
+    Instance<T> instance = new Instance<>(rows, columns);
+    int[] matches = instance.compute();
+
+    int i = 0;
+    int j = 0;
+    for (int n = 0; n < matches.length; n += 2) {
+      int x = swap ? matches[n + 1] : matches[n];
+      int y = swap ? matches[n] : matches[n + 1];
+      for (; j < y; j++) handler.handle(Operator.INS, to.get(j));
+      for (; i < x; i++) handler.handle(Operator.DEL, from.get(i));
+      handler.handle(Operator.MATCH, from.get(i));
+      i++;
+      j++;
+    }
+    for (; j < to.size(); j++) handler.handle(Operator.INS, to.get(j));
+    for (; i < from.size(); i++) handler.handle(Operator.DEL, from.get(i));
+  }
+
+  /**
+   * Count the number of match points between the two sequences up to the specified limit.
+   *
+   * <p>This is the number of pairs of equal tokens and determines the cost of this algorithm.
+   *
+   * @param a     The first sequence
+   * @param b     The second sequence
+   * @param limit The maximum number of match points to count
+   *
+   * @return the number of match points or the limit if the number of match points is greater.
+   */
+  public static long countMatches(List<?> a, List<?> b, long limit) {
+    Map<Object, Integer> counts = new HashMap<>();
+    for (Object token : b) counts.merge(token, 1, Integer::sum);
+    long matches = 0;
+    for (Object token : a) {
+      Integer count = counts.get(token);
+      if (count != null) {
+        matches += count;
+        if (matches >= limit) return limit;
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * An instance of this algorithm for the sequences being compared.
+   */
+  private static final class Instance<T> {
+
+    private final List<? extends T> rows;
+    private final List<? extends T> columns;
+
+    /**
+     * Nodes of the common subsequences: row, column and index of the previous node.
+     */
+    private int[] nodes = new int[48];
+
+    private int nodeCount = 0;
+
+    Instance(List<? extends T> rows, List<? extends T> columns) {
+      this.rows = rows;
+      this.columns = columns;
+    }
+
+    /**
+     * Compute the longest common subsequence.
+     *
+     * @return the rows and columns of the match points, as consecutive pairs in increasing order.
+     */
+    int[] compute() {
+      final int size = this.columns.size();
+
+      // Assign an ID to each distinct token in the columns
+      Map<T, Integer> ids = new HashMap<>();
+      int[] columnIds = new int[size];
+      for (int j = 0; j < size; j++) {
+        Integer id = ids.get(this.columns.get(j));
+        if (id == null) {
+          id = ids.size();
+          ids.put(this.columns.get(j), id);
+        }
+        columnIds[j] = id;
+      }
+
+      // Index the positions of each token grouped by ID in increasing order
+      int[] starts = new int[ids.size() + 1];
+      for (int id : columnIds) starts[id + 1]++;
+      for (int id = 0; id < ids.size(); id++) starts[id + 1] += starts[id];
+      int[] positions = new int[size];
+      int[] next = Arrays.copyOf(starts, ids.size());
+      for (int j = 0; j < size; j++) positions[next[columnIds[j]]++] = j;
+
+      // Thresholds and the last node of the corresponding common subsequences
+      int[] thresholds = new int[size];
+      int[] links = new int[size];
+      int length = 0;
+
+      for (int i = 0; i < this.rows.size(); i++) {
+        Integer id = ids.get(this.rows.get(i));
+        if (id == null) continue;
+        // Positions in decreasing order so that updates in this row do not affect each other
+        for (int p = starts[id + 1] - 1; p >= starts[id]; p--) {
+          int j = positions[p];
+          int k = Arrays.binarySearch(thresholds, 0, length, j);
+          if (k >= 0) continue;
+          k = -k - 1;
+          thresholds[k] = j;
+          links[k] = newNode(i, j, k > 0 ? links[k - 1] : NONE);
+          if (k == length) length++;
+        }
+      }
+
+      // Follow the links back from the end of the longest common subsequence
+      int[] matches = new int[length * 2];
+      int node = length > 0 ? links[length - 1] : NONE;
+      for (int n = length - 1; n >= 0; n--) {
+        matches[n * 2] = this.nodes[node * 3];
+        matches[n * 2 + 1] = this.nodes[node * 3 + 1];
+        node = this.nodes[node * 3 + 2];
+      }
+      return matches;
+    }
+
+    private int newNode(int row, int column, int previous) {
+      if (this.nodeCount * 3 == this.nodes.length) {
+        this.nodes = Arrays.copyOf(this.nodes, this.nodes.length * 2);
+      }
+      int index = this.nodeCount++;
+      this.nodes[index * 3] = row;
+      this.nodes[index * 3 + 1] = column;
+      this.nodes[index * 3 + 2] = previous;
+      return index;
+    }
+  }
+
+}
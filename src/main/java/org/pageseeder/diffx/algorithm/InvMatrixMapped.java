@@ -0,0 +1,41 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+/**
+ * An inverse matrix implementation backed by a memory-mapped temporary file.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class InvMatrixMapped extends MatrixMappedBase {
+
+  @Override
+  public void incrementPath(int i, int j) {
+    set(i, j, get(i + 1, j + 1) + 1);
+  }
+
+  @Override
+  public void incrementByMaxPath(int i, int j) {
+    set(i, j, Math.max(get(i + 1, j), get(i, j + 1)));
+  }
+
+  @Override
+  public int getLCSLength() {
+    return this.get(0, 0);
+  }
+}
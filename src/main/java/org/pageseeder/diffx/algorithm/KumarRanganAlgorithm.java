@@ -15,12 +15,18 @@
  */
 package org.pageseeder.diffx.algorithm;
 
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.action.Operations;
+import org.pageseeder.diffx.action.OperationsBuffer;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.api.Operator;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * An implementation of the S. Kiran Kumar and C. Pandu Rangan algorithm to find the longest
@@ -31,6 +37,14 @@ import java.util.Objects;
  *
  * <p>The algorithm has been adjusted to generate the shortest edit script (SES)</p>
  *
+ * <p>The subproblems are kept on an explicit work stack rather than solved recursively, the first
+ * subproblem is always solved before the second one so that operations are reported in order.</p>
+ *
+ * <p>In parallel mode, the two subproblems on either side of the perfect cut are solved concurrently
+ * when they are large enough: the second subproblem is solved on the common fork-join pool and its
+ * operations are buffered until the first one is done. The handler is always called on the thread
+ * invoking the diff.</p>
+ *
  * @author Christophe Lauret
  * @version 0.9.0
  * @implNote this algorithm effectively detects the correct changes in the sequences, but cannot be used on
@@ -43,10 +57,67 @@ public final class KumarRanganAlgorithm<T> implements DiffAlgorithm<T> {
    */
   private static final boolean DEBUG = false;
 
+  /**
+   * The default minimum number of comparisons for a problem to be split in parallel.
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 20;
+
+  private boolean parallel = false;
+
+  private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+  private @Nullable CancelFlag cancel = null;
+
+  /**
+   * Set whether subproblems can be solved in parallel on the common fork-join pool.
+   *
+   * @param parallel <code>true</code> to solve large subproblems in parallel
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  /**
+   * Set the minimum number of comparisons (m x n) for a problem to be split in parallel.
+   *
+   * @param threshold The minimum number of comparisons
+   */
+  public void setParallelThreshold(int threshold) {
+    this.parallelThreshold = threshold;
+  }
+
+  /**
+   * Set the flag used to cancel this algorithm.
+   *
+   * <p>The flag is checked while computing the length of the LCS and for each subproblem, it also
+   * receives the progress.
+   *
+   * @param cancel The cancel flag (may be <code>null</code>)
+   */
+  public void setCancelFlag(@Nullable CancelFlag cancel) {
+    this.cancel = cancel;
+  }
+
+  /**
+   * @throws DiffCancelledException If the cancel flag was raised or the thread interrupted.
+   */
   @Override
   public void diff(List<? extends T> from, List<? extends T> to, DiffHandler<T> handler) {
-    Instance<T> instance = new Instance<>(from, to);
-    instance.process(handler);
+    // The first subproblems are solved on this thread, only the second ones are forked
+    if (this.parallel) {
+      CancelFlag forked = CancelFlag.linkedTo(this.cancel);
+      Instance<T> instance = new Instance<>(from, to, this.parallelThreshold, forked);
+      try {
+        instance.process(handler);
+      } catch (RuntimeException | Error ex) {
+        // Stop the subproblems still running on the pool
+        forked.cancel();
+        throw ex;
+      }
+    } else {
+      Instance<T> instance = new Instance<>(from, to, Long.MAX_VALUE, this.cancel);
+      instance.process(handler);
+    }
   }
 
   /**
@@ -84,14 +155,28 @@ public final class KumarRanganAlgorithm<T> implements DiffAlgorithm<T> {
     private final List<? extends T> A;
     private final List<? extends T> B;
 
+    /**
+     * The minimum number of comparisons to solve the subproblems in parallel.
+     */
+    private final long threshold;
+
+    private final @Nullable CancelFlag cancel;
+
     /**
      * Events are reported here.
      */
     private DiffHandler<T> handler;
 
-    Instance(List<? extends T> from, List<? extends T> to) {
+    /**
+     * The subproblems left to solve, last in first out.
+     */
+    private final Deque<Runnable> pending = new ArrayDeque<>();
+
+    Instance(List<? extends T> from, List<? extends T> to, long threshold, @Nullable CancelFlag cancel) {
       this.A = Objects.requireNonNull(from);
       this.B = Objects.requireNonNull(to);
+      this.threshold = threshold;
+      this.cancel = cancel;
     }
 
     /**
@@ -107,6 +192,7 @@ public final class KumarRanganAlgorithm<T> implements DiffAlgorithm<T> {
 
       // Execute the LCS algorithm for the complete sequences
       computeLCS(0, m - 1, 0, n - 1, m, n, p);
+      release();
     }
 
     // helpers ------------------------------------------------------------------------------------
@@ -117,14 +203,23 @@ public final class KumarRanganAlgorithm<T> implements DiffAlgorithm<T> {
      * @param n The length of the second sequence
      */
     private void init(int n) {
-      this.R1 = new int[n + 1];
-      this.R2 = new int[n + 1];
-      this.LL = new int[n + 1];
-      this.LL1 = new int[n + 1];
-      this.LL2 = new int[n + 1];
+      Workspace workspace = Workspace.current();
+      this.R1 = workspace.take(n + 1);
+      this.R2 = workspace.take(n + 1);
       this.J = 0;
     }
 
+    /**
+     * Gives the state arrays back to the workspace.
+     */
+    private void release() {
+      Workspace workspace = Workspace.current();
+      workspace.give(this.R1);
+      workspace.give(this.R2);
+      this.R1 = null;
+      this.R2 = null;
+    }
+
     /**
      * An implementation of the LCS algorithm as defined by Kumar and Rangan.
      *
@@ -151,6 +246,9 @@ public final class KumarRanganAlgorithm<T> implements DiffAlgorithm<T> {
      *        end
      * </pre>
      *
+     * <p>Rather than recursing, the subproblems are pushed onto a work stack which is processed until
+     * it is empty; C1 is always computed before C2.</p>
+     *
      * @param startA The start index of the first sequence.
      * @param endA   The last index of the first sequence.
      * @param startB The start index of the second sequence.
@@ -161,11 +259,23 @@ public final class KumarRanganAlgorithm<T> implements DiffAlgorithm<T> {
      *               Similarly, between indexes b_start and b_end
      */
     private void computeLCS(int startA, int endA, int startB, int endB, int m, int n, int p) {
+      this.pending.push(() -> computeLCSStep(startA, endA, startB, endB, m, n, p));
+      while (!this.pending.isEmpty()) {
+        this.pending.pop().run();
+      }
+    }
+
+    /**
+     * Solve the base case or split the problem into two subproblems pushed onto the work stack.
+     */
+    private void computeLCSStep(int startA, int endA, int startB, int endB, int m, int n, int p) {
+      // Subproblems are solved in order so everything before the start is done
+      CancelFlag.check(this.cancel, startA + startB, this.A.size() + this.B.size());
       if (m - p < 2) {
         // (i) Step 1, or the base case (waste is less than 2 characters)
         computeLCSBaseCase(startA, endA, startB, endB, m, n, p);
       } else {
-        // (ii) Step 2.1, or finding the perfect cut (waste is more than 1 character, process recursively)
+        // (ii) Step 2.1, or finding the perfect cut (waste is more than 1 character, split into subproblems)
         computeLCSMoreWaste(startA, endA, startB, endB, m, n, p);
       }
     }
@@ -288,17 +398,17 @@ public final class KumarRanganAlgorithm<T> implements DiffAlgorithm<T> {
      * @param x      The length of characters not included in the LCS between indexes startA and endA.
      *               Similarly, between indexes startB and endB.
      *
-     * @return Array of 1-indexes of B in LCS
+     * @return Array of 1-indexes of B in LCS (taken from the workspace)
      */
     private int[] calMid(int startA, int endA, int startB, int endB, int m, int n, int sign, int x) {
-      this.LL = new int[n + 1];
+      int[] ll = Workspace.current().take(n + 1);
       this.R = 0;
       for (this.S = m; this.S >= m - x; this.S--) {
         fillOne(startA, endA, startB, endB, m, n, sign);
         copyUpTo(this.R2, this.R1, this.R);
       }
-      copyUpTo(this.R1, this.LL, this.R);
-      return this.LL;
+      copyUpTo(this.R1, ll, this.R);
+      return ll;
     }
 
 
@@ -390,13 +500,15 @@ public final class KumarRanganAlgorithm<T> implements DiffAlgorithm<T> {
 
       // finish writing the missing tokens from the B subsequence
       insertUpTo(this.LL[0] - 1 + startB);
+      Workspace.current().give(this.LL);
+      this.LL = null;
     }
 
     /**
      * Computes the longest common subsequence for the specified boundaries when the waste
      * is more than 1 character.
      *
-     * <p>This method is recursive and will process each subsequence with the LCS algorithm.
+     * <p>This method pushes each subsequence onto the work stack to be processed with the LCS algorithm.
      *
      * <p>This is an implementation of Step 2.1 (finding the perfect cut of the LCS algorithm by Kumar-Rangan</p>
      *
@@ -450,10 +562,44 @@ public final class KumarRanganAlgorithm<T> implements DiffAlgorithm<T> {
 
       u = k + waste1;
       v = this.LL1[k];
+      Workspace workspace = Workspace.current();
+      workspace.give(this.LL1);
+      workspace.give(this.LL2);
+      this.LL1 = null;
+      this.LL2 = null;
+
+      // push the two subsequences onto the work stack, the first one is processed first
+      if ((long) m * n >= this.threshold) {
+        computeLCSInParallel(startA, endA, startB, endB, m, u, v, waste1, waste2);
+      } else {
+        this.pending.push(() -> computeLCSStep(startA + u, endA, startB + v, endB, endA - startA + 1 - u, endB - startB + 1 - v, m - u - waste2));
+        this.pending.push(() -> computeLCSStep(startA, startA + u - 1, startB, startB + v - 1, u, v, u - waste1));
+      }
+    }
 
-      // recursively call the LCS method to process the two subsequences
-      computeLCS(startA, startA + u - 1, startB, startB + v - 1, u - 1 + 1, v - 1 + 1, u - waste1);
-      computeLCS(startA + u, endA, startB + v, endB, endA - startA + 1 - u, endB - startB + 1 - v, m - u - waste2);
+    /**
+     * Solve the two subsequences on either side of the perfect cut in parallel.
+     *
+     * <p>The second subsequence is processed by a separate instance which buffers its operations
+     * until the first subsequence is processed.
+     */
+    private void computeLCSInParallel(int startA, int endA, int startB, int endB, int m, int u, int v, int waste1, int waste2) {
+      final int n2 = endB - startB + 1 - v;
+      Instance<T> second = new Instance<>(this.A, this.B, this.threshold, this.cancel);
+      second.init(n2);
+      second.J = startB + v;
+      OperationsBuffer<T> buffer = new OperationsBuffer<>();
+      second.handler = buffer;
+      ForkJoinTask<?> task = ForkJoinTask.adapt(() -> {
+        second.computeLCS(startA + u, endA, startB + v, endB, endA - startA + 1 - u, n2, m - u - waste2);
+        second.release();
+      }).fork();
+      this.pending.push(() -> {
+        CancelFlag.await(task, this.cancel);
+        Operations.handle(buffer.getOperations(), this.handler);
+        this.J = second.J;
+      });
+      this.pending.push(() -> computeLCSStep(startA, startA + u - 1, startB, startB + v - 1, u, v, u - waste1));
     }
 
 
@@ -485,6 +631,7 @@ public final class KumarRanganAlgorithm<T> implements DiffAlgorithm<T> {
       this.S = m + 1;
       // iterate for every difference with the first sequence
       while (this.S > this.R) {
+        CancelFlag.check(this.cancel);
         this.S--;
         // fill up R2 up to the first difference using the entire sequences
         fillOne(0, m - 1, 0, n - 1, m, n, 1);
@@ -34,6 +34,6 @@ public final class MatrixInt extends MatrixIntBase {
   }
 
   public int getLCSLength() {
-    return this.get(this.matrix.length - 1, this.matrix[0].length - 1);
+    return this.get(this.width - 1, this.height - 1);
   }
 }
@@ -28,9 +28,21 @@ public abstract class MatrixIntBase implements Matrix {
    */
   protected int[][] matrix;
 
+  /**
+   * The number of rows used in the matrix (the underlying matrix may be larger).
+   */
+  protected int width;
+
+  /**
+   * The number of columns used in the matrix (the underlying matrix may be larger).
+   */
+  protected int height;
+
   @Override
   public void setup(int width, int height) {
-    this.matrix = new int[width][height];
+    this.matrix = Workspace.current().takeInts(width, height);
+    this.width = width;
+    this.height = height;
   }
 
   @Override
@@ -47,23 +59,24 @@ public abstract class MatrixIntBase implements Matrix {
   }
 
   /**
-   * Gets rid of the underlying matrix so that garbage collector can do its work.
+   * Gives the underlying matrix back to the workspace of the current thread so that it can be reused.
    *
    * @see Matrix#release()
    */
   @Override
   public void release() {
+    Workspace.current().give(this.matrix);
     this.matrix = null;
   }
 
   @Override
   public int lengthX() {
-    return this.matrix.length;
+    return this.width;
   }
 
   @Override
   public int lengthY() {
-    return this.matrix[0].length;
+    return this.height;
   }
 
   @Override
@@ -84,9 +97,9 @@ public abstract class MatrixIntBase implements Matrix {
   @Override
   public String toString() {
     StringBuilder out = new StringBuilder();
-    for (int j = 0; j < this.matrix[0].length; j++) {
-      for (int[] element : this.matrix) {
-        out.append(element[j]).append("\t");
+    for (int j = 0; j < this.height; j++) {
+      for (int i = 0; i < this.width; i++) {
+        out.append(this.matrix[i][j]).append("\t");
       }
       out.append('\n');
     }
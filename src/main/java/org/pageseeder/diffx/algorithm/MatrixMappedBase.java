@@ -0,0 +1,208 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A matrix implementation backed by a memory-mapped temporary file.
+ *
+ * <p>This matrix can be used when the matrix is too large to fit in memory: the values are stored in
+ * a temporary file which is mapped in bands of consecutive rows, so that the operating system only
+ * needs to keep in memory the pages being filled or traversed. Since matrices are filled and walked
+ * row by row, the file is accessed almost sequentially.
+ *
+ * <p>Values are stored as <code>short</code> when they cannot exceed 32767, otherwise as <code>int</code>.
+ *
+ * <p>The temporary file is deleted when the matrix is released.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public abstract class MatrixMappedBase implements Matrix {
+
+  /**
+   * The maximum number of bytes in each band.
+   */
+  private static final long MAX_BAND_SIZE = 1 << 30;
+
+  /**
+   * The channel to the temporary file.
+   */
+  private FileChannel channel;
+
+  /**
+   * The bands of rows mapped in memory.
+   */
+  private MappedByteBuffer[] bands;
+
+  /**
+   * The number of rows in each band.
+   */
+  private int rowsPerBand;
+
+  /**
+   * The number of bytes for each value (2 or 4).
+   */
+  private int cellSize;
+
+  /**
+   * The number of rows in the matrix.
+   */
+  protected int width;
+
+  /**
+   * The number of columns in the matrix.
+   */
+  protected int height;
+
+  /**
+   * @see Matrix#setup(int, int)
+   *
+   * @throws UncheckedIOException If the temporary file could not be created or mapped
+   */
+  @Override
+  public void setup(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.cellSize = Math.min(width, height) > Short.MAX_VALUE ? Integer.BYTES : Short.BYTES;
+    long rowSize = Math.max(1L, (long) height * this.cellSize);
+    if (rowSize > MAX_BAND_SIZE) throw new DataLengthException(height, (int) (MAX_BAND_SIZE / this.cellSize));
+    this.rowsPerBand = (int) (MAX_BAND_SIZE / rowSize);
+    this.bands = new MappedByteBuffer[(width + this.rowsPerBand - 1) / this.rowsPerBand];
+    try {
+      Path file = Files.createTempFile("diffx-", ".matrix");
+      try {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+      } catch (IOException ex) {
+        // The file is only deleted on close once the channel is open
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException suppressed) {
+          ex.addSuppressed(suppressed);
+        }
+        throw ex;
+      }
+      for (int b = 0; b < this.bands.length; b++) {
+        int rows = Math.min(this.rowsPerBand, width - b * this.rowsPerBand);
+        this.bands[b] = this.channel.map(FileChannel.MapMode.READ_WRITE, b * this.rowsPerBand * rowSize, rows * rowSize);
+      }
+    } catch (IOException ex) {
+      release();
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * @see Matrix#set(int, int, int)
+   */
+  @Override
+  public void set(int i, int j, int x) {
+    MappedByteBuffer band = this.bands[i / this.rowsPerBand];
+    int index = ((i % this.rowsPerBand) * this.height + j) * this.cellSize;
+    if (this.cellSize == Short.BYTES) band.putShort(index, (short) x);
+    else band.putInt(index, x);
+  }
+
+  /**
+   * @see Matrix#get(int, int)
+   */
+  @Override
+  public int get(int i, int j) {
+    MappedByteBuffer band = this.bands[i / this.rowsPerBand];
+    int index = ((i % this.rowsPerBand) * this.height + j) * this.cellSize;
+    return this.cellSize == Short.BYTES ? band.getShort(index) : band.getInt(index);
+  }
+
+  @Override
+  public int lengthX() {
+    return this.width;
+  }
+
+  @Override
+  public int lengthY() {
+    return this.height;
+  }
+
+  /**
+   * @see Matrix#isGreaterX(int, int)
+   */
+  @Override
+  public boolean isGreaterX(int i, int j) {
+    return get(i + 1, j) > get(i, j + 1);
+  }
+
+  /**
+   * @see Matrix#isGreaterY(int, int)
+   */
+  @Override
+  public boolean isGreaterY(int i, int j) {
+    return get(i + 1, j) < get(i, j + 1);
+  }
+
+  /**
+   * @see Matrix#isSameXY(int, int)
+   */
+  @Override
+  public boolean isSameXY(int i, int j) {
+    return get(i + 1, j) == get(i, j + 1);
+  }
+
+  /**
+   * @see Object#toString()
+   */
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder();
+    for (int j = 0; j < this.height; j++) {
+      for (int i = 0; i < this.width; i++) {
+        out.append(get(i, j)).append("\t");
+      }
+      out.append('\n');
+    }
+    return out.toString();
+  }
+
+  /**
+   * Closes and deletes the temporary file.
+   *
+   * <p>The mapped memory is reclaimed once the bands are garbage collected.
+   *
+   * @see Matrix#release()
+   *
+   * @throws UncheckedIOException If the temporary file could not be closed
+   */
+  @Override
+  public void release() {
+    this.bands = null;
+    if (this.channel != null) {
+      try {
+        this.channel.close();
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      } finally {
+        this.channel = null;
+      }
+    }
+  }
+}
@@ -15,14 +15,30 @@
  */
 package org.pageseeder.diffx.algorithm;
 
+import org.jetbrains.annotations.Nullable;
 import org.pageseeder.diffx.xml.Sequence;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Build the matrix for the specified tokens using dynamic programming.
  *
+ * <p>In parallel mode, the matrix is split into tiles which are computed in waves: since each tile
+ * only depends on the tiles above and to the left (or below and to the right for the inverse matrix),
+ * all the tiles on the same anti-diagonal can be computed concurrently. The resulting matrix is
+ * identical to the one computed sequentially.
+ *
+ * <p>Matrices with at least as many cells as the disk threshold are backed by a memory-mapped
+ * temporary file instead of the heap, see {@link MatrixMappedBase}.
+ *
+ * <p>The cancel flag is checked for each row, or each row of a tile in parallel mode, and receives
+ * the fraction of rows, or waves of tiles, computed.
+ *
  * @author Christophe Lauret
  * @version 0.9.0
  */
@@ -33,24 +49,89 @@ public final class MatrixProcessor<T> {
    */
   private static final boolean DEBUG = false;
 
+  /**
+   * The default number of rows and columns in a tile.
+   *
+   * <p>A tile of 256x256 short values uses 128KB, which should fit in the L2 cache.
+   */
+  public static final int DEFAULT_TILE_SIZE = 256;
+
   private boolean inverse = false;
 
+  private boolean parallel = false;
+
+  private int tileSize = DEFAULT_TILE_SIZE;
+
+  private ForkJoinPool pool = null;
+
+  private long diskThreshold = Long.MAX_VALUE;
+
+  private @Nullable CancelFlag cancel = null;
+
   public void setInverse(boolean inverse) {
     this.inverse = inverse;
   }
 
+  /**
+   * Set whether the matrix can be computed in parallel when it spans multiple tiles.
+   *
+   * @param parallel <code>true</code> to compute tiles on the same anti-diagonal in parallel
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  /**
+   * Set the pool to use in parallel mode.
+   *
+   * @param pool The fork-join pool to use (<code>null</code> for the common pool)
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Set the number of rows and columns in each tile in parallel mode.
+   *
+   * @param tileSize The size of the tiles
+   *
+   * @throws IllegalArgumentException if the tile size is less than 1
+   */
+  public void setTileSize(int tileSize) {
+    if (tileSize < 1) throw new IllegalArgumentException("Tile size must be positive");
+    this.tileSize = tileSize;
+  }
+
+  /**
+   * Set the minimum number of cells for the matrix to be backed by a memory-mapped temporary file.
+   *
+   * <p>By default, matrices are always kept on the heap.
+   *
+   * @param threshold The minimum number of cells to use a disk-backed matrix
+   */
+  public void setDiskThreshold(long threshold) {
+    this.diskThreshold = threshold;
+  }
+
+  /**
+   * Set the flag used to cancel the computation of the matrix.
+   *
+   * @param cancel The cancel flag (may be <code>null</code>)
+   */
+  public void setCancelFlag(@Nullable CancelFlag cancel) {
+    this.cancel = cancel;
+  }
+
   /**
    * @param first  The first sequence of tokens to test.
    * @param second The second sequence of tokens to test.
    *
    * @return the matrix using dynamic programming
+   *
+   * @throws DiffCancelledException If the cancel flag was raised or the thread interrupted.
    */
   public Matrix process(Sequence first, Sequence second) {
-    Matrix matrix = this.inverse ? computeInverse(first.tokens(), second.tokens()) : compute(first.tokens(), second.tokens());
-    if (DEBUG) {
-      printDebug(first.tokens(), second.tokens(), matrix, System.err);
-    }
-    return matrix;
+    return build(first.tokens(), second.tokens());
   }
 
   /**
@@ -58,23 +139,50 @@ public final class MatrixProcessor<T> {
    * @param second The second sequence of tokens to test.
    *
    * @return the matrix using dynamic programming
+   *
+   * @throws DiffCancelledException If the cancel flag was raised or the thread interrupted.
    */
   public Matrix process(List<? extends T> first, List<? extends T> second) {
-    Matrix matrix = this.inverse ? computeInverse(first, second) : compute(first, second);
+    return build(first, second);
+  }
+
+  private <X> Matrix build(List<? extends X> first, List<? extends X> second) {
+    Matrix matrix = getMatrix(first, second, this.inverse, this.diskThreshold);
+    matrix.setup(first.size() + 1, second.size() + 1);
+    try {
+      if (this.parallel && first.size() >= this.tileSize && second.size() >= this.tileSize) {
+        ForkJoinPool pool = this.pool != null ? this.pool : ForkJoinPool.commonPool();
+        // Wait on this thread so that the tiles stop if it is interrupted
+        CancelFlag forked = CancelFlag.linkedTo(this.cancel);
+        CancelFlag.await(pool.submit(new Wavefront<>(first, second, matrix, this.inverse, this.tileSize, forked)), forked);
+      } else if (this.inverse) {
+        computeInverse(first, second, matrix, 0, first.size() + 1, 0, second.size() + 1, this.cancel, true);
+      } else {
+        compute(first, second, matrix, 0, first.size() + 1, 0, second.size() + 1, this.cancel, true);
+      }
+    } catch (RuntimeException | Error ex) {
+      // Free the matrix, which may be backed by a temporary file, if cancelled or failed
+      matrix.release();
+      throw ex;
+    }
     if (DEBUG) {
       printDebug(first, second, matrix, System.err);
     }
     return matrix;
   }
 
-  private static <T> Matrix compute(List<? extends T> first, List<? extends T> second) {
-    Matrix matrix = getMatrix(first, second, false);
-    int length1 = first.size();
-    int length2 = second.size();
-    matrix.setup(length1 + 1, length2 + 1);
-    // allocate storage for array L;
-    for (int i = 0; i < length1 + 1; i++) {
-      for (int j = 0; j < length2 + 1; j++) {
+  /**
+   * Fill the cells of the matrix for rows <code>[i0, i1)</code> and columns <code>[j0, j1)</code>.
+   *
+   * <p>The cells above and to the left of the area must already be computed.
+   *
+   * @param report Whether to report the fraction of rows computed
+   */
+  private static <T> void compute(List<? extends T> first, List<? extends T> second, Matrix matrix, int i0, int i1, int j0, int j1,
+                                  @Nullable CancelFlag cancel, boolean report) {
+    for (int i = i0; i < i1; i++) {
+      CancelFlag.check(cancel, report ? i - i0 : 0, report ? i1 - i0 : 0);
+      for (int j = j0; j < j1; j++) {
         // we reach the end of the sequence (fill with 0)
         if (i == 0 || j == 0) {
           matrix.set(i, j, 0);
@@ -89,17 +197,22 @@ public final class MatrixProcessor<T> {
         }
       }
     }
-    return matrix;
   }
 
-  private static <T> Matrix computeInverse(List<? extends T> first, List<? extends T> second) {
-    Matrix matrix = getMatrix(first, second, true);
+  /**
+   * Fill the cells of the inverse matrix for rows <code>[i0, i1)</code> and columns <code>[j0, j1)</code>.
+   *
+   * <p>The cells below and to the right of the area must already be computed.
+   *
+   * @param report Whether to report the fraction of rows computed
+   */
+  private static <T> void computeInverse(List<? extends T> first, List<? extends T> second, Matrix matrix, int i0, int i1, int j0, int j1,
+                                         @Nullable CancelFlag cancel, boolean report) {
     int length1 = first.size();
     int length2 = second.size();
-    matrix.setup(length1 + 1, length2 + 1);
-    // allocate storage for array L;
-    for (int i = length1; i >= 0; i--) {
-      for (int j = length2; j >= 0; j--) {
+    for (int i = i1 - 1; i >= i0; i--) {
+      CancelFlag.check(cancel, report ? i1 - 1 - i : 0, report ? i1 - i0 : 0);
+      for (int j = j1 - 1; j >= j0; j--) {
         // we reach the end of the sequence (fill with 0)
         if (i >= length1 || j >= length2) {
           matrix.set(i, j, 0);
@@ -114,7 +227,6 @@ public final class MatrixProcessor<T> {
         }
       }
     }
-    return matrix;
   }
 
   private static <T> void printDebug(List<? extends T> first, List<? extends T> second, Matrix matrix, PrintStream out) {
@@ -134,16 +246,119 @@ public final class MatrixProcessor<T> {
   /**
    * Determines the most appropriate matrix to use based on the length of the sequences.
    *
-   * @param first  The first sequence.
-   * @param second The second sequence.
+   * @param first         The first sequence.
+   * @param second        The second sequence.
+   * @param inverse       Whether to use an inverse matrix
+   * @param diskThreshold The minimum number of cells to use a disk-backed matrix
    *
    * @return The most appropriate matrix.
    */
-  private static <T> Matrix getMatrix(List<? extends T> first, List<? extends T> second, boolean inverse) {
-    if (first.size() + 1 > Short.MAX_VALUE || second.size() + 1 > Short.MAX_VALUE)
+  private static <T> Matrix getMatrix(List<? extends T> first, List<? extends T> second, boolean inverse, long diskThreshold) {
+    if ((long) (first.size() + 1) * (second.size() + 1) >= diskThreshold)
+      return inverse ? new InvMatrixMapped() : new MatrixMapped();
+    else if (first.size() + 1 > Short.MAX_VALUE || second.size() + 1 > Short.MAX_VALUE)
       return inverse ? new InvMatrixInt() : new MatrixInt();
     else
       return inverse ? new InvMatrixShort() : new MatrixShort();
   }
 
+  /**
+   * Computes the matrix tile by tile, one anti-diagonal at a time.
+   */
+  private static final class Wavefront<T> extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<? extends T> first;
+
+    private final List<? extends T> second;
+
+    private final Matrix matrix;
+
+    private final boolean inverse;
+
+    private final int tileSize;
+
+    private final @Nullable CancelFlag cancel;
+
+    Wavefront(List<? extends T> first, List<? extends T> second, Matrix matrix, boolean inverse, int tileSize, @Nullable CancelFlag cancel) {
+      this.first = first;
+      this.second = second;
+      this.matrix = matrix;
+      this.inverse = inverse;
+      this.tileSize = tileSize;
+      this.cancel = cancel;
+    }
+
+    @Override
+    protected void compute() {
+      int width = this.first.size() + 1;
+      int height = this.second.size() + 1;
+      int rows = (width + this.tileSize - 1) / this.tileSize;
+      int columns = (height + this.tileSize - 1) / this.tileSize;
+      List<ForkJoinTask<?>> tiles = new ArrayList<>(Math.min(rows, columns));
+      for (int wave = 0; wave < rows + columns - 1; wave++) {
+        CancelFlag.check(this.cancel, wave, rows + columns - 1);
+        // Inverse matrices are computed from the bottom-right corner
+        int d = this.inverse ? rows + columns - 2 - wave : wave;
+        for (int r = Math.max(0, d - columns + 1); r <= Math.min(d, rows - 1); r++) {
+          int c = d - r;
+          int i0 = r * this.tileSize;
+          int j0 = c * this.tileSize;
+          int i1 = Math.min(i0 + this.tileSize, width);
+          int j1 = Math.min(j0 + this.tileSize, height);
+          tiles.add(new Tile<>(this.first, this.second, this.matrix, this.inverse, i0, i1, j0, j1, this.cancel));
+        }
+        if (tiles.size() == 1) {
+          tiles.get(0).invoke();
+        } else {
+          invokeAll(tiles);
+        }
+        tiles.clear();
+      }
+    }
+  }
+
+  /**
+   * Computes a single tile of the matrix.
+   */
+  private static final class Tile<T> extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<? extends T> first;
+
+    private final List<? extends T> second;
+
+    private final Matrix matrix;
+
+    private final boolean inverse;
+
+    private final int i0, i1, j0, j1;
+
+    private final @Nullable CancelFlag cancel;
+
+    Tile(List<? extends T> first, List<? extends T> second, Matrix matrix, boolean inverse, int i0, int i1, int j0, int j1,
+         @Nullable CancelFlag cancel) {
+      this.first = first;
+      this.second = second;
+      this.matrix = matrix;
+      this.inverse = inverse;
+      this.i0 = i0;
+      this.i1 = i1;
+      this.j0 = j0;
+      this.j1 = j1;
+      this.cancel = cancel;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.inverse) {
+        computeInverse(this.first, this.second, this.matrix, this.i0, this.i1, this.j0, this.j1, this.cancel, false);
+      } else {
+        MatrixProcessor.compute(this.first, this.second, this.matrix, this.i0, this.i1, this.j0, this.j1, this.cancel, false);
+      }
+    }
+  }
+
 }
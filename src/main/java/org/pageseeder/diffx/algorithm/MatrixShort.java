@@ -44,6 +44,6 @@ public final class MatrixShort extends MatrixShortBase {
   }
 
   public int getLCSLength() {
-    return this.get(this.matrix.length - 1, this.matrix[0].length - 1);
+    return this.get(this.width - 1, this.height - 1);
   }
 }
@@ -28,6 +28,16 @@ public abstract class MatrixShortBase implements Matrix {
    */
   protected short[][] matrix;
 
+  /**
+   * The number of rows used in the matrix (the underlying matrix may be larger).
+   */
+  protected int width;
+
+  /**
+   * The number of columns used in the matrix (the underlying matrix may be larger).
+   */
+  protected int height;
+
   /**
    * Returns the maximum of the two values.
    *
@@ -45,7 +55,9 @@ public abstract class MatrixShortBase implements Matrix {
    */
   @Override
   public void setup(int width, int height) {
-    this.matrix = new short[width][height];
+    this.matrix = Workspace.current().takeShorts(width, height);
+    this.width = width;
+    this.height = height;
   }
 
   /**
@@ -66,12 +78,12 @@ public abstract class MatrixShortBase implements Matrix {
 
   @Override
   public int lengthX() {
-    return this.matrix.length;
+    return this.width;
   }
 
   @Override
   public int lengthY() {
-    return this.matrix[0].length;
+    return this.height;
   }
 
   /**
@@ -104,9 +116,9 @@ public abstract class MatrixShortBase implements Matrix {
   @Override
   public String toString() {
     StringBuilder out = new StringBuilder();
-    for (int j = 0; j < this.matrix[0].length; j++) {
-      for (short[] element : this.matrix) {
-        out.append(element[j]).append("\t");
+    for (int j = 0; j < this.height; j++) {
+      for (int i = 0; i < this.width; i++) {
+        out.append(this.matrix[i][j]).append("\t");
       }
       out.append('\n');
     }
@@ -114,12 +126,13 @@ public abstract class MatrixShortBase implements Matrix {
   }
 
   /**
-   * Gets rid of the underlying matrix so that garbage collector can do its work.
+   * Gives the underlying matrix back to the workspace of the current thread so that it can be reused.
    *
    * @see Matrix#release()
    */
   @Override
   public void release() {
+    Workspace.current().give(this.matrix);
     this.matrix = null;
   }
 }
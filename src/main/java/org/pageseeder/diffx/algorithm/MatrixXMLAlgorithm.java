@@ -15,6 +15,7 @@
  */
 package org.pageseeder.diffx.algorithm;
 
+import org.jetbrains.annotations.Nullable;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.api.Operator;
@@ -29,6 +30,9 @@ import java.util.List;
  *
  * <p>This algorithm uses a matrix to compute the edit path and a stack to eliminate invalid paths.</p>
  *
+ * <p>When the number of comparisons exceeds the threshold, this algorithm fails unless it is allowed
+ * to use a matrix backed by a temporary file, in which case it is only limited by disk space.</p>
+ *
  * @author Christophe Lauret
  * @version 0.9.0
  */
@@ -51,6 +55,18 @@ public final class MatrixXMLAlgorithm implements DiffAlgorithm<XMLToken> {
 
   private int threshold = DEFAULT_THRESHOLD;
 
+  /**
+   * Set to <code>true</code> to compute the matrix in parallel.
+   */
+  private boolean parallel = false;
+
+  /**
+   * Set to <code>true</code> to use a disk-backed matrix above the threshold.
+   */
+  private boolean diskBacked = false;
+
+  private @Nullable CancelFlag cancel = null;
+
   /**
    * Set whether common tokens at the beginning or the end of the sequences can be removed from the diff.
    *
@@ -72,6 +88,52 @@ public final class MatrixXMLAlgorithm implements DiffAlgorithm<XMLToken> {
     this.threshold = threshold;
   }
 
+  /**
+   * Set whether the matrix can be computed in parallel for large sequences.
+   *
+   * <p>This does not affect the results, only how the matrix is computed.
+   *
+   * @param parallel <code>true</code> to compute the matrix in parallel
+   *
+   * @see MatrixProcessor#setParallel(boolean)
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  /**
+   * Set whether sequences exceeding the threshold are compared using a matrix backed by a
+   * memory-mapped temporary file instead of failing.
+   *
+   * <p>This does not affect the results; it is slower but allows optimal diffs of very large sequences
+   * in batch processes.
+   *
+   * @param diskBacked <code>true</code> to use a disk-backed matrix above the threshold
+   *
+   * @see MatrixMappedBase
+   */
+  public void setDiskBacked(boolean diskBacked) {
+    this.diskBacked = diskBacked;
+  }
+
+  /**
+   * Set the flag used to cancel this algorithm while the matrix is computed.
+   *
+   * <p>The flag is checked for each row of the matrix, it also receives the progress.
+   *
+   * @param cancel The cancel flag (may be <code>null</code>)
+   */
+  public void setCancelFlag(@Nullable CancelFlag cancel) {
+    this.cancel = cancel;
+  }
+
+  /**
+   * @return the maximum number of tokens comparisons that can be performed.
+   */
+  public int getThreshold() {
+    return this.threshold;
+  }
+
   /**
    * Indicates whether the diff between the two sequences can be computed.
    *
@@ -80,13 +142,14 @@ public final class MatrixXMLAlgorithm implements DiffAlgorithm<XMLToken> {
    * <p>If it is above the threshold, it checks again after slicing.
    */
   public boolean isDiffComputable(List<? extends XMLToken> from, List<? extends XMLToken> to) {
+    if (this.diskBacked) return true;
     // Check without slicer from
-    if (from.size() * to.size() <= this.threshold) return true;
+    if ((long) from.size() * to.size() <= this.threshold) return true;
     // Check if possible after slicing
     TokenListSlicer slicer = new TokenListSlicer(from, to);
     int commonCount = this.slice ? slicer.analyze() : 0;
-    int matrixSize = (from.size() - commonCount) * (to.size() - commonCount);
-    return matrixSize > this.threshold;
+    long matrixSize = (long) (from.size() - commonCount) * (to.size() - commonCount);
+    return matrixSize <= this.threshold;
   }
 
   @Override
@@ -114,11 +177,11 @@ public final class MatrixXMLAlgorithm implements DiffAlgorithm<XMLToken> {
 
   private void diff(List<? extends XMLToken> A, List<? extends XMLToken> B, ElementStackFilter handler) {
     TokenListSlicer slicer = new TokenListSlicer(A, B);
-    int common = this.slice ? slicer.analyze() : 0;
+    // The common start is reported before the matrix is computed
+    int common = this.slice ? slicer.analyze(handler) : 0;
 
     // Check the end
     if (common > 0) {
-      slicer.handleStart(handler);
       List<? extends XMLToken> subA = slicer.getSubSequence1();
       List<? extends XMLToken> subB = slicer.getSubSequence2();
       if (subA.isEmpty() || subB.isEmpty()) {
@@ -133,144 +196,164 @@ public final class MatrixXMLAlgorithm implements DiffAlgorithm<XMLToken> {
     }
   }
 
-  private void processDiff(List<? extends XMLToken> A, List<? extends XMLToken> B, ElementStackFilter handler) {
+  /**
+   * Compute the diff using a matrix without slicing, reporting operations to the specified filter.
+   *
+   * <p>The filter may already contain open elements, which is how this method is used by other
+   * XML algorithms to solve subproblems.
+   *
+   * @throws DataLengthException If the number of comparisons exceeds the threshold and the matrix cannot be disk-backed
+   */
+  void processDiff(List<? extends XMLToken> A, List<? extends XMLToken> B, ElementStackFilter handler) {
     final int lengthA = A.size();
     final int lengthB = B.size();
 
     // Throws error if we can't process
-    if (lengthA * lengthB > this.threshold)
-      throw new DataLengthException(lengthA * lengthB, this.threshold);
+    long size = (long) lengthA * lengthB;
+    if (size > this.threshold && !this.diskBacked)
+      throw new DataLengthException((int) Math.min(size, Integer.MAX_VALUE), this.threshold);
 
     // calculate the LCS length to fill the matrix
     MatrixProcessor<XMLToken> builder = new MatrixProcessor<>();
     builder.setInverse(true);
+    builder.setParallel(this.parallel);
+    builder.setCancelFlag(this.cancel);
+    if (size > this.threshold) {
+      // Too large for the heap, only possible when disk-backed
+      builder.setDiskThreshold(0);
+    }
     Matrix matrix = builder.process(A, B);
 
     int i = 0;
     int j = 0;
     XMLToken tokenA;
     XMLToken tokenB;
-    // start walking the matrix
-    while (i < lengthA && j < lengthB) {
-      tokenA = A.get(i);
-      tokenB = B.get(j);
-      // we can only insert or delete, priority to delete
-      if (matrix.isGreaterX(i, j)) {
-        // follow the natural path
-        if (handler.isAllowed(Operator.DEL, tokenA) && !handler.hasPriorityOver(tokenB, tokenA)) {
-          if (DEBUG) {
-            System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + j + "] >i +" + tokenA);
+    try {
+      // start walking the matrix
+      while (i < lengthA && j < lengthB) {
+        tokenA = A.get(i);
+        tokenB = B.get(j);
+        // we can only insert or delete, priority to delete
+        if (matrix.isGreaterX(i, j)) {
+          // follow the natural path
+          if (handler.isAllowed(Operator.DEL, tokenA) && !handler.hasPriorityOver(tokenB, tokenA)) {
+            if (DEBUG) {
+              System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + j + "] >i +" + tokenA);
+            }
+            handler.handle(Operator.DEL, tokenA);
+            i++;
+
+            // if we can format checking at the stack, let's do it
+          } else if (tokenA.equals(tokenB) && handler.isAllowed(Operator.MATCH, tokenA)) {
+            if (DEBUG) {
+              System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + (j + 1) + "] >f " + tokenA);
+            }
+            handler.handle(Operator.MATCH, tokenA);
+            i++;
+            j++;
+
+            // go counter current and delete
+          } else if (handler.isAllowed(Operator.INS, tokenB)) {
+            if (DEBUG) {
+              System.err.print("[" + i + "," + j + "]->[" + i + "," + (j + 1) + "] >d -" + tokenB);
+            }
+            handler.handle(Operator.INS, tokenB);
+            j++;
+
+          } else {
+            if (DEBUG) {
+              System.err.print("\n(i) case greater X");
+              printLost(i, j, matrix, handler, A, B);
+            }
+            break;
           }
-          handler.handle(Operator.DEL, tokenA);
-          i++;
 
-          // if we can format checking at the stack, let's do it
-        } else if (tokenA.equals(tokenB) && handler.isAllowed(Operator.MATCH, tokenA)) {
-          if (DEBUG) {
-            System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + (j + 1) + "] >f " + tokenA);
+          // we can only insert or delete, priority to insert
+        } else if (matrix.isGreaterY(i, j)) {
+          // follow the natural and delete
+          if (handler.isAllowed(Operator.INS, tokenB) && !handler.hasPriorityOver(tokenA, tokenB)) {
+            if (DEBUG) {
+              System.err.print("[" + i + "," + j + "]->[" + i + "," + (j + 1) + "] <d -" + tokenB);
+            }
+            handler.handle(Operator.INS, tokenB);
+            j++;
+
+            // if we can format checking at the stack, let's do it
+          } else if (tokenA.equals(tokenB) && handler.isAllowed(Operator.MATCH, tokenA)) {
+            if (DEBUG) {
+              System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + (j + 1) + "] <f " + tokenA);
+            }
+            handler.handle(Operator.MATCH, tokenA);
+            i++;
+            j++;
+
+            // insert (counter-current)
+          } else if (handler.isAllowed(Operator.DEL, tokenA)) {
+            if (DEBUG) {
+              System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + j + "] <i +" + tokenA);
+            }
+            handler.handle(Operator.DEL, tokenA);
+            i++;
+
+          } else {
+            if (DEBUG) {
+              System.err.println("\n(i) case greater Y");
+              printLost(i, j, matrix, handler, A, B);
+            }
+            break;
           }
-          handler.handle(Operator.MATCH, tokenA);
-          i++;
-          j++;
-
-          // go counter current and delete
-        } else if (handler.isAllowed(Operator.INS, tokenB)) {
-          if (DEBUG) {
-            System.err.print("[" + i + "," + j + "]->[" + i + "," + (j + 1) + "] >d -" + tokenB);
-          }
-          handler.handle(Operator.INS, tokenB);
-          j++;
-
-        } else {
-          if (DEBUG) {
-            System.err.print("\n(i) case greater X");
-            printLost(i, j, matrix, handler, A, B);
-          }
-          break;
-        }
-
-        // we can only insert or delete, priority to insert
-      } else if (matrix.isGreaterY(i, j)) {
-        // follow the natural and delete
-        if (handler.isAllowed(Operator.INS, tokenB) && !handler.hasPriorityOver(tokenA, tokenB)) {
-          if (DEBUG) {
-            System.err.print("[" + i + "," + j + "]->[" + i + "," + (j + 1) + "] <d -" + tokenB);
-          }
-          handler.handle(Operator.INS, tokenB);
-          j++;
 
+          // elements from i deleted and j inserted
+          // we have to make a choice for where we are going
+        } else if (matrix.isSameXY(i, j)) {
           // if we can format checking at the stack, let's do it
-        } else if (tokenA.equals(tokenB) && handler.isAllowed(Operator.MATCH, tokenA)) {
-          if (DEBUG) {
-            System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + (j + 1) + "] <f " + tokenA);
-          }
-          handler.handle(Operator.MATCH, tokenA);
-          i++;
-          j++;
-
-          // insert (counter-current)
-        } else if (handler.isAllowed(Operator.DEL, tokenA)) {
-          if (DEBUG) {
-            System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + j + "] <i +" + tokenA);
-          }
-          handler.handle(Operator.DEL, tokenA);
-          i++;
-
-        } else {
-          if (DEBUG) {
-            System.err.println("\n(i) case greater Y");
-            printLost(i, j, matrix, handler, A, B);
-          }
-          break;
-        }
-
-        // elements from i deleted and j inserted
-        // we have to make a choice for where we are going
-      } else if (matrix.isSameXY(i, j)) {
-        // if we can format checking at the stack, let's do it
-        if (tokenA.equals(tokenB) && handler.isAllowed(Operator.MATCH, tokenA)) {
-          if (DEBUG) {
-            System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + (j + 1) + "] =f " + tokenA);
+          if (tokenA.equals(tokenB) && handler.isAllowed(Operator.MATCH, tokenA)) {
+            if (DEBUG) {
+              System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + (j + 1) + "] =f " + tokenA);
+            }
+            handler.handle(Operator.MATCH, tokenA);
+            i++;
+            j++;
+
+            // we can insert the closing tag
+          } else if (handler.isAllowed(Operator.DEL, tokenA)
+              && !(tokenB instanceof AttributeToken && !(tokenA instanceof AttributeToken))) {
+            if (DEBUG) {
+              System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + j + "] =i +" + tokenA);
+            }
+            handler.handle(Operator.DEL, tokenA);
+            i++;
+
+            // we can delete the closing tag
+          } else if (handler.isAllowed(Operator.INS, tokenB)
+              && !(tokenA instanceof AttributeToken && !(tokenB instanceof AttributeToken))) {
+            if (DEBUG) {
+              System.err.print("[" + i + "," + j + "]->[" + i + "," + (j + 1) + "] =d -" + tokenB);
+            }
+            handler.handle(Operator.INS, tokenB);
+            j++;
+
+          } else {
+            if (DEBUG) {
+              System.err.println("\n(i) case same");
+              printLost(i, j, matrix, handler, A, B);
+            }
+            break;
           }
-          handler.handle(Operator.MATCH, tokenA);
-          i++;
-          j++;
-
-          // we can insert the closing tag
-        } else if (handler.isAllowed(Operator.DEL, tokenA)
-            && !(tokenB instanceof AttributeToken && !(tokenA instanceof AttributeToken))) {
-          if (DEBUG) {
-            System.err.print("[" + i + "," + j + "]->[" + (i + 1) + "," + j + "] =i +" + tokenA);
-          }
-          handler.handle(Operator.DEL, tokenA);
-          i++;
-
-          // we can delete the closing tag
-        } else if (handler.isAllowed(Operator.INS, tokenB)
-            && !(tokenA instanceof AttributeToken && !(tokenB instanceof AttributeToken))) {
-          if (DEBUG) {
-            System.err.print("[" + i + "," + j + "]->[" + i + "," + (j + 1) + "] =d -" + tokenB);
-          }
-          handler.handle(Operator.INS, tokenB);
-          j++;
-
         } else {
           if (DEBUG) {
-            System.err.println("\n(i) case same");
+            System.err.println("\n(i) case ???");
             printLost(i, j, matrix, handler, A, B);
           }
           break;
         }
-      } else {
         if (DEBUG) {
-          System.err.println("\n(i) case ???");
-          printLost(i, j, matrix, handler, A, B);
+          System.err.println("    stack:" + handler.current());
         }
-        break;
-      }
-      if (DEBUG) {
-        System.err.println("    stack:" + handler.current());
       }
+    } finally {
+      // the matrix is no longer needed
+      matrix.release();
     }
 
     // finish off: delete remaining tokens from A
@@ -322,6 +405,8 @@ public final class MatrixXMLAlgorithm implements DiffAlgorithm<XMLToken> {
     return "MatrixXMLAlgorithm{" +
         "slice=" + slice +
         ", threshold=" + threshold +
+        ", parallel=" + parallel +
+        ", diskBacked=" + diskBacked +
         '}';
   }
 }
@@ -16,6 +16,7 @@
 package org.pageseeder.diffx.algorithm;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.api.Operator;
@@ -39,17 +40,40 @@ abstract class MyersAlgorithm<T> implements DiffAlgorithm<T> {
 
   private final static boolean DEBUG = false;
 
+  /**
+   * The flag used to cancel the algorithm (may be <code>null</code>)
+   */
+  @Nullable CancelFlag cancel = null;
+
+  /**
+   * Set the flag used to cancel this algorithm while it is computing the path.
+   *
+   * <p>The flag is checked for each number of differences D and also receives the progress.
+   *
+   * @param cancel The cancel flag (may be <code>null</code>)
+   */
+  public void setCancelFlag(@Nullable CancelFlag cancel) {
+    this.cancel = cancel;
+  }
+
   /**
    * Handles the results of the diff.
    */
   protected void handleResults(List<? extends T> a, List<? extends T> b, DiffHandler<T> handler, List<EdgeSnake> snakes) {
     for (EdgeSnake snake : snakes) {
-      if (DEBUG) System.err.println(snake);
-      if (snake.isForward()) {
-        handleForward(a, b, handler, snake);
-      } else {
-        handleReverse(a, b, handler, snake);
-      }
+      handleSnake(a, b, handler, snake);
+    }
+  }
+
+  /**
+   * Handles the results of the diff for a single snake.
+   */
+  protected void handleSnake(List<? extends T> a, List<? extends T> b, DiffHandler<T> handler, EdgeSnake snake) {
+    if (DEBUG) System.err.println(snake);
+    if (snake.isForward()) {
+      handleForward(a, b, handler, snake);
+    } else {
+      handleReverse(a, b, handler, snake);
     }
   }
 
@@ -16,6 +16,7 @@
 package org.pageseeder.diffx.algorithm;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.api.Operator;
@@ -37,9 +38,25 @@ import java.util.List;
  */
 public final class MyersGreedyAlgorithm<T> implements DiffAlgorithm<T> {
 
+  private @Nullable CancelFlag cancel = null;
+
+  /**
+   * Set the flag used to cancel this algorithm while it is computing the path.
+   *
+   * <p>The flag is checked for each number of differences D and also receives the progress.
+   *
+   * @param cancel The cancel flag (may be <code>null</code>)
+   */
+  public void setCancelFlag(@Nullable CancelFlag cancel) {
+    this.cancel = cancel;
+  }
+
+  /**
+   * @throws DiffCancelledException If the cancel flag was raised or the thread interrupted.
+   */
   @Override
   public void diff(@NotNull List<? extends T> from, @NotNull List<? extends T> to, @NotNull DiffHandler<T> handler) {
-    MyersGreedyAlgorithm.Instance<T> instance = new MyersGreedyAlgorithm.Instance<>(from, to);
+    MyersGreedyAlgorithm.Instance<T> instance = new MyersGreedyAlgorithm.Instance<>(from, to, this.cancel);
     List<Snake> snakes = instance.computePath();
     handle(from, to, handler, snakes);
   }
@@ -80,11 +97,25 @@ public final class MyersGreedyAlgorithm<T> implements DiffAlgorithm<T> {
     private final int sizeA;
     private final int sizeB;
 
-    Instance(List<? extends T> a, List<? extends T> b) {
+    /**
+     * Used to follow long diagonals in large sequences (may be <code>null</code>)
+     */
+    private final SnakeJumper jumper;
+
+    private final @Nullable CancelFlag cancel;
+
+    /**
+     * The furthest position (x+y) reached by any path, used to estimate the progress.
+     */
+    private int furthest = 0;
+
+    Instance(List<? extends T> a, List<? extends T> b, @Nullable CancelFlag cancel) {
       this.a = a;
       this.b = b;
       this.sizeA = a.size();
       this.sizeB = b.size();
+      this.jumper = SnakeJumper.create(a, b);
+      this.cancel = cancel;
     }
 
     /**
@@ -105,12 +136,14 @@ public final class MyersGreedyAlgorithm<T> implements DiffAlgorithm<T> {
       // Find the endpoint of the furthest reaching D-path in diagonal k
       boolean found = false;
       for (int d = 0; d <= max; d++) {
+        CancelFlag.check(this.cancel, this.furthest, max);
         found = forward(vector, d);
         vectors.add(vector.snapshot(d));
         if (found) {
           break;
         }
       }
+      vector.release();
 
       if (!found)
         throw new IllegalStateException("Unable to find a solution!");
@@ -132,13 +165,23 @@ public final class MyersGreedyAlgorithm<T> implements DiffAlgorithm<T> {
         int y = x - k;
 
         // Follow diagonals
-        while (x < this.sizeA && y < this.sizeB && this.a.get(x).equals(this.b.get(y))) {
-          x++;
-          y++;
+        if (this.jumper != null) {
+          int max = Math.min(this.sizeA - x, this.sizeB - y);
+          if (max > 0 && y >= 0) {
+            int length = this.jumper.forward(x, y, max);
+            x += length;
+            y += length;
+          }
+        } else {
+          while (x < this.sizeA && y < this.sizeB && this.a.get(x).equals(this.b.get(y))) {
+            x++;
+            y++;
+          }
         }
 
         // Save end points
         vector.setX(k, x);
+        if (x + y > this.furthest) this.furthest = x + y;
 
         // Check if we've reached the end
         if (x >= this.sizeA && y >= this.sizeB) {
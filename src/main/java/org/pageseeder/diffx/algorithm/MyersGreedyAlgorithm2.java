@@ -87,6 +87,7 @@ public final class MyersGreedyAlgorithm2<T> implements DiffAlgorithm<T> {
           break;
         }
       }
+      vector.release();
 
       if (diff < 0)
         throw new IllegalStateException("Unable to find a solution!");
@@ -16,6 +16,7 @@
 package org.pageseeder.diffx.algorithm;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.api.Operator;
@@ -36,9 +37,12 @@ public final class MyersGreedyXMLAlgorithm extends MyersAlgorithm<XMLToken> impl
 
   private final static boolean DEBUG = false;
 
+  /**
+   * @throws DiffCancelledException If the cancel flag was raised or the thread interrupted.
+   */
   @Override
   public void diff(@NotNull List<? extends XMLToken> from, @NotNull List<? extends XMLToken> to, @NotNull DiffHandler<XMLToken> handler) {
-    Instance instance = new Instance(from, to);
+    Instance instance = new Instance(from, to, this.cancel);
     List<EdgeSnake> snakes = instance.computePath();
     // Autocorrect (required until we can fix the attributes)
     PostXMLFixer correction = new PostXMLFixer(handler);
@@ -59,11 +63,19 @@ public final class MyersGreedyXMLAlgorithm extends MyersAlgorithm<XMLToken> impl
     private final int sizeA;
     private final int sizeB;
 
-    Instance(List<? extends XMLToken> a, List<? extends XMLToken> b) {
+    private final @Nullable CancelFlag cancel;
+
+    /**
+     * The furthest position (x+y) reached by any path, used to estimate the progress.
+     */
+    private int furthest = 0;
+
+    Instance(List<? extends XMLToken> a, List<? extends XMLToken> b, @Nullable CancelFlag cancel) {
       this.a = a;
       this.b = b;
       this.sizeA = a.size();
       this.sizeB = b.size();
+      this.cancel = cancel;
     }
 
     /**
@@ -77,7 +89,7 @@ public final class MyersGreedyXMLAlgorithm extends MyersAlgorithm<XMLToken> impl
     private List<EdgeSnake> computePath() {
       Vector vector = Vector.createGreedy(this.sizeA, this.sizeB);
       List<Vector> vectors = new ArrayList<>();
-      XMLStackMap elements = new XMLStackMap();
+      XMLStackMap elements = new XMLStackMap(this.sizeA + this.sizeB);
 
       // Maximum length for the path (N + M)
       final int max = sizeA + sizeB;
@@ -85,12 +97,14 @@ public final class MyersGreedyXMLAlgorithm extends MyersAlgorithm<XMLToken> impl
       // Find the endpoint of the furthest reaching D-path in diagonal k
       boolean found = false;
       for (int d = 0; d <= max; d++) {
+        CancelFlag.check(this.cancel, this.furthest, max);
         found = forward(vector, elements, d);
         if (DEBUG) System.err.println("D" + d + ": " + elements + " | " + vector + "\n");
         vectors.add(vector.snapshot(d));
         // We've found a path
         if (found) break;
       }
+      vector.release();
       if (!found) throw new IllegalStateException("Unable to find a solution!");
 
       // Return the corresponding snakes
@@ -101,7 +115,6 @@ public final class MyersGreedyXMLAlgorithm extends MyersAlgorithm<XMLToken> impl
      * @return the last snake when a solution has been found.
      */
     private boolean forward(Vector vector, XMLStackMap elements, int d) {
-      elements.nextDiff();
       for (int k = -d; k <= d; k += 2) {
         int xLeft = k != -d ? vector.getX(k - 1) : 0;
         int xUp = k != d ? vector.getX(k + 1) : 0;
@@ -144,6 +157,7 @@ public final class MyersGreedyXMLAlgorithm extends MyersAlgorithm<XMLToken> impl
 
         // Save end points
         vector.setX(k, x);
+        if (x + y > this.furthest) this.furthest = x + y;
 
         // Check if we've reached the end
         if (x >= sizeA && y >= sizeB) {
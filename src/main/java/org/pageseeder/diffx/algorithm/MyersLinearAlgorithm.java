@@ -16,11 +16,16 @@
 package org.pageseeder.diffx.algorithm;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.concurrent.ForkJoinTask;
 
 import static org.pageseeder.diffx.algorithm.EdgeSnake.Direction.*;
 
@@ -30,6 +35,15 @@ import static org.pageseeder.diffx.algorithm.EdgeSnake.Direction.*;
  *
  * <p>Portions of this code are based on the C# implementation of Nicholas Butler at SimplyGenius.NET
  *
+ * <p>The rectangles on either side of the middle snake are kept on an explicit work stack rather than
+ * solved recursively; the top left rectangle is always solved first so that the snakes are in order.
+ * The operations of each snake are reported to the handler as soon as the snake is final, before the
+ * rectangles after it are solved.
+ *
+ * <p>In parallel mode, the rectangles on either side of the middle snake are solved concurrently when
+ * they are large enough: the bottom right rectangle is solved on the common fork-join pool and its
+ * snakes are joined in order. The handler is always called on the thread invoking the diff.
+ *
  * @param <T> The type of token being compared
  *
  * @author Christophe Lauret
@@ -39,11 +53,56 @@ import static org.pageseeder.diffx.algorithm.EdgeSnake.Direction.*;
  */
 public final class MyersLinearAlgorithm<T> extends MyersAlgorithm<T> implements DiffAlgorithm<T> {
 
+  /**
+   * The default minimum number of comparisons for a problem to be split in parallel.
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 20;
+
+  private boolean parallel = false;
+
+  private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+  /**
+   * Set whether subproblems can be solved in parallel on the common fork-join pool.
+   *
+   * @param parallel <code>true</code> to solve large subproblems in parallel
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  /**
+   * Set the minimum number of comparisons (m x n) for a problem to be split in parallel.
+   *
+   * @param threshold The minimum number of comparisons
+   */
+  public void setParallelThreshold(int threshold) {
+    this.parallelThreshold = threshold;
+  }
+
+  /**
+   * @throws DiffCancelledException If the cancel flag was raised or the thread interrupted; the
+   *                                operations of the snakes already final have been reported to
+   *                                the handler.
+   */
   @Override
   public void diff(@NotNull List<? extends T> from, @NotNull List<? extends T> to, @NotNull DiffHandler<T> handler) {
-    Instance<T> instance = new Instance<>(from, to);
-    List<EdgeSnake> snakes = instance.computePath();
-    handleResults(from, to, handler, snakes);
+    // Snakes are reported as soon as they are final, the path is computed on this thread
+    Path path = new Path(snake -> handleSnake(from, to, handler, snake));
+    if (this.parallel) {
+      CancelFlag forked = CancelFlag.linkedTo(this.cancel);
+      Instance<T> instance = new Instance<>(from, to, this.parallelThreshold, forked);
+      try {
+        instance.computePath(path);
+      } catch (RuntimeException | Error ex) {
+        // Stop the rectangles still being solved on the pool
+        forked.cancel();
+        throw ex;
+      }
+    } else {
+      Instance<T> instance = new Instance<>(from, to, Long.MAX_VALUE, this.cancel);
+      instance.computePath(path);
+    }
   }
 
   static class Instance<T> {
@@ -51,41 +110,78 @@ public final class MyersLinearAlgorithm<T> extends MyersAlgorithm<T> implements
     private final List<? extends T> a;
     private final List<? extends T> b;
 
-    Instance(List<? extends T> a, List<? extends T> b) {
+    /**
+     * The minimum number of comparisons to solve the subproblems in parallel.
+     */
+    private final long threshold;
+
+    /**
+     * Used to follow long diagonals in large sequences (may be <code>null</code>)
+     */
+    private final SnakeJumper jumper;
+
+    private final @Nullable CancelFlag cancel;
+
+    Instance(List<? extends T> a, List<? extends T> b, long threshold, @Nullable CancelFlag cancel) {
       this.a = a;
       this.b = b;
+      this.threshold = threshold;
+      this.jumper = SnakeJumper.create(a, b);
+      this.cancel = cancel;
     }
 
-    public List<EdgeSnake> computePath() {
+    /**
+     * Compute the path to generate the shortest edit sequence (SES) between the two lists.
+     *
+     * @param snakes The path receiving the snakes in order
+     */
+    public void computePath(Path snakes) {
       Vector VForward = Vector.createLinear(this.a.size(), this.b.size(), true);
       Vector VReverse = Vector.createLinear(this.a.size(), this.b.size(), false);
-      List<EdgeSnake> snakes = new ArrayList<>();
       List<Vector> forwardVs = new ArrayList<>();
       List<Vector> reverseVs = new ArrayList<>();
-      computePath(0, snakes, forwardVs, reverseVs, 0, this.a.size(), 0, this.b.size(), VForward, VReverse);
-      return snakes;
+      Deque<Runnable> pending = new ArrayDeque<>();
+      pending.push(() -> computePath(pending, snakes, forwardVs, reverseVs, 0, this.a.size(), 0, this.b.size(), VForward, VReverse));
+      run(pending);
+      VForward.release();
+      VReverse.release();
+      snakes.flush();
+    }
+
+    /**
+     * Process the work stack until it is empty.
+     */
+    private static void run(Deque<Runnable> pending) {
+      while (!pending.isEmpty()) {
+        pending.pop().run();
+      }
     }
 
-    private void computePath(int recursion, List<EdgeSnake> snakes,
+    /**
+     * Compute the path for the specified rectangle.
+     *
+     * <p>The snakes of the edge cases are added directly, otherwise the top left rectangle, the middle
+     * snake and the bottom right rectangle are pushed onto the work stack in reverse order so that the
+     * snakes are always added in order.
+     */
+    private void computePath(Deque<Runnable> pending, Path snakes,
                              List<Vector> forwardVs, List<Vector> reverseVs,
                              int startA, int sizeA,
                              int startB, int sizeB,
                              Vector VForward, Vector VReverse) {
+      // Rectangles are solved in order so everything before the top left corner is done
+      CancelFlag.check(this.cancel, startA + startB, this.a.size() + this.b.size());
 
       // Only deletions
       if (sizeB == 0 && sizeA > 0) {
         EdgeSnake right = EdgeSnake.create(startA, sizeA, startB, sizeB, RIGHT, startA, startB, sizeA, 0);
-        if (snakes.size() == 0 || !snakes.get(snakes.size() - 1).append(right)) {
-          snakes.add(right);
-        }
+        snakes.add(right);
       }
 
       // Only insertions
       if (sizeA == 0 && sizeB > 0) {
         EdgeSnake down = EdgeSnake.create(startA, sizeA, startB, sizeB, DOWN, startA, startB, sizeB, 0);
-        if (snakes.size() == 0 || !snakes.get(snakes.size() - 1).append(down)) {
-          snakes.add(down);
-        }
+        snakes.add(down);
       }
 
       // We're done here
@@ -96,22 +192,50 @@ public final class MyersLinearAlgorithm<T> extends MyersAlgorithm<T> implements
       // Calculate middle snake
       MiddleSnake middle = middleSnake(startA, sizeA, startB, sizeB, VForward, VReverse, forwardVs, reverseVs);
 
-      if (middle.getDiff() > 1) {
-        // Middle snake (D > 1)
+      if (middle.getDiff() > 1 && (long) sizeA * sizeB >= this.threshold) {
+        // Middle snake (D > 1), solve the bottom right rectangle in parallel
+        Point uv = !middle.isForward() ? middle.snake().getStartPoint() : middle.snake().getEndPoint();
+        int sizeU = startA + sizeA - uv.x();
+        int sizeV = startB + sizeB - uv.y();
+        ForkJoinTask<List<EdgeSnake>> bottomRight = ForkJoinTask.adapt(() -> {
+          Path others = new Path(null);
+          Vector forward = Vector.createLinear(sizeU, sizeV, true);
+          Vector reverse = Vector.createLinear(sizeU, sizeV, false);
+          Deque<Runnable> work = new ArrayDeque<>();
+          work.push(() -> computePath(work, others, null, null, uv.x(), sizeU, uv.y(), sizeV, forward, reverse));
+          run(work);
+          forward.release();
+          reverse.release();
+          others.flush();
+          return others.snakes;
+        }).fork();
+
+        // Then add middle snake and bottom right rectangle to results
+        pending.push(() -> {
+          snakes.add(middle.snake());
+          for (EdgeSnake snake : CancelFlag.await(bottomRight, this.cancel)) {
+            snakes.add(snake);
+          }
+        });
 
-        // Solve top left rectangle
+        // Solve top left rectangle first
         Point xy = middle.isForward() ? middle.snake().getStartPoint() : middle.snake().getEndPoint();
-        computePath(recursion + 1, snakes, null, null, startA, xy.x() - startA, startB, xy.y() - startB, VForward, VReverse);
+        pending.push(() -> computePath(pending, snakes, null, null, startA, xy.x() - startA, startB, xy.y() - startB, VForward, VReverse));
 
-        // Add middle snake to results
-        if (snakes.size() == 0 || !snakes.get(snakes.size() - 1).append(middle.snake())) {
-          snakes.add(middle.snake());
-        }
+      } else if (middle.getDiff() > 1) {
+        // Middle snake (D > 1), pushed in reverse order
 
-        // Solve bottom right rectangle
+        // Solve bottom right rectangle last
         Point uv = !middle.isForward() ? middle.snake().getStartPoint() : middle.snake().getEndPoint();
-        computePath(recursion + 1, snakes, null, null, uv.x(), startA + sizeA - uv.x(), uv.y(), startB + sizeB - uv.y(),
-            VForward, VReverse);
+        pending.push(() -> computePath(pending, snakes, null, null, uv.x(), startA + sizeA - uv.x(), uv.y(), startB + sizeB - uv.y(),
+            VForward, VReverse));
+
+        // Add middle snake to results
+        pending.push(() -> snakes.add(middle.snake()));
+
+        // Solve top left rectangle first
+        Point xy = middle.isForward() ? middle.snake().getStartPoint() : middle.snake().getEndPoint();
+        pending.push(() -> computePath(pending, snakes, null, null, startA, xy.x() - startA, startB, xy.y() - startB, VForward, VReverse));
 
       } else {
         // Edge case D=0 (identical) or D=1 (1 insertion or deletion)
@@ -122,29 +246,21 @@ public final class MyersLinearAlgorithm<T> extends MyersAlgorithm<T> implements
               throw new IllegalStateException("Missed D0 forward");
 
             EdgeSnake snake = EdgeSnake.create(startA, sizeA, startB, sizeB, DOWN, startA, startB, 0, middle.snake().x - startA);
-            if (snakes.size() == 0 || !snakes.get(snakes.size() - 1).append(snake)) {
-              snakes.add(snake);
-            }
+            snakes.add(snake);
           }
 
           // Add middle snake to results
-          if (snakes.size() == 0 || !snakes.get(snakes.size() - 1).append(middle.snake())) {
-            snakes.add(middle.snake());
-          }
+          snakes.add(middle.snake());
         } else {
           // Add middle snake to results
-          if (snakes.size() == 0 || !snakes.get(snakes.size() - 1).append(middle.snake())) {
-            snakes.add(middle.snake());
-          }
+          snakes.add(middle.snake());
 
           if (middle.snake().x < startA + sizeA) {
             if (startA + sizeA - middle.snake().x != startB + sizeB - middle.snake().y)
               throw new IllegalStateException("Missed D0 reverse");
 
             EdgeSnake snake = EdgeSnake.create(startA, sizeA, startB, sizeB, DOWN, middle.snake().x, middle.snake().y, 0, startA + sizeA - middle.snake().x);
-            if (snakes.size() == 0 || !snakes.get(snakes.size() - 1).append(snake)) {
-              snakes.add(snake);
-            }
+            snakes.add(snake);
           }
         }
       }
@@ -165,6 +281,8 @@ public final class MyersLinearAlgorithm<T> extends MyersAlgorithm<T> implements
       final boolean deltaIsEven = (delta % 2) == 0;
 
       for (int d = 0; d <= max; d++) {
+        CancelFlag.check(this.cancel);
+
         // For k in D to D in steps of 2 Do
         for (int k = -d; k <= d; k += 2) {
 
@@ -175,10 +293,19 @@ public final class MyersLinearAlgorithm<T> extends MyersAlgorithm<T> implements
           int xEnd = down ? xStart : xStart + 1;
           int yEnd = xEnd - k;
           int matching = 0;
-          while (xEnd < sizeA && yEnd < sizeB && a.get(xEnd + startA).equals(b.get(yEnd + startB))) {
-            xEnd++;
-            yEnd++;
-            matching++;
+          if (this.jumper != null) {
+            int maxLength = Math.min(sizeA - xEnd, sizeB - yEnd);
+            if (maxLength > 0 && yEnd >= 0) {
+              matching = this.jumper.forward(xEnd + startA, yEnd + startB, maxLength);
+              xEnd += matching;
+              yEnd += matching;
+            }
+          } else {
+            while (xEnd < sizeA && yEnd < sizeB && a.get(xEnd + startA).equals(b.get(yEnd + startB))) {
+              xEnd++;
+              yEnd++;
+              matching++;
+            }
           }
           VForward.setX(k, xEnd);
 
@@ -211,10 +338,19 @@ public final class MyersLinearAlgorithm<T> extends MyersAlgorithm<T> implements
           int xEnd = up ? xStart : xStart - 1;
           int yEnd = xEnd - k;
           int matching = 0;
-          while (xEnd > 0 && yEnd > 0 && a.get(xEnd + startA - 1).equals(b.get(yEnd + startB - 1))) {
-            xEnd--;
-            yEnd--;
-            matching++;
+          if (this.jumper != null) {
+            int maxLength = Math.min(xEnd, yEnd);
+            if (maxLength > 0 && xEnd <= sizeA && yEnd <= sizeB) {
+              matching = this.jumper.backward(xEnd + startA, yEnd + startB, maxLength);
+              xEnd -= matching;
+              yEnd -= matching;
+            }
+          } else {
+            while (xEnd > 0 && yEnd > 0 && a.get(xEnd + startA - 1).equals(b.get(yEnd + startB - 1))) {
+              xEnd--;
+              yEnd--;
+              matching++;
+            }
           }
           VReverse.setX(k, xEnd);
 
@@ -279,4 +415,46 @@ public final class MyersLinearAlgorithm<T> extends MyersAlgorithm<T> implements
     }
 
   }
+
+  /**
+   * The snakes of a path in order, merging consecutive snakes when possible.
+   *
+   * <p>If a consumer is specified, each snake is reported as soon as the next snake cannot be merged
+   * with it; otherwise, snakes are kept in a list.
+   */
+  static final class Path {
+
+    private final @Nullable Consumer<EdgeSnake> consumer;
+
+    private final List<EdgeSnake> snakes = new ArrayList<>();
+
+    private @Nullable EdgeSnake last;
+
+    Path(@Nullable Consumer<EdgeSnake> consumer) {
+      this.consumer = consumer;
+    }
+
+    /**
+     * Add the snake to the path, merging it with the last snake if possible.
+     */
+    void add(EdgeSnake snake) {
+      if (this.last != null && this.last.append(snake)) return;
+      if (this.last != null) report(this.last);
+      this.last = snake;
+    }
+
+    /**
+     * Report the last snake.
+     */
+    void flush() {
+      if (this.last != null) report(this.last);
+      this.last = null;
+    }
+
+    private void report(EdgeSnake snake) {
+      if (this.consumer != null) this.consumer.accept(snake);
+      else this.snakes.add(snake);
+    }
+  }
+
 }
@@ -0,0 +1,579 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.token.AttributeToken;
+import org.pageseeder.diffx.token.EndElementToken;
+import org.pageseeder.diffx.token.StartElementToken;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.xml.ElementStack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.pageseeder.diffx.algorithm.EdgeSnake.Direction.*;
+
+/**
+ * An implementation of Myers' linear space algorithm adjusted for XML.
+ *
+ * <p>Like the {@link MyersGreedyXMLAlgorithm}, the forward paths keep track of the open elements so
+ * that end elements can only be matched, inserted or deleted if they close the current element.
+ * The reverse paths keep track of the end elements which have yet to be opened in the same manner.
+ *
+ * <p>Attributes can only be matched, inserted or deleted directly after a start element or another
+ * attribute, and only if the operator is compatible with the element they belong to. The paths keep
+ * track of whether the last token allows attributes, or whether the next one is an attribute for the
+ * reverse paths, so that the results are well-formed without further correction.
+ *
+ * <p>The forward and reverse paths only meet when they share a point where their element stacks are
+ * the same, so each half of the problem is solved from a known start state to a known end state.
+ * Paths which cross without sharing a point are ignored and the search continues, if necessary
+ * until a path reaches the opposite corner. Only the endpoints and element stacks of the current
+ * paths are kept, so this algorithm only needs O(N+M) memory regardless of the number of differences.
+ *
+ * <p>This algorithm throws an <code>IllegalStateException</code> if the XML constraints prevent the
+ * paths from meeting.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @see <a href="https://neil.fraser.name/writing/diff/myers.pdf">An O(ND) Difference Algorithm and its Variations</a>
+ */
+public final class MyersLinearXMLAlgorithm extends MyersAlgorithm<XMLToken> implements DiffAlgorithm<XMLToken> {
+
+  private final static boolean DEBUG = false;
+
+  /**
+   * @throws DiffCancelledException If the cancel flag was raised or the thread interrupted.
+   */
+  @Override
+  public void diff(@NotNull List<? extends XMLToken> from, @NotNull List<? extends XMLToken> to, @NotNull DiffHandler<XMLToken> handler) {
+    Instance instance = new Instance(from, to, this.cancel);
+    List<EdgeSnake> snakes = instance.computePath();
+    handleResults(from, to, handler, snakes);
+  }
+
+  /**
+   * An instance of this algorithm for the sequences being compared.
+   */
+  private static final class Instance {
+
+    /**
+     * Value of x for a k-line which cannot be reached.
+     */
+    private static final int NONE = -1;
+
+    private final List<? extends XMLToken> a;
+    private final List<? extends XMLToken> b;
+
+    /**
+     * Offset so that negative k-lines can be stored in the arrays.
+     */
+    private final int offset;
+
+    /**
+     * Forward paths: end point, start of the last snake, and element stacks at both points.
+     */
+    private final int[] fx;
+    private final int[] fs;
+    private final ElementStack[] fStack;
+    private final ElementStack[] fStartStack;
+
+    /**
+     * Forward paths: whether the last token at both points is a start element or attribute.
+     */
+    private final boolean[] fOpen;
+    private final boolean[] fStartOpen;
+
+    /**
+     * Reverse paths: end point, start of the last snake, and element stacks at both points.
+     */
+    private final int[] rx;
+    private final int[] rs;
+    private final ElementStack[] rStack;
+    private final ElementStack[] rStartStack;
+
+    /**
+     * Reverse paths: whether the next token at both points is an attribute.
+     */
+    private final boolean[] rAttribute;
+    private final boolean[] rStartAttribute;
+
+    private final @Nullable CancelFlag cancel;
+
+    Instance(List<? extends XMLToken> a, List<? extends XMLToken> b, @Nullable CancelFlag cancel) {
+      this.a = a;
+      this.b = b;
+      this.cancel = cancel;
+      // Reverse k-lines are offset by delta which can be up to N+M
+      int max = a.size() + b.size();
+      int length = 4 * max + 5;
+      this.offset = 2 * max + 2;
+      Workspace workspace = Workspace.current();
+      this.fx = workspace.take(length);
+      this.fs = workspace.take(length);
+      this.rx = workspace.take(length);
+      this.rs = workspace.take(length);
+      this.fStack = new ElementStack[length];
+      this.fStartStack = new ElementStack[length];
+      this.rStack = new ElementStack[length];
+      this.rStartStack = new ElementStack[length];
+      this.fOpen = new boolean[length];
+      this.fStartOpen = new boolean[length];
+      this.rAttribute = new boolean[length];
+      this.rStartAttribute = new boolean[length];
+    }
+
+    /**
+     * Compute the path to generate the shortest edit sequence (SES) between the two lists.
+     *
+     * @return the corresponding list of snakes
+     * @throws IllegalStateException If no solution was found.
+     */
+    List<EdgeSnake> computePath() {
+      List<EdgeSnake> snakes = new ArrayList<>();
+      try {
+        Deque<Runnable> pending = new ArrayDeque<>();
+        pending.push(() -> computePath(pending, snakes, 0, this.a.size(), 0, this.b.size(), ElementStack.EMPTY, ElementStack.EMPTY, false, false));
+        while (!pending.isEmpty()) {
+          pending.pop().run();
+        }
+      } finally {
+        Workspace workspace = Workspace.current();
+        workspace.give(this.fx);
+        workspace.give(this.fs);
+        workspace.give(this.rx);
+        workspace.give(this.rs);
+      }
+      return snakes;
+    }
+
+    /**
+     * Compute the path for the specified rectangle going from the start stack to the end stack.
+     *
+     * <p>The rectangles on either side of the middle snake are pushed onto the work stack in reverse
+     * order so that the snakes are added in order.
+     *
+     * @param open      Whether the token before the rectangle is a start element or attribute
+     * @param attribute Whether the token after the rectangle is an attribute
+     */
+    private void computePath(Deque<Runnable> pending, List<EdgeSnake> snakes, int startA, int sizeA, int startB, int sizeB,
+                             ElementStack start, ElementStack end, boolean open, boolean attribute) {
+      // Rectangles are solved in order so everything before the top left corner is done
+      CancelFlag.check(this.cancel, startA + startB, this.a.size() + this.b.size());
+
+      // Only deletions
+      if (sizeB == 0 && sizeA > 0) {
+        check(this.a, startA, sizeA, Operator.DEL, start, end, open, attribute);
+        addSnake(snakes, EdgeSnake.create(startA, sizeA, startB, sizeB, RIGHT, startA, startB, sizeA, 0));
+      }
+
+      // Only insertions
+      if (sizeA == 0 && sizeB > 0) {
+        check(this.b, startB, sizeB, Operator.INS, start, end, open, attribute);
+        addSnake(snakes, EdgeSnake.create(startA, sizeA, startB, sizeB, DOWN, startA, startB, sizeB, 0));
+      }
+
+      // We're done here
+      if (sizeA <= 0 || sizeB <= 0) {
+        if (sizeA == 0 && sizeB == 0 && !start.equivalent(end))
+          throw new IllegalStateException("Unable to find a solution");
+        return;
+      }
+
+      Middle middle = middleSnake(startA, sizeA, startB, sizeB, start, end, open, attribute);
+      if (DEBUG) System.err.println(middle);
+
+      // Solve bottom right rectangle last
+      pending.push(() -> computePath(pending, snakes, middle.x2, startA + sizeA - middle.x2, middle.y2, startB + sizeB - middle.y2, middle.stack2, end, middle.open2, attribute));
+
+      // Add middle snake
+      if (middle.snake.edited > 0 || middle.snake.matching > 0) {
+        pending.push(() -> addSnake(snakes, middle.snake));
+      }
+
+      // Solve top left rectangle first
+      pending.push(() -> computePath(pending, snakes, startA, middle.x1 - startA, startB, middle.y1 - startB, start, middle.stack1, open, middle.attribute1));
+    }
+
+    /**
+     * Check that the tokens can all be inserted or deleted from the start stack to the end stack.
+     *
+     * @throws IllegalStateException If the edits would not result in well-formed XML
+     */
+    private static void check(List<? extends XMLToken> tokens, int from, int size, Operator operator,
+                              ElementStack start, ElementStack end, boolean open, boolean attribute) {
+      ElementStack stack = start;
+      for (int i = from; i < from + size; i++) {
+        XMLToken token = tokens.get(i);
+        if (!isAllowed(stack, operator, token, open)) throw new IllegalStateException("Unable to find a solution");
+        stack = stack.update(operator, token);
+        open = isOpen(token);
+      }
+      if (!stack.equivalent(end) || (attribute && !open)) throw new IllegalStateException("Unable to find a solution");
+    }
+
+    /**
+     * Add the snake to the list, merging it with the last snake if possible.
+     */
+    private static void addSnake(List<EdgeSnake> snakes, EdgeSnake snake) {
+      if (snakes.size() == 0 || !snakes.get(snakes.size() - 1).append(snake)) {
+        snakes.add(snake);
+      }
+    }
+
+    /**
+     * Calculate the middle snake where the forward and reverse paths meet with the same element stack.
+     *
+     * @throws IllegalStateException If the paths could not meet
+     */
+    private Middle middleSnake(int startA, int sizeA, int startB, int sizeB, ElementStack start, ElementStack end,
+                               boolean startOpen, boolean endAttribute) {
+      final int max = sizeA + sizeB;
+      final int delta = sizeA - sizeB;
+      final boolean deltaIsEven = (delta % 2) == 0;
+
+      for (int d = 0; d <= max; d++) {
+        CancelFlag.check(this.cancel);
+
+        // Forward paths
+        for (int k = -d; k <= d; k += 2) {
+          final int i = k + this.offset;
+          int x;
+          boolean down = false;
+          ElementStack stack;
+          boolean open;
+          if (d == 0) {
+            x = 0;
+            stack = start;
+            open = startOpen;
+          } else {
+            // Furthest reaching candidates via an insertion (down) or a deletion (right)
+            int xUp = k != d ? this.fx[i + 1] : NONE;
+            int xLeft = k != -d ? this.fx[i - 1] : NONE;
+            boolean canDown = xUp != NONE && xUp - k <= sizeB
+                && isAllowed(this.fStack[i + 1], Operator.INS, this.b.get(startB + xUp - k - 1), this.fOpen[i + 1]);
+            boolean canRight = xLeft != NONE && xLeft < sizeA
+                && isAllowed(this.fStack[i - 1], Operator.DEL, this.a.get(startA + xLeft), this.fOpen[i - 1]);
+            if (canDown && (!canRight || xLeft < xUp)) {
+              down = true;
+              x = xUp;
+              XMLToken token = this.b.get(startB + x - k - 1);
+              stack = this.fStack[i + 1].update(Operator.INS, token);
+              open = isOpen(token);
+            } else if (canRight) {
+              x = xLeft + 1;
+              XMLToken token = this.a.get(startA + xLeft);
+              stack = this.fStack[i - 1].update(Operator.DEL, token);
+              open = isOpen(token);
+            } else {
+              this.fx[i] = NONE;
+              continue;
+            }
+          }
+          final int xStart = x;
+          final ElementStack startStack = stack;
+          final boolean openAtStart = open;
+          this.fs[i] = xStart;
+          this.fStartStack[i] = startStack;
+          this.fStartOpen[i] = openAtStart;
+
+          // Follow diagonal
+          int y = x - k;
+          while (x < sizeA && y < sizeB) {
+            XMLToken token = this.a.get(startA + x);
+            if (!token.equals(this.b.get(startB + y)) || !isAllowed(stack, Operator.MATCH, token, open)) break;
+            stack = stack.update(Operator.MATCH, token);
+            open = isOpen(token);
+            x++;
+            y++;
+          }
+          this.fx[i] = x;
+          this.fStack[i] = stack;
+          this.fOpen[i] = open;
+
+          // Meet at the end if the path is complete, or where it overlaps the furthest reaching reverse (D-1)-path
+          int p = NONE;
+          ElementStack forward = stack;
+          if (x == sizeA && y == sizeB) {
+            if (stack.equivalent(end) && (open || !endAttribute)) p = x;
+          } else if (!deltaIsEven && k >= delta - (d - 1) && k <= delta + (d - 1) && this.rx[i] != NONE && x >= this.rx[i]) {
+            // The paths must share a point where their stacks are the same
+            int shared = Math.min(x, this.rs[i]);
+            if (Math.max(xStart, this.rx[i]) <= shared) {
+              ElementStack reverse = replayReverse(this.rStartStack[i], startA, this.rs[i], shared);
+              forward = replay(startStack, startA, xStart, shared);
+              boolean forwardOpen = shared > xStart ? isOpen(this.a.get(startA + shared - 1)) : openAtStart;
+              boolean reverseAttribute = shared < this.rs[i] ? isAttribute(this.a.get(startA + shared)) : this.rStartAttribute[i];
+              if (forward.equivalent(reverse) && (forwardOpen || !reverseAttribute)) {
+                // Only extend the snake up to the next element
+                p = shared;
+                while (p < x && !isElement(this.a.get(startA + p))) p++;
+              }
+            }
+          }
+          if (p == NONE) continue;
+
+          boolean open2 = p > xStart ? isOpen(this.a.get(startA + p - 1)) : openAtStart;
+          if (d == 0) {
+            // No edit, the middle snake is the start of the diagonal up to the meeting point
+            EdgeSnake snake = EdgeSnake.create(startA, sizeA, startB, sizeB, DOWN, startA, startB, 0, p);
+            return new Middle(snake, startA, startB, start, false, p + startA, p - k + startB, forward, open2);
+          }
+
+          // The middle snake is the last snake of the forward path up to the meeting point
+          int xPrev = down ? xStart : xStart - 1;
+          int yPrev = xPrev - (down ? k + 1 : k - 1);
+          ElementStack stackPrev = down ? this.fStack[i + 1] : this.fStack[i - 1];
+          XMLToken edit = down ? this.b.get(startB + yPrev) : this.a.get(startA + xPrev);
+          EdgeSnake snake = EdgeSnake.create(startA, sizeA, startB, sizeB, down ? DOWN : RIGHT,
+              xPrev + startA, yPrev + startB, 1, p - xStart);
+          return new Middle(snake, xPrev + startA, yPrev + startB, stackPrev, isAttribute(edit), p + startA, p - k + startB, forward, open2);
+        }
+
+        // Reverse paths
+        for (int k = -d + delta; k <= d + delta; k += 2) {
+          final int i = k + this.offset;
+          int x;
+          boolean up = false;
+          ElementStack stack;
+          boolean attribute;
+          if (d == 0) {
+            x = sizeA;
+            stack = end;
+            attribute = endAttribute;
+          } else {
+            // Furthest reaching candidates via an insertion (up) or a deletion (left)
+            int xDown = k != -d + delta ? this.rx[i - 1] : NONE;
+            int xRight = k != d + delta ? this.rx[i + 1] : NONE;
+            boolean canUp = xDown != NONE && xDown - k >= 0
+                && isAllowedReverse(this.rStack[i - 1], Operator.INS, this.b.get(startB + xDown - k), this.rAttribute[i - 1]);
+            boolean canLeft = xRight != NONE && xRight > 0
+                && isAllowedReverse(this.rStack[i + 1], Operator.DEL, this.a.get(startA + xRight - 1), this.rAttribute[i + 1]);
+            if (canUp && (!canLeft || xDown < xRight)) {
+              up = true;
+              x = xDown;
+              XMLToken token = this.b.get(startB + x - k);
+              stack = updateReverse(this.rStack[i - 1], Operator.INS, token);
+              attribute = isAttribute(token);
+            } else if (canLeft) {
+              x = xRight - 1;
+              XMLToken token = this.a.get(startA + x);
+              stack = updateReverse(this.rStack[i + 1], Operator.DEL, token);
+              attribute = isAttribute(token);
+            } else {
+              this.rx[i] = NONE;
+              continue;
+            }
+          }
+          final int xStart = x;
+          final ElementStack startStack = stack;
+          final boolean attributeAtStart = attribute;
+          this.rs[i] = xStart;
+          this.rStartStack[i] = startStack;
+          this.rStartAttribute[i] = attributeAtStart;
+
+          // Follow diagonal
+          int y = x - k;
+          while (x > 0 && y > 0) {
+            XMLToken token = this.a.get(startA + x - 1);
+            if (!token.equals(this.b.get(startB + y - 1)) || !isAllowedReverse(stack, Operator.MATCH, token, attribute)) break;
+            stack = updateReverse(stack, Operator.MATCH, token);
+            attribute = isAttribute(token);
+            x--;
+            y--;
+          }
+          this.rx[i] = x;
+          this.rStack[i] = stack;
+          this.rAttribute[i] = attribute;
+
+          // Meet at the start if the path is complete, or where it overlaps the furthest reaching forward D-path
+          int p = NONE;
+          ElementStack reverse = stack;
+          if (x == 0 && y == 0) {
+            if (stack.equivalent(start) && (startOpen || !attribute)) p = x;
+          } else if (deltaIsEven && k >= -d && k <= d && this.fx[i] != NONE && x <= this.fx[i]) {
+            // The paths must share a point where their stacks are the same
+            int shared = Math.max(this.fs[i], x);
+            if (shared <= Math.min(this.fx[i], xStart)) {
+              ElementStack forward = replay(this.fStartStack[i], startA, this.fs[i], shared);
+              reverse = replayReverse(startStack, startA, xStart, shared);
+              boolean forwardOpen = shared > this.fs[i] ? isOpen(this.a.get(startA + shared - 1)) : this.fStartOpen[i];
+              boolean reverseAttribute = shared < xStart ? isAttribute(this.a.get(startA + shared)) : attributeAtStart;
+              if (forward.equivalent(reverse) && (forwardOpen || !reverseAttribute)) {
+                // Only extend the snake down to the previous element
+                p = shared;
+                while (p > x && !isElement(this.a.get(startA + p - 1))) p--;
+              }
+            }
+          }
+          if (p == NONE) continue;
+
+          boolean attribute1 = p < xStart ? isAttribute(this.a.get(startA + p)) : attributeAtStart;
+          if (d == 0) {
+            // No edit, the middle snake is the end of the diagonal from the meeting point
+            EdgeSnake snake = EdgeSnake.create(startA, sizeA, startB, sizeB, DOWN,
+                p + startA, p - k + startB, 0, sizeA - p);
+            return new Middle(snake, p + startA, p - k + startB, reverse, attribute1, sizeA + startA, sizeB + startB, end, false);
+          }
+
+          // The middle snake is the last snake of the reverse path down to the meeting point
+          int xPrev = up ? xStart : xStart + 1;
+          int yPrev = xPrev - (up ? k - 1 : k + 1);
+          ElementStack stackPrev = up ? this.rStack[i - 1] : this.rStack[i + 1];
+          XMLToken edit = up ? this.b.get(startB + yPrev - 1) : this.a.get(startA + xPrev - 1);
+          EdgeSnake snake = EdgeSnake.create(startA, sizeA, startB, sizeB, up ? UP : LEFT,
+              xPrev + startA, yPrev + startB, 1, xStart - p);
+          return new Middle(snake, p + startA, p - k + startB, reverse, attribute1, xPrev + startA, yPrev + startB, stackPrev, isOpen(edit));
+        }
+      }
+
+      throw new IllegalStateException("Unable to find a middle snake");
+    }
+
+    /**
+     * Replay the forward updates to the stack for the matching tokens on a diagonal.
+     */
+    private ElementStack replay(ElementStack stack, int startA, int from, int to) {
+      for (int x = from; x < to; x++) {
+        stack = stack.update(Operator.MATCH, this.a.get(startA + x));
+      }
+      return stack;
+    }
+
+    /**
+     * Replay the reverse updates to the stack for the matching tokens on a diagonal.
+     */
+    private ElementStack replayReverse(ElementStack stack, int startA, int from, int to) {
+      for (int x = from; x > to; x--) {
+        stack = updateReverse(stack, Operator.MATCH, this.a.get(startA + x - 1));
+      }
+      return stack;
+    }
+
+    /**
+     * Indicates whether the token changes the element stack.
+     */
+    private static boolean isElement(XMLToken token) {
+      return token instanceof StartElementToken || token instanceof EndElementToken;
+    }
+
+    /**
+     * Indicates whether attributes can follow the token.
+     */
+    private static boolean isOpen(XMLToken token) {
+      return token instanceof StartElementToken || token instanceof AttributeToken;
+    }
+
+    private static boolean isAttribute(XMLToken token) {
+      return token instanceof AttributeToken;
+    }
+
+    /**
+     * Indicates whether the token can be added after the open elements in the stack.
+     *
+     * @param open Whether the last token is a start element or attribute
+     */
+    private static boolean isAllowed(ElementStack stack, Operator operator, XMLToken token, boolean open) {
+      if (token instanceof AttributeToken) return open && isAllowedAttribute(stack, operator);
+      return !(token instanceof EndElementToken) || stack.matchEnd(operator, (EndElementToken) token);
+    }
+
+    /**
+     * Indicates whether the token can be added before the elements yet to be opened in the stack.
+     *
+     * @param attribute Whether the next token is an attribute
+     */
+    private static boolean isAllowedReverse(ElementStack stack, Operator operator, XMLToken token, boolean attribute) {
+      if (attribute && !isOpen(token)) return false;
+      if (token instanceof AttributeToken) return isAllowedAttribute(stack, operator);
+      return !(token instanceof StartElementToken) || stack.matchStart(operator, (StartElementToken) token);
+    }
+
+    /**
+     * Indicates whether an attribute can be added to the element at the top of the stack.
+     *
+     * <p>Only attributes of matched elements can be inserted or deleted.
+     */
+    private static boolean isAllowedAttribute(ElementStack stack, Operator operator) {
+      return !stack.isEmpty() && (stack.operator() == Operator.MATCH || stack.operator() == operator);
+    }
+
+    /**
+     * Returns the elements yet to be opened before the specified token.
+     */
+    private static ElementStack updateReverse(ElementStack stack, Operator operator, XMLToken token) {
+      if (token instanceof EndElementToken) return stack.push(operator, ((EndElementToken) token).getOpenElement());
+      if (token instanceof StartElementToken) return stack.pop();
+      return stack;
+    }
+  }
+
+  /**
+   * The middle snake and the rectangles on either side with their element stacks.
+   */
+  private static final class Middle {
+
+    private final EdgeSnake snake;
+
+    /**
+     * End point of the top left rectangle, the element stack at that point and whether the next token is an attribute.
+     */
+    private final int x1;
+    private final int y1;
+    private final ElementStack stack1;
+    private final boolean attribute1;
+
+    /**
+     * Start point of the bottom right rectangle, the element stack at that point and whether the
+     * previous token is a start element or attribute.
+     */
+    private final int x2;
+    private final int y2;
+    private final ElementStack stack2;
+    private final boolean open2;
+
+    Middle(EdgeSnake snake, int x1, int y1, ElementStack stack1, boolean attribute1,
+           int x2, int y2, ElementStack stack2, boolean open2) {
+      this.snake = snake;
+      this.x1 = x1;
+      this.y1 = y1;
+      this.stack1 = stack1;
+      this.attribute1 = attribute1;
+      this.x2 = x2;
+      this.y2 = y2;
+      this.stack2 = stack2;
+      this.open2 = open2;
+    }
+
+    @Override
+    public String toString() {
+      return "Middle{" + this.snake + " (" + this.x1 + "," + this.y1 + ")" + this.stack1
+          + " (" + this.x2 + "," + this.y2 + ")" + this.stack2 + "}";
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MyersLinearXMLAlgorithm";
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Finds the length of the runs of matching tokens along a diagonal (the snakes) in logarithmic time.
+ *
+ * <p>Each distinct token is given an integer ID and the polynomial hash of every prefix of both
+ * sequences is precomputed, so that any two ranges of tokens can be compared in constant time.
+ * After comparing the first few tokens one by one, the end of the run is found by exponential search
+ * followed by a binary search on the equality of the hashes.
+ *
+ * <p>Hashes are computed modulo the Mersenne prime 2<sup>61</sup>-1 with a random base so the
+ * probability of a collision is negligible; the tokens on either side of the end of a run are
+ * always compared, and the run is followed token by token if they do not match.
+ *
+ * <p>Instances are immutable once created and can be shared between threads.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+final class SnakeJumper {
+
+  /**
+   * The minimum size of both sequences for snake jumping to be worth the cost of computing the hashes.
+   */
+  static final int MIN_SIZE = 256;
+
+  /**
+   * The number of tokens compared one by one before jumping.
+   */
+  private static final int LINEAR = 8;
+
+  /**
+   * The Mersenne prime 2^61-1.
+   */
+  private static final long MOD = (1L << 61) - 1;
+
+  private static final long MASK30 = (1L << 30) - 1;
+
+  private static final long MASK31 = (1L << 31) - 1;
+
+  /**
+   * IDs of the tokens in each sequence, equal tokens have the same ID.
+   */
+  private final int[] idsA;
+  private final int[] idsB;
+
+  /**
+   * Hashes of the prefixes of each sequence, <code>hash[i]</code> is the hash of the first i tokens.
+   */
+  private final long[] hashA;
+  private final long[] hashB;
+
+  /**
+   * Powers of the base.
+   */
+  private final long[] powers;
+
+  <T> SnakeJumper(List<? extends T> a, List<? extends T> b) {
+    Map<T, Integer> ids = new HashMap<>();
+    this.idsA = toIds(a, ids);
+    this.idsB = toIds(b, ids);
+    long base = ThreadLocalRandom.current().nextLong(1L << 40, MOD - 1);
+    this.powers = new long[Math.max(a.size(), b.size()) + 1];
+    this.powers[0] = 1;
+    for (int i = 1; i < this.powers.length; i++) {
+      this.powers[i] = multiply(this.powers[i - 1], base);
+    }
+    this.hashA = toPrefixHashes(this.idsA, base);
+    this.hashB = toPrefixHashes(this.idsB, base);
+  }
+
+  /**
+   * Create a new snake jumper if the sequences are large enough.
+   *
+   * @param a The first sequence
+   * @param b The second sequence
+   *
+   * @return a new snake jumper or <code>null</code> if the sequences are too small.
+   */
+  static <T> @Nullable SnakeJumper create(List<? extends T> a, List<? extends T> b) {
+    return Math.min(a.size(), b.size()) >= MIN_SIZE ? new SnakeJumper(a, b) : null;
+  }
+
+  /**
+   * Returns the number of matching tokens starting at the specified position.
+   *
+   * @param x   The position in the first sequence
+   * @param y   The position in the second sequence
+   * @param max The maximum number of tokens to compare
+   *
+   * @return the length of the snake starting at (x,y)
+   */
+  int forward(int x, int y, int max) {
+    int low = 0;
+    while (low < max && low < LINEAR) {
+      if (this.idsA[x + low] != this.idsB[y + low]) return low;
+      low++;
+    }
+    if (low == max) return low;
+
+    // Exponential search for a length which does not match
+    int high = -1;
+    for (int step = low; high < 0; step *= 2) {
+      int length = Math.min(low + step, max);
+      if (!isSame(this.hashA, x, this.hashB, y, length)) high = length;
+      else if (length == max) high = max + 1;
+      else low = length;
+    }
+    if (high > max) low = max;
+
+    // Binary search between the longest known match and the shortest known mismatch
+    while (high - low > 1) {
+      int mid = (low + high) >>> 1;
+      if (isSame(this.hashA, x, this.hashB, y, mid)) low = mid;
+      else high = mid;
+    }
+
+    // Verify the tokens either side of the end of the snake in case of collision
+    boolean last = this.idsA[x + low - 1] == this.idsB[y + low - 1];
+    boolean next = low == max || this.idsA[x + low] != this.idsB[y + low];
+    if (last && next) return low;
+    int length = 0;
+    while (length < max && this.idsA[x + length] == this.idsB[y + length]) length++;
+    return length;
+  }
+
+  /**
+   * Returns the number of matching tokens ending at the specified position.
+   *
+   * @param x   The position in the first sequence after the last token
+   * @param y   The position in the second sequence after the last token
+   * @param max The maximum number of tokens to compare
+   *
+   * @return the length of the snake ending at (x,y)
+   */
+  int backward(int x, int y, int max) {
+    int low = 0;
+    while (low < max && low < LINEAR) {
+      if (this.idsA[x - low - 1] != this.idsB[y - low - 1]) return low;
+      low++;
+    }
+    if (low == max) return low;
+
+    // Exponential search for a length which does not match
+    int high = -1;
+    for (int step = low; high < 0; step *= 2) {
+      int length = Math.min(low + step, max);
+      if (!isSame(this.hashA, x - length, this.hashB, y - length, length)) high = length;
+      else if (length == max) high = max + 1;
+      else low = length;
+    }
+    if (high > max) low = max;
+
+    // Binary search between the longest known match and the shortest known mismatch
+    while (high - low > 1) {
+      int mid = (low + high) >>> 1;
+      if (isSame(this.hashA, x - mid, this.hashB, y - mid, mid)) low = mid;
+      else high = mid;
+    }
+
+    // Verify the tokens either side of the start of the snake in case of collision
+    boolean last = this.idsA[x - low] == this.idsB[y - low];
+    boolean next = low == max || this.idsA[x - low - 1] != this.idsB[y - low - 1];
+    if (last && next) return low;
+    int length = 0;
+    while (length < max && this.idsA[x - length - 1] == this.idsB[y - length - 1]) length++;
+    return length;
+  }
+
+  /**
+   * Indicates whether the ranges of the specified length starting at i and j have the same hash.
+   */
+  private boolean isSame(long[] hashI, int i, long[] hashJ, int j, int length) {
+    return hash(hashI, i, length) == hash(hashJ, j, length);
+  }
+
+  /**
+   * Returns the hash of the range of the specified length starting at i.
+   */
+  private long hash(long[] prefix, int i, int length) {
+    long h = prefix[i + length] + MOD - multiply(prefix[i], this.powers[length]);
+    return h >= MOD ? h - MOD : h;
+  }
+
+  private static <T> int[] toIds(List<? extends T> tokens, Map<T, Integer> ids) {
+    int[] array = new int[tokens.size()];
+    for (int i = 0; i < array.length; i++) {
+      T token = tokens.get(i);
+      Integer id = ids.get(token);
+      if (id == null) {
+        id = ids.size() + 1;
+        ids.put(token, id);
+      }
+      array[i] = id;
+    }
+    return array;
+  }
+
+  private static long[] toPrefixHashes(int[] ids, long base) {
+    long[] hashes = new long[ids.length + 1];
+    for (int i = 0; i < ids.length; i++) {
+      hashes[i + 1] = modulo(multiply(hashes[i], base) + ids[i]);
+    }
+    return hashes;
+  }
+
+  /**
+   * Multiply two values lower than 2^61-1 modulo 2^61-1 without overflow.
+   */
+  private static long multiply(long a, long b) {
+    long au = a >>> 31;
+    long ad = a & MASK31;
+    long bu = b >>> 31;
+    long bd = b & MASK31;
+    long mid = ad * bu + au * bd;
+    long midu = mid >>> 30;
+    long midd = mid & MASK30;
+    return modulo(au * bu * 2 + midu + (midd << 31) + ad * bd);
+  }
+
+  private static long modulo(long x) {
+    long r = (x >>> 61) + (x & MOD);
+    return r >= MOD ? r - MOD : r;
+  }
+
+}
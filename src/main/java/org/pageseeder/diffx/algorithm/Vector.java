@@ -107,6 +107,15 @@ final class Vector {
     return create(m, n, true, m + n);
   }
 
+  /**
+   * Gives the underlying array back to the workspace of the current thread.
+   *
+   * <p>This vector must not be used after it has been released, but its snapshots remain valid.
+   */
+  public void release() {
+    Workspace.current().give(this.array);
+  }
+
   /**
    * Initializes a new instance of this helper class.
    *
@@ -119,7 +128,7 @@ final class Vector {
     if (max <= 0) {
       max = 1;
     }
-    int[] array = new int[2 * max + 1];
+    int[] array = Workspace.current().take(2 * max + 1);
     Vector vector = new Vector(array, forward, max, 0);
     vector.init(m, n);
     return vector;
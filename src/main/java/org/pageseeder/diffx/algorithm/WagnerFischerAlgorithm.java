@@ -15,6 +15,7 @@
  */
 package org.pageseeder.diffx.algorithm;
 
+import org.jetbrains.annotations.Nullable;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.api.Operator;
@@ -29,11 +30,65 @@ import java.util.List;
  */
 public final class WagnerFischerAlgorithm<T> implements DiffAlgorithm<T> {
 
+  /**
+   * Set to <code>true</code> to compute the matrix in parallel.
+   */
+  private boolean parallel = false;
+
+  /**
+   * The minimum number of cells for the matrix to be backed by a temporary file.
+   */
+  private long diskThreshold = Long.MAX_VALUE;
+
+  private @Nullable CancelFlag cancel = null;
+
+  /**
+   * Set whether the matrix can be computed in parallel for large sequences.
+   *
+   * @param parallel <code>true</code> to compute the matrix in parallel
+   *
+   * @see MatrixProcessor#setParallel(boolean)
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  /**
+   * Set the minimum number of cells for the matrix to be backed by a memory-mapped temporary file
+   * rather than the heap.
+   *
+   * <p>This does not affect the results, but allows very large sequences to be compared using disk space.
+   *
+   * @param threshold The minimum number of cells to use a disk-backed matrix
+   *
+   * @see MatrixProcessor#setDiskThreshold(long)
+   */
+  public void setDiskThreshold(long threshold) {
+    this.diskThreshold = threshold;
+  }
+
+  /**
+   * Set the flag used to cancel this algorithm while the matrix is computed.
+   *
+   * <p>The flag is checked for each row of the matrix, it also receives the progress.
+   *
+   * @param cancel The cancel flag (may be <code>null</code>)
+   */
+  public void setCancelFlag(@Nullable CancelFlag cancel) {
+    this.cancel = cancel;
+  }
+
+  /**
+   * @throws DiffCancelledException If the cancel flag was raised or the thread interrupted.
+   */
   @Override
   public void diff(List<? extends T> from, List<? extends T> to, DiffHandler<T> handler) {
     // calculate the LCS length to fill the matrix
     MatrixProcessor<T> builder = new MatrixProcessor<>();
     builder.setInverse(true);
+    builder.setParallel(this.parallel);
+    builder.setDiskThreshold(this.diskThreshold);
+    builder.setCancelFlag(this.cancel);
     Matrix matrix = builder.process(from, to);
     final int length1 = from.size();
     final int length2 = to.size();
@@ -42,26 +97,31 @@ public final class WagnerFischerAlgorithm<T> implements DiffAlgorithm<T> {
     T t1;
     T t2;
 
-    // Backtrack start walking the matrix
-    while (i < length1 && j < length2) {
-      t1 = from.get(i);
-      t2 = to.get(j);
-      if (matrix.isGreaterX(i, j)) {
-        handler.handle(Operator.DEL, t1);
-        i++;
-      } else if (matrix.isGreaterY(i, j)) {
-        handler.handle(Operator.INS, t2);
-        j++;
-      } else if (matrix.isSameXY(i, j)) {
-        if (t1.equals(t2)) {
-          handler.handle(Operator.MATCH, t1);
-          i++;
-          j++;
-        } else {
+    try {
+      // Backtrack start walking the matrix
+      while (i < length1 && j < length2) {
+        t1 = from.get(i);
+        t2 = to.get(j);
+        if (matrix.isGreaterX(i, j)) {
           handler.handle(Operator.DEL, t1);
           i++;
+        } else if (matrix.isGreaterY(i, j)) {
+          handler.handle(Operator.INS, t2);
+          j++;
+        } else if (matrix.isSameXY(i, j)) {
+          if (t1.equals(t2)) {
+            handler.handle(Operator.MATCH, t1);
+            i++;
+            j++;
+          } else {
+            handler.handle(Operator.DEL, t1);
+            i++;
+          }
         }
       }
+    } finally {
+      // the matrix is no longer needed
+      matrix.release();
     }
 
     // finish off the tokens from A
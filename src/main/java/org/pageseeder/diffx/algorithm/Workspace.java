@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds the working memory that algorithms can reuse from one diff to the next.
+ *
+ * <p>Algorithms take their buffers (integer arrays and matrices) from the workspace of the current
+ * thread and give them back when they are done, so that steady-state diffs do not need to allocate
+ * new buffers.
+ *
+ * <p>Buffers which are given back are only retained up to the capacity of the workspace; any buffer
+ * that would exceed the capacity is left to the garbage collector. This ensures that large matrices
+ * do not remain in memory after a large diff.
+ *
+ * <p>A buffer taken from the workspace is owned by the caller until it is given back, and must not
+ * be used after that. Buffers may be larger than requested.
+ *
+ * <p>This class is not synchronised: each thread has its own workspace.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class Workspace {
+
+  /**
+   * The default capacity of a workspace in bytes (4MB).
+   */
+  public static final long DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+  /**
+   * The maximum number of integer arrays retained.
+   */
+  private static final int MAX_ARRAYS = 32;
+
+  /**
+   * The workspace for each thread.
+   */
+  private static final ThreadLocal<Workspace> CURRENT = ThreadLocal.withInitial(Workspace::new);
+
+  /**
+   * Retained integer arrays.
+   */
+  private final List<int[]> arrays = new ArrayList<>();
+
+  /**
+   * Retained matrix of short values.
+   */
+  private short[][] shorts = null;
+
+  /**
+   * Retained matrix of integer values.
+   */
+  private int[][] ints = null;
+
+  /**
+   * The maximum number of bytes retained by this workspace.
+   */
+  private long capacity;
+
+  /**
+   * The number of bytes currently retained by this workspace.
+   */
+  private long retained = 0;
+
+  /**
+   * Create a new workspace with the default capacity.
+   */
+  public Workspace() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Create a new workspace with the specified capacity.
+   *
+   * @param capacity The maximum number of bytes retained by this workspace.
+   */
+  public Workspace(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * @return the workspace for the current thread.
+   */
+  public static Workspace current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Set the maximum number of bytes retained by this workspace.
+   *
+   * <p>Retained buffers are released if they exceed the new capacity.
+   *
+   * @param capacity The maximum number of bytes retained.
+   */
+  public void setCapacity(long capacity) {
+    this.capacity = capacity;
+    if (this.retained > capacity) clear();
+  }
+
+  /**
+   * @return the maximum number of bytes retained by this workspace.
+   */
+  public long getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * @return the number of bytes currently retained by this workspace.
+   */
+  public long getRetained() {
+    return this.retained;
+  }
+
+  /**
+   * Release all the buffers retained by this workspace.
+   */
+  public void clear() {
+    this.arrays.clear();
+    this.shorts = null;
+    this.ints = null;
+    this.retained = 0;
+  }
+
+  /**
+   * Take an integer array from the workspace.
+   *
+   * <p>The values up to the requested length are set to 0.
+   *
+   * @param length The minimum length of the array
+   *
+   * @return an array of at least the specified length
+   */
+  int[] take(int length) {
+    int best = -1;
+    for (int i = 0; i < this.arrays.size(); i++) {
+      int[] array = this.arrays.get(i);
+      if (array.length >= length && (best < 0 || array.length < this.arrays.get(best).length)) {
+        best = i;
+      }
+    }
+    if (best < 0) return new int[length];
+    int[] array = this.arrays.remove(best);
+    this.retained -= sizeOf(array);
+    Arrays.fill(array, 0, length, 0);
+    return array;
+  }
+
+  /**
+   * Give back an integer array to the workspace.
+   *
+   * @param array The array to give back (may be <code>null</code>).
+   */
+  void give(int[] array) {
+    if (array == null) return;
+    long size = sizeOf(array);
+    if (this.retained + size <= this.capacity && this.arrays.size() < MAX_ARRAYS) {
+      this.arrays.add(array);
+      this.retained += size;
+    }
+  }
+
+  /**
+   * Take a matrix of short values from the workspace.
+   *
+   * <p>The values in the matrix are undefined.
+   *
+   * @param width  The minimum number of rows
+   * @param height The minimum number of columns
+   *
+   * @return a matrix of at least the specified dimensions
+   */
+  short[][] takeShorts(int width, int height) {
+    short[][] matrix = this.shorts;
+    if (matrix != null && matrix.length >= width && matrix[0].length >= height) {
+      this.shorts = null;
+      this.retained -= sizeOf(matrix);
+      return matrix;
+    }
+    return new short[width][height];
+  }
+
+  /**
+   * Give back a matrix of short values to the workspace.
+   *
+   * @param matrix The matrix to give back (may be <code>null</code>).
+   */
+  void give(short[][] matrix) {
+    if (matrix == null || matrix.length == 0) return;
+    long size = sizeOf(matrix);
+    long current = this.shorts != null ? sizeOf(this.shorts) : 0;
+    if (size > current && this.retained - current + size <= this.capacity) {
+      this.shorts = matrix;
+      this.retained += size - current;
+    }
+  }
+
+  /**
+   * Take a matrix of integer values from the workspace.
+   *
+   * <p>The values in the matrix are undefined.
+   *
+   * @param width  The minimum number of rows
+   * @param height The minimum number of columns
+   *
+   * @return a matrix of at least the specified dimensions
+   */
+  int[][] takeInts(int width, int height) {
+    int[][] matrix = this.ints;
+    if (matrix != null && matrix.length >= width && matrix[0].length >= height) {
+      this.ints = null;
+      this.retained -= sizeOf(matrix);
+      return matrix;
+    }
+    return new int[width][height];
+  }
+
+  /**
+   * Give back a matrix of integer values to the workspace.
+   *
+   * @param matrix The matrix to give back (may be <code>null</code>).
+   */
+  void give(int[][] matrix) {
+    if (matrix == null || matrix.length == 0) return;
+    long size = sizeOf(matrix);
+    long current = this.ints != null ? sizeOf(this.ints) : 0;
+    if (size > current && this.retained - current + size <= this.capacity) {
+      this.ints = matrix;
+      this.retained += size - current;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Workspace{" +
+        "capacity=" + capacity +
+        ", retained=" + retained +
+        '}';
+  }
+
+  private static long sizeOf(int[] array) {
+    return 4L * array.length;
+  }
+
+  private static long sizeOf(short[][] matrix) {
+    return 2L * matrix.length * matrix[0].length;
+  }
+
+  private static long sizeOf(int[][] matrix) {
+    return 4L * matrix.length * matrix[0].length;
+  }
+
+}
@@ -16,67 +16,72 @@
 
 package org.pageseeder.diffx.algorithm;
 
-import org.pageseeder.diffx.action.Operation;
 import org.pageseeder.diffx.api.Operator;
 import org.pageseeder.diffx.token.EndElementToken;
-import org.pageseeder.diffx.token.StartElementToken;
 import org.pageseeder.diffx.token.XMLToken;
-
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.Map;
+import org.pageseeder.diffx.xml.ElementStack;
 
 /**
  * This class keeps track of the XML state so that we know whether to continue processing during the greedy phase
  * of Myer's greedy algorithm.
  *
+ * <p>The stacks are indexed by k-line in the same way as the {@link Vector}: the (D+1)-paths only read the stacks
+ * of the D-paths on adjacent k-lines, which are never written during the same round. Since stacks are immutable,
+ * extending a path only requires copying the reference to the stack of the path it extends.
+ *
  * @author Christophe Lauret
  * @version 0.9.0
  */
 final class XMLStackMap {
 
-  private Map<Integer, Deque<Operation<StartElementToken>>> previous = new HashMap<>();
+  /**
+   * Stacks for each k-line.
+   */
+  private final ElementStack[] stacks;
 
-  private Map<Integer, Deque<Operation<StartElementToken>>> stacks = new HashMap<>();
+  /**
+   * Offset so that negative k-lines can be stored in the array.
+   */
+  private final int offset;
 
-  XMLStackMap() {
-  }
-
-  void nextDiff() {
-    this.previous = this.stacks;
-    this.stacks = new HashMap<>(this.previous.size() + 1);
+  /**
+   * @param max The maximum value of D (N+M).
+   */
+  XMLStackMap(int max) {
+    this.stacks = new ElementStack[2 * max + 3];
+    this.offset = max + 1;
   }
 
   void initK(int k, boolean down) {
-    Deque<Operation<StartElementToken>> stack = new ArrayDeque<>();
-    Deque<Operation<StartElementToken>> prev = this.previous.get(down ? k + 1 : k - 1);
-    if (prev != null) stack.addAll(prev);
-    this.stacks.put(k, stack);
+    this.stacks[k + this.offset] = getStack(down ? k + 1 : k - 1);
   }
 
-  Deque<Operation<StartElementToken>> getStack(int k) {
-    return this.stacks.get(k);
+  ElementStack getStack(int k) {
+    ElementStack stack = this.stacks[k + this.offset];
+    return stack != null ? stack : ElementStack.EMPTY;
   }
 
   void update(int k, Operator operator, XMLToken token) {
-    Deque<Operation<StartElementToken>> stack = getStack(k);
-    if (token instanceof StartElementToken) stack.push(new Operation<>(operator, (StartElementToken) token));
-    if (token instanceof EndElementToken) stack.pop();
+    this.stacks[k + this.offset] = getStack(k).update(operator, token);
   }
 
   boolean isAllowed(int k, Operator operator, XMLToken token) {
     if (token instanceof EndElementToken) {
       // Ensure that the end element matches the start element
-      Deque<Operation<StartElementToken>> stack = getStack(k);
-      Operation<StartElementToken> last = stack.peek();
-      return last != null && last.operator() == operator && ((EndElementToken) token).match(last.token());
+      return getStack(k).matchEnd(operator, (EndElementToken) token);
     }
     return true;
   }
 
   @Override
   public String toString() {
-    return "S=" + stacks;
+    StringBuilder s = new StringBuilder("S={");
+    for (int i = 0; i < this.stacks.length; i++) {
+      if (this.stacks[i] != null) {
+        if (s.length() > 3) s.append(", ");
+        s.append(i - this.offset).append('=').append(this.stacks[i]);
+      }
+    }
+    return s.append('}').toString();
   }
 }
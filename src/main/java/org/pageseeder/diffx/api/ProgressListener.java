@@ -0,0 +1,39 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.api;
+
+/**
+ * An interface receiving estimates of the progress of a diff.
+ *
+ * <p>The fraction is an estimate, it is reported at most every percent and never decreases, but may
+ * not reach 1 before the diff completes. It is reported on the thread running the algorithm, so
+ * implementations should return quickly.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+  /**
+   * Receives notification of the progress of the diff.
+   *
+   * @param fraction The estimated fraction of the work done, between 0 and 1.
+   */
+  void progress(double fraction);
+
+}
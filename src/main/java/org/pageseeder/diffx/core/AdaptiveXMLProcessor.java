@@ -0,0 +1,446 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.algorithm.CancelFlag;
+import org.pageseeder.diffx.algorithm.HirschbergXMLAlgorithm;
+import org.pageseeder.diffx.algorithm.MatrixXMLAlgorithm;
+import org.pageseeder.diffx.algorithm.MyersLinearXMLAlgorithm;
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.handler.CoalescingFilter;
+import org.pageseeder.diffx.sequence.TokenListSlicer;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.XMLTokenType;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A processor which selects the algorithm from an estimate of the cost of comparing the sequences.
+ *
+ * <p>Before running any algorithm, the processor computes a few features of the sequences which
+ * are cheap to compute:</p>
+ * <ul>
+ *   <li>the size of the sequences once their common start and end are sliced off;</li>
+ *   <li>the number of distinct tokens;</li>
+ *   <li>the maximum depth of the elements;</li>
+ *   <li>the proportion of tokens in common, estimated by looking up a sample of runs of tokens
+ *   from the first sequence in the second one.</li>
+ * </ul>
+ *
+ * <p>From these, it estimates the number of differences D, the number of comparisons and the
+ * memory required by each algorithm and selects the one which is expected to be the fastest
+ * within the memory limit. The plan can be obtained without running the diff using the
+ * {@link #explain(List, List)} method.</p>
+ *
+ * <p>The estimates are rough and only intended to pick the right kind of algorithm.</p>
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class AdaptiveXMLProcessor extends DiffProcessorBase implements XMLDiffProcessor {
+
+  /**
+   * The algorithms to choose from.
+   */
+  public enum Algorithm {
+
+    /**
+     * The {@link OptimisticXMLProcessor}, best when there are few differences.
+     */
+    OPTIMISTIC,
+
+    /**
+     * The {@link MatrixXMLAlgorithm}, best when there are many differences in small sequences.
+     */
+    MATRIX,
+
+    /**
+     * The {@link MyersLinearXMLAlgorithm}, when there are few differences but not enough memory
+     * to remember the paths.
+     */
+    MYER_LINEAR,
+
+    /**
+     * The {@link HirschbergXMLAlgorithm}, when there are many differences in large sequences.
+     */
+    HIRSCHBERG
+  }
+
+  /**
+   * The number of runs of tokens from the first sequence looked up in the second one.
+   */
+  private static final int SAMPLES = 256;
+
+  /**
+   * Proportion of differences above which the matrix is preferred when it is small enough.
+   */
+  private static final double DENSE = 0.25;
+
+  private int matrixThreshold = MatrixXMLAlgorithm.DEFAULT_THRESHOLD;
+
+  private long memoryLimit = Runtime.getRuntime().maxMemory() / 4;
+
+  /**
+   * Set the maximum number of cells in the matrix for the matrix algorithm to be selected.
+   *
+   * @param threshold The maximum number of cells
+   */
+  public void setMatrixThreshold(int threshold) {
+    this.matrixThreshold = threshold;
+  }
+
+  /**
+   * Set the maximum amount of memory the selected algorithm should need.
+   *
+   * <p>The default is a quarter of the maximum memory available to the JVM.</p>
+   *
+   * @param bytes The maximum number of bytes
+   */
+  public void setMemoryLimit(long bytes) {
+    this.memoryLimit = bytes;
+  }
+
+  @Override
+  public void diff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler) {
+    cancellableDiff(from, to, handler, null);
+  }
+
+  @Override
+  void cancellableDiff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler, @Nullable CancelFlag cancel) {
+    Plan plan = explain(from, to);
+    if (plan.algorithm == Algorithm.OPTIMISTIC) {
+      OptimisticXMLProcessor processor = new OptimisticXMLProcessor();
+      processor.setCoalesce(this.coalesce);
+      processor.setDiscardConfusing(this.discardConfusing);
+      processor.setCollapseShared(this.collapseShared);
+      processor.setFallbackThreshold(this.matrixThreshold);
+      processor.cancellableDiff(from, to, handler, cancel);
+    } else {
+      DiffHandler<XMLToken> actual = this.coalesce ? new CoalescingFilter(handler) : handler;
+      actual.start();
+      diff(newAlgorithm(plan.algorithm, cancel), from, to, actual);
+      actual.end();
+    }
+  }
+
+  /**
+   * Returns the plan for comparing the specified sequences without running the diff.
+   *
+   * @param from The original list of tokens to compare (deleted)
+   * @param to   The target list of tokens to compare (inserted)
+   *
+   * @return The plan including the selected algorithm and the estimates.
+   */
+  public Plan explain(List<? extends XMLToken> from, List<? extends XMLToken> to) {
+    TokenListSlicer slicer = new TokenListSlicer(from, to);
+    int common = slicer.analyze();
+    List<? extends XMLToken> a = from.subList(slicer.getStartCount(), from.size() - slicer.getEndCount());
+    List<? extends XMLToken> b = to.subList(slicer.getStartCount(), to.size() - slicer.getEndCount());
+    int n = a.size();
+    int m = b.size();
+
+    // Features
+    int alphabet = countDistinct(a, b);
+    int depth = Math.max(maxDepth(from), maxDepth(to));
+    double similarity = estimateSimilarity(a, b, alphabet);
+
+    // Estimated number of differences
+    long lcs = Math.min(Math.round(similarity * n), Math.min(n, m));
+    long d = Math.max(n + m - 2 * lcs, Math.abs(n - m));
+
+    // Number of comparisons and memory for each algorithm
+    long matrixCells = (long) (n + 1) * (m + 1);
+    long matrixBytes = matrixCells * (Math.max(n, m) + 1 > Short.MAX_VALUE ? 4 : 2);
+    long myersCells = (long) (n + m) * (d + 1);
+    // Each of the 2D+1 paths may hold a stack of elements
+    long stackBytes = 32L * depth * (2 * d + 1);
+    long greedyBytes = 4L * (d + 1) * (d + 1) + stackBytes;
+    long linearBytes = 128L * (n + m + 2) + stackBytes;
+    long hirschbergBytes = 64L * (n + m + 2);
+
+    Algorithm algorithm;
+    long cells;
+    long bytes;
+    if (n == 0 || m == 0) {
+      algorithm = Algorithm.OPTIMISTIC;
+      cells = 0;
+      bytes = 0;
+    } else if (matrixCells <= this.matrixThreshold && matrixBytes <= this.memoryLimit
+        && (d >= DENSE * (n + m) || matrixCells <= myersCells)) {
+      algorithm = Algorithm.MATRIX;
+      cells = matrixCells;
+      bytes = matrixBytes;
+    } else if (myersCells <= matrixCells && greedyBytes <= this.memoryLimit) {
+      algorithm = Algorithm.OPTIMISTIC;
+      cells = myersCells;
+      bytes = greedyBytes;
+    } else if (myersCells <= 2 * matrixCells) {
+      algorithm = Algorithm.MYER_LINEAR;
+      cells = 2 * myersCells;
+      bytes = linearBytes;
+    } else {
+      algorithm = Algorithm.HIRSCHBERG;
+      cells = 2 * matrixCells;
+      bytes = hirschbergBytes;
+    }
+    return new Plan(algorithm, common, n, m, alphabet, depth, similarity, d, cells, bytes);
+  }
+
+  @Override
+  long estimateMemory(List<? extends XMLToken> from, List<? extends XMLToken> to) {
+    return explain(from, to).getEstimatedBytes();
+  }
+
+  private DiffAlgorithm<XMLToken> newAlgorithm(Algorithm algorithm, @Nullable CancelFlag cancel) {
+    switch (algorithm) {
+      case MATRIX:
+        MatrixXMLAlgorithm matrix = new MatrixXMLAlgorithm();
+        matrix.setThreshold(this.matrixThreshold);
+        matrix.setCancelFlag(cancel);
+        return matrix;
+      case MYER_LINEAR:
+        MyersLinearXMLAlgorithm linear = new MyersLinearXMLAlgorithm();
+        linear.setCancelFlag(cancel);
+        return linear;
+      case HIRSCHBERG:
+        HirschbergXMLAlgorithm hirschberg = new HirschbergXMLAlgorithm();
+        hirschberg.setCancelFlag(cancel);
+        return hirschberg;
+      default:
+        throw new IllegalStateException("No algorithm defined");
+    }
+  }
+
+  private static int countDistinct(List<? extends XMLToken> a, List<? extends XMLToken> b) {
+    Set<XMLToken> distinct = new HashSet<>(a);
+    distinct.addAll(b);
+    return distinct.size();
+  }
+
+  private static int maxDepth(List<? extends XMLToken> tokens) {
+    int depth = 0;
+    int max = 0;
+    for (XMLToken token : tokens) {
+      if (token.getType() == XMLTokenType.START_ELEMENT) max = Math.max(max, ++depth);
+      else if (token.getType() == XMLTokenType.END_ELEMENT) depth--;
+    }
+    return max;
+  }
+
+  /**
+   * Estimate the proportion of tokens from the first sequence which are also in the second one.
+   *
+   * <p>Runs of tokens are used rather than single tokens so that tokens which are frequent in the
+   * second sequence are not counted as matches. The length of the runs is chosen from the number
+   * of distinct tokens so that a run is unlikely to occur by chance.</p>
+   */
+  static double estimateSimilarity(List<? extends XMLToken> a, List<? extends XMLToken> b, int alphabet) {
+    int q = 1;
+    for (double runs = Math.max(alphabet, 2); runs < 16.0 * b.size() && q < 8; runs *= Math.max(alphabet, 2)) q++;
+    if (a.size() < q || b.size() < q) return 0;
+
+    // Hashes of all the runs in the second sequence
+    HashTable table = new HashTable(b.size() - q + 1);
+    for (int j = 0; j + q <= b.size(); j++) table.add(hash(b, j, q));
+
+    // Look up evenly spaced runs from the first sequence
+    int positions = a.size() - q + 1;
+    int samples = Math.min(SAMPLES, positions);
+    int found = 0;
+    for (int s = 0; s < samples; s++) {
+      int i = (int) ((long) s * positions / samples);
+      if (table.contains(hash(a, i, q))) found++;
+    }
+    return (double) found / samples;
+  }
+
+  private static long hash(List<? extends XMLToken> tokens, int from, int length) {
+    long hash = 17;
+    for (int i = from; i < from + length; i++) {
+      hash = hash * 1_000_003L + tokens.get(i).hashCode();
+    }
+    return hash;
+  }
+
+  /**
+   * A minimal open addressing set of hashes.
+   */
+  private static final class HashTable {
+
+    private final long[] values;
+
+    private final boolean[] used;
+
+    private final int mask;
+
+    HashTable(int size) {
+      int capacity = Integer.highestOneBit(Math.max(size, 8) * 2 - 1) << 1;
+      this.values = new long[capacity];
+      this.used = new boolean[capacity];
+      this.mask = capacity - 1;
+    }
+
+    void add(long value) {
+      int i = index(value);
+      while (this.used[i] && this.values[i] != value) i = (i + 1) & this.mask;
+      this.values[i] = value;
+      this.used[i] = true;
+    }
+
+    boolean contains(long value) {
+      int i = index(value);
+      while (this.used[i]) {
+        if (this.values[i] == value) return true;
+        i = (i + 1) & this.mask;
+      }
+      return false;
+    }
+
+    private int index(long value) {
+      long h = value * 0x9E3779B97F4A7C15L;
+      return (int) (h >>> 40) & this.mask;
+    }
+  }
+
+  /**
+   * The plan for a comparison: the selected algorithm and the estimates it is based on.
+   */
+  public static final class Plan {
+
+    private final Algorithm algorithm;
+    private final int common;
+    private final int sizeA;
+    private final int sizeB;
+    private final int alphabet;
+    private final int depth;
+    private final double similarity;
+    private final long differences;
+    private final long cells;
+    private final long bytes;
+
+    Plan(Algorithm algorithm, int common, int sizeA, int sizeB, int alphabet, int depth, double similarity,
+         long differences, long cells, long bytes) {
+      this.algorithm = algorithm;
+      this.common = common;
+      this.sizeA = sizeA;
+      this.sizeB = sizeB;
+      this.alphabet = alphabet;
+      this.depth = depth;
+      this.similarity = similarity;
+      this.differences = differences;
+      this.cells = cells;
+      this.bytes = bytes;
+    }
+
+    /**
+     * @return The selected algorithm.
+     */
+    public Algorithm getAlgorithm() {
+      return this.algorithm;
+    }
+
+    /**
+     * @return The number of tokens sliced off the start and end of both sequences.
+     */
+    public int getCommonCount() {
+      return this.common;
+    }
+
+    /**
+     * @return The number of tokens in the first sequence after slicing.
+     */
+    public int getSizeA() {
+      return this.sizeA;
+    }
+
+    /**
+     * @return The number of tokens in the second sequence after slicing.
+     */
+    public int getSizeB() {
+      return this.sizeB;
+    }
+
+    /**
+     * @return The number of distinct tokens in both sequences after slicing.
+     */
+    public int getAlphabetSize() {
+      return this.alphabet;
+    }
+
+    /**
+     * @return The maximum depth of elements in either sequence.
+     */
+    public int getDepth() {
+      return this.depth;
+    }
+
+    /**
+     * @return The estimated proportion of tokens of the first sequence found in the second one.
+     */
+    public double getSimilarity() {
+      return this.similarity;
+    }
+
+    /**
+     * @return The estimated number of differences (D).
+     */
+    public long getEstimatedDifferences() {
+      return this.differences;
+    }
+
+    /**
+     * @return The estimated number of comparisons made by the selected algorithm.
+     */
+    public long getEstimatedCells() {
+      return this.cells;
+    }
+
+    /**
+     * @return The estimated number of bytes of memory required by the selected algorithm.
+     */
+    public long getEstimatedBytes() {
+      return this.bytes;
+    }
+
+    @Override
+    public String toString() {
+      return "Plan{algorithm=" + this.algorithm +
+          ", sizes=" + this.sizeA + "x" + this.sizeB +
+          ", common=" + this.common +
+          ", alphabet=" + this.alphabet +
+          ", depth=" + this.depth +
+          ", similarity=" + String.format("%.2f", this.similarity) +
+          ", D=" + this.differences +
+          ", cells=" + this.cells +
+          ", bytes=" + this.bytes +
+          '}';
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "AdaptiveXMLProcessor{" +
+        "coalesce=" + this.coalesce +
+        ", matrixThreshold=" + this.matrixThreshold +
+        ", memoryLimit=" + this.memoryLimit +
+        '}';
+  }
+}
@@ -15,6 +15,8 @@
  */
 package org.pageseeder.diffx.core;
 
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.algorithm.CancelFlag;
 import org.pageseeder.diffx.algorithm.MatrixXMLAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.handler.CoalescingFilter;
@@ -54,14 +56,25 @@ public class DefaultXMLProcessor extends DiffProcessorBase implements DiffProces
 
   @Override
   public void diff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler) {
+    cancellableDiff(from, to, handler, null);
+  }
+
+  @Override
+  void cancellableDiff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler, @Nullable CancelFlag cancel) {
     MatrixXMLAlgorithm algorithm = new MatrixXMLAlgorithm();
     algorithm.setThreshold(this.threshold);
+    algorithm.setCancelFlag(cancel);
     DiffHandler<XMLToken> actual = getFilter(handler);
     handler.start();
-    algorithm.diff(from, to, actual);
+    diff(algorithm, from, to, actual);
     handler.end();
   }
 
+  @Override
+  long estimateMemory(List<? extends XMLToken> from, List<? extends XMLToken> to) {
+    return (long) (from.size() + 1) * (to.size() + 1) * (Math.max(from.size(), to.size()) + 1 > Short.MAX_VALUE ? 4 : 2);
+  }
+
   private DiffHandler<XMLToken> getFilter(DiffHandler<XMLToken> handler) {
     return this.coalesce ? new CoalescingFilter(handler) : handler;
   }
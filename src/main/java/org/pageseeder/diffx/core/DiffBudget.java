@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+/**
+ * An immutable budget for a diff: the maximum wall time and working memory the processor may use.
+ *
+ * <p>When a diff at full precision would exceed the budget, processors accepting a budget move down
+ * the ladder of {@link Level}s, comparing coarser tokens until the diff fits within the budget. The
+ * last level always succeeds since it simply replaces the whole document.</p>
+ *
+ * <p>The time is enforced cooperatively by the algorithms which can be cancelled, and the memory is
+ * checked against an estimate made before running the algorithm, so both are limits rather than
+ * guarantees.</p>
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class DiffBudget {
+
+  /**
+   * The levels of precision of the diff, from the most precise to the least precise.
+   */
+  public enum Level {
+
+    /**
+     * The tokens are compared as loaded, usually words.
+     */
+    WORD,
+
+    /**
+     * Consecutive text tokens are coalesced so that the text of each element is compared as a whole.
+     */
+    TEXT,
+
+    /**
+     * Text is coalesced and the elements within the root are folded so that each element is
+     * compared as a whole.
+     */
+    ELEMENT,
+
+    /**
+     * The whole document is replaced: everything in the second document is inserted and everything
+     * in the first document is deleted.
+     */
+    REPLACE
+
+  }
+
+  private static final DiffBudget UNLIMITED = new DiffBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+
+  private final long maxTime;
+
+  private final long maxMemory;
+
+  private DiffBudget(long maxTime, long maxMemory) {
+    this.maxTime = maxTime;
+    this.maxMemory = maxMemory;
+  }
+
+  /**
+   * @return A budget without any limit.
+   */
+  public static DiffBudget unlimited() {
+    return UNLIMITED;
+  }
+
+  /**
+   * @return The maximum wall time in milliseconds.
+   */
+  public long maxTime() {
+    return this.maxTime;
+  }
+
+  /**
+   * @return The maximum working memory in bytes.
+   */
+  public long maxMemory() {
+    return this.maxMemory;
+  }
+
+  /**
+   * Indicates whether this budget limits the wall time.
+   */
+  public boolean isTimeLimited() {
+    return this.maxTime != Long.MAX_VALUE;
+  }
+
+  /**
+   * Create a new budget with the specified maximum wall time.
+   *
+   * @param millis The maximum wall time in milliseconds
+   *
+   * @return a new instance
+   *
+   * @throws IllegalArgumentException If the time is negative
+   */
+  public DiffBudget maxTime(long millis) {
+    if (millis < 0) throw new IllegalArgumentException("Maximum time must be positive");
+    return new DiffBudget(millis, this.maxMemory);
+  }
+
+  /**
+   * Create a new budget with the specified maximum working memory.
+   *
+   * @param bytes The maximum working memory in bytes
+   *
+   * @return a new instance
+   *
+   * @throws IllegalArgumentException If the number of bytes is negative
+   */
+  public DiffBudget maxMemory(long bytes) {
+    if (bytes < 0) throw new IllegalArgumentException("Maximum memory must be positive");
+    return new DiffBudget(this.maxTime, bytes);
+  }
+
+  @Override
+  public String toString() {
+    return "DiffBudget{maxTime=" + (isTimeLimited() ? this.maxTime + "ms" : "unlimited")
+        + ", maxMemory=" + (this.maxMemory != Long.MAX_VALUE ? this.maxMemory + "B" : "unlimited") + '}';
+  }
+
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.algorithm.CancelFlag;
+import org.pageseeder.diffx.config.DiffConfig;
+import org.pageseeder.diffx.format.DefaultXMLDiffOutput;
+import org.pageseeder.diffx.load.SAXLoader;
+import org.pageseeder.diffx.xml.NamespaceSet;
+import org.pageseeder.diffx.xml.Sequence;
+import org.xml.sax.InputSource;
+
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs diff jobs asynchronously with a bounded number of jobs running and waiting.
+ *
+ * <p>At most <code>concurrency</code> jobs run at the same time, and at most <code>capacity</code>
+ * jobs wait for a slot; jobs submitted beyond that are rejected with a
+ * {@link RejectedExecutionException} so that callers can back off. Waiting interactive jobs always
+ * run before waiting batch jobs, jobs of the same priority run in the order they were submitted.
+ *
+ * <p>Cancelling the future returned for a job removes it from the queue if it is waiting; if it is
+ * running, its cancel flag is raised and, if requested, its thread is interrupted. Cancelling a
+ * dependent stage of the future does not cancel the job.
+ *
+ * <p>Jobs run on virtual threads when the JDK supports them, on a fixed pool of daemon threads
+ * otherwise.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class DiffExecutor implements AutoCloseable {
+
+  /**
+   * The priority of a job.
+   */
+  public enum Priority {
+
+    /**
+     * For jobs a user is waiting for.
+     */
+    INTERACTIVE,
+
+    /**
+     * For background jobs.
+     */
+    BATCH
+  }
+
+  /**
+   * A job run by this executor.
+   *
+   * @param <R> The type of result
+   */
+  @FunctionalInterface
+  public interface Task<R> {
+
+    /**
+     * Runs the job.
+     *
+     * @param cancel The flag raised when the job is cancelled, it should be passed to the algorithms
+     *
+     * @return the result of the job
+     *
+     * @throws Exception If the job fails
+     */
+    R run(CancelFlag cancel) throws Exception;
+  }
+
+  /**
+   * Used to name the threads of fixed pools.
+   */
+  private static final AtomicInteger POOLS = new AtomicInteger();
+
+  private final ExecutorService executor;
+
+  private final boolean virtual;
+
+  private final int concurrency;
+
+  private final int capacity;
+
+  /**
+   * The jobs waiting for a slot (guarded by this).
+   */
+  private final PriorityQueue<Job<?>> queue = new PriorityQueue<>();
+
+  /**
+   * The number of jobs running or dispatched (guarded by this).
+   */
+  private int running = 0;
+
+  /**
+   * The number of jobs submitted (guarded by this).
+   */
+  private long submitted = 0;
+
+  /**
+   * Whether this executor was closed (guarded by this).
+   */
+  private boolean closed = false;
+
+  /**
+   * Creates a new executor.
+   *
+   * @param concurrency The maximum number of jobs running at the same time
+   * @param capacity    The maximum number of jobs waiting for a slot
+   *
+   * @throws IllegalArgumentException If the concurrency is lower than 1 or the capacity negative
+   */
+  public DiffExecutor(int concurrency, int capacity) {
+    if (concurrency < 1) throw new IllegalArgumentException("Concurrency must be at least 1");
+    if (capacity < 0) throw new IllegalArgumentException("Capacity must not be negative");
+    this.concurrency = concurrency;
+    this.capacity = capacity;
+    ExecutorService virtual = newVirtualThreadExecutor();
+    this.virtual = virtual != null;
+    this.executor = virtual != null ? virtual : newFixedThreadPool(concurrency);
+  }
+
+  /**
+   * @return <code>true</code> if jobs run on virtual threads.
+   */
+  public boolean isVirtual() {
+    return this.virtual;
+  }
+
+  /**
+   * @return the number of jobs running.
+   */
+  public synchronized int getRunning() {
+    return this.running;
+  }
+
+  /**
+   * @return the number of jobs waiting for a slot.
+   */
+  public synchronized int getQueued() {
+    return this.queue.size();
+  }
+
+  /**
+   * Submits a job.
+   *
+   * @param priority The priority of the job
+   * @param task     The job to run
+   * @param <R>      The type of result
+   *
+   * @return the future result of the job
+   *
+   * @throws RejectedExecutionException If the queue is full or this executor was closed.
+   */
+  public <R> CompletableFuture<R> submit(Priority priority, Task<R> task) {
+    Job<R> job;
+    synchronized (this) {
+      if (this.closed) throw new RejectedExecutionException("Executor was closed");
+      job = new Job<>(this, priority, this.submitted++, task);
+      if (this.running < this.concurrency) {
+        this.running++;
+      } else if (this.queue.size() < this.capacity) {
+        this.queue.add(job);
+        return job.future;
+      } else {
+        throw new RejectedExecutionException("Too many jobs waiting (" + this.capacity + ")");
+      }
+    }
+    dispatch(job);
+    return job.future;
+  }
+
+  /**
+   * Submits a job loading two XML documents, comparing them and formatting the results with the
+   * default XML output.
+   *
+   * @param priority  The priority of the job
+   * @param from      The original document (deleted)
+   * @param to        The target document (inserted)
+   * @param config    The configuration used to load the documents
+   * @param processor The processor to compare the documents, must not be reconfigured while in use
+   *
+   * @return the future XML output of the comparison
+   *
+   * @throws RejectedExecutionException If the queue is full or this executor was closed.
+   */
+  public CompletableFuture<String> diff(Priority priority, InputSource from, InputSource to, DiffConfig config,
+                                        XMLDiffProcessor processor) {
+    return submit(priority, cancel -> {
+      SAXLoader loader = new SAXLoader();
+      loader.setConfig(config);
+      Sequence a = loader.load(from);
+      CancelFlag.check(cancel);
+      Sequence b = loader.load(to);
+      CancelFlag.check(cancel);
+      StringWriter xml = new StringWriter();
+      DefaultXMLDiffOutput output = new DefaultXMLDiffOutput(xml);
+      output.setNamespaces(NamespaceSet.merge(a.getNamespaces(), b.getNamespaces()));
+      if (processor instanceof DiffProcessorBase) {
+        ((DiffProcessorBase) processor).cancellableDiff(a.tokens(), b.tokens(), output, cancel);
+      } else {
+        processor.diff(a.tokens(), b.tokens(), output);
+      }
+      return xml.toString();
+    });
+  }
+
+  /**
+   * Stops accepting jobs, the jobs already submitted still run.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      this.closed = true;
+      if (this.running > 0) return;
+    }
+    this.executor.shutdown();
+  }
+
+  /**
+   * Stops accepting jobs, cancels the jobs waiting and interrupts the jobs running.
+   */
+  public void closeNow() {
+    Job<?>[] waiting;
+    synchronized (this) {
+      this.closed = true;
+      waiting = this.queue.toArray(new Job<?>[0]);
+      this.queue.clear();
+    }
+    for (Job<?> job : waiting) job.future.cancel(false);
+    this.executor.shutdownNow();
+  }
+
+  private void dispatch(Job<?> job) {
+    try {
+      this.executor.execute(job);
+    } catch (RejectedExecutionException ex) {
+      job.future.completeExceptionally(ex);
+      finished();
+    }
+  }
+
+  /**
+   * Called when a job has finished to run the next waiting job.
+   */
+  private void finished() {
+    Job<?> next;
+    synchronized (this) {
+      next = this.queue.poll();
+      if (next == null) {
+        this.running--;
+        if (!this.closed || this.running > 0) return;
+      }
+    }
+    if (next != null) dispatch(next);
+    else this.executor.shutdown();
+  }
+
+  private synchronized void remove(Job<?> job) {
+    this.queue.remove(job);
+  }
+
+  private static @Nullable ExecutorService newVirtualThreadExecutor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      // Virtual threads are not available on this JDK
+      return null;
+    }
+  }
+
+  private static ExecutorService newFixedThreadPool(int threads) {
+    String prefix = "diffx-executor-" + POOLS.incrementAndGet() + "-";
+    AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public String toString() {
+    return "DiffExecutor{" +
+        "concurrency=" + this.concurrency +
+        ", capacity=" + this.capacity +
+        ", virtual=" + this.virtual +
+        '}';
+  }
+
+  /**
+   * A job submitted to the executor.
+   */
+  private static final class Job<R> implements Runnable, Comparable<Job<?>> {
+
+    private final DiffExecutor owner;
+
+    private final Priority priority;
+
+    private final long order;
+
+    private final Task<R> task;
+
+    private final CancelFlag cancel = new CancelFlag();
+
+    private final JobFuture<R> future = new JobFuture<>(this);
+
+    /**
+     * The thread running the job (guarded by this).
+     */
+    private @Nullable Thread thread;
+
+    Job(DiffExecutor owner, Priority priority, long order, Task<R> task) {
+      this.owner = owner;
+      this.priority = priority;
+      this.order = order;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      try {
+        synchronized (this) {
+          if (this.future.isDone()) return;
+          this.thread = Thread.currentThread();
+        }
+        try {
+          this.future.complete(this.task.run(this.cancel));
+        } catch (Throwable ex) {
+          this.future.completeExceptionally(ex);
+        } finally {
+          synchronized (this) {
+            this.thread = null;
+          }
+          // Clear the interrupt status if the job was cancelled
+          Thread.interrupted();
+        }
+      } finally {
+        this.owner.finished();
+      }
+    }
+
+    void cancel(boolean interrupt) {
+      this.owner.remove(this);
+      this.cancel.cancel();
+      synchronized (this) {
+        if (interrupt && this.thread != null) this.thread.interrupt();
+      }
+    }
+
+    @Override
+    public int compareTo(Job<?> job) {
+      int compare = this.priority.compareTo(job.priority);
+      return compare != 0 ? compare : Long.compare(this.order, job.order);
+    }
+  }
+
+  /**
+   * The future of a job, cancelling it cancels the job.
+   */
+  private static final class JobFuture<R> extends CompletableFuture<R> {
+
+    private final Job<R> job;
+
+    JobFuture(Job<R> job) {
+      this.job = job;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled) this.job.cancel(mayInterruptIfRunning);
+      return cancelled;
+    }
+  }
+
+}
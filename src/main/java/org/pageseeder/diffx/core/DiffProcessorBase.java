@@ -15,18 +15,39 @@
  */
 package org.pageseeder.diffx.core;
 
+import org.jetbrains.annotations.Nullable;
 import org.pageseeder.diffx.DiffException;
+import org.pageseeder.diffx.action.Operation;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.algorithm.CancelFlag;
+import org.pageseeder.diffx.algorithm.DataLengthException;
+import org.pageseeder.diffx.algorithm.DiffCancelledException;
+import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.api.Operator;
 import org.pageseeder.diffx.config.DiffConfig;
 import org.pageseeder.diffx.format.XMLDiffOutput;
+import org.pageseeder.diffx.handler.CoalescingFilter;
+import org.pageseeder.diffx.sequence.SubtreeCollapser;
+import org.pageseeder.diffx.sequence.TokenDiscarder;
 import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.XMLTokenType;
 import org.pageseeder.diffx.xml.NamespaceSet;
 import org.pageseeder.diffx.xml.Sequence;
+import org.pageseeder.diffx.xml.SequenceFolding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 abstract class DiffProcessorBase implements XMLDiffProcessor {
 
   protected boolean coalesce = false;
 
+  protected boolean discardConfusing = false;
+
+  protected boolean collapseShared = false;
+
   @Override
   public void setCoalesce(boolean coalesce) {
     this.coalesce = coalesce;
@@ -37,6 +58,206 @@ abstract class DiffProcessorBase implements XMLDiffProcessor {
     return this.coalesce;
   }
 
+  /**
+   * Set whether tokens which cannot usefully be matched should be discarded before running the algorithm.
+   *
+   * <p>This can significantly reduce the size of the problem for the algorithm, but the edit script
+   * may not be the shortest one.
+   *
+   * @param discard <code>true</code> to discard confusing tokens; <code>false</code> otherwise.
+   *
+   * @see TokenDiscarder
+   */
+  public void setDiscardConfusing(boolean discard) {
+    this.discardConfusing = discard;
+  }
+
+  /**
+   * Indicates whether the processor discards tokens which cannot usefully be matched.
+   */
+  public boolean isDiscardingConfusing() {
+    return this.discardConfusing;
+  }
+
+  /**
+   * Set whether elements which occur in both sequences should be collapsed into a single token
+   * before running the algorithm.
+   *
+   * <p>Large unchanged elements then cost a single comparison, but the edit script may not be the
+   * shortest one.
+   *
+   * @param collapse <code>true</code> to collapse shared elements; <code>false</code> otherwise.
+   *
+   * @see SubtreeCollapser
+   */
+  public void setCollapseShared(boolean collapse) {
+    this.collapseShared = collapse;
+  }
+
+  /**
+   * Indicates whether the processor collapses the elements which occur in both sequences.
+   */
+  public boolean isCollapsingShared() {
+    return this.collapseShared;
+  }
+
+  /**
+   * Run the algorithm, collapsing shared elements and discarding confusing tokens first if required.
+   */
+  protected final void diff(DiffAlgorithm<XMLToken> algorithm, List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler) {
+    if (this.collapseShared) {
+      SubtreeCollapser.diff(this.discardConfusing ? discarding(algorithm) : algorithm, from, to, handler);
+    } else if (this.discardConfusing) {
+      TokenDiscarder.diff(algorithm, from, to, handler);
+    } else {
+      algorithm.diff(from, to, handler);
+    }
+  }
+
+  /**
+   * Performs the comparison within the specified budget, moving down the levels of precision until
+   * the diff fits within the budget.
+   *
+   * <p>Each level is skipped if the working memory estimated for it exceeds the maximum memory. The
+   * word and text levels are each given half of the remaining time and the element level the rest
+   * of it; a level which cannot complete in time is cancelled and the next level is tried. The last
+   * level, replacing the whole document, always succeeds.</p>
+   *
+   * <p>The results are only reported to the handler once a level has succeeded.</p>
+   *
+   * @param from    The original list of tokens to compare (deleted)
+   * @param to      The target list of tokens to compare (inserted)
+   * @param handler The handler for the results of the comparison
+   * @param budget  The maximum time and memory for the comparison
+   *
+   * @return the level of precision used for the results.
+   *
+   * @throws DiffCancelledException If the thread was interrupted.
+   */
+  public DiffBudget.Level diff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler, DiffBudget budget) {
+    long start = System.nanoTime();
+    for (DiffBudget.Level level : DiffBudget.Level.values()) {
+      if (level == DiffBudget.Level.REPLACE) break;
+      List<? extends XMLToken> a = reduce(from, level);
+      List<? extends XMLToken> b = reduce(to, level);
+      if (estimateMemory(a, b) > budget.maxMemory()) continue;
+      CancelFlag cancel = null;
+      if (budget.isTimeLimited()) {
+        long remaining = budget.maxTime() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (remaining <= 0) break;
+        cancel = CancelFlag.withTimeout(level == DiffBudget.Level.ELEMENT ? remaining : remaining / 2);
+      }
+      OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+      try {
+        cancellableDiff(a, b, buffer, cancel);
+      } catch (DiffCancelledException ex) {
+        // Interrupting the thread stops the comparison rather than the current level
+        if (ex.isInterrupted()) throw ex;
+        continue;
+      } catch (IllegalStateException | DataLengthException ex) {
+        // The algorithm could not process the sequences or they are too large, try the next level
+        continue;
+      }
+      handler.start();
+      for (Operation<XMLToken> operation : buffer.getOperations()) {
+        FoldingXMLProcessor.unfold(operation.token(), token -> handler.handle(operation.operator(), token));
+      }
+      handler.end();
+      return level;
+    }
+    DiffHandler<XMLToken> actual = this.coalesce ? new CoalescingFilter(handler) : handler;
+    actual.start();
+    for (XMLToken token : to) actual.handle(Operator.INS, token);
+    for (XMLToken token : from) actual.handle(Operator.DEL, token);
+    actual.end();
+    return DiffBudget.Level.REPLACE;
+  }
+
+  /**
+   * Performs the comparison, stopping with a <code>CancellationException</code> once the flag is raised.
+   *
+   * <p>By default, the flag is ignored; processors using algorithms which can be cancelled should
+   * override this method.</p>
+   *
+   * @param from    The original list of tokens to compare (deleted)
+   * @param to      The target list of tokens to compare (inserted)
+   * @param handler The handler for the results of the comparison
+   * @param cancel  The flag to stop the comparison (may be <code>null</code>)
+   */
+  void cancellableDiff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler, @Nullable CancelFlag cancel) {
+    diff(from, to, handler);
+  }
+
+  /**
+   * Returns the working memory in bytes this processor is expected to need to compare the sequences.
+   *
+   * <p>By default, this is the memory needed by the algorithm the {@link AdaptiveXMLProcessor}
+   * would select.</p>
+   */
+  long estimateMemory(List<? extends XMLToken> from, List<? extends XMLToken> to) {
+    AdaptiveXMLProcessor adaptive = new AdaptiveXMLProcessor();
+    adaptive.setMemoryLimit(Long.MAX_VALUE);
+    return adaptive.explain(from, to).getEstimatedBytes();
+  }
+
+  /**
+   * Returns the working memory in bytes this processor is expected to need to compare the sequences
+   * at the specified level of precision.
+   */
+  long estimateMemory(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffBudget.Level level) {
+    if (level == DiffBudget.Level.REPLACE) return 0;
+    return estimateMemory(reduce(from, level), reduce(to, level));
+  }
+
+  /**
+   * Returns the tokens to compare for the specified level of precision.
+   */
+  private static List<? extends XMLToken> reduce(List<? extends XMLToken> tokens, DiffBudget.Level level) {
+    switch (level) {
+      case TEXT:
+        return CoalescingFilter.coalesce(tokens);
+      case ELEMENT:
+        return foldElements(CoalescingFilter.coalesce(tokens));
+      default:
+        return tokens;
+    }
+  }
+
+  /**
+   * Fold the elements within the root element, or the top-level elements if there is no single root.
+   */
+  private static List<? extends XMLToken> foldElements(List<? extends XMLToken> tokens) {
+    int start = 0;
+    int end = tokens.size();
+    if (end >= 2 && tokens.get(0).getType() == XMLTokenType.START_ELEMENT && closesFirst(tokens)) {
+      start = 1;
+      while (start < end - 1 && tokens.get(start).getType() == XMLTokenType.ATTRIBUTE) start++;
+      end--;
+    }
+    List<XMLToken> folded = new ArrayList<>(tokens.subList(0, start));
+    folded.addAll(SequenceFolding.forAllElements().fold(tokens.subList(start, end)));
+    folded.addAll(tokens.subList(end, tokens.size()));
+    return folded;
+  }
+
+  /**
+   * Indicates whether the last token closes the element opened by the first token.
+   */
+  private static boolean closesFirst(List<? extends XMLToken> tokens) {
+    int depth = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      XMLTokenType type = tokens.get(i).getType();
+      if (type == XMLTokenType.START_ELEMENT) depth++;
+      else if (type == XMLTokenType.END_ELEMENT) depth--;
+      if (depth == 0) return i == tokens.size() - 1;
+    }
+    return false;
+  }
+
+  private static DiffAlgorithm<XMLToken> discarding(DiffAlgorithm<XMLToken> algorithm) {
+    return (from, to, handler) -> TokenDiscarder.diff(algorithm, from, to, handler);
+  }
+
   @Override
   public void diff(Sequence from, Sequence to, DiffConfig config, DiffHandler<XMLToken> handler)
       throws DiffException {
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.format.XMLDiffOutput;
+import org.pageseeder.diffx.sequence.SubtreeCollapser;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.impl.IgnorableSpaceToken;
+import org.pageseeder.diffx.xml.NamespaceSet;
+import org.pageseeder.diffx.xml.Sequence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A session comparing the same baseline with any number of revisions.
+ *
+ * <p>The baseline is prepared once when the session is created:
+ * <ul>
+ *   <li>its tokens are copied so that later changes to the sequence do not affect the session;</li>
+ *   <li>a dictionary of its distinct tokens is built, the tokens of each revision which are equal to
+ *   a token of the baseline are replaced by the same instance so that matching tokens are compared
+ *   by identity;</li>
+ *   <li>if shared elements are collapsed, the digests of its elements are computed once, see
+ *   {@link SubtreeCollapser#index(List)}.</li>
+ * </ul>
+ *
+ * <p>The state of the session is immutable once created, so revisions can be compared concurrently
+ * from several threads provided that the processor is not reconfigured in the meantime. The
+ * processor should not collapse shared elements itself when the session does.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class DiffSession {
+
+  /**
+   * The processor used for each comparison.
+   */
+  private final XMLDiffProcessor processor;
+
+  /**
+   * The tokens of the baseline.
+   */
+  private final List<XMLToken> baseline;
+
+  /**
+   * The namespaces of the baseline.
+   */
+  private final NamespaceSet namespaces;
+
+  /**
+   * The distinct tokens of the baseline.
+   */
+  private final Map<XMLToken, XMLToken> dictionary;
+
+  /**
+   * The digests of the elements of the baseline, <code>null</code> if shared elements are not collapsed.
+   */
+  private final @Nullable SubtreeCollapser.Index index;
+
+  /**
+   * Creates a new session for the specified baseline.
+   *
+   * @param baseline  The sequence the revisions are compared with (deleted)
+   * @param processor The processor to use for each comparison
+   */
+  public DiffSession(Sequence baseline, XMLDiffProcessor processor) {
+    this(baseline, processor, false);
+  }
+
+  /**
+   * Creates a new session for the specified baseline.
+   *
+   * @param baseline       The sequence the revisions are compared with (deleted)
+   * @param processor      The processor to use for each comparison
+   * @param collapseShared <code>true</code> to collapse the elements shared with each revision.
+   */
+  public DiffSession(Sequence baseline, XMLDiffProcessor processor, boolean collapseShared) {
+    this.processor = processor;
+    this.baseline = Collections.unmodifiableList(new ArrayList<>(baseline.tokens()));
+    this.namespaces = NamespaceSet.merge(baseline.getNamespaces(), new NamespaceSet());
+    Map<XMLToken, XMLToken> dictionary = new HashMap<>();
+    for (XMLToken token : this.baseline) {
+      // Ignorable white spaces are all equal but must be reported as they are
+      if (!(token instanceof IgnorableSpaceToken)) dictionary.putIfAbsent(token, token);
+    }
+    this.dictionary = dictionary;
+    this.index = collapseShared ? SubtreeCollapser.index(this.baseline) : null;
+  }
+
+  /**
+   * @return the tokens of the baseline.
+   */
+  public List<XMLToken> baseline() {
+    return this.baseline;
+  }
+
+  /**
+   * Compares the baseline with the specified revision.
+   *
+   * <p>This method can be invoked concurrently.
+   *
+   * @param revision The revision to compare with the baseline (inserted)
+   * @param handler  The handler for the results of the comparison
+   *
+   * @throws IllegalStateException    If thrown by the algorithm or handler.
+   * @throws IllegalArgumentException If the algorithm is unable to process to the list of tokens.
+   */
+  public void diff(Sequence revision, DiffHandler<XMLToken> handler) {
+    if (handler instanceof XMLDiffOutput) {
+      ((XMLDiffOutput) handler).setNamespaces(NamespaceSet.merge(this.namespaces, revision.getNamespaces()));
+    }
+    diff(revision.tokens(), handler);
+  }
+
+  /**
+   * Compares the baseline with the specified revision.
+   *
+   * <p>This method can be invoked concurrently.
+   *
+   * @param revision The revision to compare with the baseline (inserted)
+   * @param handler  The handler for the results of the comparison
+   *
+   * @throws IllegalStateException    If thrown by the algorithm or handler.
+   * @throws IllegalArgumentException If the algorithm is unable to process to the list of tokens.
+   */
+  public void diff(List<? extends XMLToken> revision, DiffHandler<XMLToken> handler) {
+    List<XMLToken> tokens = intern(revision);
+    if (this.index != null) {
+      SubtreeCollapser collapser = new SubtreeCollapser(this.index, tokens);
+      if (collapser.analyze() > 0) {
+        this.processor.diff(collapser.getCollapsedFirst(), collapser.getCollapsedSecond(), collapser.expand(handler));
+        return;
+      }
+    }
+    this.processor.diff(this.baseline, tokens, handler);
+  }
+
+  /**
+   * Replace the tokens of the revision equal to a token of the baseline by the same instance.
+   */
+  private List<XMLToken> intern(List<? extends XMLToken> revision) {
+    List<XMLToken> tokens = new ArrayList<>(revision.size());
+    for (XMLToken token : revision) {
+      XMLToken same = this.dictionary.get(token);
+      tokens.add(same != null ? same : token);
+    }
+    return tokens;
+  }
+
+  @Override
+  public String toString() {
+    return "DiffSession{" +
+        "baseline=" + this.baseline.size() +
+        ", processor=" + this.processor +
+        ", collapseShared=" + (this.index != null) +
+        '}';
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.action.Operation;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.algorithm.CancelFlag;
+import org.pageseeder.diffx.algorithm.MatrixXMLAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.handler.CoalescingFilter;
+import org.pageseeder.diffx.handler.DiffFilter;
+import org.pageseeder.diffx.token.ElementToken;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.XMLTokenType;
+import org.pageseeder.diffx.xml.SequenceFolding;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A multi-resolution XML processor which compares the elements as a whole before comparing their
+ * content.
+ *
+ * <p>Both sequences are folded using the {@link SequenceFolding} so that the folded elements become
+ * single tokens, and the folded sequences are compared first. Elements which are identical in both
+ * sequences are matched as a whole and never seen by the algorithm again.</p>
+ *
+ * <p>Within a run of edits, a deleted element is paired with the next inserted element with the same
+ * start element and the content of both is compared in turn using the same method, since it may
+ * contain folded elements. The tokens of a pair of elements without any folded element are compared
+ * by the {@link OptimisticXMLProcessor}. The tokens deleted and inserted between pairs are unfolded
+ * and compared by the same processor, so that elements which have been wrapped or renamed are not
+ * simply replaced.</p>
+ *
+ * <p>When only a few elements differ, for example 3 sections out of 1000, the word-level algorithm
+ * only processes the tokens of these elements. The edit script may not be the shortest one, but it
+ * is always well-formed.</p>
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class FoldingXMLProcessor extends DiffProcessorBase implements XMLDiffProcessor {
+
+  private final SequenceFolding folding;
+
+  private int fallbackThreshold = MatrixXMLAlgorithm.DEFAULT_THRESHOLD;
+
+  /**
+   * Creates a new processor folding all elements.
+   */
+  public FoldingXMLProcessor() {
+    this(SequenceFolding.forAllElements());
+  }
+
+  /**
+   * Creates a new processor using the specified folding.
+   *
+   * @param folding The elements to compare as a whole first.
+   */
+  public FoldingXMLProcessor(SequenceFolding folding) {
+    this.folding = folding;
+  }
+
+  /**
+   * Set the maximum amount of comparison in case the fast algorithm fails.
+   *
+   * @see OptimisticXMLProcessor#setFallbackThreshold(int)
+   */
+  public void setFallbackThreshold(int fallbackThreshold) {
+    this.fallbackThreshold = fallbackThreshold;
+  }
+
+  @Override
+  public void diff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler) {
+    cancellableDiff(from, to, handler, null);
+  }
+
+  @Override
+  void cancellableDiff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler, @Nullable CancelFlag cancel) {
+    DiffHandler<XMLToken> actual = getFilter(handler);
+    OptimisticXMLProcessor processor = new OptimisticXMLProcessor();
+    processor.setFallbackThreshold(this.fallbackThreshold);
+    processor.setDiscardConfusing(this.discardConfusing);
+    processor.setCollapseShared(this.collapseShared);
+    Instance instance = new Instance(processor, actual, cancel);
+    actual.start();
+    instance.diff(this.folding.fold(from), this.folding.fold(to));
+    actual.end();
+  }
+
+  private DiffHandler<XMLToken> getFilter(DiffHandler<XMLToken> handler) {
+    return this.coalesce ? new CoalescingFilter(handler) : handler;
+  }
+
+  @Override
+  public String toString() {
+    return "FoldingXMLProcessor{" +
+        "elements=" + this.folding.elements +
+        ", coalesce=" + coalesce +
+        '}';
+  }
+
+  /**
+   * An instance of this processor for the sequences being compared.
+   */
+  private static final class Instance {
+
+    private final OptimisticXMLProcessor processor;
+
+    private final DiffHandler<XMLToken> handler;
+
+    private final @Nullable CancelFlag cancel;
+
+    /**
+     * Receives the results of the processor without starting or ending the handler.
+     */
+    private final DiffHandler<XMLToken> content;
+
+    /**
+     * Pending steps, so that deeply nested elements do not cause a stack overflow.
+     */
+    private final Deque<Runnable> pending = new ArrayDeque<>();
+
+    Instance(OptimisticXMLProcessor processor, DiffHandler<XMLToken> handler, @Nullable CancelFlag cancel) {
+      this.processor = processor;
+      this.handler = handler;
+      this.cancel = cancel;
+      this.content = new ContentFilter(handler);
+    }
+
+    void diff(List<? extends XMLToken> from, List<? extends XMLToken> to) {
+      this.pending.push(() -> diffStep(from, to));
+      while (!this.pending.isEmpty()) {
+        CancelFlag.check(this.cancel);
+        this.pending.pop().run();
+      }
+    }
+
+    private void diffStep(List<? extends XMLToken> from, List<? extends XMLToken> to) {
+      if (!hasElements(from) && !hasElements(to)) {
+        this.processor.cancellableDiff(from, to, this.content, this.cancel);
+        return;
+      }
+
+      // Compare folded elements as a whole
+      OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+      this.processor.cancellableDiff(from, to, buffer, this.cancel);
+      List<Operation<XMLToken>> operations = buffer.getOperations();
+
+      List<Runnable> steps = new ArrayList<>();
+      List<Operation<XMLToken>> edits = new ArrayList<>();
+      int i = 0;
+      while (i < operations.size()) {
+        if (operations.get(i).operator() == Operator.MATCH) {
+          edits.add(operations.get(i++));
+          continue;
+        }
+        int j = i;
+        boolean sameLevel = true;
+        while (j < operations.size() && operations.get(j).operator() != Operator.MATCH) {
+          sameLevel &= !isStructural(operations.get(j).token());
+          j++;
+        }
+        if (sameLevel) {
+          pair(operations.subList(i, j), edits, steps);
+        } else {
+          edits.addAll(operations.subList(i, j));
+        }
+        i = j;
+      }
+      steps.add(toStep(edits));
+
+      // Steps are pushed in reverse order so that the first one is processed first
+      for (int k = steps.size() - 1; k >= 0; k--) {
+        this.pending.push(steps.get(k));
+      }
+    }
+
+    /**
+     * Pair the deleted and inserted elements with the same start element in a run of edits.
+     *
+     * <p>All the tokens in the run must be at the same level so that the edits can be reordered.
+     */
+    private void pair(List<Operation<XMLToken>> run, List<Operation<XMLToken>> edits, List<Runnable> steps) {
+      List<XMLToken> deleted = new ArrayList<>();
+      List<XMLToken> inserted = new ArrayList<>();
+      for (Operation<XMLToken> operation : run) {
+        if (operation.operator() == Operator.DEL) deleted.add(operation.token());
+        else inserted.add(operation.token());
+      }
+      int d = 0;
+      int n = 0;
+      for (int x = 0; x < deleted.size(); x++) {
+        if (!(deleted.get(x) instanceof ElementToken)) continue;
+        ElementToken element = (ElementToken) deleted.get(x);
+        int y = findPair(element, inserted, n);
+        if (y < 0) continue;
+        unpaired(deleted.subList(d, x), inserted.subList(n, y), edits, steps);
+        steps.add(toStep(new ArrayList<>(edits)));
+        edits.clear();
+        ElementToken target = (ElementToken) inserted.get(y);
+        steps.add(() -> diffStep(element.getEvents(), target.getEvents()));
+        d = x + 1;
+        n = y + 1;
+      }
+      unpaired(deleted.subList(d, deleted.size()), inserted.subList(n, inserted.size()), edits, steps);
+    }
+
+    /**
+     * Handle the tokens between pairs of elements.
+     *
+     * <p>If there are deletions and insertions, the unfolded tokens are compared since the elements
+     * may have been wrapped or unwrapped.
+     */
+    private void unpaired(List<XMLToken> deleted, List<XMLToken> inserted, List<Operation<XMLToken>> edits, List<Runnable> steps) {
+      if (!deleted.isEmpty() && !inserted.isEmpty()) {
+        steps.add(toStep(new ArrayList<>(edits)));
+        edits.clear();
+        List<XMLToken> from = unfold(deleted);
+        List<XMLToken> to = unfold(inserted);
+        steps.add(() -> this.processor.cancellableDiff(from, to, this.content, this.cancel));
+      } else {
+        for (XMLToken token : inserted) edits.add(new Operation<>(Operator.INS, token));
+        for (XMLToken token : deleted) edits.add(new Operation<>(Operator.DEL, token));
+      }
+    }
+
+    private Runnable toStep(List<Operation<XMLToken>> operations) {
+      return () -> {
+        for (Operation<XMLToken> operation : operations) {
+          handle(operation.operator(), operation.token());
+        }
+      };
+    }
+
+    /**
+     * Report the operation for the specified token, unfolding elements.
+     */
+    private void handle(Operator operator, XMLToken token) {
+      if (token instanceof ElementToken) {
+        unfold(token, t -> this.handler.handle(operator, t));
+      } else {
+        this.handler.handle(operator, token);
+      }
+    }
+  }
+
+  /**
+   * Returns the unfolded list of tokens.
+   */
+  private static List<XMLToken> unfold(List<XMLToken> tokens) {
+    List<XMLToken> unfolded = new ArrayList<>(tokens.size());
+    for (XMLToken token : tokens) unfold(token, unfolded::add);
+    return unfolded;
+  }
+
+  /**
+   * Unfold the specified token iteratively so that deeply nested elements do not cause a stack overflow.
+   */
+  static void unfold(XMLToken token, Consumer<XMLToken> consumer) {
+    if (!(token instanceof ElementToken)) {
+      consumer.accept(token);
+      return;
+    }
+    Deque<Iterator<XMLToken>> stack = new ArrayDeque<>();
+    stack.push(((ElementToken) token).getEvents().iterator());
+    while (!stack.isEmpty()) {
+      Iterator<XMLToken> events = stack.peek();
+      if (!events.hasNext()) {
+        stack.pop();
+      } else {
+        XMLToken next = events.next();
+        if (next instanceof ElementToken) stack.push(((ElementToken) next).getEvents().iterator());
+        else consumer.accept(next);
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the first inserted element from the specified index with the same start element.
+   */
+  private static int findPair(ElementToken element, List<XMLToken> inserted, int from) {
+    XMLToken open = element.getEvents().get(0);
+    for (int y = from; y < inserted.size(); y++) {
+      XMLToken token = inserted.get(y);
+      if (token instanceof ElementToken && ((ElementToken) token).getEvents().get(0).equals(open)) return y;
+    }
+    return -1;
+  }
+
+  private static boolean hasElements(List<? extends XMLToken> tokens) {
+    for (XMLToken token : tokens) {
+      if (token instanceof ElementToken) return true;
+    }
+    return false;
+  }
+
+  private static boolean isStructural(XMLToken token) {
+    XMLTokenType type = token.getType();
+    return type == XMLTokenType.START_ELEMENT || type == XMLTokenType.END_ELEMENT || type == XMLTokenType.ATTRIBUTE;
+  }
+
+  /**
+   * Passes the results on to the target without starting or ending it.
+   */
+  private static final class ContentFilter extends DiffFilter<XMLToken> {
+
+    ContentFilter(DiffHandler<XMLToken> target) {
+      super(target);
+    }
+
+    @Override
+    public void handle(Operator operator, XMLToken token) {
+      this.target.handle(operator, token);
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void end() {
+    }
+  }
+}
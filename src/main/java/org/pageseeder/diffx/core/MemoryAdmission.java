@@ -0,0 +1,252 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.token.XMLToken;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls the admission of concurrent diffs against a global memory budget.
+ *
+ * <p>Before a diff starts, its peak working memory is estimated from the number of tokens and the
+ * algorithm the processor would use, for example the size of the matrix for the
+ * {@link DefaultXMLProcessor}. That amount is reserved from the budget for the duration of the
+ * diff and released when it completes.
+ *
+ * <p>When the budget is short, diffs wait in the order they arrived for up to the specified
+ * timeout. If the memory is still not available, the diff is downgraded: once its turn comes, it
+ * reserves only the memory needed by the most precise level of {@link DiffBudget} that fits in the
+ * memory left.
+ *
+ * <p>Processors which do not provide an estimate are admitted without reserving memory.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class MemoryAdmission {
+
+  /**
+   * The total memory in bytes that can be reserved.
+   */
+  private final long budget;
+
+  /**
+   * The memory in bytes that is not reserved (guarded by this).
+   */
+  private long available;
+
+  /**
+   * The reservations waiting for memory in the order they arrived (guarded by this).
+   */
+  private final Deque<Object> waiting = new ArrayDeque<>();
+
+  /**
+   * Creates a new admission controller.
+   *
+   * @param budget The total memory in bytes that can be reserved by concurrent diffs
+   *
+   * @throws IllegalArgumentException If the budget is negative
+   */
+  public MemoryAdmission(long budget) {
+    if (budget < 0) throw new IllegalArgumentException("Budget must not be negative");
+    this.budget = budget;
+    this.available = budget;
+  }
+
+  /**
+   * @return the total memory in bytes that can be reserved.
+   */
+  public long getBudget() {
+    return this.budget;
+  }
+
+  /**
+   * @return the memory in bytes that is not reserved.
+   */
+  public synchronized long getAvailable() {
+    return this.available;
+  }
+
+  /**
+   * Returns the peak working memory in bytes the processor is expected to need to compare the
+   * sequences.
+   *
+   * @param processor The processor
+   * @param from      The original list of tokens to compare (deleted)
+   * @param to        The target list of tokens to compare (inserted)
+   *
+   * @return the estimated memory or 0 if the processor does not provide an estimate.
+   */
+  public long estimate(XMLDiffProcessor processor, List<? extends XMLToken> from, List<? extends XMLToken> to) {
+    return processor instanceof DiffProcessorBase ? ((DiffProcessorBase) processor).estimateMemory(from, to) : 0;
+  }
+
+  /**
+   * Reserves the specified amount of memory if it is available and no other reservation is waiting.
+   *
+   * @param bytes The memory to reserve
+   *
+   * @return <code>true</code> if the memory was reserved; <code>false</code> otherwise.
+   */
+  public synchronized boolean tryReserve(long bytes) {
+    checkBytes(bytes);
+    if (!this.waiting.isEmpty() || bytes > this.available) return false;
+    this.available -= bytes;
+    return true;
+  }
+
+  /**
+   * Reserves the specified amount of memory, waiting until it is available.
+   *
+   * <p>Reservations are granted in the order they were requested.
+   *
+   * @param bytes   The memory to reserve
+   * @param timeout The maximum time to wait in milliseconds
+   *
+   * @return <code>true</code> if the memory was reserved; <code>false</code> if it is larger than the
+   * budget or the timeout elapsed.
+   *
+   * @throws InterruptedException If the thread was interrupted while waiting.
+   */
+  public synchronized boolean reserve(long bytes, long timeout) throws InterruptedException {
+    checkBytes(bytes);
+    if (bytes > this.budget) return false;
+    return acquire(bytes, timeout, false) >= 0;
+  }
+
+  /**
+   * Releases memory previously reserved.
+   *
+   * @param bytes The memory to release
+   */
+  public synchronized void release(long bytes) {
+    checkBytes(bytes);
+    this.available = Math.min(this.available + bytes, this.budget);
+    notifyAll();
+  }
+
+  /**
+   * Performs the comparison once its estimated memory is reserved.
+   *
+   * <p>If the memory cannot be reserved before the timeout, the comparison is downgraded: once the
+   * reservations ahead of it are served, it reserves the memory needed by the most precise level
+   * that fits in the memory available at that time and runs at that level.
+   *
+   * @param processor The processor to use
+   * @param from      The original list of tokens to compare (deleted)
+   * @param to        The target list of tokens to compare (inserted)
+   * @param handler   The handler for the results of the comparison
+   * @param timeout   The maximum time to wait for the memory in milliseconds
+   *
+   * @return the level of precision used for the results.
+   *
+   * @throws InterruptedException If the thread was interrupted while waiting.
+   */
+  public DiffBudget.Level diff(XMLDiffProcessor processor, List<? extends XMLToken> from, List<? extends XMLToken> to,
+                               DiffHandler<XMLToken> handler, long timeout) throws InterruptedException {
+    if (!(processor instanceof DiffProcessorBase)) {
+      processor.diff(from, to, handler);
+      return DiffBudget.Level.WORD;
+    }
+    long bytes = estimate(processor, from, to);
+    long granted = acquire(bytes, bytes > this.budget ? 0 : timeout, true);
+    if (granted == bytes) {
+      try {
+        processor.diff(from, to, handler);
+        return DiffBudget.Level.WORD;
+      } finally {
+        release(bytes);
+      }
+    }
+    DiffProcessorBase base = (DiffProcessorBase) processor;
+    long needed = 0;
+    for (DiffBudget.Level level : DiffBudget.Level.values()) {
+      long estimate = base.estimateMemory(from, to, level);
+      if (estimate <= granted) {
+        needed = estimate;
+        break;
+      }
+    }
+    // Give back what the level does not need straight away
+    release(granted - needed);
+    try {
+      return base.diff(from, to, handler, DiffBudget.unlimited().maxMemory(needed));
+    } finally {
+      release(needed);
+    }
+  }
+
+  /**
+   * Reserves memory once all the reservations requested before are served.
+   *
+   * <p>If the memory is not available before the timeout, a partial reservation keeps its place in
+   * the queue and reserves whatever memory is available once its turn comes.
+   *
+   * @param bytes   The memory to reserve
+   * @param timeout The maximum time to wait for all the memory in milliseconds
+   * @param partial Whether to reserve the memory available after the timeout rather than give up
+   *
+   * @return the memory reserved or -1 if the timeout elapsed.
+   */
+  private synchronized long acquire(long bytes, long timeout, boolean partial) throws InterruptedException {
+    long start = System.nanoTime();
+    long wait = TimeUnit.MILLISECONDS.toNanos(timeout);
+    boolean expired = false;
+    Object ticket = new Object();
+    this.waiting.addLast(ticket);
+    try {
+      while (this.waiting.peekFirst() != ticket || (!expired && bytes > this.available)) {
+        long remaining = wait - (System.nanoTime() - start);
+        if (remaining > 0) {
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        } else if (!partial) {
+          return -1;
+        } else if (!expired) {
+          expired = true;
+        } else {
+          // The reservations ahead are bounded by their own timeout
+          wait();
+        }
+      }
+      long granted = Math.min(bytes, this.available);
+      this.available -= granted;
+      return granted;
+    } finally {
+      this.waiting.remove(ticket);
+      notifyAll();
+    }
+  }
+
+  private static void checkBytes(long bytes) {
+    if (bytes < 0) throw new IllegalArgumentException("Memory must not be negative");
+  }
+
+  @Override
+  public String toString() {
+    return "MemoryAdmission{" +
+        "budget=" + this.budget +
+        ", available=" + getAvailable() +
+        '}';
+  }
+}
@@ -15,18 +15,31 @@
  */
 package org.pageseeder.diffx.core;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.action.Operation;
 import org.pageseeder.diffx.action.OperationsBuffer;
-import org.pageseeder.diffx.algorithm.DataLengthException;
+import org.pageseeder.diffx.algorithm.CancelFlag;
+import org.pageseeder.diffx.algorithm.HirschbergXMLAlgorithm;
 import org.pageseeder.diffx.algorithm.MatrixXMLAlgorithm;
 import org.pageseeder.diffx.algorithm.MyersGreedyAlgorithm;
 import org.pageseeder.diffx.algorithm.MyersGreedyXMLAlgorithm;
+import org.pageseeder.diffx.algorithm.MyersLinearXMLAlgorithm;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.api.Operator;
 import org.pageseeder.diffx.handler.CoalescingFilter;
 import org.pageseeder.diffx.handler.PostXMLFixer;
 import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.XMLTokenType;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The optimistic XML processor attempts to process XML using a non-XML algorithm and fall back on to
@@ -37,6 +50,17 @@ import java.util.List;
  * using the {@link PostXMLFixer}. Since generic LCS solution are more efficient than their XML
  * counterpart, we get the solution more efficiently.</p>
  *
+ * <p>The processor then falls back on the {@link MyersGreedyXMLAlgorithm}, or on the
+ * {@link MyersLinearXMLAlgorithm} when the number of comparisons exceeds the fallback threshold since
+ * it works in linear space regardless of the number of differences.</p>
+ *
+ * <p>When the XML-aware algorithms fail or the sequences are too large for a matrix, the processor uses
+ * the {@link HirschbergXMLAlgorithm} which works in linear space.</p>
+ *
+ * <p>When both sequences have the same root element, the results of the fast algorithm are forwarded
+ * to the handler each time only the root element is open in both sequences, so that only the
+ * results since the last of these checkpoints are kept in memory.</p>
+ *
  * @author Christophe Lauret
  * @version 0.9.0
  */
@@ -46,40 +70,166 @@ public final class OptimisticXMLProcessor extends DiffProcessorBase implements X
 
   private int fallbackThreshold = MatrixXMLAlgorithm.DEFAULT_THRESHOLD;
 
-  private boolean isDownscaleAllowed = true;
+  private @Nullable Executor executor = null;
 
+  /**
+   * @deprecated The processor falls back on a linear space algorithm instead of coalescing text when
+   * sequences are too large, this setting has no effect.
+   */
+  @Deprecated
   public void setDownscaleAllowed(boolean allowed) {
-    this.isDownscaleAllowed = allowed;
-  }
-
-  boolean isDownscaleAllowed() {
-    return this.isDownscaleAllowed;
+    // No effect
   }
 
   /**
    * Set the maximum amount of comparison in case the fast algorithm fails.
+   *
+   * <p>Beyond that threshold, the processor uses a linear space algorithm instead of a matrix.</p>
    */
   public void setFallbackThreshold(int fallbackThreshold) {
     this.fallbackThreshold = fallbackThreshold;
   }
 
+  /**
+   * Set the executor used to run the XML-aware algorithm speculatively.
+   *
+   * <p>When an executor is specified, the XML-aware algorithm starts on the executor at the same
+   * time as the fast algorithm on the current thread instead of waiting for the fast algorithm to
+   * fail. The first valid result is used and the other algorithm is cancelled; this reduces the
+   * latency when the fast algorithm fails at the cost of more work overall.</p>
+   *
+   * <p>If the executor rejects the task, the algorithms are run one after the other.</p>
+   *
+   * @param executor The executor for the XML-aware algorithm, <code>null</code> to disable.
+   */
+  public void setSpeculativeExecutor(@Nullable Executor executor) {
+    this.executor = executor;
+  }
+
   @Override
   public void diff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler) {
-    // Try with fast diff
-    OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
-    boolean successful = fastDiff(from, to, buffer);
-    if (successful) {
-      buffer.applyTo(getFilter(handler));
-    } else {
-      // Fallback on default diff
-      if (DEBUG) System.err.println("Fast diff failed! Falling back on default diff");
+    cancellableDiff(from, to, handler, null);
+  }
+
+  @Override
+  void cancellableDiff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler, @Nullable CancelFlag cancel) {
+    diff((a, b, h) -> process(a, b, h, cancel), from, to, getFilter(handler));
+  }
+
+  @Override
+  long estimateMemory(List<? extends XMLToken> from, List<? extends XMLToken> to) {
+    // The fast algorithm keeps the furthest reaching paths for each number of differences (at least the difference in size)
+    long d = Math.abs(from.size() - to.size());
+    long greedy = 4L * (d + 1) * (d + 1);
+    // The matrix of the fallback is capped by the threshold, beyond it the linear space algorithm needs much less
+    long cells = Math.min((long) (from.size() + 1) * (to.size() + 1), this.fallbackThreshold);
+    long matrix = cells * (Math.max(from.size(), to.size()) + 1 > Short.MAX_VALUE ? 4 : 2);
+    return Math.max(greedy, matrix);
+  }
+
+  private void process(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler,
+                       @Nullable CancelFlag cancel) {
+    if (this.executor != null) {
       try {
-        fallbackDiffMyers(from, to, getFilter(handler));
-      } catch (IllegalStateException ex) {
-        // In some rare cases Myers XML fails, we fall back on the matrix
-        fallbackDiffMatrix(from, to, getFilter(handler), false);
+        race(from, to, handler, this.executor, cancel);
+        return;
+      } catch (RejectedExecutionException ex) {
+        if (DEBUG) System.err.println("Speculative diff rejected, processing sequentially");
       }
     }
+
+    // Try with fast diff
+    Stream stream = new Stream(from, to, handler, cancel);
+    MyersGreedyAlgorithm<XMLToken> algorithm = new MyersGreedyAlgorithm<>();
+    algorithm.setCancelFlag(cancel);
+    algorithm.diff(from, to, stream);
+    if (stream.finish()) return;
+
+    // Fallback on default diff
+    if (DEBUG) System.err.println("Repair failed! Falling back on default diff");
+    try {
+      fallbackDiffMyers(from, to, handler, cancel);
+    } catch (CancellationException ex) {
+      throw ex;
+    } catch (IllegalStateException ex) {
+      // In some rare cases Myers XML fails, we fall back on the matrix
+      fallbackDiffMatrix(from, to, handler, cancel);
+    }
+  }
+
+  /**
+   * Run the fast diff on the current thread while the XML-aware algorithm runs on the executor.
+   *
+   * <p>The valid results of the fast diff are preferred, unless the XML-aware algorithm completes
+   * first. Whichever completes first cancels the other.</p>
+   *
+   * @throws RejectedExecutionException If the executor did not accept the task.
+   */
+  private void race(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler, Executor executor,
+                    @Nullable CancelFlag cancel) {
+    CancelFlag fastCancel = CancelFlag.linkedTo(cancel);
+    CancelFlag fallbackCancel = CancelFlag.linkedTo(cancel);
+    CompletableFuture<OperationsBuffer<XMLToken>> fallback = CompletableFuture.supplyAsync(() -> {
+      OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+      xmlDiff(from, to, buffer, fallbackCancel);
+      fastCancel.cancel();
+      return buffer;
+    }, executor);
+
+    OperationsBuffer<XMLToken> buffer = null;
+    try {
+      buffer = fastDiff(from, to, fastCancel);
+    } catch (CancellationException ex) {
+      if (DEBUG) System.err.println("Fast diff cancelled, XML-aware algorithm completed first");
+    }
+    if (buffer != null) {
+      fallbackCancel.cancel();
+      buffer.applyTo(handler);
+      return;
+    }
+
+    // Wait for the XML-aware algorithm, stopping it if this thread is interrupted
+    try {
+      buffer = CancelFlag.await(fallback, fallbackCancel);
+    } catch (CancellationException ex) {
+      throw ex;
+    } catch (IllegalStateException ex) {
+      // In some rare cases Myers XML fails, we fall back on the matrix
+      fallbackDiffMatrix(from, to, handler, cancel);
+      return;
+    }
+    buffer.applyTo(handler);
+  }
+
+  /**
+   * Run the fast algorithm and try to repair any XML errors.
+   *
+   * @return the results or <code>null</code> if they could not be repaired.
+   */
+  private @Nullable OperationsBuffer<XMLToken> fastDiff(List<? extends XMLToken> from, List<? extends XMLToken> to,
+                                                        @Nullable CancelFlag cancel) {
+    OperationsBuffer<XMLToken> raw = new OperationsBuffer<>();
+    MyersGreedyAlgorithm<XMLToken> algorithm = new MyersGreedyAlgorithm<>();
+    algorithm.setCancelFlag(cancel);
+    algorithm.diff(from, to, raw);
+    return fixOrRepair(raw.getOperations(), from, to, cancel);
+  }
+
+  /**
+   * Fix the results of the fast algorithm, or repair them if they cannot be fixed.
+   *
+   * @return the results or <code>null</code> if they could not be repaired.
+   */
+  private @Nullable OperationsBuffer<XMLToken> fixOrRepair(List<Operation<XMLToken>> operations, List<? extends XMLToken> from,
+                                                           List<? extends XMLToken> to, @Nullable CancelFlag cancel) {
+    OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+    PostXMLFixer fixer = fix(operations, buffer);
+    if (!fixer.hasError()) return buffer;
+
+    // Only compare the tokens around the errors again
+    if (DEBUG) System.err.println("Fast diff failed! Repairing " + fixer.getErrors().size() + " error(s)");
+    OperationsBuffer<XMLToken> repaired = new OperationsBuffer<>();
+    return repair(operations, fixer.getErrors(), from, to, repaired, cancel) ? repaired : null;
   }
 
   private DiffHandler<XMLToken> getFilter(DiffHandler<XMLToken> handler) {
@@ -87,48 +237,475 @@ public final class OptimisticXMLProcessor extends DiffProcessorBase implements X
   }
 
   /**
-   * Run fast algorithm and try to fix any XML errors after the diff.
+   * Try to fix any XML errors in the results of the fast algorithm.
    */
-  private boolean fastDiff(List<? extends XMLToken> from, List<? extends XMLToken> to, OperationsBuffer<XMLToken> buffer) {
-    DiffAlgorithm<XMLToken> algorithm = new MyersGreedyAlgorithm<>();
+  private static PostXMLFixer fix(List<Operation<XMLToken>> operations, OperationsBuffer<XMLToken> buffer) {
     PostXMLFixer fixer = new PostXMLFixer(buffer);
     fixer.start();
-    algorithm.diff(from, to, fixer);
+    for (Operation<XMLToken> operation : operations) {
+      fixer.handle(operation.operator(), operation.token());
+    }
     fixer.end();
-    return !fixer.hasError();
+    return fixer;
   }
 
   /**
-   * Fall back on slower matrix-based algorithm.
+   * Compare the tokens in a window around each error with an XML-aware algorithm and splice the
+   * results into the results of the fast algorithm.
+   *
+   * <p>Each window starts and ends after a match where the elements open in both sequences are the
+   * same matched elements, so that the tokens of both sequences in the window are well-formed.</p>
+   *
+   * @return <code>true</code> if the results could be repaired; <code>false</code> otherwise.
    */
-  private void fallbackDiffMatrix(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler, boolean coalesced) {
-    MatrixXMLAlgorithm algorithm = new MatrixXMLAlgorithm();
-    DiffHandler<XMLToken> actual = getFilter(handler);
-    if (algorithm.isDiffComputable(from, to)) {
-      actual.start();
-      algorithm.diff(from, to, actual);
-      actual.end();
-    } else if (!coalesced && this.isDownscaleAllowed) {
-      if (DEBUG) System.err.println("Coalescing content to");
-      List<? extends XMLToken> a = CoalescingFilter.coalesce(from);
-      List<? extends XMLToken> b = CoalescingFilter.coalesce(to);
-      fallbackDiffMatrix(a, b, handler, true);
+  private boolean repair(List<Operation<XMLToken>> operations, List<Integer> errors, List<? extends XMLToken> from,
+                         List<? extends XMLToken> to, OperationsBuffer<XMLToken> buffer, @Nullable CancelFlag cancel) {
+    Checkpoints checkpoints = new Checkpoints(operations, from, to);
+
+    // Windows including the edits leading to each error, merged when they overlap
+    List<int[]> windows = new ArrayList<>();
+    for (int error : errors) {
+      int start = error;
+      while (start > 0 && operations.get(start - 1).operator() != Operator.MATCH) start--;
+      int[] window = checkpoints.window(start, error);
+      while (!windows.isEmpty() && windows.get(windows.size() - 1)[1] > window[0]) {
+        int[] previous = windows.remove(windows.size() - 1);
+        window = checkpoints.window(Math.min(previous[0], window[0]), Math.max(previous[1], window[1]) - 1);
+      }
+      windows.add(window);
+    }
+
+    List<Operation<XMLToken>> spliced = new ArrayList<>(operations.size());
+    int next = 0;
+    for (int[] window : windows) {
+      spliced.addAll(operations.subList(next, window[0]));
+      int x0 = checkpoints.x[window[0]];
+      int y0 = checkpoints.y[window[0]];
+      int x1 = checkpoints.x[window[1]];
+      int y1 = checkpoints.y[window[1]];
+      if (DEBUG) System.err.println("Repairing window " + x0 + "-" + x1 + " / " + y0 + "-" + y1);
+      OperationsBuffer<XMLToken> repaired = new OperationsBuffer<>();
+      try {
+        xmlDiff(from.subList(x0, x1), to.subList(y0, y1), repaired, cancel);
+      } catch (CancellationException ex) {
+        throw ex;
+      } catch (IllegalStateException ex) {
+        return false;
+      }
+      spliced.addAll(repaired.getOperations());
+      next = window[1];
+    }
+    spliced.addAll(operations.subList(next, operations.size()));
+    return !fix(spliced, buffer).hasError();
+  }
+
+  /**
+   * Run an XML-aware algorithm.
+   */
+  private void xmlDiff(List<? extends XMLToken> from, List<? extends XMLToken> to, OperationsBuffer<XMLToken> buffer,
+                       @Nullable CancelFlag cancel) {
+    if ((long) from.size() * to.size() > this.fallbackThreshold) {
+      MyersLinearXMLAlgorithm algorithm = new MyersLinearXMLAlgorithm();
+      algorithm.setCancelFlag(cancel);
+      algorithm.diff(from, to, buffer);
     } else {
-      throw new DataLengthException(from.size() * to.size(), this.fallbackThreshold);
+      MyersGreedyXMLAlgorithm algorithm = new MyersGreedyXMLAlgorithm();
+      algorithm.setCancelFlag(cancel);
+      algorithm.diff(from, to, buffer);
     }
   }
 
   /**
-   * Fall back on XML algorithm
+   * Fall back on slower matrix-based algorithm, or the linear space algorithm if the matrix would be too large.
    */
-  private void fallbackDiffMyers(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler) {
-    MyersGreedyXMLAlgorithm algorithm = new MyersGreedyXMLAlgorithm();
-    DiffHandler<XMLToken> actual = getFilter(handler);
-    actual.start();
-    algorithm.diff(from, to, actual);
-    actual.end();
+  private void fallbackDiffMatrix(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler,
+                                  @Nullable CancelFlag cancel) {
+    handler.start();
+    matrixDiff(from, to, handler, cancel);
+    handler.end();
   }
 
+  /**
+   * Run the matrix-based algorithm, or the linear space algorithm if the matrix would be too large.
+   */
+  private void matrixDiff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler,
+                          @Nullable CancelFlag cancel) {
+    MatrixXMLAlgorithm matrix = new MatrixXMLAlgorithm();
+    matrix.setThreshold(this.fallbackThreshold);
+    // Large matrices are filled in parallel
+    matrix.setParallel(true);
+    matrix.setCancelFlag(cancel);
+    DiffAlgorithm<XMLToken> algorithm = matrix;
+    if (!matrix.isDiffComputable(from, to)) {
+      if (DEBUG) System.err.println("Too many comparisons for matrix, using linear space algorithm");
+      HirschbergXMLAlgorithm hirschberg = new HirschbergXMLAlgorithm();
+      hirschberg.setCancelFlag(cancel);
+      algorithm = hirschberg;
+    }
+    algorithm.diff(from, to, handler);
+  }
+
+  /**
+   * Fall back on XML algorithm, or the linear space variant if the sequences are large
+   */
+  private void fallbackDiffMyers(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler,
+                                 @Nullable CancelFlag cancel) {
+    DiffAlgorithm<XMLToken> algorithm;
+    if ((long) from.size() * to.size() > this.fallbackThreshold) {
+      if (DEBUG) System.err.println("Too many comparisons for greedy algorithm, using linear space algorithm");
+      MyersLinearXMLAlgorithm linear = new MyersLinearXMLAlgorithm();
+      linear.setCancelFlag(cancel);
+      algorithm = linear;
+    } else {
+      MyersGreedyXMLAlgorithm greedy = new MyersGreedyXMLAlgorithm();
+      greedy.setCancelFlag(cancel);
+      algorithm = greedy;
+    }
+    handler.start();
+    algorithm.diff(from, to, handler);
+    handler.end();
+  }
+
+  /**
+   * Receives the results of the fast algorithm and forwards them to the handler as soon as the
+   * results up to a checkpoint are known to be well-formed.
+   *
+   * <p>When both sequences have a single root element and the root element is matched, the
+   * checkpoints are the positions after a match where only the root element is open in both
+   * sequences. The tokens between two checkpoints are well-formed in both sequences, so the
+   * results for these tokens can be fixed, or compared again, independently of the rest.</p>
+   *
+   * <p>Only the operators since the last checkpoint are kept; the tokens are retrieved from the
+   * sequences when the results are forwarded. If the results before the first checkpoint cannot
+   * be fixed, nothing is forwarded and all the results are processed at the end.</p>
+   */
+  private final class Stream implements DiffHandler<XMLToken> {
+
+    private static final byte MATCH = 0;
+    private static final byte INS = 1;
+    private static final byte DEL = 2;
+
+    private final List<? extends XMLToken> from;
+    private final List<? extends XMLToken> to;
+    private final DiffHandler<XMLToken> handler;
+    private final @Nullable CancelFlag cancel;
+
+    /**
+     * Whether results can be forwarded at checkpoints.
+     */
+    private final boolean streamable;
+
+    /**
+     * The operators since the last checkpoint.
+     */
+    private byte[] operators = new byte[256];
+    private int size = 0;
+
+    /**
+     * The position in each sequence at the last checkpoint.
+     */
+    private int x0 = 0;
+    private int y0 = 0;
+
+    /**
+     * The position in each sequence after the last operation.
+     */
+    private int x = 0;
+    private int y = 0;
+
+    /**
+     * The number of elements open in each sequence.
+     */
+    private int depthA = 0;
+    private int depthB = 0;
+
+    private boolean rootMatched = false;
+
+    /**
+     * Whether results have been forwarded to the handler.
+     */
+    private boolean forwarded = false;
+
+    /**
+     * Whether the results before the first checkpoint could not be fixed.
+     */
+    private boolean blocked = false;
+
+    Stream(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler, @Nullable CancelFlag cancel) {
+      this.from = from;
+      this.to = to;
+      this.handler = handler;
+      this.cancel = cancel;
+      this.streamable = hasSingleRoot(from) && hasSingleRoot(to);
+    }
+
+    @Override
+    public void handle(@NotNull Operator operator, @NotNull XMLToken token) {
+      if (this.size == this.operators.length) {
+        this.operators = Arrays.copyOf(this.operators, this.size * 2);
+      }
+      this.operators[this.size++] = operator == Operator.MATCH ? MATCH : operator == Operator.INS ? INS : DEL;
+      boolean inA = operator != Operator.INS;
+      boolean inB = operator != Operator.DEL;
+      XMLTokenType type = token.getType();
+      if (type == XMLTokenType.START_ELEMENT) {
+        if (this.x == 0 && this.y == 0 && operator == Operator.MATCH) this.rootMatched = true;
+        if (inA) this.depthA++;
+        if (inB) this.depthB++;
+      } else if (type == XMLTokenType.END_ELEMENT) {
+        if (inA) this.depthA--;
+        if (inB) this.depthB--;
+      }
+      if (inA) this.x++;
+      if (inB) this.y++;
+      if (this.streamable && this.rootMatched && !this.blocked && operator == Operator.MATCH
+          && this.depthA == 1 && this.depthB == 1 && !isAttribute(this.from, this.x) && !isAttribute(this.to, this.y)) {
+        checkpoint();
+      }
+    }
+
+    /**
+     * Forward the results since the last checkpoint.
+     */
+    private void checkpoint() {
+      if (this.forwarded) {
+        forward(segment(this.size, this.x, this.y));
+      } else {
+        // The start of the root element which must remain open
+        OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+        PostXMLFixer fixer = new PostXMLFixer(buffer);
+        replay(this.size, fixer);
+        if (fixer.hasError() || depth(buffer.getOperations()) != 1) {
+          this.blocked = true;
+          return;
+        }
+        this.handler.start();
+        forward(buffer);
+        this.forwarded = true;
+      }
+      this.size = 0;
+      this.x0 = this.x;
+      this.y0 = this.y;
+    }
+
+    /**
+     * Forward the remaining results.
+     *
+     * @return <code>true</code> if the results were forwarded; <code>false</code> if they could not be repaired.
+     */
+    boolean finish() {
+      if (this.forwarded) {
+        // Only the end of the root element is left after the last tokens
+        int endA = this.from.size() - 1;
+        int endB = this.to.size() - 1;
+        if (this.size > 0 && this.operators[this.size - 1] == MATCH) {
+          forward(segment(this.size - 1, endA, endB));
+        } else {
+          OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+          windowDiff(this.from.subList(this.x0, endA), this.to.subList(this.y0, endB), buffer, this.cancel);
+          forward(buffer);
+        }
+        this.handler.handle(Operator.MATCH, this.from.get(endA));
+        this.handler.end();
+        return true;
+      }
+      OperationsBuffer<XMLToken> buffer = fixOrRepair(operations(this.size), this.from, this.to, this.cancel);
+      if (buffer == null) return false;
+      buffer.applyTo(this.handler);
+      return true;
+    }
+
+    /**
+     * Returns the results for the specified number of operators since the last checkpoint.
+     *
+     * @param count The number of operators
+     * @param x1    The position in the first sequence after these operators
+     * @param y1    The position in the second sequence after these operators
+     */
+    private OperationsBuffer<XMLToken> segment(int count, int x1, int y1) {
+      List<? extends XMLToken> a = this.from.subList(this.x0, x1);
+      List<? extends XMLToken> b = this.to.subList(this.y0, y1);
+      OperationsBuffer<XMLToken> buffer = fixOrRepair(operations(count), a, b, this.cancel);
+      if (buffer == null) {
+        buffer = new OperationsBuffer<>();
+        windowDiff(a, b, buffer, this.cancel);
+      }
+      return buffer;
+    }
+
+    private void replay(int count, DiffHandler<XMLToken> target) {
+      int i = this.x0;
+      int j = this.y0;
+      for (int k = 0; k < count; k++) {
+        byte operator = this.operators[k];
+        if (operator == MATCH) {
+          target.handle(Operator.MATCH, this.from.get(i++));
+          j++;
+        } else if (operator == INS) {
+          target.handle(Operator.INS, this.to.get(j++));
+        } else {
+          target.handle(Operator.DEL, this.from.get(i++));
+        }
+      }
+    }
+
+    private List<Operation<XMLToken>> operations(int count) {
+      OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+      replay(count, buffer);
+      return buffer.getOperations();
+    }
+
+    private void forward(OperationsBuffer<XMLToken> buffer) {
+      for (Operation<XMLToken> operation : buffer.getOperations()) {
+        this.handler.handle(operation.operator(), operation.token());
+      }
+    }
+  }
+
+  /**
+   * Compare the tokens of a window with the XML-aware algorithm or the matrix if it fails.
+   */
+  private void windowDiff(List<? extends XMLToken> from, List<? extends XMLToken> to, OperationsBuffer<XMLToken> buffer,
+                          @Nullable CancelFlag cancel) {
+    OperationsBuffer<XMLToken> results = new OperationsBuffer<>();
+    try {
+      xmlDiff(from, to, results, cancel);
+    } catch (CancellationException ex) {
+      throw ex;
+    } catch (IllegalStateException ex) {
+      results = new OperationsBuffer<>();
+      matrixDiff(from, to, results, cancel);
+    }
+    results.getOperations().forEach(operation -> buffer.handle(operation.operator(), operation.token()));
+  }
+
+  /**
+   * Indicates whether the tokens are enclosed in a single element.
+   */
+  private static boolean hasSingleRoot(List<? extends XMLToken> tokens) {
+    int depth = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      XMLTokenType type = tokens.get(i).getType();
+      if (type == XMLTokenType.START_ELEMENT) depth++;
+      else if (type == XMLTokenType.END_ELEMENT) depth--;
+      else if (depth == 0) return false;
+      if (depth == 0 && i < tokens.size() - 1) return false;
+    }
+    return !tokens.isEmpty() && depth == 0;
+  }
+
+  /**
+   * Returns the number of elements left open by the specified operations.
+   */
+  private static int depth(List<Operation<XMLToken>> operations) {
+    int depth = 0;
+    for (Operation<XMLToken> operation : operations) {
+      XMLTokenType type = operation.token().getType();
+      if (type == XMLTokenType.START_ELEMENT) depth++;
+      else if (type == XMLTokenType.END_ELEMENT) depth--;
+    }
+    return depth;
+  }
+
+  private static boolean isAttribute(List<? extends XMLToken> tokens, int index) {
+    return index < tokens.size() && tokens.get(index).getType() == XMLTokenType.ATTRIBUTE;
+  }
+
+  /**
+   * The positions in the results of the fast algorithm where the window of tokens to compare again
+   * can start or end.
+   */
+  private static final class Checkpoints {
+
+    /**
+     * No checkpoint at that position.
+     */
+    private static final int NONE = -2;
+
+    /**
+     * The number of tokens from each sequence before each operation.
+     */
+    final int[] x;
+    final int[] y;
+
+    /**
+     * The index of the operation opening the innermost open element at each checkpoint, -1 when
+     * no element is open or NONE if the position is not a checkpoint.
+     */
+    private final int[] top;
+
+    /**
+     * The number of elements open at each position.
+     */
+    private final int[] depth;
+
+    Checkpoints(List<Operation<XMLToken>> operations, List<? extends XMLToken> from, List<? extends XMLToken> to) {
+      int size = operations.size();
+      this.x = new int[size + 1];
+      this.y = new int[size + 1];
+      this.top = new int[size + 1];
+      this.depth = new int[size + 1];
+      int[] stackA = new int[16];
+      int[] stackB = new int[16];
+      int sizeA = 0;
+      int sizeB = 0;
+      for (int i = 0; i <= size; i++) {
+        if (i > 0) {
+          Operation<XMLToken> operation = operations.get(i - 1);
+          XMLTokenType type = operation.token().getType();
+          boolean inA = operation.operator() != Operator.INS;
+          boolean inB = operation.operator() != Operator.DEL;
+          this.x[i] = this.x[i - 1] + (inA ? 1 : 0);
+          this.y[i] = this.y[i - 1] + (inB ? 1 : 0);
+          if (type == XMLTokenType.START_ELEMENT) {
+            if (sizeA == stackA.length || sizeB == stackB.length) {
+              stackA = Arrays.copyOf(stackA, stackA.length * 2);
+              stackB = Arrays.copyOf(stackB, stackB.length * 2);
+            }
+            if (inA) stackA[sizeA++] = i - 1;
+            if (inB) stackB[sizeB++] = i - 1;
+          } else if (type == XMLTokenType.END_ELEMENT) {
+            if (inA && sizeA > 0) sizeA--;
+            if (inB && sizeB > 0) sizeB--;
+          }
+        }
+        this.depth[i] = Math.min(sizeA, sizeB);
+        boolean checkpoint = (i == 0 || i == size || operations.get(i - 1).operator() == Operator.MATCH)
+            && sizeA == sizeB && isSame(stackA, stackB, sizeA)
+            && !isAttribute(from, this.x[i]) && !isAttribute(to, this.y[i]);
+        this.top[i] = checkpoint ? (sizeA > 0 ? stackA[sizeA - 1] : -1) : NONE;
+      }
+    }
+
+    /**
+     * Find a window including the specified operations.
+     *
+     * @param start The index of the first operation to include
+     * @param end   The index of the last operation to include
+     *
+     * @return The index of the first operation of the window and the index after the last one.
+     */
+    int[] window(int start, int end) {
+      int first = start;
+      while (true) {
+        while (this.top[first] == NONE) first--;
+        // Find the next checkpoint with the same open elements
+        int last = end + 1;
+        while (last < this.top.length && this.top[last] != this.top[first] && this.depth[last] >= this.depth[first]) last++;
+        if (last >= this.top.length) last = this.top.length - 1;
+        if (this.top[last] == this.top[first]) return new int[]{first, last};
+        // The innermost element was closed, start from an outer level
+        first--;
+      }
+    }
+
+    private static boolean isSame(int[] a, int[] b, int size) {
+      for (int i = size - 1; i >= 0; i--) {
+        if (a[i] != b[i]) return false;
+      }
+      return true;
+    }
+  }
 
   @Override
   public String toString() {
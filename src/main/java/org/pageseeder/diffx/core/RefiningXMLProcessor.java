@@ -0,0 +1,227 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.action.Operation;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.algorithm.CancelFlag;
+import org.pageseeder.diffx.algorithm.CharArrayAlgorithm;
+import org.pageseeder.diffx.algorithm.MatrixXMLAlgorithm;
+import org.pageseeder.diffx.algorithm.MyersGreedyAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.config.WhiteSpaceProcessing;
+import org.pageseeder.diffx.handler.CoalescingFilter;
+import org.pageseeder.diffx.load.text.TextTokenizer;
+import org.pageseeder.diffx.load.text.TokenizerBySpaceWord;
+import org.pageseeder.diffx.token.TextToken;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.XMLTokenType;
+import org.pageseeder.diffx.token.impl.WordToken;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A processor comparing text nodes as a whole first and refining the differences within the text
+ * nodes which have changed.
+ *
+ * <p>The sequences are expected to be loaded with the {@link org.pageseeder.diffx.config.TextGranularity#TEXT}
+ * granularity so that the XML algorithm only processes a few tokens per text node. Within a run of
+ * edits, each deleted text is paired with the next inserted text, and the characters of both are
+ * tokenized by word including the space before and compared.</p>
+ *
+ * <p>When the character threshold is set, deleted and inserted words which are not longer than the
+ * threshold are paired in the same way and compared character by character using the
+ * {@link CharArrayAlgorithm}.</p>
+ *
+ * <p>Only the runs of edits which do not include elements or attributes are refined so that the
+ * results are always well-formed.</p>
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class RefiningXMLProcessor extends DiffProcessorBase implements XMLDiffProcessor {
+
+  private int fallbackThreshold = MatrixXMLAlgorithm.DEFAULT_THRESHOLD;
+
+  private int characterThreshold = 0;
+
+  private WhiteSpaceProcessing whitespace = WhiteSpaceProcessing.COMPARE;
+
+  /**
+   * Set the maximum amount of comparison in case the fast algorithm fails.
+   *
+   * @see OptimisticXMLProcessor#setFallbackThreshold(int)
+   */
+  public void setFallbackThreshold(int fallbackThreshold) {
+    this.fallbackThreshold = fallbackThreshold;
+  }
+
+  /**
+   * Set the maximum length of the changed words which should be compared character by character.
+   *
+   * @param characterThreshold The maximum number of characters in a word, 0 to only compare words.
+   */
+  public void setCharacterThreshold(int characterThreshold) {
+    this.characterThreshold = characterThreshold;
+  }
+
+  /**
+   * Set how white spaces should be processed when the text is tokenized by word.
+   *
+   * <p>This should be the same as the configuration used to load the sequences.</p>
+   *
+   * @param whitespace The white space processing
+   */
+  public void setWhiteSpaceProcessing(WhiteSpaceProcessing whitespace) {
+    this.whitespace = whitespace;
+  }
+
+  @Override
+  public void diff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler) {
+    cancellableDiff(from, to, handler, null);
+  }
+
+  @Override
+  void cancellableDiff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler, @Nullable CancelFlag cancel) {
+    OptimisticXMLProcessor processor = new OptimisticXMLProcessor();
+    processor.setFallbackThreshold(this.fallbackThreshold);
+    processor.setDiscardConfusing(this.discardConfusing);
+    processor.setCollapseShared(this.collapseShared);
+    OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+    processor.cancellableDiff(from, to, buffer, cancel);
+
+    DiffHandler<XMLToken> actual = getFilter(handler);
+    actual.start();
+    new Instance(actual, cancel).refine(buffer.getOperations(), false);
+    actual.end();
+  }
+
+  private DiffHandler<XMLToken> getFilter(DiffHandler<XMLToken> handler) {
+    return this.coalesce ? new CoalescingFilter(handler) : handler;
+  }
+
+  @Override
+  public String toString() {
+    return "RefiningXMLProcessor{" +
+        "characterThreshold=" + characterThreshold +
+        ", coalesce=" + coalesce +
+        '}';
+  }
+
+  /**
+   * An instance of this processor for the sequences being compared.
+   */
+  private final class Instance {
+
+    private final DiffHandler<XMLToken> handler;
+
+    private final @Nullable CancelFlag cancel;
+
+    private final TextTokenizer words = new TokenizerBySpaceWord(RefiningXMLProcessor.this.whitespace);
+
+    Instance(DiffHandler<XMLToken> handler, @Nullable CancelFlag cancel) {
+      this.handler = handler;
+      this.cancel = cancel;
+    }
+
+    /**
+     * Report the operations refining the runs of edits.
+     *
+     * @param operations The operations to refine
+     * @param byWord     <code>true</code> if the operations are on words; <code>false</code> for text.
+     */
+    void refine(List<Operation<XMLToken>> operations, boolean byWord) {
+      int i = 0;
+      while (i < operations.size()) {
+        Operation<XMLToken> operation = operations.get(i);
+        if (operation.operator() == Operator.MATCH) {
+          this.handler.handle(operation.operator(), operation.token());
+          i++;
+          continue;
+        }
+        int j = i;
+        boolean textOnly = true;
+        while (j < operations.size() && operations.get(j).operator() != Operator.MATCH) {
+          textOnly &= operations.get(j).token().getType() == XMLTokenType.TEXT;
+          j++;
+        }
+        if (textOnly) {
+          pair(operations.subList(i, j), byWord);
+        } else {
+          for (Operation<XMLToken> edit : operations.subList(i, j)) {
+            this.handler.handle(edit.operator(), edit.token());
+          }
+        }
+        i = j;
+      }
+    }
+
+    /**
+     * Pair the deleted and inserted text in a run of edits and refine each pair.
+     */
+    private void pair(List<Operation<XMLToken>> run, boolean byWord) {
+      List<XMLToken> deleted = new ArrayList<>();
+      List<XMLToken> inserted = new ArrayList<>();
+      for (Operation<XMLToken> operation : run) {
+        if (operation.operator() == Operator.DEL) deleted.add(operation.token());
+        else inserted.add(operation.token());
+      }
+      int d = 0;
+      int n = 0;
+      for (int x = 0; x < deleted.size() && n < inserted.size(); x++) {
+        if (!isRefinable(deleted.get(x), byWord)) continue;
+        int y = n;
+        while (y < inserted.size() && !isRefinable(inserted.get(y), byWord)) y++;
+        if (y == inserted.size()) break;
+        for (; n < y; n++) this.handler.handle(Operator.INS, inserted.get(n));
+        for (; d < x; d++) this.handler.handle(Operator.DEL, deleted.get(d));
+        String from = ((TextToken) deleted.get(x)).getCharacters();
+        String to = ((TextToken) inserted.get(y)).getCharacters();
+        if (byWord) {
+          new CharArrayAlgorithm().diff(from.toCharArray(), to.toCharArray(), this.handler);
+        } else if (RefiningXMLProcessor.this.characterThreshold > 0) {
+          OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+          diff(this.words.tokenize(from), this.words.tokenize(to), buffer);
+          refine(buffer.getOperations(), true);
+        } else {
+          diff(this.words.tokenize(from), this.words.tokenize(to), this.handler);
+        }
+        d = x + 1;
+        n = y + 1;
+      }
+      for (; n < inserted.size(); n++) this.handler.handle(Operator.INS, inserted.get(n));
+      for (; d < deleted.size(); d++) this.handler.handle(Operator.DEL, deleted.get(d));
+    }
+
+    private boolean isRefinable(XMLToken token, boolean byWord) {
+      if (!(token instanceof TextToken)) return false;
+      String text = ((TextToken) token).getCharacters();
+      if (byWord) return token instanceof WordToken && text.length() <= RefiningXMLProcessor.this.characterThreshold;
+      return !text.trim().isEmpty();
+    }
+
+    private void diff(List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler) {
+      MyersGreedyAlgorithm<XMLToken> algorithm = new MyersGreedyAlgorithm<>();
+      algorithm.setCancelFlag(this.cancel);
+      algorithm.diff(from, to, handler);
+    }
+  }
+
+}
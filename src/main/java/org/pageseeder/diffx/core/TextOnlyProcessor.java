@@ -19,6 +19,8 @@ import org.pageseeder.diffx.algorithm.*;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.sequence.TokenDiscarder;
+import org.pageseeder.diffx.token.impl.CharToken;
 
 import java.util.Iterator;
 import java.util.List;
@@ -27,6 +29,8 @@ import java.util.List;
  * A processors for the text only tokens.
  * <p>
  * It is designed for text only and designed for simple sequences of tokens.
+ * <p>
+ * Sequences of {@link CharToken} are always compared using the {@link CharArrayAlgorithm}.
  *
  * @author Christophe Lauret
  * @version 0.9.0
@@ -42,10 +46,24 @@ public final class TextOnlyProcessor<T> implements DiffProcessor<T> {
     KUMAR_RANGAN,
     MYER_GREEDY,
     MYER_LINEAR,
+    HUNT_SZYMANSKI,
+
+    /**
+     * Select the algorithm based on the density of match points between the sequences.
+     */
+    AUTO,
   }
 
+  /**
+   * The maximum average number of match points per token for which the Hunt-Szymanski algorithm is
+   * selected automatically.
+   */
+  private static final int SPARSE_MATCHES_PER_TOKEN = 8;
+
   private final Algorithm algo;
 
+  private boolean discardConfusing = false;
+
   /**
    * Create a text only processor using Kumar-Rangan's algorithm.
    */
@@ -57,6 +75,20 @@ public final class TextOnlyProcessor<T> implements DiffProcessor<T> {
     this.algo = algorithm;
   }
 
+  /**
+   * Set whether tokens which cannot usefully be matched should be discarded before running the algorithm.
+   *
+   * <p>This can significantly reduce the size of the problem for the algorithm, but the edit script
+   * may not be the shortest one.
+   *
+   * @param discard <code>true</code> to discard confusing tokens; <code>false</code> otherwise.
+   *
+   * @see TokenDiscarder
+   */
+  public void setDiscardConfusing(boolean discard) {
+    this.discardConfusing = discard;
+  }
+
   @Override
   public void diff(List<? extends T> from, List<? extends T> to, DiffHandler<T> handler) {
     handler.start();
@@ -67,16 +99,13 @@ public final class TextOnlyProcessor<T> implements DiffProcessor<T> {
     } else {
 
       Slicer<T> slicer = new Slicer<>(from, to);
-      slicer.analyze();
 
-      // Slice the beginning
-      int startCount = slicer.getStartCount();
-      int endCount = slicer.getEndCount();
+      // Copy the start as soon as it is known
+      int startCount = slicer.computeStart();
+      for (int i = 0; i < startCount; i++) handler.handle(Operator.MATCH, from.get(i));
 
-      // Copy the end
-      if (startCount > 0) {
-        for (int i = 0; i < startCount; i++) handler.handle(Operator.MATCH, from.get(i));
-      }
+      // Slice the end
+      int endCount = slicer.sliceEnd(startCount);
 
       // Check the end
       if (startCount > 0 || endCount > 0) {
@@ -86,13 +115,11 @@ public final class TextOnlyProcessor<T> implements DiffProcessor<T> {
           for (T token : subB) handler.handle(Operator.INS, token);
           for (T token : subA) handler.handle(Operator.DEL, token);
         } else {
-          DiffAlgorithm<T> algorithm = getAlgorithm();
-          algorithm.diff(subA, subB, handler);
+          diff(subA, subB, handler, getAlgorithm(subA, subB));
         }
 
       } else {
-        DiffAlgorithm<T> algorithm = getAlgorithm();
-        algorithm.diff(from, to, handler);
+        diff(from, to, handler, getAlgorithm(from, to));
       }
 
       // Copy the end
@@ -103,13 +130,48 @@ public final class TextOnlyProcessor<T> implements DiffProcessor<T> {
     handler.end();
   }
 
+  @SuppressWarnings("unchecked")
+  private void diff(List<? extends T> from, List<? extends T> to, DiffHandler<T> handler, DiffAlgorithm<T> algorithm) {
+    if (!this.discardConfusing && CharArrayAlgorithm.isApplicable(from) && CharArrayAlgorithm.isApplicable(to)) {
+      // Characters are compared as primitive values
+      new CharArrayAlgorithm().diff((List<CharToken>) from, (List<CharToken>) to, (DiffHandler<CharToken>) handler);
+    } else if (this.discardConfusing) {
+      TokenDiscarder.diff(algorithm, from, to, handler);
+    } else {
+      algorithm.diff(from, to, handler);
+    }
+  }
+
   @Override
   public String toString() {
-    return "TextOnlyProcessor{algo=" + getAlgorithm().getClass().getSimpleName() + "}";
+    String name = this.algo == Algorithm.AUTO ? "Auto" : getAlgorithm(this.algo).getClass().getSimpleName();
+    return "TextOnlyProcessor{algo=" + name + "}";
+  }
+
+  private DiffAlgorithm<T> getAlgorithm(List<? extends T> from, List<? extends T> to) {
+    return getAlgorithm(this.algo == Algorithm.AUTO ? select(from, to) : this.algo);
   }
 
-  private DiffAlgorithm<T> getAlgorithm() {
-    switch (this.algo) {
+  /**
+   * Select the algorithm for the specified sequences.
+   *
+   * <p>When the sequences have few tokens in common, for example when a short sequence is compared
+   * with a long one, the Hunt-Szymanski algorithm only processes the few match points whereas the
+   * other algorithms explore most of the edit graph. Otherwise, Kumar-Rangan's algorithm is used.
+   *
+   * @param from The original sequence
+   * @param to   The target sequence
+   *
+   * @return The algorithm to use
+   */
+  static Algorithm select(List<?> from, List<?> to) {
+    long limit = (long) SPARSE_MATCHES_PER_TOKEN * (from.size() + to.size());
+    long matches = HuntSzymanskiAlgorithm.countMatches(from, to, limit + 1);
+    return matches <= limit ? Algorithm.HUNT_SZYMANSKI : Algorithm.KUMAR_RANGAN;
+  }
+
+  private static <T> DiffAlgorithm<T> getAlgorithm(Algorithm algo) {
+    switch (algo) {
       case HIRSCHBERG:
         return new HirschbergAlgorithm<>();
       case WAGNER_FISCHER:
@@ -120,6 +182,8 @@ public final class TextOnlyProcessor<T> implements DiffProcessor<T> {
         return new MyersGreedyAlgorithm<>();
       case MYER_LINEAR:
         return new MyersLinearAlgorithm<>();
+      case HUNT_SZYMANSKI:
+        return new HuntSzymanskiAlgorithm<>();
       default:
         throw new IllegalStateException("No algorithm defined");
     }
@@ -136,16 +200,6 @@ public final class TextOnlyProcessor<T> implements DiffProcessor<T> {
     final List<? extends T> a;
     final List<? extends T> b;
 
-    /**
-     * The common start between the two sequences.
-     */
-    int startCount = -1;
-
-    /**
-     * The common end between the two sequences.
-     */
-    int endCount = -1;
-
     /**
      * Creates a new sequence slicer.
      *
@@ -157,17 +211,6 @@ public final class TextOnlyProcessor<T> implements DiffProcessor<T> {
       this.b = b;
     }
 
-    /**
-     * Analyse the sequences to know whether they can be sliced.
-     *
-     * @return the number of common tokens
-     */
-    public int analyze() throws IllegalStateException {
-      this.startCount = computeStart();
-      this.endCount = sliceEnd(this.startCount);
-      return this.startCount + this.endCount;
-    }
-
     int computeStart() {
       int counter = 0;
       Iterator<? extends T> i = this.a.iterator();
@@ -200,20 +243,6 @@ public final class TextOnlyProcessor<T> implements DiffProcessor<T> {
       return counter;
     }
 
-    /**
-     * @return The number of common tokens at the start of the sequence.
-     */
-    public int getStartCount() {
-      return this.startCount;
-    }
-
-    /**
-     * @return The number of common tokens at the end of the sequence.
-     */
-    public int getEndCount() {
-      return this.endCount;
-    }
-
   }
 
 }
@@ -16,7 +16,6 @@
 package org.pageseeder.diffx.handler;
 
 import org.jetbrains.annotations.NotNull;
-import org.pageseeder.diffx.action.Operation;
 import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.api.Operator;
 import org.pageseeder.diffx.token.EndElementToken;
@@ -24,12 +23,15 @@ import org.pageseeder.diffx.token.StartElementToken;
 import org.pageseeder.diffx.token.XMLToken;
 import org.pageseeder.diffx.token.XMLTokenType;
 import org.pageseeder.diffx.token.impl.XMLEndElement;
+import org.pageseeder.diffx.xml.ElementStack;
 import org.pageseeder.xmlwriter.XMLWriter;
 
 import javax.xml.stream.XMLStreamWriter;
 import java.io.UncheckedIOException;
 import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Queue;
 
 /**
@@ -50,7 +52,7 @@ public final class PostXMLFixer extends DiffFilter<XMLToken> {
   /**
    * Keeps track of start elements tokens without a matching end element.
    */
-  private final Deque<Operation<StartElementToken>> unclosed = new ArrayDeque<>();
+  private ElementStack unclosed = ElementStack.EMPTY;
 
   /**
    * Deletions from the current list of successive edits.
@@ -77,8 +79,19 @@ public final class PostXMLFixer extends DiffFilter<XMLToken> {
    */
   private boolean hasError = false;
 
+  /**
+   * The number of operations handled so far.
+   */
+  private int count = 0;
+
+  /**
+   * The index of the operation being handled when each error was detected.
+   */
+  private final List<Integer> errors = new ArrayList<>();
+
   @Override
   public void handle(@NotNull Operator operator, @NotNull XMLToken token) throws UncheckedIOException, IllegalStateException {
+    this.count++;
     if (operator == Operator.DEL) {
       this.deletions.add(token);
     } else if (operator == Operator.INS) {
@@ -86,6 +99,7 @@ public final class PostXMLFixer extends DiffFilter<XMLToken> {
     } else {
       flushChanges();
       if (token.getType() == XMLTokenType.END_ELEMENT && !matchStart(Operator.MATCH, (EndElementToken) token)) {
+        error();
         sendMatchingEndElement();
       } else {
         send(operator, token);
@@ -114,12 +128,18 @@ public final class PostXMLFixer extends DiffFilter<XMLToken> {
         send(Operator.DEL, this.deletions.remove());
       } else if (isEndElement(nextInsertion) && matchStart(Operator.INS, (EndElementToken) nextInsertion)) {
         send(Operator.INS, this.insertions.remove());
+      } else if (isEndElement(nextDeletion) && nextInsertion != null && !isEndElement(nextInsertion)) {
+        // The deleted element can only be closed after the insertions close the current element
+        send(Operator.INS, this.insertions.remove());
+      } else if (isEndElement(nextInsertion) && nextDeletion != null && !isEndElement(nextDeletion)) {
+        // The inserted element can only be closed after the deletions close the current element
+        send(Operator.DEL, this.deletions.remove());
       } else if (isEndElement(nextDeletion)) {
-        this.hasError = true;
+        error();
         sendMatchingEndElement();
         this.deletions.remove();
       } else if (isEndElement(nextInsertion)) {
-        this.hasError = true;
+        error();
         sendMatchingEndElement();
         this.insertions.remove();
       } else {
@@ -139,6 +159,24 @@ public final class PostXMLFixer extends DiffFilter<XMLToken> {
     return this.hasError;
   }
 
+  /**
+   * Returns the index of the operation being handled when each error was detected.
+   *
+   * <p>Since insertions and deletions are only reported when a match is handled or when the
+   * handler ends, the error may be caused by any edit since the previous match. An index equal
+   * to the number of operations handled indicates an error detected when the handler ended.
+   *
+   * @return the indexes of the operations in increasing order.
+   */
+  public List<Integer> getErrors() {
+    return Collections.unmodifiableList(this.errors);
+  }
+
+  private void error() {
+    this.hasError = true;
+    this.errors.add(this.count - 1);
+  }
+
   private static boolean isEndElement(XMLToken token) {
     return token != null && token.getType() == XMLTokenType.END_ELEMENT;
   }
@@ -148,19 +186,16 @@ public final class PostXMLFixer extends DiffFilter<XMLToken> {
   }
 
   private boolean matchStart(Operator operator, EndElementToken token) {
-    Operation<StartElementToken> op = this.unclosed.peek();
-    if (op == null) return false;
-    return op.operator() == operator && token.match(op.token());
+    return this.unclosed.matchEnd(operator, token);
   }
 
   /**
    * We ignore the reported end element token and send the matching end element token
    */
   private void sendMatchingEndElement() {
-    Operation<StartElementToken> lastStart = this.unclosed.peek();
-    if (lastStart != null) {
-      EndElementToken end = toEndElementToken(lastStart.token());
-      send(lastStart.operator(), end);
+    if (!this.unclosed.isEmpty()) {
+      EndElementToken end = toEndElementToken(this.unclosed.token());
+      send(this.unclosed.operator(), end);
     }
   }
 
@@ -173,17 +208,21 @@ public final class PostXMLFixer extends DiffFilter<XMLToken> {
     this.lastOperator = operator;
     this.lastToken = token;
     if (token.getType() == XMLTokenType.START_ELEMENT) {
-      this.unclosed.push(new Operation<>(operator, (StartElementToken) token));
+      this.unclosed = this.unclosed.push(operator, (StartElementToken) token);
     } else if (token.getType() == XMLTokenType.END_ELEMENT) {
-      this.unclosed.pop();
+      this.unclosed = this.unclosed.pop();
     }
   }
 
   @Override
   public void end() {
+    this.count++;
     flushChanges();
     // May be necessary if an unclosed unchanged element remains
-    sendMatchingEndElement();
+    if (!this.unclosed.isEmpty()) {
+      error();
+      sendMatchingEndElement();
+    }
   }
 
   private static class NilToken implements XMLToken {
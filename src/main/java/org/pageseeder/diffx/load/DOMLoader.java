@@ -34,7 +34,9 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.StringReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 
 /**
@@ -186,20 +188,38 @@ public final class DOMLoader extends XMLLoaderBase implements XMLLoader {
   /**
    * Loads the given element in the current sequence.
    *
+   * <p>The tree is traversed iteratively in document order using the sibling and parent nodes, the
+   * open elements are kept on a stack so that deeply nested documents do not overflow the call stack.
+   *
    * @param element The W3C DOM element node to load.
    *
    * @throws LoadingException If thrown while parsing.
    */
   private void loadElement(Element element) throws LoadingException {
-    StartElementToken start = toStartElement(element);
-    this.sequence.addToken(start);
-    loadAttributes(element);
-    NodeList list = element.getChildNodes();
-    for (int i = 0; i < list.getLength(); i++) {
-      loadNode(list.item(i));
+    Deque<StartElementToken> open = new ArrayDeque<>();
+    Node node = element;
+    while (node != null) {
+      if (node instanceof Element) {
+        StartElementToken start = toStartElement((Element) node);
+        this.sequence.addToken(start);
+        loadAttributes((Element) node);
+        Node child = node.getFirstChild();
+        if (child != null) {
+          open.push(start);
+          node = child;
+          continue;
+        }
+        this.sequence.addToken(this.tokenFactory.newEndElement(start));
+      } else {
+        loadNode(node);
+      }
+      // Close the elements without any more children
+      while (node != element && node.getNextSibling() == null) {
+        node = node.getParentNode();
+        this.sequence.addToken(this.tokenFactory.newEndElement(open.pop()));
+      }
+      node = node != element ? node.getNextSibling() : null;
     }
-    EndElementToken close = this.tokenFactory.newEndElement(start);
-    this.sequence.addToken(close);
   }
 
   /**
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.sequence;
+
+import org.jetbrains.annotations.Nullable;
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.handler.DiffFilter;
+import org.pageseeder.diffx.token.ElementToken;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.XMLTokenType;
+import org.pageseeder.diffx.token.impl.IgnorableSpaceToken;
+import org.pageseeder.diffx.token.impl.XMLSubtree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The collapser replaces the elements which occur in both sequences by a single token before they are
+ * passed to the diff algorithm, so that large unchanged elements cost a single comparison.
+ *
+ * <p>A SHA-256 digest of each element is computed bottom-up: the digest of an element is computed
+ * from its start and end elements, its attributes and text, and the digests of its child elements.
+ * Each token therefore contributes to a single digest and the digests of both sequences are computed
+ * in linear time.
+ *
+ * <p>Only the outermost elements whose digest occurs in both sequences are replaced by an
+ * {@link XMLSubtree} token, and the handler returned by {@link #expand(DiffHandler)} reports the
+ * operations on the original tokens of the element.
+ *
+ * <p>When the same sequence is compared with many others, its digests can be computed once with
+ * {@link #index(List)} and the resulting index shared between collapsers.
+ *
+ * <p>Tokens are digested using their class, type, namespace URI, name and value, so two tokens
+ * with the same digest are always equal. The results are always correct, but since elements are
+ * matched as a whole the edit script may not be the shortest one.
+ *
+ * <p>The collapser does NOT modify the original sequences.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class SubtreeCollapser {
+
+  /**
+   * Fed to the digest before the digest of a child element.
+   */
+  private static final byte CHILD = 1;
+
+  /**
+   * Fed to the digest before the tokens of a folded element.
+   */
+  private static final byte FOLDED = 2;
+
+  /**
+   * The first sequence of tokens.
+   */
+  private final List<? extends XMLToken> sequence1;
+
+  /**
+   * The second sequence of tokens.
+   */
+  private final List<? extends XMLToken> sequence2;
+
+  /**
+   * The digests of the first sequence if it was indexed beforehand.
+   */
+  private final @Nullable Index index1;
+
+  /**
+   * The sequences after collapsing the shared elements.
+   */
+  private List<XMLToken> collapsed1;
+  private List<XMLToken> collapsed2;
+
+  /**
+   * Creates a new subtree collapser.
+   *
+   * @param seq0 The first sequence.
+   * @param seq1 The second sequence.
+   */
+  public SubtreeCollapser(List<? extends XMLToken> seq0, List<? extends XMLToken> seq1) {
+    this.sequence1 = seq0;
+    this.sequence2 = seq1;
+    this.index1 = null;
+  }
+
+  /**
+   * Creates a new subtree collapser reusing the digests of the first sequence.
+   *
+   * @param index The index of the first sequence.
+   * @param seq1  The second sequence.
+   */
+  public SubtreeCollapser(Index index, List<? extends XMLToken> seq1) {
+    this.sequence1 = index.sequence;
+    this.sequence2 = seq1;
+    this.index1 = index;
+  }
+
+  /**
+   * Compute the digests of the elements in the specified sequence.
+   *
+   * <p>The sequence must not be modified while the index is in use.
+   *
+   * @param sequence The sequence to index.
+   *
+   * @return the index of the sequence.
+   */
+  public static Index index(List<? extends XMLToken> sequence) {
+    return new Index(sequence, new Digester().digest(sequence));
+  }
+
+  /**
+   * Compute the digests of the elements in both sequences and collapse the shared elements.
+   *
+   * @return the number of tokens removed from both sequences.
+   */
+  public int analyze() {
+    Digester digester = new Digester();
+    Digests digests1 = this.index1 != null ? this.index1.digests : digester.digest(this.sequence1);
+    Digests digests2 = digester.digest(this.sequence2);
+    Set<ByteBuffer> shared = digests2.keys();
+    shared.retainAll(this.index1 != null ? this.index1.keys : digests1.keys());
+    this.collapsed1 = collapse(this.sequence1, digests1, shared);
+    this.collapsed2 = collapse(this.sequence2, digests2, shared);
+    return this.sequence1.size() - this.collapsed1.size() + this.sequence2.size() - this.collapsed2.size();
+  }
+
+  /**
+   * @return the first sequence with the shared elements collapsed.
+   *
+   * @throws IllegalStateException If the sequences have not been analyzed.
+   */
+  public List<XMLToken> getCollapsedFirst() {
+    return checkAnalyzed(this.collapsed1);
+  }
+
+  /**
+   * @return the second sequence with the shared elements collapsed.
+   *
+   * @throws IllegalStateException If the sequences have not been analyzed.
+   */
+  public List<XMLToken> getCollapsedSecond() {
+    return checkAnalyzed(this.collapsed2);
+  }
+
+  /**
+   * Returns a handler which receives the results of the diff of the collapsed sequences and reports
+   * the results for the original sequences to the specified handler.
+   *
+   * @param handler The handler for the results of the original sequences.
+   *
+   * @return The handler for the results of the collapsed sequences.
+   */
+  public DiffHandler<XMLToken> expand(DiffHandler<XMLToken> handler) {
+    return new ExpandingHandler(handler);
+  }
+
+  /**
+   * Run the algorithm on the collapsed sequences and report the results for the original sequences.
+   *
+   * @param algorithm The algorithm to use
+   * @param from      The original list of tokens to compare (deleted)
+   * @param to        The target list of tokens to compare (inserted)
+   * @param handler   The handler for the results of the comparison
+   */
+  public static void diff(DiffAlgorithm<XMLToken> algorithm, List<? extends XMLToken> from, List<? extends XMLToken> to, DiffHandler<XMLToken> handler) {
+    SubtreeCollapser collapser = new SubtreeCollapser(from, to);
+    if (collapser.analyze() == 0) {
+      algorithm.diff(from, to, handler);
+    } else {
+      algorithm.diff(collapser.getCollapsedFirst(), collapser.getCollapsedSecond(), collapser.expand(handler));
+    }
+  }
+
+  private static List<XMLToken> checkAnalyzed(List<XMLToken> collapsed) {
+    if (collapsed == null) throw new IllegalStateException("Sequences must be analyzed first");
+    return collapsed;
+  }
+
+  /**
+   * Replace the outermost shared elements by a subtree token.
+   */
+  private static List<XMLToken> collapse(List<? extends XMLToken> sequence, Digests digests, Set<ByteBuffer> shared) {
+    List<XMLToken> collapsed = new ArrayList<>();
+    int i = 0;
+    while (i < sequence.size()) {
+      byte[] digest = digests.digests[i];
+      if (digest != null && shared.contains(ByteBuffer.wrap(digest))) {
+        int end = digests.ends[i];
+        List<XMLToken> tokens = Collections.unmodifiableList(sequence.subList(i, end + 1));
+        collapsed.add(new XMLSubtree(tokens, digest));
+        i = end + 1;
+      } else {
+        collapsed.add(sequence.get(i++));
+      }
+    }
+    return collapsed;
+  }
+
+  /**
+   * The digests of the elements of a sequence computed once to compare it with other sequences.
+   *
+   * <p>Instances are immutable and can be shared between threads.
+   */
+  public static final class Index {
+
+    private final List<? extends XMLToken> sequence;
+
+    private final Digests digests;
+
+    private final Set<ByteBuffer> keys;
+
+    private Index(List<? extends XMLToken> sequence, Digests digests) {
+      this.sequence = sequence;
+      this.digests = digests;
+      this.keys = Collections.unmodifiableSet(digests.keys());
+    }
+
+    /**
+     * @return the sequence that was indexed.
+     */
+    public List<? extends XMLToken> sequence() {
+      return this.sequence;
+    }
+  }
+
+  /**
+   * The digests of the elements in a sequence.
+   */
+  private static final class Digests {
+
+    /**
+     * The digest of each element at the index of its start element, <code>null</code> for other tokens.
+     */
+    final byte[][] digests;
+
+    /**
+     * The index of the end element at the index of the matching start element.
+     */
+    final int[] ends;
+
+    Digests(int size) {
+      this.digests = new byte[size][];
+      this.ends = new int[size];
+    }
+
+    Set<ByteBuffer> keys() {
+      Set<ByteBuffer> keys = new HashSet<>();
+      for (byte[] digest : this.digests) {
+        if (digest != null) keys.add(ByteBuffer.wrap(digest));
+      }
+      return keys;
+    }
+  }
+
+  /**
+   * Computes the digests of elements, reusing the message digests for each level.
+   */
+  private static final class Digester {
+
+    private final List<MessageDigest> levels = new ArrayList<>();
+
+    private final Map<Class<?>, byte[]> classes = new HashMap<>();
+
+    Digests digest(List<? extends XMLToken> sequence) {
+      Digests digests = new Digests(sequence.size());
+      int[] open = new int[16];
+      int depth = 0;
+      for (int i = 0; i < sequence.size(); i++) {
+        XMLToken token = sequence.get(i);
+        if (token.getType() == XMLTokenType.START_ELEMENT) {
+          if (depth == open.length) open = Arrays.copyOf(open, depth * 2);
+          open[depth] = i;
+          update(level(depth++), token);
+        } else if (token.getType() == XMLTokenType.END_ELEMENT && depth > 0) {
+          MessageDigest md = level(--depth);
+          update(md, token);
+          byte[] digest = md.digest();
+          digests.digests[open[depth]] = digest;
+          digests.ends[open[depth]] = i;
+          if (depth > 0) {
+            MessageDigest parent = level(depth - 1);
+            parent.update(CHILD);
+            parent.update(digest);
+          }
+        } else if (depth > 0) {
+          update(level(depth - 1), token);
+        }
+      }
+      return digests;
+    }
+
+    private MessageDigest level(int depth) {
+      if (depth == this.levels.size()) {
+        try {
+          this.levels.add(MessageDigest.getInstance("SHA-256"));
+        } catch (NoSuchAlgorithmException ex) {
+          // All Java platforms are required to support SHA-256
+          throw new IllegalStateException(ex);
+        }
+      }
+      return this.levels.get(depth);
+    }
+
+    /**
+     * Feed the specified token to the message digest, including the tokens of folded elements.
+     */
+    private void update(MessageDigest md, XMLToken token) {
+      if (!(token instanceof ElementToken)) {
+        updateLeaf(md, token);
+        return;
+      }
+      Deque<Iterator<XMLToken>> stack = new ArrayDeque<>();
+      md.update(FOLDED);
+      updateLeaf(md, token);
+      stack.push(((ElementToken) token).getEvents().iterator());
+      while (!stack.isEmpty()) {
+        Iterator<XMLToken> events = stack.peek();
+        if (!events.hasNext()) {
+          stack.pop();
+          md.update(FOLDED);
+        } else {
+          XMLToken next = events.next();
+          if (next instanceof ElementToken) {
+            md.update(FOLDED);
+            updateLeaf(md, next);
+            stack.push(((ElementToken) next).getEvents().iterator());
+          } else {
+            updateLeaf(md, next);
+          }
+        }
+      }
+    }
+
+    private void updateLeaf(MessageDigest md, XMLToken token) {
+      md.update(this.classes.computeIfAbsent(token.getClass(), c -> toBytes(c.getName())));
+      md.update((byte) token.getType().ordinal());
+      update(md, token.getNamespaceURI());
+      update(md, token.getName());
+      // Ignorable white spaces are always equal
+      update(md, token instanceof IgnorableSpaceToken ? null : token.getValue());
+    }
+
+    private static void update(MessageDigest md, String value) {
+      if (value == null) {
+        md.update(toLength(-1));
+      } else {
+        byte[] bytes = toBytes(value);
+        md.update(toLength(bytes.length));
+        md.update(bytes);
+      }
+    }
+
+    private static byte[] toBytes(String value) {
+      return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toLength(int length) {
+      return new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length};
+    }
+  }
+
+  /**
+   * A handler reporting the operations on the tokens of collapsed elements.
+   */
+  private static final class ExpandingHandler extends DiffFilter<XMLToken> {
+
+    ExpandingHandler(DiffHandler<XMLToken> target) {
+      super(target);
+    }
+
+    @Override
+    public void handle(Operator operator, XMLToken token) {
+      if (token instanceof XMLSubtree) {
+        for (XMLToken event : ((XMLSubtree) token).getEvents()) {
+          this.target.handle(operator, event);
+        }
+      } else {
+        this.target.handle(operator, token);
+      }
+    }
+  }
+
+}
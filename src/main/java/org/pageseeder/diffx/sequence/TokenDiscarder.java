@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.sequence;
+
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.handler.DiffFilter;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.XMLTokenType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The discarder takes two sequences and removes the tokens which cannot usefully be matched before
+ * they are passed to the diff algorithm, in the same manner as GNU diff discards confusing lines.
+ *
+ * <p>A token is discarded when it does not occur in the other sequence since it can only be inserted
+ * or deleted. A token which occurs too many times in the other sequence is provisionally discarded:
+ * it is only discarded if it is part of a run of discarded tokens, so that runs of frequent tokens
+ * between tokens which cannot match are collapsed.
+ *
+ * <p>The algorithm is run on the reduced sequences and the discarded tokens are put back as
+ * deletions and insertions by the handler returned by {@link #restore(DiffHandler)}. Start elements,
+ * end elements and attributes are never discarded so that the algorithm can still ensure that the
+ * XML is well-formed.
+ *
+ * <p>The results are always correct, but since frequent tokens may be discarded the edit script may
+ * not be the shortest one.
+ *
+ * <p>The discarder does NOT modify the original sequences.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class TokenDiscarder<T> {
+
+  /**
+   * Token is kept.
+   */
+  private static final byte KEEP = 0;
+
+  /**
+   * Token is discarded.
+   */
+  private static final byte DISCARD = 1;
+
+  /**
+   * Token is provisionally discarded.
+   */
+  private static final byte PROVISIONAL = 2;
+
+  /**
+   * The first sequence of tokens.
+   */
+  private final List<? extends T> sequence1;
+
+  /**
+   * The second sequence of tokens.
+   */
+  private final List<? extends T> sequence2;
+
+  /**
+   * The indexes of the tokens kept from each sequence.
+   */
+  private int[] kept1;
+  private int[] kept2;
+
+  /**
+   * Creates a new token discarder.
+   *
+   * @param seq0 The first sequence.
+   * @param seq1 The second sequence.
+   */
+  public TokenDiscarder(List<? extends T> seq0, List<? extends T> seq1) {
+    this.sequence1 = seq0;
+    this.sequence2 = seq1;
+  }
+
+  /**
+   * Identify the tokens to discard in both sequences.
+   *
+   * @return the number of tokens discarded.
+   */
+  public int analyze() {
+    Map<T, int[]> counts = new HashMap<>();
+    for (T token : this.sequence1) counts.computeIfAbsent(token, t -> new int[2])[0]++;
+    for (T token : this.sequence2) counts.computeIfAbsent(token, t -> new int[2])[1]++;
+    this.kept1 = keep(this.sequence1, counts, 1, this.sequence2.size());
+    this.kept2 = keep(this.sequence2, counts, 0, this.sequence1.size());
+    return this.sequence1.size() - this.kept1.length + this.sequence2.size() - this.kept2.length;
+  }
+
+  /**
+   * @return the tokens kept from the first sequence.
+   *
+   * @throws IllegalStateException If the sequences have not been analyzed.
+   */
+  public List<T> getReducedFirst() {
+    return reduce(this.sequence1, checkAnalyzed(this.kept1));
+  }
+
+  /**
+   * @return the tokens kept from the second sequence.
+   *
+   * @throws IllegalStateException If the sequences have not been analyzed.
+   */
+  public List<T> getReducedSecond() {
+    return reduce(this.sequence2, checkAnalyzed(this.kept2));
+  }
+
+  /**
+   * Returns a handler which receives the results of the diff of the reduced sequences and reports
+   * the results for the original sequences to the specified handler.
+   *
+   * <p>Discarded tokens are reported just before the next token kept from the same sequence, or
+   * when the returned handler ends or is flushed.
+   *
+   * @param handler The handler for the results of the original sequences.
+   *
+   * @return The handler for the results of the reduced sequences.
+   *
+   * @throws IllegalStateException If the sequences have not been analyzed.
+   */
+  public RestoringHandler<T> restore(DiffHandler<T> handler) {
+    checkAnalyzed(this.kept1);
+    return new RestoringHandler<>(handler, this);
+  }
+
+  /**
+   * Run the algorithm on the reduced sequences and report the results for the original sequences.
+   *
+   * @param algorithm The algorithm to use
+   * @param from      The original list of tokens to compare (deleted)
+   * @param to        The target list of tokens to compare (inserted)
+   * @param handler   The handler for the results of the comparison
+   * @param <T>       The type of token
+   */
+  public static <T> void diff(DiffAlgorithm<T> algorithm, List<? extends T> from, List<? extends T> to, DiffHandler<T> handler) {
+    TokenDiscarder<T> discarder = new TokenDiscarder<>(from, to);
+    if (discarder.analyze() == 0) {
+      algorithm.diff(from, to, handler);
+    } else {
+      RestoringHandler<T> restoring = discarder.restore(handler);
+      algorithm.diff(discarder.getReducedFirst(), discarder.getReducedSecond(), restoring);
+      restoring.flush();
+    }
+  }
+
+  private static int[] checkAnalyzed(int[] kept) {
+    if (kept == null) throw new IllegalStateException("Sequences must be analyzed first");
+    return kept;
+  }
+
+  private static <T> List<T> reduce(List<? extends T> sequence, int[] kept) {
+    List<T> reduced = new ArrayList<>(kept.length);
+    for (int i : kept) reduced.add(sequence.get(i));
+    return reduced;
+  }
+
+  /**
+   * Returns the indexes of the tokens to keep in the specified sequence.
+   *
+   * @param sequence The sequence
+   * @param counts   The number of occurrences of each token in both sequences
+   * @param other    The index of the count for the other sequence
+   * @param size     The size of the other sequence
+   */
+  private static <T> int[] keep(List<? extends T> sequence, Map<T, int[]> counts, int other, int size) {
+    // Tokens occurring more than that in the other sequence are too frequent
+    int many = 5;
+    for (int tem = size / 64; (tem = tem >> 2) > 0; ) many *= 2;
+
+    final int length = sequence.size();
+    byte[] discards = new byte[length];
+    for (int i = 0; i < length; i++) {
+      T token = sequence.get(i);
+      if (isStructural(token)) continue;
+      int matches = counts.get(token)[other];
+      if (matches == 0) discards[i] = DISCARD;
+      else if (matches > many) discards[i] = PROVISIONAL;
+    }
+
+    // Only discard provisional tokens within runs of discarded tokens
+    for (int i = 0; i < length; i++) {
+      if (discards[i] == KEEP) continue;
+      int j = i;
+      int provisional = 0;
+      while (j < length && discards[j] != KEEP) {
+        if (discards[j] == PROVISIONAL) provisional++;
+        j++;
+      }
+      int end = j;
+      // Cancel provisional discards at either end of the run
+      while (j > i && discards[j - 1] == PROVISIONAL) {
+        discards[--j] = KEEP;
+        provisional--;
+      }
+      while (i < j && discards[i] == PROVISIONAL) {
+        discards[i++] = KEEP;
+        provisional--;
+      }
+      // Cancel all provisional discards if they make up more than a quarter of the run
+      if (provisional * 4 > j - i) {
+        for (int k = i; k < j; k++) {
+          if (discards[k] == PROVISIONAL) discards[k] = KEEP;
+        }
+      }
+      i = end;
+    }
+
+    int count = 0;
+    for (byte discard : discards) if (discard == KEEP) count++;
+    int[] kept = new int[count];
+    for (int i = 0, k = 0; i < length; i++) {
+      if (discards[i] == KEEP) kept[k++] = i;
+    }
+    return kept;
+  }
+
+  /**
+   * Start elements, end elements and attributes must be kept for XML-aware algorithms.
+   */
+  private static boolean isStructural(Object token) {
+    if (!(token instanceof XMLToken)) return false;
+    XMLTokenType type = ((XMLToken) token).getType();
+    return type == XMLTokenType.START_ELEMENT || type == XMLTokenType.END_ELEMENT || type == XMLTokenType.ATTRIBUTE;
+  }
+
+  /**
+   * A handler putting back the discarded tokens.
+   *
+   * @param <T> The type of token
+   */
+  public static final class RestoringHandler<T> extends DiffFilter<T> {
+
+    private final TokenDiscarder<T> discarder;
+
+    /**
+     * The number of tokens reported from each reduced sequence.
+     */
+    private int reduced1 = 0;
+    private int reduced2 = 0;
+
+    /**
+     * The number of tokens reported from each original sequence.
+     */
+    private int original1 = 0;
+    private int original2 = 0;
+
+    private RestoringHandler(DiffHandler<T> target, TokenDiscarder<T> discarder) {
+      super(target);
+      this.discarder = discarder;
+    }
+
+    @Override
+    public void handle(Operator operator, T token) {
+      if (operator != Operator.INS) {
+        int next = this.discarder.kept1[this.reduced1++];
+        flushFirst(next);
+        this.original1++;
+      }
+      if (operator != Operator.DEL) {
+        int next = this.discarder.kept2[this.reduced2++];
+        flushSecond(next);
+        this.original2++;
+      }
+      this.target.handle(operator, token);
+    }
+
+    @Override
+    public void end() {
+      flush();
+      this.target.end();
+    }
+
+    /**
+     * Report the remaining discarded tokens.
+     */
+    public void flush() {
+      flushFirst(this.discarder.sequence1.size());
+      flushSecond(this.discarder.sequence2.size());
+    }
+
+    private void flushFirst(int to) {
+      for (; this.original1 < to; this.original1++) {
+        this.target.handle(Operator.DEL, this.discarder.sequence1.get(this.original1));
+      }
+    }
+
+    private void flushSecond(int to) {
+      for (; this.original2 < to; this.original2++) {
+        this.target.handle(Operator.INS, this.discarder.sequence2.get(this.original2));
+      }
+    }
+  }
+
+}
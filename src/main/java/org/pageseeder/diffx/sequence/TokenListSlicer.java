@@ -84,6 +84,21 @@ public final class TokenListSlicer {
     return this.startCount + this.endCount;
   }
 
+  /**
+   * Analyse the sequences to know whether they can be sliced, reporting the common start to the
+   * handler as soon as it is known, before the end of the sequences is analysed.
+   *
+   * @param handler The handler for the common start.
+   *
+   * @return the number of common tokens
+   */
+  public int analyze(DiffHandler<XMLToken> handler) {
+    this.startCount = computeStart();
+    handleStart(handler);
+    this.endCount = sliceEnd(this.startCount);
+    return this.startCount + this.endCount;
+  }
+
   /**
    * Slices the start of both sequences.
    *
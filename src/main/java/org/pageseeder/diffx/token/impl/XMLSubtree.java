@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.token.impl;
+
+import org.pageseeder.diffx.token.ElementToken;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.xmlwriter.XMLWriter;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A placeholder for a whole element identified by the digest of its content.
+ *
+ * <p>Unlike the {@link XMLElement}, two subtrees are compared using their digest only so that
+ * equality checks take constant time regardless of the size of the element.</p>
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ * @since 0.9.0
+ */
+public final class XMLSubtree extends TokenBase implements ElementToken {
+
+  private final List<XMLToken> tokens;
+
+  private final byte[] digest;
+
+  private final int hashCode;
+
+  /**
+   * @param tokens The tokens of the element starting with the start element and ending with the end element.
+   * @param digest The digest of the tokens
+   */
+  public XMLSubtree(List<XMLToken> tokens, byte[] digest) {
+    this.tokens = tokens;
+    this.digest = digest;
+    this.hashCode = Arrays.hashCode(digest);
+  }
+
+  @Override
+  public String getName() {
+    return this.tokens.get(0).getName();
+  }
+
+  @Override
+  public String getNamespaceURI() {
+    return this.tokens.get(0).getNamespaceURI();
+  }
+
+  @Override
+  public String getValue() {
+    return null;
+  }
+
+  @Override
+  public List<XMLToken> getEvents() {
+    return this.tokens;
+  }
+
+  @Override
+  public int hashCode() {
+    return this.hashCode;
+  }
+
+  /**
+   * Returns <code>true</code> if the token is a subtree with the same digest.
+   *
+   * @param token The token to compare with this token.
+   *
+   * @return <code>true</code> if this token is equal to the specified token;
+   * <code>false</code> otherwise.
+   */
+  @Override
+  public boolean equals(XMLToken token) {
+    if (token == this) return true;
+    if (token.getClass() != this.getClass()) return false;
+    XMLSubtree subtree = (XMLSubtree) token;
+    return subtree.hashCode == this.hashCode && Arrays.equals(subtree.digest, this.digest);
+  }
+
+  @Override
+  public String toString() {
+    return "subtree: " + this.getName();
+  }
+
+  @Override
+  public void toXML(XMLWriter xml) throws IOException {
+    for (XMLToken token : this.tokens) {
+      token.toXML(xml);
+    }
+  }
+
+  @Override
+  public void toXML(XMLStreamWriter xml) throws XMLStreamException {
+    for (XMLToken token : this.tokens) {
+      token.toXML(xml);
+    }
+  }
+
+}
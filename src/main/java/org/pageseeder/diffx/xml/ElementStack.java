@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.xml;
+
+import org.jetbrains.annotations.NotNull;
+import org.pageseeder.diffx.action.Operation;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.token.EndElementToken;
+import org.pageseeder.diffx.token.StartElementToken;
+import org.pageseeder.diffx.token.XMLToken;
+
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable stack of open elements along with the operator used for each start element.
+ *
+ * <p>Pushing or popping an element returns a new stack and leaves the original stack untouched, so
+ * stacks can share their elements: copying a stack is simply a matter of copying its reference.
+ *
+ * <p>The empty stack is {@link #EMPTY}; each non-empty stack is a single node pointing to the stack
+ * below it.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class ElementStack {
+
+  /**
+   * The empty stack.
+   */
+  public static final ElementStack EMPTY = new ElementStack();
+
+  /**
+   * The operator used for the start element at the top of the stack (<code>null</code> if empty).
+   */
+  private final Operator operator;
+
+  /**
+   * The start element at the top of the stack (<code>null</code> if empty).
+   */
+  private final StartElementToken token;
+
+  /**
+   * The rest of the stack (<code>null</code> if empty).
+   */
+  private final ElementStack parent;
+
+  /**
+   * The number of elements in the stack.
+   */
+  private final int depth;
+
+  private ElementStack() {
+    this.operator = null;
+    this.token = null;
+    this.parent = null;
+    this.depth = 0;
+  }
+
+  private ElementStack(Operator operator, StartElementToken token, ElementStack parent) {
+    this.operator = operator;
+    this.token = token;
+    this.parent = parent;
+    this.depth = parent.depth + 1;
+  }
+
+  /**
+   * @return <code>true</code> if this stack has no elements.
+   */
+  public boolean isEmpty() {
+    return this.depth == 0;
+  }
+
+  /**
+   * @return the number of elements in this stack.
+   */
+  public int depth() {
+    return this.depth;
+  }
+
+  /**
+   * @return The operator for the start element at the top of the stack; <code>null</code> if empty.
+   */
+  public Operator operator() {
+    return this.operator;
+  }
+
+  /**
+   * @return The start element at the top of the stack; <code>null</code> if empty.
+   */
+  public StartElementToken token() {
+    return this.token;
+  }
+
+  /**
+   * Returns a new stack with the specified start element on top of this one.
+   *
+   * @param operator The operator used for the start element
+   * @param token    The start element
+   *
+   * @return the new stack
+   */
+  public ElementStack push(@NotNull Operator operator, @NotNull StartElementToken token) {
+    return new ElementStack(operator, token, this);
+  }
+
+  /**
+   * Returns the stack without the start element at the top.
+   *
+   * @return the stack below this one.
+   *
+   * @throws NoSuchElementException If this stack is empty.
+   */
+  public ElementStack pop() {
+    if (this.parent == null) throw new NoSuchElementException();
+    return this.parent;
+  }
+
+  /**
+   * Returns the stack resulting from the specified operation.
+   *
+   * <p>Start elements are pushed, end elements are popped and other tokens leave the stack unchanged.
+   *
+   * @param operator The operator
+   * @param token    The token
+   *
+   * @return the resulting stack.
+   *
+   * @throws NoSuchElementException If the token is an end element and this stack is empty.
+   */
+  public ElementStack update(@NotNull Operator operator, @NotNull XMLToken token) {
+    if (token instanceof StartElementToken) return push(operator, (StartElementToken) token);
+    if (token instanceof EndElementToken) return pop();
+    return this;
+  }
+
+  /**
+   * Indicates whether the specified end element closes the element at the top of the stack with
+   * the same operator.
+   *
+   * @param operator The operator
+   * @param token    The end element
+   *
+   * @return <code>true</code> if the end element matches the top of the stack;
+   * <code>false</code> otherwise or if the stack is empty.
+   */
+  public boolean matchEnd(Operator operator, EndElementToken token) {
+    return this.depth > 0 && this.operator == operator && token.match(this.token);
+  }
+
+  /**
+   * Indicates whether the specified start element and operator are the same as the top of the stack.
+   *
+   * @param operator The operator
+   * @param token    The start element
+   *
+   * @return <code>true</code> if the start element is equal to the top of the stack;
+   * <code>false</code> otherwise or if the stack is empty.
+   */
+  public boolean matchStart(Operator operator, StartElementToken token) {
+    return this.depth > 0 && this.operator == operator && token.equals(this.token);
+  }
+
+  /**
+   * Indicates whether the specified stack has the same start elements and operators as this stack.
+   *
+   * <p>Start elements are compared using their <code>equals</code> method, so the stacks do not
+   * need to share the same nodes.
+   *
+   * @param other The stack to compare with
+   *
+   * @return <code>true</code> if both stacks have equivalent elements;
+   * <code>false</code> otherwise.
+   */
+  public boolean equivalent(ElementStack other) {
+    if (this.depth != other.depth) return false;
+    ElementStack s = this;
+    ElementStack o = other;
+    while (s != o) {
+      if (s.operator != o.operator || !s.token.equals(o.token)) return false;
+      s = s.parent;
+      o = o.parent;
+    }
+    return true;
+  }
+
+  /**
+   * @return a new operation for the top of the stack; <code>null</code> if empty.
+   */
+  public Operation<StartElementToken> toOperation() {
+    return this.depth > 0 ? new Operation<>(this.operator, this.token) : null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder("[");
+    for (ElementStack e = this; e.depth > 0; e = e.parent) {
+      if (e != this) s.append(", ");
+      s.append(e.operator).append(e.token);
+    }
+    return s.append(']').toString();
+  }
+
+}
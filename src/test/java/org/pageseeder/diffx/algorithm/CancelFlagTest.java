@@ -0,0 +1,197 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.api.LoadingException;
+import org.pageseeder.diffx.config.TextGranularity;
+import org.pageseeder.diffx.test.TestTokens;
+import org.pageseeder.diffx.token.XMLToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test case for the cancel flag.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class CancelFlagTest {
+
+  @Test
+  public void testCancel() {
+    CancelFlag flag = new CancelFlag();
+    assertFalse(flag.isCancelled());
+    CancelFlag.check(flag);
+    CancelFlag.check(null);
+    flag.cancel();
+    assertTrue(flag.isCancelled());
+    assertThrows(CancellationException.class, () -> CancelFlag.check(flag));
+  }
+
+  @Test
+  public void testTimeout() {
+    assertTrue(CancelFlag.withTimeout(0).isCancelled());
+    CancelFlag flag = CancelFlag.withTimeout(3_600_000);
+    assertFalse(flag.isCancelled());
+    flag.cancel();
+    assertTrue(flag.isCancelled());
+  }
+
+  @Test
+  public void testLinked() {
+    CancelFlag parent = new CancelFlag();
+    CancelFlag child = CancelFlag.linkedTo(parent);
+    CancelFlag other = CancelFlag.linkedTo(parent);
+    child.cancel();
+    assertTrue(child.isCancelled());
+    assertFalse(parent.isCancelled());
+    parent.cancel();
+    assertTrue(other.isCancelled());
+    assertFalse(CancelFlag.linkedTo(null).isCancelled());
+  }
+
+  @Test
+  public void testCancelAlgorithms() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b>x y z</b></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><c>x y</c></a>", TextGranularity.SPACE_WORD);
+    CancelFlag flag = new CancelFlag();
+    flag.cancel();
+    MyersGreedyAlgorithm<XMLToken> greedy = new MyersGreedyAlgorithm<>();
+    greedy.setCancelFlag(flag);
+    assertThrows(CancellationException.class, () -> greedy.diff(a, b, new OperationsBuffer<>()));
+    MyersGreedyXMLAlgorithm greedyXML = new MyersGreedyXMLAlgorithm();
+    greedyXML.setCancelFlag(flag);
+    assertThrows(CancellationException.class, () -> greedyXML.diff(a, b, new OperationsBuffer<>()));
+    MyersLinearXMLAlgorithm linearXML = new MyersLinearXMLAlgorithm();
+    linearXML.setCancelFlag(flag);
+    assertThrows(CancellationException.class, () -> linearXML.diff(a, b, new OperationsBuffer<>()));
+    MyersLinearAlgorithm<XMLToken> linear = new MyersLinearAlgorithm<>();
+    linear.setCancelFlag(flag);
+    assertThrows(DiffCancelledException.class, () -> linear.diff(a, b, new OperationsBuffer<>()));
+    KumarRanganAlgorithm<XMLToken> kumarRangan = new KumarRanganAlgorithm<>();
+    kumarRangan.setCancelFlag(flag);
+    assertThrows(DiffCancelledException.class, () -> kumarRangan.diff(a, b, new OperationsBuffer<>()));
+    HirschbergAlgorithm<XMLToken> hirschberg = new HirschbergAlgorithm<>();
+    hirschberg.setCancelFlag(flag);
+    assertThrows(DiffCancelledException.class, () -> hirschberg.diff(a, b, new OperationsBuffer<>()));
+    HirschbergXMLAlgorithm hirschbergXML = new HirschbergXMLAlgorithm();
+    hirschbergXML.setCancelFlag(flag);
+    assertThrows(DiffCancelledException.class, () -> hirschbergXML.diff(a, b, new OperationsBuffer<>()));
+    WagnerFischerAlgorithm<XMLToken> wagnerFischer = new WagnerFischerAlgorithm<>();
+    wagnerFischer.setCancelFlag(flag);
+    assertThrows(DiffCancelledException.class, () -> wagnerFischer.diff(a, b, new OperationsBuffer<>()));
+    MatrixXMLAlgorithm matrixXML = new MatrixXMLAlgorithm();
+    matrixXML.setCancelFlag(flag);
+    assertThrows(DiffCancelledException.class, () -> matrixXML.diff(a, b, new OperationsBuffer<>()));
+  }
+
+  @Test
+  public void testInterrupted() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b>x y z</b></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><c>x y</c></a>", TextGranularity.SPACE_WORD);
+    Thread.currentThread().interrupt();
+    try {
+      DiffCancelledException ex = assertThrows(DiffCancelledException.class, () -> CancelFlag.check(null));
+      assertTrue(ex.isInterrupted());
+      MyersGreedyXMLAlgorithm algorithm = new MyersGreedyXMLAlgorithm();
+      assertThrows(DiffCancelledException.class, () -> algorithm.diff(a, b, new OperationsBuffer<>()));
+      assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void testAwaitInterrupted() {
+    CancelFlag flag = new CancelFlag();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<Boolean> task = executor.submit(() -> {
+      // Runs until the flag is raised
+      while (!flag.isCancelled()) Thread.yield();
+      return true;
+    });
+    Thread.currentThread().interrupt();
+    try {
+      DiffCancelledException ex = assertThrows(DiffCancelledException.class, () -> CancelFlag.await(task, flag));
+      assertTrue(ex.isInterrupted());
+      assertTrue(flag.isCancelled());
+      assertTrue(task.isDone());
+      assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testProgress() {
+    List<Integer> a = new ArrayList<>();
+    List<Integer> b = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      a.add(i % 7);
+      b.add(i % 5);
+    }
+    List<Double> fractions = new ArrayList<>();
+    CancelFlag flag = new CancelFlag();
+    flag.setProgressListener(fractions::add);
+    MyersGreedyAlgorithm<Integer> greedy = new MyersGreedyAlgorithm<>();
+    greedy.setCancelFlag(flag);
+    greedy.diff(a, b, new OperationsBuffer<>());
+    assertProgress(fractions);
+    fractions.clear();
+    CancelFlag other = new CancelFlag();
+    other.setProgressListener(fractions::add);
+    WagnerFischerAlgorithm<Integer> wagnerFischer = new WagnerFischerAlgorithm<>();
+    wagnerFischer.setCancelFlag(other);
+    wagnerFischer.diff(a, b, new OperationsBuffer<>());
+    assertProgress(fractions);
+  }
+
+  @Test
+  public void testProgressLinked() {
+    List<Double> fractions = new ArrayList<>();
+    CancelFlag parent = new CancelFlag();
+    parent.setProgressListener(fractions::add);
+    CancelFlag child = CancelFlag.linkedTo(parent);
+    CancelFlag.check(child, 1, 4);
+    CancelFlag.check(child, 1, 400);
+    CancelFlag.check(child, 3, 4);
+    CancelFlag.check(child, 4, 4);
+    assertEquals(3, fractions.size());
+    assertEquals(1.0, fractions.get(2).doubleValue());
+  }
+
+  private static void assertProgress(List<Double> fractions) {
+    assertFalse(fractions.isEmpty());
+    for (int i = 1; i < fractions.size(); i++) {
+      assertTrue(fractions.get(i) > fractions.get(i - 1));
+    }
+    assertTrue(fractions.get(fractions.size() - 1) <= 1.0);
+  }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.Operation;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.test.TestTokens;
+import org.pageseeder.diffx.token.impl.CharToken;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test case for the character array algorithm.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class CharArrayAlgorithmTest {
+
+  @Test
+  public void testEmpty() {
+    Assertions.assertEquals("", diff("", ""));
+    Assertions.assertEquals("+a+b", diff("", "ab"));
+    Assertions.assertEquals("-a-b", diff("ab", ""));
+  }
+
+  @Test
+  public void testIdentical() {
+    Assertions.assertEquals("abc", diff("abc", "abc"));
+  }
+
+  @Test
+  public void testSimple() {
+    Assertions.assertEquals("a-b+xc", diff("abc", "axc"));
+    Assertions.assertEquals("aaaa+a", diff("aaaa", "aaaaa"));
+    Assertions.assertEquals("-xab+y", diff("xab", "aby"));
+  }
+
+  @Test
+  public void testTokens() {
+    List<CharToken> a = TestTokens.toCharTokens("brown");
+    List<CharToken> b = TestTokens.toCharTokens("brawn");
+    OperationsBuffer<CharToken> buffer = new OperationsBuffer<>();
+    new CharArrayAlgorithm().diff(a, b, buffer);
+    // The original tokens are reported
+    for (Operation<CharToken> operation : buffer.getOperations()) {
+      List<CharToken> tokens = operation.operator() == Operator.INS ? b : a;
+      Assertions.assertTrue(tokens.stream().anyMatch(token -> token == operation.token()));
+    }
+    Assertions.assertEquals(2, buffer.countEdits());
+  }
+
+  @Test
+  public void testRandom() {
+    Random random = new Random(1);
+    for (int n = 0; n < 2000; n++) {
+      String a = randomString(random, random.nextInt(n < 1000 ? 12 : 200), 1 + random.nextInt(4));
+      String b = random.nextBoolean() ? randomString(random, random.nextInt(n < 1000 ? 12 : 200), 3) : vary(random, a);
+      OperationsBuffer<CharToken> buffer = new OperationsBuffer<>();
+      new CharArrayAlgorithm().diff(a.toCharArray(), b.toCharArray(), buffer);
+      StringBuilder from = new StringBuilder();
+      StringBuilder to = new StringBuilder();
+      for (Operation<CharToken> operation : buffer.getOperations()) {
+        if (operation.operator() != Operator.INS) from.append(operation.token().getChar());
+        if (operation.operator() != Operator.DEL) to.append(operation.token().getChar());
+      }
+      Assertions.assertEquals(a, from.toString());
+      Assertions.assertEquals(b, to.toString());
+      // Must be the shortest edit script
+      OperationsBuffer<CharToken> expected = new OperationsBuffer<>();
+      new WagnerFischerAlgorithm<CharToken>().diff(TestTokens.toCharTokens(a), TestTokens.toCharTokens(b), expected);
+      Assertions.assertEquals(expected.countEdits(), buffer.countEdits());
+    }
+  }
+
+  @Test
+  public void testIsApplicable() {
+    Assertions.assertTrue(CharArrayAlgorithm.isApplicable(TestTokens.toCharTokens("abc")));
+    Assertions.assertFalse(CharArrayAlgorithm.isApplicable(TestTokens.toTextTokens("abc")));
+  }
+
+  private static String diff(String a, String b) {
+    OperationsBuffer<CharToken> buffer = new OperationsBuffer<>();
+    new CharArrayAlgorithm().diff(a.toCharArray(), b.toCharArray(), buffer);
+    StringBuilder out = new StringBuilder();
+    for (Operation<CharToken> operation : buffer.getOperations()) {
+      out.append(operation.operator() == Operator.INS ? "+" : operation.operator() == Operator.DEL ? "-" : "");
+      out.append(operation.token().getChar());
+    }
+    return out.toString();
+  }
+
+  private static String randomString(Random random, int length, int letters) {
+    StringBuilder s = new StringBuilder(length);
+    for (int i = 0; i < length; i++) s.append((char) ('a' + random.nextInt(letters)));
+    return s.toString();
+  }
+
+  private static String vary(Random random, String string) {
+    StringBuilder s = new StringBuilder(string);
+    for (int i = 0; i < 3 && s.length() > 0; i++) {
+      int index = random.nextInt(s.length());
+      if (random.nextBoolean()) s.deleteCharAt(index);
+      else s.insert(index, (char) ('a' + random.nextInt(4)));
+    }
+    return s.toString();
+  }
+}
@@ -16,10 +16,20 @@
 package org.pageseeder.diffx.algorithm;
 
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
 import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.token.XMLToken;
 import org.pageseeder.diffx.token.impl.LineToken;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 /**
  * Test case for Hirschberg algorithm (text-only).
  *
@@ -32,6 +42,74 @@ public final class HirschbergAlgorithmTest {
     return new HirschbergAlgorithm<>();
   }
 
+  private <T> DiffAlgorithm<T> newParallelAlgorithm() {
+    HirschbergAlgorithm<T> algorithm = new HirschbergAlgorithm<>();
+    algorithm.setParallel(true);
+    algorithm.setParallelThreshold(1);
+    return algorithm;
+  }
+
+  @Test
+  public void testCancelWithinPass() {
+    CancelFlag flag = new CancelFlag();
+    AtomicInteger comparisons = new AtomicInteger();
+    List<Object> a = new ArrayList<>();
+    List<Object> b = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      a.add(new CancellingToken(flag, comparisons));
+      b.add(new CancellingToken(flag, comparisons));
+    }
+    // The first pass compares half a million tokens, it must stop within a few rows
+    HirschbergAlgorithm<Object> algorithm = new HirschbergAlgorithm<>();
+    algorithm.setCancelFlag(flag);
+    assertThrows(DiffCancelledException.class, () -> algorithm.diff(a, b, (operator, token) -> {}));
+    assertTrue(comparisons.get() < 10_000);
+  }
+
+  @Test
+  public void testParallelHandlerThread() {
+    List<String> a = new ArrayList<>();
+    List<String> b = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      a.add("t" + i);
+      b.add(i % 50 == 25 ? "x" + i : "t" + i);
+    }
+    // The handler is called on this thread even though the subproblems are solved on the pool
+    Thread thread = Thread.currentThread();
+    AtomicInteger others = new AtomicInteger();
+    DiffHandler<String> handler = (operator, token) -> {
+      if (Thread.currentThread() != thread) others.incrementAndGet();
+    };
+    this.<String>newParallelAlgorithm().diff(a, b, handler);
+    assertEquals(0, others.get());
+  }
+
+  /**
+   * A token which raises the flag after 100 comparisons.
+   */
+  private static final class CancellingToken {
+
+    private final CancelFlag flag;
+
+    private final AtomicInteger comparisons;
+
+    CancellingToken(CancelFlag flag, AtomicInteger comparisons) {
+      this.flag = flag;
+      this.comparisons = comparisons;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this.comparisons.incrementAndGet() == 100) this.flag.cancel();
+      return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+  }
+
   @Nested
   public class GeneralDiff extends BasicGeneralDiffTest {
     @Override
@@ -55,4 +133,21 @@ public final class HirschbergAlgorithmTest {
       return newAlgorithm();
     }
   }
+
+  @Nested
+  public class ParallelGeneralDiff extends BasicGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newParallelAlgorithm();
+    }
+  }
+
+  @Nested
+  public class ParallelRandomGeneralDiff extends RandomGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newParallelAlgorithm();
+    }
+  }
+
 }
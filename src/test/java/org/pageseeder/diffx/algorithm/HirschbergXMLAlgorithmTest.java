@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.Operations;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.core.RandomXMLDiffTest;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.impl.WordToken;
+import org.pageseeder.diffx.token.impl.XMLEndElement;
+import org.pageseeder.diffx.token.impl.XMLStartElement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test case for the linear space XML algorithm.
+ *
+ * <p>Except for the basic XML tests which check the quality of the output, a very low matrix
+ * threshold is used to force the algorithm to split the sequences.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class HirschbergXMLAlgorithmTest {
+
+  private HirschbergXMLAlgorithm newAlgorithm() {
+    HirschbergXMLAlgorithm algorithm = new HirschbergXMLAlgorithm();
+    algorithm.setMatrixThreshold(4);
+    return algorithm;
+  }
+
+  @Nested
+  public class GeneralDiff extends BasicGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newAlgorithm();
+    }
+  }
+
+  @Nested
+  public class RandomGeneralDiff extends RandomGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newAlgorithm();
+    }
+  }
+
+  @Nested
+  public class BasicXMLDiff extends BasicXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return new HirschbergXMLAlgorithm();
+    }
+  }
+
+  @Nested
+  public class RandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newAlgorithm();
+    }
+  }
+
+  @Test
+  public void testUnbalancedTooLarge() {
+    List<XMLToken> a = new ArrayList<>();
+    a.add(new XMLStartElement("a"));
+    a.add(new WordToken("x"));
+    List<XMLToken> b = new ArrayList<>();
+    b.add(new XMLStartElement("b"));
+    b.add(new WordToken("y"));
+    HirschbergXMLAlgorithm algorithm = new HirschbergXMLAlgorithm();
+    algorithm.setMatrixThreshold(1);
+    Assertions.assertThrows(DataLengthException.class, () -> algorithm.diff(a, b, new OperationsBuffer<>()));
+  }
+
+  @Test
+  public void testDeeplyNested() {
+    List<XMLToken> a = nested(10000, "x");
+    List<XMLToken> b = nested(10000, "y");
+    OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+    newAlgorithm().diff(a, b, buffer);
+    Assertions.assertEquals(2, buffer.countEdits());
+    Assertions.assertEquals(b, Operations.apply(a, buffer.getOperations()));
+  }
+
+  private static List<XMLToken> nested(int depth, String word) {
+    List<XMLToken> tokens = new ArrayList<>(depth * 2 + 1);
+    for (int i = 0; i < depth; i++) tokens.add(new XMLStartElement("e"));
+    tokens.add(new WordToken(word));
+    for (int i = 0; i < depth; i++) tokens.add(new XMLEndElement("e"));
+    return tokens;
+  }
+
+}
@@ -16,10 +16,18 @@
 package org.pageseeder.diffx.algorithm;
 
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
 import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.token.XMLToken;
 import org.pageseeder.diffx.token.impl.LineToken;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
 /**
  * Test case for Wagner-Fischer algorithm (text only).
  *
@@ -32,6 +40,31 @@ public final class KumarRanganAlgorithmTest {
     return new KumarRanganAlgorithm<>();
   }
 
+  private <T> DiffAlgorithm<T> newParallelAlgorithm() {
+    KumarRanganAlgorithm<T> algorithm = new KumarRanganAlgorithm<>();
+    algorithm.setParallel(true);
+    algorithm.setParallelThreshold(1);
+    return algorithm;
+  }
+
+  @Test
+  public void testParallelHandlerThread() {
+    List<String> a = new ArrayList<>();
+    List<String> b = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      a.add("t" + i);
+      b.add(i % 50 == 25 ? "x" + i : "t" + i);
+    }
+    // The handler is called on this thread even though the subproblems are solved on the pool
+    Thread thread = Thread.currentThread();
+    AtomicInteger others = new AtomicInteger();
+    DiffHandler<String> handler = (operator, token) -> {
+      if (Thread.currentThread() != thread) others.incrementAndGet();
+    };
+    this.<String>newParallelAlgorithm().diff(a, b, handler);
+    assertEquals(0, others.get());
+  }
+
   @Nested
   public class GeneralDiff extends BasicGeneralDiffTest {
     @Override
@@ -55,4 +88,21 @@ public final class KumarRanganAlgorithmTest {
       return newAlgorithm();
     }
   }
+
+  @Nested
+  public class ParallelGeneralDiff extends BasicGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newParallelAlgorithm();
+    }
+  }
+
+  @Nested
+  public class ParallelRandomGeneralDiff extends RandomGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newParallelAlgorithm();
+    }
+  }
+
 }
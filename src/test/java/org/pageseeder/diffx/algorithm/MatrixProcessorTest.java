@@ -18,9 +18,25 @@ package org.pageseeder.diffx.algorithm;
 import org.junit.jupiter.api.Test;
 import org.pageseeder.diffx.xml.Sequence;
 import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.test.RandomStringFactory;
 import org.pageseeder.diffx.token.impl.CharToken;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class MatrixProcessorTest {
 
@@ -141,4 +157,161 @@ public class MatrixProcessorTest {
     assertEquals(4, matrix.getLCSLength()); // "deab"
   }
 
+  @Test
+  public void testParallel() {
+    assertParallelIdentical(false);
+  }
+
+  @Test
+  public void testParallelInverse() {
+    assertParallelIdentical(true);
+  }
+
+  @Test
+  public void testDiskBacked() {
+    assertDiskBackedIdentical(false);
+  }
+
+  @Test
+  public void testDiskBackedInverse() {
+    assertDiskBackedIdentical(true);
+  }
+
+  @Test
+  public void testDiskBackedCancelled() throws IOException {
+    Sequence s1 = asSequenceOfCharTokens("abcdefgh");
+    Sequence s2 = asSequenceOfCharTokens("abxdefyh");
+    CancelFlag flag = new CancelFlag();
+    flag.cancel();
+    MatrixProcessor<XMLToken> disk = new MatrixProcessor<>();
+    disk.setDiskThreshold(0);
+    disk.setCancelFlag(flag);
+    int files = countOpenMatrixFiles();
+    assertThrows(DiffCancelledException.class, () -> disk.process(s1, s2));
+    // The file is closed, and therefore deleted, when the matrix is released
+    assertEquals(files, countOpenMatrixFiles());
+  }
+
+  @Test
+  public void testParallelInterrupted() throws Exception {
+    AtomicReference<Thread> caller = new AtomicReference<>();
+    AtomicInteger comparisons = new AtomicInteger();
+    List<Object> first = new ArrayList<>();
+    List<Object> second = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      first.add(new InterruptingToken(caller, comparisons));
+      second.add(new InterruptingToken(caller, comparisons));
+    }
+    MatrixProcessor<Object> processor = new MatrixProcessor<>();
+    processor.setParallel(true);
+    processor.setTileSize(100);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    processor.setPool(pool);
+    CompletableFuture<Throwable> thrown = new CompletableFuture<>();
+    Thread thread = new Thread(() -> {
+      try {
+        processor.process(first, second);
+        thrown.complete(null);
+      } catch (Throwable ex) {
+        thrown.complete(ex);
+      }
+    });
+    caller.set(thread);
+    thread.start();
+    Throwable ex = thrown.get(1, TimeUnit.MINUTES);
+    pool.shutdown();
+    // The tiles computed on the pool must stop when the calling thread is interrupted
+    assertTrue(ex instanceof DiffCancelledException && ((DiffCancelledException) ex).isInterrupted());
+    assertTrue(comparisons.get() < 100_000);
+  }
+
+  /**
+   * Count the temporary matrix files open by this process using the file descriptors listed by Linux.
+   *
+   * @return the number of open files or -1 if the file descriptors cannot be listed.
+   */
+  private static int countOpenMatrixFiles() throws IOException {
+    Path descriptors = Paths.get("/proc/self/fd");
+    if (!Files.isDirectory(descriptors)) return -1;
+    int count = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(descriptors)) {
+      for (Path file : files) {
+        try {
+          if (Files.readSymbolicLink(file).toString().contains("diffx-")) count++;
+        } catch (IOException ex) {
+          // The descriptor was closed in the meantime
+        }
+      }
+    }
+    return count;
+  }
+
+  private static void assertDiskBackedIdentical(boolean inverse) {
+    RandomStringFactory factory = new RandomStringFactory();
+    for (int n : new int[]{0, 10, 100}) {
+      String from = factory.getRandomString(n, false);
+      String to = factory.vary(from, .2);
+      Sequence s1 = asSequenceOfCharTokens(from);
+      Sequence s2 = asSequenceOfCharTokens(to);
+      MatrixProcessor<XMLToken> heap = new MatrixProcessor<>();
+      heap.setInverse(inverse);
+      MatrixProcessor<XMLToken> disk = new MatrixProcessor<>();
+      disk.setInverse(inverse);
+      disk.setDiskThreshold(0);
+      Matrix expected = heap.process(s1, s2);
+      Matrix actual = disk.process(s1, s2);
+      assertTrue(actual instanceof MatrixMappedBase);
+      assertEquals(expected.getLCSLength(), actual.getLCSLength());
+      assertEquals(expected.toString(), actual.toString());
+      actual.release();
+    }
+  }
+
+  private static void assertParallelIdentical(boolean inverse) {
+    RandomStringFactory factory = new RandomStringFactory();
+    for (int tileSize : new int[]{1, 3, 16}) {
+      for (int n : new int[]{10, 50, 100}) {
+        String from = factory.getRandomString(n, false);
+        String to = factory.vary(from, .2);
+        Sequence s1 = asSequenceOfCharTokens(from);
+        Sequence s2 = asSequenceOfCharTokens(to);
+        MatrixProcessor<XMLToken> sequential = new MatrixProcessor<>();
+        sequential.setInverse(inverse);
+        MatrixProcessor<XMLToken> parallel = new MatrixProcessor<>();
+        parallel.setInverse(inverse);
+        parallel.setParallel(true);
+        parallel.setTileSize(tileSize);
+        Matrix expected = sequential.process(s1, s2);
+        Matrix actual = parallel.process(s1, s2);
+        assertEquals(expected.toString(), actual.toString());
+      }
+    }
+  }
+
+  /**
+   * A token which interrupts the calling thread after 100 comparisons.
+   */
+  private static final class InterruptingToken {
+
+    private final AtomicReference<Thread> caller;
+
+    private final AtomicInteger comparisons;
+
+    InterruptingToken(AtomicReference<Thread> caller, AtomicInteger comparisons) {
+      this.caller = caller;
+      this.comparisons = comparisons;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this.comparisons.incrementAndGet() == 100) this.caller.get().interrupt();
+      return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+  }
+
 }
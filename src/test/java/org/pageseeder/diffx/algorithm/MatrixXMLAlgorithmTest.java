@@ -16,8 +16,16 @@
 package org.pageseeder.diffx.algorithm;
 
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.OperationsBuffer;
 import org.pageseeder.diffx.api.DiffAlgorithm;
 import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.impl.WordToken;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Test case for the default XML algorithm.
@@ -31,6 +39,13 @@ public final class MatrixXMLAlgorithmTest {
     return new MatrixXMLAlgorithm();
   }
 
+  private MatrixXMLAlgorithm newDiskBackedAlgorithm() {
+    MatrixXMLAlgorithm algorithm = new MatrixXMLAlgorithm();
+    algorithm.setThreshold(0);
+    algorithm.setDiskBacked(true);
+    return algorithm;
+  }
+
   @Nested
   public class GeneralDiff extends BasicGeneralDiffTest {
     @Override
@@ -55,4 +70,27 @@ public final class MatrixXMLAlgorithmTest {
     }
   }
 
+  @Nested
+  public class DiskBackedXMLDiff extends BasicXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newDiskBackedAlgorithm();
+    }
+  }
+
+  @Test
+  public void testThreshold() {
+    List<XMLToken> from = Arrays.asList(new WordToken("a"), new WordToken("b"));
+    List<XMLToken> to = Arrays.asList(new WordToken("b"), new WordToken("c"));
+    MatrixXMLAlgorithm algorithm = new MatrixXMLAlgorithm();
+    algorithm.setThreshold(1);
+    assertFalse(algorithm.isDiffComputable(from, to));
+    assertThrows(DataLengthException.class, () -> algorithm.diff(from, to, new OperationsBuffer<>()));
+    algorithm.setDiskBacked(true);
+    assertTrue(algorithm.isDiffComputable(from, to));
+    OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+    algorithm.diff(from, to, buffer);
+    assertEquals(2, buffer.countEdits());
+  }
+
 }
@@ -16,9 +16,19 @@
 package org.pageseeder.diffx.algorithm;
 
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
 import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.DiffHandler;
 import org.pageseeder.diffx.token.XMLToken;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 /**
  * Test case for the Myers' linear algorithm.
  *
@@ -31,6 +41,56 @@ public final class MyersLinearAlgorithmTest {
     return new MyersLinearAlgorithm<XMLToken>();
   }
 
+  private MyersLinearAlgorithm<XMLToken> newParallelAlgorithm() {
+    MyersLinearAlgorithm<XMLToken> algorithm = new MyersLinearAlgorithm<>();
+    algorithm.setParallel(true);
+    algorithm.setParallelThreshold(1);
+    return algorithm;
+  }
+
+  @Test
+  public void testStreaming() {
+    List<String> a = new ArrayList<>();
+    List<String> b = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      a.add("t" + i);
+      b.add(i % 50 == 25 ? "x" + i : "t" + i);
+    }
+    // Cancel as soon as the handler receives anything: snakes must be reported before the end
+    CancelFlag flag = new CancelFlag();
+    AtomicInteger count = new AtomicInteger();
+    DiffHandler<String> handler = (operator, token) -> {
+      count.incrementAndGet();
+      flag.cancel();
+    };
+    MyersLinearAlgorithm<String> algorithm = new MyersLinearAlgorithm<>();
+    algorithm.setCancelFlag(flag);
+    assertThrows(DiffCancelledException.class, () -> algorithm.diff(a, b, handler));
+    assertTrue(count.get() > 0);
+    assertTrue(count.get() < a.size());
+  }
+
+  @Test
+  public void testParallelHandlerThread() {
+    List<String> a = new ArrayList<>();
+    List<String> b = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      a.add("t" + i);
+      b.add(i % 50 == 25 ? "x" + i : "t" + i);
+    }
+    // The handler is called on this thread even though the rectangles are solved on the pool
+    Thread thread = Thread.currentThread();
+    AtomicInteger others = new AtomicInteger();
+    DiffHandler<String> handler = (operator, token) -> {
+      if (Thread.currentThread() != thread) others.incrementAndGet();
+    };
+    MyersLinearAlgorithm<String> algorithm = new MyersLinearAlgorithm<>();
+    algorithm.setParallel(true);
+    algorithm.setParallelThreshold(1);
+    algorithm.diff(a, b, handler);
+    assertEquals(0, others.get());
+  }
+
   @Nested
   public class GeneralDiff extends BasicGeneralDiffTest {
     @Override
@@ -55,4 +115,20 @@ public final class MyersLinearAlgorithmTest {
     }
   }
 
+  @Nested
+  public class ParallelGeneralDiff extends BasicGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newParallelAlgorithm();
+    }
+  }
+
+  @Nested
+  public class ParallelRandomGeneralDiff extends RandomGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newParallelAlgorithm();
+    }
+  }
+
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.Action;
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.LoadingException;
+import org.pageseeder.diffx.config.TextGranularity;
+import org.pageseeder.diffx.core.RandomXMLDiffTest;
+import org.pageseeder.diffx.test.DiffAssertions;
+import org.pageseeder.diffx.test.TestActions;
+import org.pageseeder.diffx.test.TestTokens;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.XMLTokenType;
+import org.pageseeder.diffx.xml.NamespaceSet;
+import org.pageseeder.diffx.xml.Sequence;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test case for the Myers' linear space algorithm adjusted for XML.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class MyersLinearXMLAlgorithmTest {
+
+  private MyersLinearXMLAlgorithm newAlgorithm() {
+    return new MyersLinearXMLAlgorithm();
+  }
+
+  @Nested
+  public class GeneralDiff extends BasicGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newAlgorithm();
+    }
+  }
+
+  @Nested
+  public class RandomGeneralDiff extends RandomGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newAlgorithm();
+    }
+  }
+
+  @Nested
+  public class LinesDiff extends BasicLinesDiffTest {
+    @Override
+    public DiffAlgorithm getDiffAlgorithm() {
+      return newAlgorithm();
+    }
+  }
+
+  @Nested
+  public class RandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newAlgorithm();
+    }
+  }
+
+  // The paths found by this algorithm may differ from the other XML algorithms, so these tests only
+  // check that the results are correct and well-formed rather than comparing with an expected output.
+
+  @Test
+  public void testMovedBranch() throws LoadingException {
+    assertDiffXMLOK("<a><b>M<a><b>A</b></a></b><b>N</b></a>", "<a><b>M</b><a><b>A</b></a><b>N</b></a>");
+  }
+
+  @Test
+  public void testSplitMerge() throws LoadingException {
+    assertDiffXMLOK("<a><b><c/><d/></b></a>", "<a><b><c/></b><b><d/></b></a>");
+  }
+
+  @Test
+  public void testNested() throws LoadingException {
+    assertDiffXMLOK("<a><b><c>X</c></b><b>Y</b></a>", "<a><c><b>X</b></c><b><b>Y</b></b></a>");
+  }
+
+  @Test
+  public void testAttributes() throws LoadingException {
+    assertDiffXMLOK("<a m='x'><b n='y'>X</b></a>", "<a m='y'><b>X</b><b n='y'>Y</b></a>");
+  }
+
+  // Found by the random tests: the end elements of the replaced element were reordered
+  @Test
+  public void testAttributesChangedElement() throws LoadingException {
+    assertDiffXMLOK("<r a='1'><u>w<x/></u></r>", "<r a='1'><i>w<y/></i></r>");
+  }
+
+  @Test
+  public void testAttributesReplacedElement() throws LoadingException {
+    assertDiffXMLOK("<r><h2 is='true'>A</h2></r>", "<r><p>B</p></r>");
+  }
+
+  private void assertDiffXMLOK(String xmlA, String xmlB) throws LoadingException {
+    assertDiffXMLOK0(xmlA, xmlB);
+    assertDiffXMLOK0(xmlB, xmlA);
+  }
+
+  private void assertDiffXMLOK0(String xmlA, String xmlB) throws LoadingException {
+    Sequence seqA = TestTokens.loadSequence(xmlA, TextGranularity.TEXT);
+    Sequence seqB = TestTokens.loadSequence(xmlB, TextGranularity.TEXT);
+    NamespaceSet namespaces = NamespaceSet.merge(seqA.getNamespaces(), seqB.getNamespaces());
+    List<Action<XMLToken>> actions = TestActions.diffToActions(newAlgorithm(), seqA.tokens(), seqB.tokens());
+    DiffAssertions.assertIsCorrect(seqA, seqB, actions);
+    DiffAssertions.assertIsWellFormedXML(actions, namespaces);
+    assertAttributesFollowElement(actions);
+  }
+
+  /**
+   * Attributes must directly follow their element or another attribute.
+   */
+  private static void assertAttributesFollowElement(List<Action<XMLToken>> actions) {
+    XMLToken previous = null;
+    for (Action<XMLToken> action : actions) {
+      for (XMLToken token : action.tokens()) {
+        if (token.getType() == XMLTokenType.ATTRIBUTE) {
+          assertTrue(previous != null && (previous.getType() == XMLTokenType.START_ELEMENT
+              || previous.getType() == XMLTokenType.ATTRIBUTE), "Misplaced attribute " + token);
+        }
+        previous = token;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.OperationsBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public final class SnakeJumperTest {
+
+  @Test
+  public void testForward() {
+    List<String> a = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "x");
+    List<String> b = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "y");
+    SnakeJumper jumper = new SnakeJumper(a, b);
+    Assertions.assertEquals(13, jumper.forward(0, 0, 14));
+    Assertions.assertEquals(10, jumper.forward(0, 0, 10));
+    Assertions.assertEquals(9, jumper.forward(4, 4, 10));
+    Assertions.assertEquals(0, jumper.forward(0, 1, 13));
+  }
+
+  @Test
+  public void testBackward() {
+    List<String> a = Arrays.asList("x", "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m");
+    List<String> b = Arrays.asList("y", "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m");
+    SnakeJumper jumper = new SnakeJumper(a, b);
+    Assertions.assertEquals(13, jumper.backward(14, 14, 14));
+    Assertions.assertEquals(10, jumper.backward(14, 14, 10));
+    Assertions.assertEquals(9, jumper.backward(10, 10, 10));
+    Assertions.assertEquals(0, jumper.backward(14, 13, 13));
+  }
+
+  @Test
+  public void testRandom() {
+    Random random = new Random(1);
+    List<Integer> a = randomRuns(random, 2000);
+    List<Integer> b = randomRuns(random, 2000);
+    SnakeJumper jumper = new SnakeJumper(a, b);
+    for (int n = 0; n < 5000; n++) {
+      int x = random.nextInt(a.size());
+      int y = random.nextInt(b.size());
+      int max = Math.min(a.size() - x, b.size() - y);
+      int expected = 0;
+      while (expected < max && a.get(x + expected).equals(b.get(y + expected))) expected++;
+      Assertions.assertEquals(expected, jumper.forward(x, y, max));
+      max = Math.min(x, y);
+      expected = 0;
+      while (expected < max && a.get(x - expected - 1).equals(b.get(y - expected - 1))) expected++;
+      Assertions.assertEquals(expected, jumper.backward(x, y, max));
+    }
+  }
+
+  @Test
+  public void testLargeDiff() {
+    Random random = new Random(2);
+    for (int n = 0; n < 10; n++) {
+      List<Integer> a = randomRuns(random, SnakeJumper.MIN_SIZE * 4);
+      List<Integer> b = vary(random, a);
+      OperationsBuffer<Integer> greedy = new OperationsBuffer<>();
+      new MyersGreedyAlgorithm<Integer>().diff(a, b, greedy);
+      OperationsBuffer<Integer> linear = new OperationsBuffer<>();
+      new MyersLinearAlgorithm<Integer>().diff(a, b, linear);
+      OperationsBuffer<Integer> matrix = new OperationsBuffer<>();
+      new WagnerFischerAlgorithm<Integer>().diff(a, b, matrix);
+      Assertions.assertEquals(matrix.countEdits(), greedy.countEdits());
+      Assertions.assertEquals(matrix.countEdits(), linear.countEdits());
+    }
+  }
+
+  /**
+   * Sequences which repeat the same values so that long diagonals are common.
+   */
+  private static List<Integer> randomRuns(Random random, int size) {
+    List<Integer> list = new ArrayList<>(size);
+    while (list.size() < size) {
+      int value = random.nextInt(4);
+      for (int i = random.nextInt(30); i > 0 && list.size() < size; i--) list.add(value);
+    }
+    return list;
+  }
+
+  private static List<Integer> vary(Random random, List<Integer> list) {
+    List<Integer> varied = new ArrayList<>(list);
+    for (int i = 0; i < 20; i++) {
+      int index = random.nextInt(varied.size());
+      if (random.nextBoolean()) varied.remove(index);
+      else varied.add(index, random.nextInt(8));
+    }
+    return varied;
+  }
+}
@@ -55,4 +55,14 @@ public final class WagnerFischerAlgorithmTest {
       return newAlgorithm();
     }
   }
+
+  @Nested
+  public class DiskBackedGeneralDiff extends BasicGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      WagnerFischerAlgorithm<XMLToken> algorithm = new WagnerFischerAlgorithm<>();
+      algorithm.setDiskThreshold(0);
+      return algorithm;
+    }
+  }
 }
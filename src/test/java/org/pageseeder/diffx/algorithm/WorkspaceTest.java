@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.algorithm;
+
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.test.RandomStringFactory;
+import org.pageseeder.diffx.test.TestTokens;
+import org.pageseeder.diffx.token.impl.CharToken;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class WorkspaceTest {
+
+  @Test
+  public void testTakeGive() {
+    Workspace workspace = new Workspace(1024);
+    int[] a = workspace.take(10);
+    assertTrue(a.length >= 10);
+    workspace.give(a);
+    assertEquals(40, workspace.getRetained());
+    int[] b = workspace.take(5);
+    assertSame(a, b);
+    assertEquals(0, workspace.getRetained());
+  }
+
+  @Test
+  public void testTakeIsCleared() {
+    Workspace workspace = new Workspace(1024);
+    int[] a = workspace.take(10);
+    a[3] = 7;
+    workspace.give(a);
+    int[] b = workspace.take(10);
+    assertSame(a, b);
+    assertEquals(0, b[3]);
+  }
+
+  @Test
+  public void testTakeBestFit() {
+    Workspace workspace = new Workspace(1024);
+    int[] large = new int[100];
+    int[] small = new int[20];
+    workspace.give(large);
+    workspace.give(small);
+    assertSame(small, workspace.take(10));
+    assertSame(large, workspace.take(10));
+    assertEquals(0, workspace.getRetained());
+  }
+
+  @Test
+  public void testCapacity() {
+    Workspace workspace = new Workspace(100);
+    workspace.give(new int[20]);
+    assertEquals(80, workspace.getRetained());
+    workspace.give(new int[20]);
+    assertEquals(80, workspace.getRetained());
+    workspace.give(new short[100][100]);
+    assertEquals(80, workspace.getRetained());
+    workspace.setCapacity(10);
+    assertEquals(0, workspace.getRetained());
+  }
+
+  @Test
+  public void testMatrix() {
+    Workspace workspace = new Workspace(1024);
+    short[][] matrix = workspace.takeShorts(10, 10);
+    workspace.give(matrix);
+    assertEquals(200, workspace.getRetained());
+    assertSame(matrix, workspace.takeShorts(5, 8));
+    workspace.give(matrix);
+    assertNotSame(matrix, workspace.takeShorts(5, 11));
+  }
+
+  @Test
+  public void testReuseAcrossDiffs() {
+    Workspace.current().clear();
+    RandomStringFactory factory = new RandomStringFactory();
+    String from = factory.getRandomString(50, false);
+    String to = factory.vary(from, .2);
+    List<CharToken> a = TestTokens.toCharTokens(from);
+    List<CharToken> b = TestTokens.toCharTokens(to);
+    OperationsBuffer<CharToken> expected = new OperationsBuffer<>();
+    new WagnerFischerAlgorithm<CharToken>().diff(a, b, expected);
+    long retained = Workspace.current().getRetained();
+    assertTrue(retained > 0);
+    OperationsBuffer<CharToken> actual = new OperationsBuffer<>();
+    new WagnerFischerAlgorithm<CharToken>().diff(a, b, actual);
+    assertEquals(retained, Workspace.current().getRetained());
+    assertEquals(expected.getOperations(), actual.getOperations());
+  }
+
+}
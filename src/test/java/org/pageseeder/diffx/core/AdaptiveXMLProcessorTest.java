@@ -0,0 +1,184 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.Action;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.algorithm.BasicGeneralDiffTest;
+import org.pageseeder.diffx.algorithm.BasicXMLDiffTest;
+import org.pageseeder.diffx.algorithm.CancelFlag;
+import org.pageseeder.diffx.algorithm.DiffCancelledException;
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.LoadingException;
+import org.pageseeder.diffx.config.TextGranularity;
+import org.pageseeder.diffx.test.DiffAssertions;
+import org.pageseeder.diffx.test.TestActions;
+import org.pageseeder.diffx.test.TestTokens;
+import org.pageseeder.diffx.token.XMLToken;
+
+import java.util.List;
+
+/**
+ * Test case for the adaptive XML processor.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class AdaptiveXMLProcessorTest {
+
+  private AdaptiveXMLProcessor newProcessor() {
+    return new AdaptiveXMLProcessor();
+  }
+
+  @Test
+  public void testFewDifferences() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens(toParagraphs(500, -1, -1), TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens(toParagraphs(500, 10, 490), TextGranularity.SPACE_WORD);
+    AdaptiveXMLProcessor.Plan plan = newProcessor().explain(a, b);
+    Assertions.assertEquals(AdaptiveXMLProcessor.Algorithm.OPTIMISTIC, plan.getAlgorithm());
+    Assertions.assertTrue(plan.getCommonCount() > 0);
+    Assertions.assertTrue(plan.getSimilarity() > .9);
+    Assertions.assertTrue(plan.getEstimatedDifferences() < 50);
+    assertDiffOK(newProcessor(), a, b);
+  }
+
+  @Test
+  public void testManyDifferences() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b>one two three</b><c>four five</c></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><c>six seven</c><b>eight nine ten</b></a>", TextGranularity.SPACE_WORD);
+    AdaptiveXMLProcessor.Plan plan = newProcessor().explain(a, b);
+    Assertions.assertEquals(AdaptiveXMLProcessor.Algorithm.MATRIX, plan.getAlgorithm());
+    Assertions.assertEquals(2, plan.getDepth());
+    assertDiffOK(newProcessor(), a, b);
+  }
+
+  @Test
+  public void testLargeWithManyDifferences() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b>one two three</b><c>four five</c></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><c>six seven</c><b>eight nine ten</b></a>", TextGranularity.SPACE_WORD);
+    AdaptiveXMLProcessor processor = newProcessor();
+    processor.setMatrixThreshold(0);
+    Assertions.assertEquals(AdaptiveXMLProcessor.Algorithm.HIRSCHBERG, processor.explain(a, b).getAlgorithm());
+    assertDiffOK(processor, a, b);
+  }
+
+  @Test
+  public void testLowMemory() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens(toParagraphs(500, -1, -1), TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens(toParagraphs(500, 10, 490), TextGranularity.SPACE_WORD);
+    AdaptiveXMLProcessor processor = newProcessor();
+    processor.setMemoryLimit(1);
+    AdaptiveXMLProcessor.Plan plan = processor.explain(a, b);
+    Assertions.assertEquals(AdaptiveXMLProcessor.Algorithm.MYER_LINEAR, plan.getAlgorithm());
+    Assertions.assertTrue(plan.getEstimatedBytes() > 0);
+    assertDiffOK(processor, a, b);
+  }
+
+  @Test
+  public void testCancelled() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b>one two three</b><c>four five</c></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><c>six seven</c><b>eight nine ten</b></a>", TextGranularity.SPACE_WORD);
+    CancelFlag cancel = new CancelFlag();
+    cancel.cancel();
+    AdaptiveXMLProcessor matrix = newProcessor();
+    Assertions.assertEquals(AdaptiveXMLProcessor.Algorithm.MATRIX, matrix.explain(a, b).getAlgorithm());
+    Assertions.assertThrows(DiffCancelledException.class, () -> matrix.cancellableDiff(a, b, new OperationsBuffer<>(), cancel));
+    AdaptiveXMLProcessor hirschberg = newProcessor();
+    hirschberg.setMatrixThreshold(0);
+    Assertions.assertEquals(AdaptiveXMLProcessor.Algorithm.HIRSCHBERG, hirschberg.explain(a, b).getAlgorithm());
+    Assertions.assertThrows(DiffCancelledException.class, () -> hirschberg.cancellableDiff(a, b, new OperationsBuffer<>(), cancel));
+  }
+
+  @Test
+  public void testSimilarity() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a>the quick brown fox jumps over the lazy dog</a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<b>lorem ipsum dolor sit amet consectetur</b>", TextGranularity.SPACE_WORD);
+    Assertions.assertEquals(1.0, AdaptiveXMLProcessor.estimateSimilarity(a, a, 10));
+    Assertions.assertEquals(0.0, AdaptiveXMLProcessor.estimateSimilarity(a, b, 27));
+  }
+
+  private static void assertDiffOK(AdaptiveXMLProcessor processor, List<XMLToken> a, List<XMLToken> b) {
+    List<Action<XMLToken>> actions = TestActions.diffToActions(processor, a, b);
+    DiffAssertions.assertIsCorrect(a, b, actions);
+    DiffAssertions.assertIsWellFormedXML(actions);
+  }
+
+  private static String toParagraphs(int count, int first, int last) {
+    StringBuilder xml = new StringBuilder("<root>");
+    for (int i = 0; i < count; i++) {
+      boolean changed = i == first || i == last;
+      xml.append("<p>Paragraph ").append(i).append(changed ? " was changed" : " is unchanged").append("</p>");
+    }
+    return xml.append("</root>").toString();
+  }
+
+  @Nested
+  public class GeneralDiff extends BasicGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class BasicXMLDiff extends BasicXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class AdvancedXMLDiff extends AdvancedXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class CoalesceXMLDiff extends CoalesceXMLDiffTest {
+    @Override
+    public DiffProcessor<XMLToken> getProcessor() {
+      AdaptiveXMLProcessor processor = newProcessor();
+      processor.setCoalesce(true);
+      return processor;
+    }
+  }
+
+  @Nested
+  public class RandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class LowMemoryRandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      AdaptiveXMLProcessor processor = newProcessor();
+      processor.setMatrixThreshold(0);
+      processor.setMemoryLimit(0);
+      return processor;
+    }
+  }
+
+}
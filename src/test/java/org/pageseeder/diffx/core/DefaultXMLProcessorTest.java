@@ -16,11 +16,23 @@
 package org.pageseeder.diffx.core;
 
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.ActionsBuffer;
 import org.pageseeder.diffx.algorithm.BasicGeneralDiffTest;
 import org.pageseeder.diffx.algorithm.BasicXMLDiffTest;
+import org.pageseeder.diffx.algorithm.MatrixXMLAlgorithm;
 import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.LoadingException;
+import org.pageseeder.diffx.config.TextGranularity;
+import org.pageseeder.diffx.test.DiffAssertions;
+import org.pageseeder.diffx.test.TestTokens;
 import org.pageseeder.diffx.token.XMLToken;
 
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 /**
  * Test case for the default XML processor
  *
@@ -33,6 +45,32 @@ public final class DefaultXMLProcessorTest {
     return new DefaultXMLProcessor();
   }
 
+  @Test
+  public void testBudgetTooLarge() throws LoadingException {
+    List<XMLToken> from = TestTokens.loadTokens(toSections("a"), TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens(toSections("b"), TextGranularity.SPACE_WORD);
+    assertTrue((long) from.size() * to.size() > MatrixXMLAlgorithm.DEFAULT_THRESHOLD);
+    // Too many comparisons for the matrix until the elements are folded
+    ActionsBuffer<XMLToken> buffer = new ActionsBuffer<>();
+    assertEquals(DiffBudget.Level.ELEMENT, newProcessor().diff(from, to, buffer, DiffBudget.unlimited()));
+    DiffAssertions.assertIsCorrect(from, to, buffer.getActions());
+    buffer = new ActionsBuffer<>();
+    assertEquals(DiffBudget.Level.ELEMENT, newProcessor().diff(from, to, buffer, DiffBudget.unlimited().maxTime(60_000)));
+    DiffAssertions.assertIsCorrect(from, to, buffer.getActions());
+  }
+
+  private static String toSections(String word) {
+    StringBuilder xml = new StringBuilder("<root>");
+    for (int i = 0; i < 100; i++) {
+      xml.append("<section>");
+      for (int j = 0; j < 84; j++) {
+        xml.append("<p>").append(word).append(i).append('_').append(j).append("</p>");
+      }
+      xml.append("</section>");
+    }
+    return xml.append("</root>").toString();
+  }
+
   @Nested
   public class GeneralDiff extends BasicGeneralDiffTest {
     @Override
@@ -77,4 +115,25 @@ public final class DefaultXMLProcessorTest {
     }
   }
 
+  @Nested
+  public class DiscardRandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      DefaultXMLProcessor processor = new DefaultXMLProcessor();
+      processor.setThreshold(Integer.MAX_VALUE);
+      processor.setDiscardConfusing(true);
+      return processor;
+    }
+  }
+
+  @Nested
+  public class CollapseRandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      DefaultXMLProcessor processor = newProcessor();
+      processor.setThreshold(Integer.MAX_VALUE);
+      processor.setCollapseShared(true);
+      return processor;
+    }
+  }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test case for the diff budget.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class DiffBudgetTest {
+
+  @Test
+  public void testUnlimited() {
+    DiffBudget budget = DiffBudget.unlimited();
+    assertFalse(budget.isTimeLimited());
+    assertEquals(Long.MAX_VALUE, budget.maxTime());
+    assertEquals(Long.MAX_VALUE, budget.maxMemory());
+  }
+
+  @Test
+  public void testLimits() {
+    DiffBudget budget = DiffBudget.unlimited().maxTime(500).maxMemory(1024);
+    assertTrue(budget.isTimeLimited());
+    assertEquals(500, budget.maxTime());
+    assertEquals(1024, budget.maxMemory());
+    // Budgets are immutable
+    assertFalse(DiffBudget.unlimited().isTimeLimited());
+    assertEquals(1024, budget.maxTime(100).maxMemory());
+  }
+
+  @Test
+  public void testNegative() {
+    assertThrows(IllegalArgumentException.class, () -> DiffBudget.unlimited().maxTime(-1));
+    assertThrows(IllegalArgumentException.class, () -> DiffBudget.unlimited().maxMemory(-1));
+  }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.algorithm.CancelFlag;
+import org.pageseeder.diffx.config.DiffConfig;
+import org.pageseeder.diffx.format.DefaultXMLDiffOutput;
+import org.pageseeder.diffx.load.SAXLoader;
+import org.pageseeder.diffx.xml.NamespaceSet;
+import org.pageseeder.diffx.xml.Sequence;
+import org.xml.sax.InputSource;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test case for the diff executor.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class DiffExecutorTest {
+
+  @Test
+  public void testDiff() throws Exception {
+    String a = "<p>The quick brown fox</p>";
+    String b = "<p>The quick red fox</p>";
+    try (DiffExecutor executor = new DiffExecutor(2, 10)) {
+      CompletableFuture<String> future = executor.diff(DiffExecutor.Priority.INTERACTIVE, source(a), source(b),
+          DiffConfig.getDefault(), new OptimisticXMLProcessor());
+      assertEquals(expected(a, b), future.get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> new DiffExecutor(0, 10));
+    assertThrows(IllegalArgumentException.class, () -> new DiffExecutor(1, -1));
+  }
+
+  @Test
+  public void testRejected() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    try (DiffExecutor executor = new DiffExecutor(1, 1)) {
+      CompletableFuture<String> running = executor.submit(DiffExecutor.Priority.BATCH, cancel -> await(release));
+      CompletableFuture<String> queued = executor.submit(DiffExecutor.Priority.BATCH, cancel -> "queued");
+      assertThrows(RejectedExecutionException.class, () -> executor.submit(DiffExecutor.Priority.BATCH, cancel -> "rejected"));
+      assertEquals(1, executor.getQueued());
+      release.countDown();
+      assertEquals("released", running.get(10, TimeUnit.SECONDS));
+      assertEquals("queued", queued.get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testPriority() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    try (DiffExecutor executor = new DiffExecutor(1, 10)) {
+      executor.submit(DiffExecutor.Priority.BATCH, cancel -> await(release));
+      executor.submit(DiffExecutor.Priority.BATCH, cancel -> order.add("batch1"));
+      executor.submit(DiffExecutor.Priority.BATCH, cancel -> order.add("batch2"));
+      CompletableFuture<Boolean> last = executor.submit(DiffExecutor.Priority.INTERACTIVE, cancel -> order.add("interactive"));
+      release.countDown();
+      last.get(10, TimeUnit.SECONDS);
+      executor.submit(DiffExecutor.Priority.BATCH, cancel -> true).get(10, TimeUnit.SECONDS);
+    }
+    assertEquals("[interactive, batch1, batch2]", order.toString());
+  }
+
+  @Test
+  public void testCancelQueued() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    try (DiffExecutor executor = new DiffExecutor(1, 10)) {
+      CompletableFuture<String> running = executor.submit(DiffExecutor.Priority.BATCH, cancel -> await(release));
+      CompletableFuture<Boolean> queued = executor.submit(DiffExecutor.Priority.BATCH, cancel -> order.add("queued"));
+      assertTrue(queued.cancel(false));
+      assertEquals(0, executor.getQueued());
+      release.countDown();
+      running.get(10, TimeUnit.SECONDS);
+      executor.submit(DiffExecutor.Priority.BATCH, cancel -> true).get(10, TimeUnit.SECONDS);
+      assertTrue(queued.isCancelled());
+    }
+    assertTrue(order.isEmpty());
+  }
+
+  @Test
+  public void testCancelRunning() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    try (DiffExecutor executor = new DiffExecutor(1, 10)) {
+      CompletableFuture<String> running = executor.submit(DiffExecutor.Priority.BATCH, cancel -> {
+        started.countDown();
+        while (true) CancelFlag.check(cancel);
+      });
+      CompletableFuture<String> next = executor.submit(DiffExecutor.Priority.BATCH, cancel -> "next");
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      assertTrue(running.cancel(true));
+      // The slot is released once the job has stopped
+      assertEquals("next", next.get(10, TimeUnit.SECONDS));
+      assertTrue(running.isCancelled());
+      assertFalse(Thread.currentThread().isInterrupted());
+    }
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    try (DiffExecutor executor = new DiffExecutor(1, 10)) {
+      CompletableFuture<String> future = executor.submit(DiffExecutor.Priority.BATCH, cancel -> {
+        throw new IllegalStateException("failed");
+      });
+      ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+      assertTrue(ex.getCause() instanceof IllegalStateException);
+      assertEquals("ok", executor.submit(DiffExecutor.Priority.BATCH, cancel -> "ok").get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    DiffExecutor executor = new DiffExecutor(1, 10);
+    CompletableFuture<String> running = executor.submit(DiffExecutor.Priority.BATCH, cancel -> await(release));
+    CompletableFuture<String> queued = executor.submit(DiffExecutor.Priority.BATCH, cancel -> "queued");
+    executor.close();
+    assertThrows(RejectedExecutionException.class, () -> executor.submit(DiffExecutor.Priority.BATCH, cancel -> "rejected"));
+    release.countDown();
+    assertEquals("released", running.get(10, TimeUnit.SECONDS));
+    assertEquals("queued", queued.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCloseNow() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    DiffExecutor executor = new DiffExecutor(1, 10);
+    CompletableFuture<String> running = executor.submit(DiffExecutor.Priority.BATCH, cancel -> await(release));
+    CompletableFuture<String> queued = executor.submit(DiffExecutor.Priority.BATCH, cancel -> "queued");
+    executor.closeNow();
+    assertTrue(queued.isCancelled());
+    assertThrows(ExecutionException.class, () -> running.get(10, TimeUnit.SECONDS));
+  }
+
+  private static String await(CountDownLatch latch) throws InterruptedException, TimeoutException {
+    if (!latch.await(10, TimeUnit.SECONDS)) throw new TimeoutException();
+    return "released";
+  }
+
+  private static InputSource source(String xml) {
+    return new InputSource(new StringReader(xml));
+  }
+
+  private static String expected(String a, String b) throws Exception {
+    SAXLoader loader = new SAXLoader();
+    loader.setConfig(DiffConfig.getDefault());
+    Sequence from = loader.load(source(a));
+    Sequence to = loader.load(source(b));
+    StringWriter xml = new StringWriter();
+    DefaultXMLDiffOutput output = new DefaultXMLDiffOutput(xml);
+    output.setNamespaces(NamespaceSet.merge(from.getNamespaces(), to.getNamespaces()));
+    new OptimisticXMLProcessor().diff(from.tokens(), to.tokens(), output);
+    return xml.toString();
+  }
+
+}
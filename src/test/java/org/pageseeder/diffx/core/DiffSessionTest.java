@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.Action;
+import org.pageseeder.diffx.action.ActionsBuffer;
+import org.pageseeder.diffx.api.LoadingException;
+import org.pageseeder.diffx.config.TextGranularity;
+import org.pageseeder.diffx.test.DiffAssertions;
+import org.pageseeder.diffx.test.TestTokens;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.impl.WordToken;
+import org.pageseeder.diffx.xml.Sequence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Test case for the diff session.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class DiffSessionTest {
+
+  private static final String BASELINE = "<doc><p>The quick brown fox</p><p>jumps over</p><p>the lazy dog</p></doc>";
+
+  private static final String[] REVISIONS = {
+      "<doc><p>The quick brown fox</p><p>jumps over</p><p>the lazy dog</p></doc>",
+      "<doc><p>The quick red fox</p><p>jumps over</p><p>the lazy dog</p></doc>",
+      "<doc><p>jumps over</p><p>The quick brown fox</p></doc>",
+      "<doc><p>A slow brown fox</p><p>jumps over</p><p>the lazy cat</p><p>again</p></doc>",
+      "<doc/>"
+  };
+
+  @Test
+  public void testSameAsProcessor() throws LoadingException {
+    Sequence baseline = TestTokens.loadSequence(BASELINE, TextGranularity.SPACE_WORD);
+    DiffSession session = new DiffSession(baseline, new DefaultXMLProcessor());
+    for (String xml : REVISIONS) {
+      Sequence revision = TestTokens.loadSequence(xml, TextGranularity.SPACE_WORD);
+      ActionsBuffer<XMLToken> expected = new ActionsBuffer<>();
+      new DefaultXMLProcessor().diff(baseline.tokens(), revision.tokens(), expected);
+      ActionsBuffer<XMLToken> actual = new ActionsBuffer<>();
+      session.diff(revision, actual);
+      assertEquals(DiffAssertions.toTestOutput(expected.getActions()), DiffAssertions.toTestOutput(actual.getActions()));
+    }
+  }
+
+  @Test
+  public void testCollapseShared() throws LoadingException {
+    Sequence baseline = TestTokens.loadSequence(BASELINE, TextGranularity.SPACE_WORD);
+    DiffSession session = new DiffSession(baseline, new OptimisticXMLProcessor(), true);
+    for (String xml : REVISIONS) {
+      Sequence revision = TestTokens.loadSequence(xml, TextGranularity.SPACE_WORD);
+      ActionsBuffer<XMLToken> buffer = new ActionsBuffer<>();
+      session.diff(revision, buffer);
+      DiffAssertions.assertIsCorrect(baseline, revision, buffer.getActions());
+      DiffAssertions.assertIsWellFormedXML(buffer.getActions());
+    }
+  }
+
+  @Test
+  public void testBaselineCopied() throws LoadingException {
+    Sequence baseline = TestTokens.loadSequence(BASELINE, TextGranularity.SPACE_WORD);
+    DiffSession session = new DiffSession(baseline, new DefaultXMLProcessor());
+    List<XMLToken> tokens = new ArrayList<>(baseline.tokens());
+    baseline.addToken(1, new WordToken("changed"));
+    assertEquals(tokens, session.baseline());
+  }
+
+  @Test
+  public void testConcurrent() throws LoadingException, InterruptedException, ExecutionException {
+    Sequence baseline = TestTokens.loadSequence(BASELINE, TextGranularity.SPACE_WORD);
+    DiffSession session = new DiffSession(baseline, new OptimisticXMLProcessor(), true);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Sequence> revisions = new ArrayList<>();
+      List<Future<List<Action<XMLToken>>>> futures = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        Sequence revision = TestTokens.loadSequence(REVISIONS[i % REVISIONS.length], TextGranularity.SPACE_WORD);
+        revisions.add(revision);
+        futures.add(executor.submit(() -> {
+          ActionsBuffer<XMLToken> buffer = new ActionsBuffer<>();
+          session.diff(revision, buffer);
+          return buffer.getActions();
+        }));
+      }
+      for (int i = 0; i < revisions.size(); i++) {
+        DiffAssertions.assertIsCorrect(baseline, revisions.get(i), futures.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
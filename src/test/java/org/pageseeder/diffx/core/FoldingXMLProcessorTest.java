@@ -0,0 +1,169 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.Action;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.algorithm.BasicGeneralDiffTest;
+import org.pageseeder.diffx.algorithm.BasicXMLDiffTest;
+import org.pageseeder.diffx.algorithm.CancelFlag;
+import org.pageseeder.diffx.algorithm.DiffCancelledException;
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.config.TextGranularity;
+import org.pageseeder.diffx.api.LoadingException;
+import org.pageseeder.diffx.test.DiffAssertions;
+import org.pageseeder.diffx.test.TestActions;
+import org.pageseeder.diffx.test.TestTokens;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.xml.Sequence;
+import org.pageseeder.diffx.xml.SequenceFolding;
+
+import java.util.List;
+
+/**
+ * Test case for the folding XML processor.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class FoldingXMLProcessorTest {
+
+  private FoldingXMLProcessor newProcessor() {
+    return new FoldingXMLProcessor();
+  }
+
+  @Test
+  public void testChangedSections() throws LoadingException {
+    Sequence a = TestTokens.loadSequence(toSections(1000, -1, -1, -1), TextGranularity.SPACE_WORD);
+    Sequence b = TestTokens.loadSequence(toSections(1000, 7, 500, 993), TextGranularity.SPACE_WORD);
+    FoldingXMLProcessor processor = new FoldingXMLProcessor(SequenceFolding.forElements("section"));
+    List<Action<XMLToken>> actions = TestActions.diffToActions(processor, a.tokens(), b.tokens());
+    DiffAssertions.assertIsCorrect(a, b, actions);
+    DiffAssertions.assertIsWellFormedXML(actions);
+    // Only the changed words are edited
+    OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+    processor.diff(a.tokens(), b.tokens(), buffer);
+    Assertions.assertEquals(6, buffer.countEdits());
+  }
+
+  @Test
+  public void testCancelled() throws LoadingException {
+    Sequence a = TestTokens.loadSequence(toSections(100, -1, -1, -1), TextGranularity.SPACE_WORD);
+    Sequence b = TestTokens.loadSequence(toSections(100, 7, 50, 93), TextGranularity.SPACE_WORD);
+    FoldingXMLProcessor processor = new FoldingXMLProcessor(SequenceFolding.forElements("section"));
+    CancelFlag cancel = new CancelFlag();
+    cancel.cancel();
+    Assertions.assertThrows(DiffCancelledException.class, () -> processor.cancellableDiff(a.tokens(), b.tokens(), new OperationsBuffer<>(), cancel));
+  }
+
+  @Test
+  public void testDeeplyNested() throws LoadingException {
+    StringBuilder xmlA = new StringBuilder();
+    StringBuilder xmlB = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      xmlA.append("<e>");
+      xmlB.append("<e>");
+    }
+    xmlA.append("A");
+    xmlB.append("B");
+    for (int i = 0; i < 5000; i++) {
+      xmlA.append("</e>");
+      xmlB.append("</e>");
+    }
+    List<XMLToken> a = TestTokens.loadTokens(xmlA.toString(), TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens(xmlB.toString(), TextGranularity.SPACE_WORD);
+    OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+    newProcessor().diff(a, b, buffer);
+    Assertions.assertEquals(2, buffer.countEdits());
+  }
+
+  private static String toSections(int count, int... changed) {
+    StringBuilder xml = new StringBuilder("<document>");
+    for (int i = 0; i < count; i++) {
+      xml.append("<section id=\"s").append(i).append("\"><title>Section ").append(i).append("</title>");
+      xml.append("<para>The quick brown fox jumps over the lazy dog</para>");
+      xml.append("<para>").append(i == changed[0] || i == changed[1] || i == changed[2] ? "Changed" : "Original")
+          .append(" text in section ").append(i).append("</para>");
+      xml.append("</section>");
+    }
+    return xml.append("</document>").toString();
+  }
+
+  @Nested
+  public class GeneralDiff extends BasicGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class BasicXMLDiff extends BasicXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class AdvancedXMLDiff extends AdvancedXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class CoalesceXMLDiff extends CoalesceXMLDiffTest {
+    @Override
+    public DiffProcessor<XMLToken> getProcessor() {
+      FoldingXMLProcessor processor = newProcessor();
+      processor.setCoalesce(true);
+      return processor;
+    }
+  }
+
+  @Nested
+  public class RandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class DiscardRandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      FoldingXMLProcessor processor = newProcessor();
+      processor.setDiscardConfusing(true);
+      return processor;
+    }
+  }
+
+  @Nested
+  public class CollapseRandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      FoldingXMLProcessor processor = newProcessor();
+      processor.setCollapseShared(true);
+      return processor;
+    }
+  }
+}
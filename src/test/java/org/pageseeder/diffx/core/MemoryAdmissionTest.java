@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.ActionsBuffer;
+import org.pageseeder.diffx.api.LoadingException;
+import org.pageseeder.diffx.config.TextGranularity;
+import org.pageseeder.diffx.test.DiffAssertions;
+import org.pageseeder.diffx.test.TestTokens;
+import org.pageseeder.diffx.token.XMLToken;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test case for the memory admission controller.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class MemoryAdmissionTest {
+
+  @Test
+  public void testReserve() throws InterruptedException {
+    MemoryAdmission admission = new MemoryAdmission(1000);
+    assertTrue(admission.tryReserve(600));
+    assertFalse(admission.tryReserve(600));
+    assertTrue(admission.reserve(400, 0));
+    assertEquals(0, admission.getAvailable());
+    admission.release(1000);
+    assertEquals(1000, admission.getAvailable());
+    assertFalse(admission.reserve(1001, 1000));
+  }
+
+  @Test
+  public void testInvalid() {
+    assertThrows(IllegalArgumentException.class, () -> new MemoryAdmission(-1));
+    assertThrows(IllegalArgumentException.class, () -> new MemoryAdmission(10).tryReserve(-1));
+  }
+
+  @Test
+  public void testTimeout() throws InterruptedException {
+    MemoryAdmission admission = new MemoryAdmission(1000);
+    assertTrue(admission.tryReserve(1000));
+    assertFalse(admission.reserve(1, 50));
+  }
+
+  @Test
+  public void testBlocking() throws Exception {
+    MemoryAdmission admission = new MemoryAdmission(1000);
+    assertTrue(admission.tryReserve(800));
+    CompletableFuture<Boolean> waiting = new CompletableFuture<>();
+    Thread thread = new Thread(() -> {
+      try {
+        waiting.complete(admission.reserve(500, 10_000));
+      } catch (InterruptedException ex) {
+        waiting.completeExceptionally(ex);
+      }
+    });
+    thread.start();
+    // Later reservations must wait their turn
+    while (admission.tryReserve(100)) admission.release(100);
+    admission.release(800);
+    assertTrue(waiting.get(10, TimeUnit.SECONDS));
+    assertEquals(500, admission.getAvailable());
+  }
+
+  @Test
+  public void testEstimate() throws LoadingException {
+    List<XMLToken> from = TestTokens.loadTokens("<p>a b c</p>", TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens("<p>a c d e</p>", TextGranularity.SPACE_WORD);
+    MemoryAdmission admission = new MemoryAdmission(1000);
+    assertEquals((from.size() + 1) * (to.size() + 1) * 2L, admission.estimate(new DefaultXMLProcessor(), from, to));
+    assertTrue(admission.estimate(new OptimisticXMLProcessor(), from, to) > 0);
+  }
+
+  @Test
+  public void testDiffAdmitted() throws Exception {
+    List<XMLToken> from = TestTokens.loadTokens("<p>The quick brown fox</p>", TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens("<p>The quick red fox</p>", TextGranularity.SPACE_WORD);
+    MemoryAdmission admission = new MemoryAdmission(1_000_000);
+    ActionsBuffer<XMLToken> buffer = new ActionsBuffer<>();
+    assertEquals(DiffBudget.Level.WORD, admission.diff(new DefaultXMLProcessor(), from, to, buffer, 0));
+    assertEquals(1_000_000, admission.getAvailable());
+    DiffAssertions.assertIsCorrect(from, to, buffer.getActions());
+  }
+
+  @Test
+  public void testDiffDowngraded() throws Exception {
+    List<XMLToken> from = TestTokens.loadTokens("<p>The quick brown fox</p>", TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens("<p>The quick red fox</p>", TextGranularity.SPACE_WORD);
+    DefaultXMLProcessor processor = new DefaultXMLProcessor();
+    MemoryAdmission admission = new MemoryAdmission(estimate(processor, from, to) - 1);
+    ActionsBuffer<XMLToken> buffer = new ActionsBuffer<>();
+    assertNotEquals(DiffBudget.Level.WORD, admission.diff(processor, from, to, buffer, 0));
+    assertEquals(admission.getBudget(), admission.getAvailable());
+    DiffAssertions.assertIsCorrect(from, to, buffer.getActions());
+    DiffAssertions.assertIsWellFormedXML(buffer.getActions());
+  }
+
+  @Test
+  public void testDiffDowngradedReservesLevel() throws Exception {
+    List<XMLToken> from = TestTokens.loadTokens("<p>The quick brown fox</p>", TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens("<p>The quick red fox</p>", TextGranularity.SPACE_WORD);
+    DefaultXMLProcessor processor = new DefaultXMLProcessor();
+    long text = processor.estimateMemory(from, to, DiffBudget.Level.TEXT);
+    MemoryAdmission admission = new MemoryAdmission(estimate(processor, from, to) - 1);
+    long[] available = new long[1];
+    ActionsBuffer<XMLToken> buffer = new ActionsBuffer<XMLToken>() {
+      @Override
+      public void start() {
+        available[0] = admission.getAvailable();
+      }
+    };
+    assertEquals(DiffBudget.Level.TEXT, admission.diff(processor, from, to, buffer, 0));
+    // Only the memory needed by the level is reserved during the diff
+    assertEquals(admission.getBudget() - text, available[0]);
+    assertEquals(admission.getBudget(), admission.getAvailable());
+    DiffAssertions.assertIsCorrect(from, to, buffer.getActions());
+  }
+
+  @Test
+  public void testDiffDowngradedWaitsTurn() throws Exception {
+    List<XMLToken> from = TestTokens.loadTokens("<p>The quick brown fox</p>", TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens("<p>The quick red fox</p>", TextGranularity.SPACE_WORD);
+    DefaultXMLProcessor processor = new DefaultXMLProcessor();
+    long word = estimate(processor, from, to);
+    long text = processor.estimateMemory(from, to, DiffBudget.Level.TEXT);
+    MemoryAdmission admission = new MemoryAdmission(word + text);
+    assertTrue(admission.tryReserve(word + text));
+    CompletableFuture<Boolean> waiting = new CompletableFuture<>();
+    Thread thread = new Thread(() -> {
+      try {
+        waiting.complete(admission.reserve(word, 10_000));
+      } catch (InterruptedException ex) {
+        waiting.completeExceptionally(ex);
+      }
+    });
+    thread.start();
+    while (admission.tryReserve(0)) admission.release(0);
+    CompletableFuture.runAsync(() -> {
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      admission.release(word + text);
+    });
+    // The downgraded diff must not take the memory of the reservation ahead of it
+    ActionsBuffer<XMLToken> buffer = new ActionsBuffer<>();
+    assertEquals(DiffBudget.Level.TEXT, admission.diff(processor, from, to, buffer, 50));
+    assertTrue(waiting.get(10, TimeUnit.SECONDS));
+    assertEquals(text, admission.getAvailable());
+    DiffAssertions.assertIsCorrect(from, to, buffer.getActions());
+  }
+
+  private static long estimate(XMLDiffProcessor processor, List<XMLToken> from, List<XMLToken> to) {
+    return new MemoryAdmission(0).estimate(processor, from, to);
+  }
+
+}
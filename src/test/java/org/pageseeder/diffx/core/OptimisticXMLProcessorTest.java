@@ -15,12 +15,25 @@
  */
 package org.pageseeder.diffx.core;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.Action;
+import org.pageseeder.diffx.action.ActionsBuffer;
 import org.pageseeder.diffx.algorithm.BasicGeneralDiffTest;
 import org.pageseeder.diffx.algorithm.BasicXMLDiffTest;
 import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.LoadingException;
+import org.pageseeder.diffx.config.TextGranularity;
+import org.pageseeder.diffx.test.DiffAssertions;
+import org.pageseeder.diffx.test.TestActions;
+import org.pageseeder.diffx.test.TestTokens;
 import org.pageseeder.diffx.token.XMLToken;
 
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * Test case for progressive XML processor.
  *
@@ -33,6 +46,148 @@ public final class OptimisticXMLProcessorTest {
     return new OptimisticXMLProcessor();
   }
 
+  @Test
+  public void testRepairWindow() throws LoadingException {
+    StringBuilder a = new StringBuilder("<root>");
+    StringBuilder b = new StringBuilder("<root>");
+    for (int i = 0; i < 2000; i++) {
+      a.append("<section><p>Paragraph ").append(i).append("</p></section>");
+      // The fast diff cannot produce well-formed XML when elements are swapped
+      if (i == 500) b.append("<p><section>Paragraph ").append(i).append("</section></p>");
+      else b.append("<section><p>Paragraph ").append(i).append("</p></section>");
+    }
+    a.append("</root>");
+    b.append("</root>");
+    List<XMLToken> from = TestTokens.loadTokens(a.toString(), TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens(b.toString(), TextGranularity.SPACE_WORD);
+    List<Action<XMLToken>> actions = TestActions.diffToActions(newProcessor(), from, to);
+    DiffAssertions.assertIsCorrect(from, to, actions);
+    DiffAssertions.assertIsWellFormedXML(actions);
+  }
+
+  @Test
+  public void testStreamFirstAndLast() throws LoadingException {
+    String[] from = {
+        "<root a='1'><x><y>A</y></x><p>B</p><x><y>C</y></x></root>",
+        "<root><x><y>A</y></x><p>B</p><p>C</p></root>",
+        "<root><p>A</p><p>B</p><x><y>C</y></x></root>"
+    };
+    String[] to = {
+        "<root a='2'><y><x>A</x></y><p>B</p><y><x>C</x></y></root>",
+        "<root><y><x>A</x></y><p>B</p><p>C</p><p>D</p></root>",
+        "<root><p>A</p><p>B</p><y><x>C</x></y></root>"
+    };
+    for (int i = 0; i < from.length; i++) {
+      List<XMLToken> a = TestTokens.loadTokens(from[i], TextGranularity.SPACE_WORD);
+      List<XMLToken> b = TestTokens.loadTokens(to[i], TextGranularity.SPACE_WORD);
+      List<Action<XMLToken>> actions = TestActions.diffToActions(newProcessor(), a, b);
+      DiffAssertions.assertIsCorrect(a, b, actions);
+      DiffAssertions.assertIsWellFormedXML(actions);
+    }
+  }
+
+  @Test
+  public void testSpeculativeRejected() throws LoadingException {
+    List<XMLToken> from = TestTokens.loadTokens("<a><b>x</b></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens("<b><a>x</a></b>", TextGranularity.SPACE_WORD);
+    OptimisticXMLProcessor processor = newProcessor();
+    processor.setSpeculativeExecutor(task -> {
+      throw new RejectedExecutionException();
+    });
+    List<Action<XMLToken>> actions = TestActions.diffToActions(processor, from, to);
+    DiffAssertions.assertIsCorrect(from, to, actions);
+    DiffAssertions.assertIsWellFormedXML(actions);
+  }
+
+  @Test
+  public void testBudgetUnlimited() throws LoadingException {
+    List<XMLToken> from = TestTokens.loadTokens(toParagraphs(1, "w"), TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens(toParagraphs(10, "v"), TextGranularity.SPACE_WORD);
+    assertBudget(from, to, DiffBudget.unlimited(), DiffBudget.Level.WORD);
+  }
+
+  @Test
+  public void testBudgetNoTime() throws LoadingException {
+    List<XMLToken> from = TestTokens.loadTokens(toParagraphs(1, "w"), TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens(toParagraphs(10, "v"), TextGranularity.SPACE_WORD);
+    assertBudget(from, to, DiffBudget.unlimited().maxTime(0), DiffBudget.Level.REPLACE);
+  }
+
+  @Test
+  public void testBudgetNoMemory() throws LoadingException {
+    List<XMLToken> from = TestTokens.loadTokens(toParagraphs(1, "w"), TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens(toParagraphs(10, "v"), TextGranularity.SPACE_WORD);
+    assertBudget(from, to, DiffBudget.unlimited().maxMemory(0), DiffBudget.Level.REPLACE);
+  }
+
+  @Test
+  public void testBudgetText() throws LoadingException {
+    StringBuilder a = new StringBuilder("<root>");
+    StringBuilder b = new StringBuilder("<root>");
+    for (int i = 0; i < 200; i++) {
+      a.append("<p>");
+      b.append("<p>");
+      // Many words changed within a few text nodes
+      for (int w = 0; w < 20; w++) {
+        a.append('w').append(i).append('_').append(w).append(' ');
+        b.append(i % 4 == 0 && w % 2 == 0 ? 'v' : 'w').append(i).append('_').append(w).append(' ');
+      }
+      a.append("</p>");
+      b.append("</p>");
+    }
+    a.append("</root>");
+    b.append("</root>");
+    List<XMLToken> from = TestTokens.loadTokens(a.toString(), TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens(b.toString(), TextGranularity.SPACE_WORD);
+    assertBudget(from, to, DiffBudget.unlimited().maxMemory(1_000_000), DiffBudget.Level.TEXT);
+  }
+
+  @Test
+  public void testBudgetElement() throws LoadingException {
+    // Many text nodes changed within a few elements
+    List<XMLToken> from = TestTokens.loadTokens(toParagraphs(1, "w"), TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens(toParagraphs(10, "v"), TextGranularity.SPACE_WORD);
+    assertBudget(from, to, DiffBudget.unlimited().maxMemory(100_000), DiffBudget.Level.ELEMENT);
+  }
+
+  @Test
+  public void testEstimateMemory() throws LoadingException {
+    List<XMLToken> from = TestTokens.loadTokens(toParagraphs(1, "w"), TextGranularity.SPACE_WORD);
+    List<XMLToken> to = TestTokens.loadTokens(toParagraphs(10, "v"), TextGranularity.SPACE_WORD);
+    // Enough for the fallback matrix even though the sequences are similar
+    long cells = (long) (from.size() + 1) * (to.size() + 1);
+    OptimisticXMLProcessor processor = newProcessor();
+    Assertions.assertEquals(cells * 2, processor.estimateMemory(from, to));
+    // But no more than the matrix threshold
+    processor.setFallbackThreshold(1000);
+    Assertions.assertEquals(2000, processor.estimateMemory(from, to));
+  }
+
+  private void assertBudget(List<XMLToken> from, List<XMLToken> to, DiffBudget budget, DiffBudget.Level expected) {
+    ActionsBuffer<XMLToken> buffer = new ActionsBuffer<>();
+    DiffBudget.Level level = newProcessor().diff(from, to, buffer, budget);
+    Assertions.assertEquals(expected, level);
+    DiffAssertions.assertIsCorrect(from, to, buffer.getActions());
+    DiffAssertions.assertIsWellFormedXML(buffer.getActions());
+  }
+
+  /**
+   * 200 paragraphs with inline elements, the text in every nth paragraph uses a different prefix.
+   */
+  private static String toParagraphs(int every, String prefix) {
+    StringBuilder xml = new StringBuilder("<root>");
+    for (int i = 0; i < 200; i++) {
+      xml.append("<p>");
+      for (int t = 0; t < 7; t++) {
+        String text = (i % every == 0 ? prefix : "w") + i + "_" + t;
+        if (t % 2 == 1) xml.append("<b>").append(text).append("</b>");
+        else xml.append(' ').append(text).append(' ');
+      }
+      xml.append("</p>");
+    }
+    return xml.append("</root>").toString();
+  }
+
   @Nested
   public class GeneralDiff extends BasicGeneralDiffTest {
     @Override
@@ -77,4 +232,53 @@ public final class OptimisticXMLProcessorTest {
     }
   }
 
+  @Nested
+  public class RandomXMLDiffLinear extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      OptimisticXMLProcessor processor = newProcessor();
+      processor.setFallbackThreshold(0);
+      return processor;
+    }
+  }
+
+  @Nested
+  public class SpeculativeAdvancedXMLDiff extends AdvancedXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      OptimisticXMLProcessor processor = newProcessor();
+      processor.setSpeculativeExecutor(ForkJoinPool.commonPool());
+      return processor;
+    }
+  }
+
+  @Nested
+  public class SpeculativeRandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      OptimisticXMLProcessor processor = newProcessor();
+      processor.setSpeculativeExecutor(ForkJoinPool.commonPool());
+      return processor;
+    }
+  }
+
+  @Nested
+  public class DiscardRandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      OptimisticXMLProcessor processor = newProcessor();
+      processor.setDiscardConfusing(true);
+      return processor;
+    }
+  }
+
+  @Nested
+  public class CollapseRandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      OptimisticXMLProcessor processor = newProcessor();
+      processor.setCollapseShared(true);
+      return processor;
+    }
+  }
 }
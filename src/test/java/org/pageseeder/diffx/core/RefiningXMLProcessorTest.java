@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.Action;
+import org.pageseeder.diffx.algorithm.BasicGeneralDiffTest;
+import org.pageseeder.diffx.algorithm.BasicXMLDiffTest;
+import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.api.LoadingException;
+import org.pageseeder.diffx.config.TextGranularity;
+import org.pageseeder.diffx.test.DiffAssertions;
+import org.pageseeder.diffx.test.TestActions;
+import org.pageseeder.diffx.test.TestTokens;
+import org.pageseeder.diffx.token.XMLToken;
+
+import java.util.List;
+
+/**
+ * Test case for the refining XML processor.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class RefiningXMLProcessorTest {
+
+  private RefiningXMLProcessor newProcessor() {
+    return new RefiningXMLProcessor();
+  }
+
+  @Test
+  public void testRefineWords() throws LoadingException {
+    String output = toTestOutput(newProcessor(), "<p>The quick brown fox</p>", "<p>The quick red fox</p>");
+    Assertions.assertEquals("<p>The quick-( brown)+( red) fox</p>", output);
+  }
+
+  @Test
+  public void testRefineCharacters() throws LoadingException {
+    RefiningXMLProcessor processor = newProcessor();
+    processor.setCharacterThreshold(10);
+    String output = toTestOutput(processor, "<p>The quick brown fox</p>", "<p>The quick brawn fox</p>");
+    Assertions.assertEquals("<p>The quick br-o+awn fox</p>", output);
+  }
+
+  @Test
+  public void testLongWords() throws LoadingException {
+    RefiningXMLProcessor processor = newProcessor();
+    processor.setCharacterThreshold(4);
+    String output = toTestOutput(processor, "<p>The quick brown fox</p>", "<p>The quick brawn fox</p>");
+    Assertions.assertEquals("<p>The quick+( brawn)-( brown) fox</p>", output);
+  }
+
+  @Test
+  public void testElements() throws LoadingException {
+    String output = toTestOutput(newProcessor(), "<p>A <b>quick</b> fox</p>", "<p>A <i>quick</i> fox</p>");
+    Assertions.assertEquals("<p>A -<b>+<i>quick+</i>-</b> fox</p>", output);
+  }
+
+  private static String toTestOutput(RefiningXMLProcessor processor, String xmlA, String xmlB) throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens(xmlA, TextGranularity.TEXT);
+    List<XMLToken> b = TestTokens.loadTokens(xmlB, TextGranularity.TEXT);
+    List<Action<XMLToken>> actions = TestActions.diffToActions(processor, a, b);
+    DiffAssertions.assertIsWellFormedXML(actions);
+    return DiffAssertions.toTestOutput(actions);
+  }
+
+  @Nested
+  public class GeneralDiff extends BasicGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class BasicXMLDiff extends BasicXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class AdvancedXMLDiff extends AdvancedXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+
+  @Nested
+  public class CoalesceXMLDiff extends CoalesceXMLDiffTest {
+    @Override
+    public DiffProcessor<XMLToken> getProcessor() {
+      RefiningXMLProcessor processor = newProcessor();
+      processor.setCoalesce(true);
+      return processor;
+    }
+  }
+
+  @Nested
+  public class RandomXMLDiff extends RandomXMLDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return newProcessor();
+    }
+  }
+}
@@ -15,14 +15,23 @@
  */
 package org.pageseeder.diffx.core;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.OperationsBuffer;
 import org.pageseeder.diffx.algorithm.BasicGeneralDiffTest;
 import org.pageseeder.diffx.algorithm.BasicLinesDiffTest;
 import org.pageseeder.diffx.algorithm.RandomGeneralDiffTest;
 import org.pageseeder.diffx.api.DiffAlgorithm;
+import org.pageseeder.diffx.test.TestTokens;
 import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.impl.CharToken;
 import org.pageseeder.diffx.token.impl.LineToken;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Test case for text only algorithm.
  *
@@ -58,4 +67,53 @@ public final class TextOnlyProcessorTest {
       return newProcessor();
     }
   }
+
+  @Nested
+  public class AutoGeneralDiff extends BasicGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return new TextOnlyProcessor<>(TextOnlyProcessor.Algorithm.AUTO);
+    }
+  }
+
+  @Nested
+  public class AutoRandomGeneralDiff extends RandomGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      return new TextOnlyProcessor<>(TextOnlyProcessor.Algorithm.AUTO);
+    }
+  }
+
+  @Test
+  public void testSelectSparse() {
+    List<String> a = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h");
+    List<String> b = Arrays.asList("x", "c", "y", "f");
+    Assertions.assertEquals(TextOnlyProcessor.Algorithm.HUNT_SZYMANSKI, TextOnlyProcessor.select(a, b));
+  }
+
+  @Test
+  public void testSelectDense() {
+    List<String> a = Collections.nCopies(100, "a");
+    List<String> b = Collections.nCopies(50, "a");
+    Assertions.assertEquals(TextOnlyProcessor.Algorithm.KUMAR_RANGAN, TextOnlyProcessor.select(a, b));
+  }
+
+  @Nested
+  public class DiscardRandomGeneralDiff extends RandomGeneralDiffTest {
+    @Override
+    public DiffAlgorithm<XMLToken> getDiffAlgorithm() {
+      TextOnlyProcessor<XMLToken> processor = new TextOnlyProcessor<>();
+      processor.setDiscardConfusing(true);
+      return processor;
+    }
+  }
+
+  @Test
+  public void testCharTokens() {
+    List<CharToken> a = TestTokens.toCharTokens("The quick brown fox");
+    List<CharToken> b = TestTokens.toCharTokens("The quick brawn fax");
+    OperationsBuffer<CharToken> buffer = new OperationsBuffer<>();
+    new TextOnlyProcessor<CharToken>().diff(a, b, buffer);
+    Assertions.assertEquals(4, buffer.countEdits());
+  }
 }
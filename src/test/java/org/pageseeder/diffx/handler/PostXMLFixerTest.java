@@ -0,0 +1,83 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.handler;
+
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.impl.WordToken;
+import org.pageseeder.diffx.token.impl.XMLEndElement;
+import org.pageseeder.diffx.token.impl.XMLStartElement;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test case for the post XML fixer.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class PostXMLFixerTest {
+
+  @Test
+  public void testNoError() {
+    PostXMLFixer fixer = new PostXMLFixer(new OperationsBuffer<>());
+    fixer.start();
+    fixer.handle(Operator.MATCH, new XMLStartElement("a"));
+    fixer.handle(Operator.DEL, new WordToken("x"));
+    fixer.handle(Operator.INS, new WordToken("y"));
+    fixer.handle(Operator.MATCH, new XMLEndElement("a"));
+    fixer.end();
+    assertFalse(fixer.hasError());
+    assertEquals(Collections.emptyList(), fixer.getErrors());
+  }
+
+  @Test
+  public void testMismatchedEdits() {
+    OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+    PostXMLFixer fixer = new PostXMLFixer(buffer);
+    fixer.start();
+    fixer.handle(Operator.MATCH, new XMLStartElement("a"));
+    fixer.handle(Operator.INS, new XMLStartElement("b"));
+    fixer.handle(Operator.MATCH, new WordToken("x"));
+    fixer.handle(Operator.DEL, new XMLStartElement("c"));
+    fixer.handle(Operator.INS, new XMLEndElement("b"));
+    fixer.handle(Operator.DEL, new WordToken("y"));
+    fixer.handle(Operator.MATCH, new XMLEndElement("a"));
+    fixer.end();
+    assertTrue(fixer.hasError());
+    // Detected when the edits are flushed by the next match, then when the fixer ends
+    assertEquals(Arrays.asList(6, 7), fixer.getErrors());
+  }
+
+  @Test
+  public void testUnclosedAtEnd() {
+    PostXMLFixer fixer = new PostXMLFixer(new OperationsBuffer<>());
+    fixer.start();
+    fixer.handle(Operator.MATCH, new XMLStartElement("a"));
+    fixer.handle(Operator.MATCH, new WordToken("x"));
+    fixer.end();
+    assertTrue(fixer.hasError());
+    assertEquals(Arrays.asList(2), fixer.getErrors());
+  }
+
+}
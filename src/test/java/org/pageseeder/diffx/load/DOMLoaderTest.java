@@ -15,9 +15,21 @@
  */
 package org.pageseeder.diffx.load;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.api.LoadingException;
 import org.pageseeder.diffx.config.DiffConfig;
+import org.pageseeder.diffx.token.impl.XMLEndElement;
+import org.pageseeder.diffx.token.impl.XMLStartElement;
+import org.pageseeder.diffx.xml.Sequence;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 
 /**
  * @author Christophe Lauret
@@ -66,4 +78,33 @@ public final class DOMLoaderTest {
       return configureLoader(config);
     }
   }
+
+  @Test
+  public void testDeeplyNested() throws ParserConfigurationException, LoadingException {
+    Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    Node parent = document;
+    for (int i = 0; i < 50000; i++) {
+      parent = parent.appendChild(document.createElementNS(null, "e"));
+    }
+    parent.appendChild(document.createTextNode("x"));
+    Sequence sequence = new DOMLoader().load(document);
+    Assertions.assertEquals(100001, sequence.size());
+    Assertions.assertEquals(new XMLStartElement("e"), sequence.getToken(0));
+    Assertions.assertEquals(new XMLEndElement("e"), sequence.getToken(100000));
+  }
+
+  @Test
+  public void testElementOnly() throws ParserConfigurationException, LoadingException {
+    Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    Element root = (Element) document.appendChild(document.createElementNS(null, "root"));
+    root.appendChild(document.createElementNS(null, "a")).appendChild(document.createElementNS(null, "b"));
+    root.appendChild(document.createElementNS(null, "c"));
+    Sequence sequence = new DOMLoader().load(root.getFirstChild());
+    Sequence expected = new Sequence();
+    expected.addToken(new XMLStartElement("a"));
+    expected.addToken(new XMLStartElement("b"));
+    expected.addToken(new XMLEndElement("b"));
+    expected.addToken(new XMLEndElement("a"));
+    Assertions.assertEquals(expected.tokens(), sequence.tokens());
+  }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010-2015 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.sequence;
+
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.Action;
+import org.pageseeder.diffx.algorithm.MyersGreedyXMLAlgorithm;
+import org.pageseeder.diffx.api.LoadingException;
+import org.pageseeder.diffx.config.TextGranularity;
+import org.pageseeder.diffx.test.DiffAssertions;
+import org.pageseeder.diffx.test.TestActions;
+import org.pageseeder.diffx.test.TestTokens;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.impl.XMLSubtree;
+import org.pageseeder.diffx.xml.SequenceFolding;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Test case for the subtree collapser.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class SubtreeCollapserTest {
+
+  @Test
+  public void testNoShared() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b>X</b></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><b>Y</b></a>", TextGranularity.SPACE_WORD);
+    SubtreeCollapser collapser = new SubtreeCollapser(a, b);
+    assertEquals(0, collapser.analyze());
+    assertEquals(a, collapser.getCollapsedFirst());
+    assertEquals(b, collapser.getCollapsedSecond());
+  }
+
+  @Test
+  public void testCollapseShared() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b>X <c>Y</c></b><d>Z</d></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><d>Z</d><b>X <c>Y</c></b></a>", TextGranularity.SPACE_WORD);
+    SubtreeCollapser collapser = new SubtreeCollapser(a, b);
+    assertEquals(2 * (a.size() - 4), collapser.analyze());
+    List<XMLToken> first = collapser.getCollapsedFirst();
+    List<XMLToken> second = collapser.getCollapsedSecond();
+    assertEquals(4, first.size());
+    assertTrue(first.get(1) instanceof XMLSubtree);
+    assertTrue(first.get(2) instanceof XMLSubtree);
+    // Only the outermost shared elements are collapsed
+    assertEquals(7, ((XMLSubtree) first.get(1)).getEvents().size());
+    assertEquals(first.get(1), second.get(2));
+    assertEquals(first.get(2), second.get(1));
+  }
+
+  @Test
+  public void testCollapseDocument() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b>X</b> <c/></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><b>X</b> <c/></a>", TextGranularity.SPACE_WORD);
+    SubtreeCollapser collapser = new SubtreeCollapser(a, b);
+    collapser.analyze();
+    assertEquals(1, collapser.getCollapsedFirst().size());
+    assertEquals(1, collapser.getCollapsedSecond().size());
+  }
+
+  @Test
+  public void testAttributes() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b x='1'>X</b><b x='2'>X</b></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><b x='2'>X</b><b x='3'>X</b></a>", TextGranularity.SPACE_WORD);
+    SubtreeCollapser collapser = new SubtreeCollapser(a, b);
+    collapser.analyze();
+    List<XMLToken> first = collapser.getCollapsedFirst();
+    List<XMLToken> second = collapser.getCollapsedSecond();
+    assertTrue(first.get(5) instanceof XMLSubtree);
+    assertTrue(second.get(1) instanceof XMLSubtree);
+    assertEquals(first.get(5), second.get(1));
+    assertEquals(first.size(), second.size());
+  }
+
+  @Test
+  public void testFoldedElements() throws LoadingException {
+    SequenceFolding folding = SequenceFolding.forElements("b");
+    List<? extends XMLToken> a = folding.fold(TestTokens.loadTokens("<a><c><b>X</b></c><d/></a>", TextGranularity.SPACE_WORD));
+    List<? extends XMLToken> b = folding.fold(TestTokens.loadTokens("<a><c><b>Y</b></c><d/></a>", TextGranularity.SPACE_WORD));
+    SubtreeCollapser collapser = new SubtreeCollapser(a, b);
+    // Only <d/> is shared
+    assertEquals(2, collapser.analyze());
+  }
+
+  @Test
+  public void testIndex() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b>X <c>Y</c></b><d>Z</d></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><d>Z</d><b>X <c>Y</c></b></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> c = TestTokens.loadTokens("<a><d>Z</d><b>X</b></a>", TextGranularity.SPACE_WORD);
+    SubtreeCollapser.Index index = SubtreeCollapser.index(a);
+    assertEquals(a, index.sequence());
+    for (List<XMLToken> other : Arrays.asList(b, c)) {
+      SubtreeCollapser expected = new SubtreeCollapser(a, other);
+      SubtreeCollapser indexed = new SubtreeCollapser(index, other);
+      assertEquals(expected.analyze(), indexed.analyze());
+      assertEquals(expected.getCollapsedFirst(), indexed.getCollapsedFirst());
+      assertEquals(expected.getCollapsedSecond(), indexed.getCollapsedSecond());
+    }
+  }
+
+  @Test
+  public void testNotAnalyzed() {
+    SubtreeCollapser collapser = new SubtreeCollapser(Collections.emptyList(), Collections.emptyList());
+    assertThrows(IllegalStateException.class, collapser::getCollapsedFirst);
+  }
+
+  @Test
+  public void testDiff() throws LoadingException {
+    List<XMLToken> a = TestTokens.loadTokens("<a><b>X <c>Y</c></b><d>Z</d><e>W</e></a>", TextGranularity.SPACE_WORD);
+    List<XMLToken> b = TestTokens.loadTokens("<a><d>Z</d><e>V</e><b>X <c>Y</c></b></a>", TextGranularity.SPACE_WORD);
+    List<Action<XMLToken>> actions = TestActions.diffToActions(
+        (from, to, handler) -> SubtreeCollapser.diff(new MyersGreedyXMLAlgorithm(), from, to, handler), a, b);
+    DiffAssertions.assertIsCorrect(a, b, actions);
+    DiffAssertions.assertIsWellFormedXML(actions);
+    for (Action<XMLToken> action : actions) {
+      for (XMLToken token : action.tokens()) assertTrue(!(token instanceof XMLSubtree));
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.sequence;
+
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.action.Operation;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.algorithm.MyersGreedyAlgorithm;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.token.XMLToken;
+import org.pageseeder.diffx.token.impl.WordToken;
+import org.pageseeder.diffx.token.impl.XMLEndElement;
+import org.pageseeder.diffx.token.impl.XMLStartElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test case for the token discarder.
+ *
+ * @author Christophe Lauret
+ * @version 0.9.0
+ */
+public final class TokenDiscarderTest {
+
+  @Test
+  public void testNoDiscard() {
+    List<String> a = Arrays.asList("a", "b", "c");
+    List<String> b = Arrays.asList("c", "b", "a");
+    TokenDiscarder<String> discarder = new TokenDiscarder<>(a, b);
+    assertEquals(0, discarder.analyze());
+    assertEquals(a, discarder.getReducedFirst());
+    assertEquals(b, discarder.getReducedSecond());
+  }
+
+  @Test
+  public void testDiscardAbsent() {
+    List<String> a = Arrays.asList("a", "x", "b", "y");
+    List<String> b = Arrays.asList("z", "a", "b");
+    TokenDiscarder<String> discarder = new TokenDiscarder<>(a, b);
+    assertEquals(3, discarder.analyze());
+    assertEquals(Arrays.asList("a", "b"), discarder.getReducedFirst());
+    assertEquals(Arrays.asList("a", "b"), discarder.getReducedSecond());
+  }
+
+  @Test
+  public void testDiscardFrequent() {
+    // 'f' occurs too many times in the second sequence
+    List<String> a = Arrays.asList("a", "x1", "x2", "f", "y1", "y2", "b", "f");
+    List<String> b = new ArrayList<>(Arrays.asList("a", "b"));
+    b.addAll(Collections.nCopies(10, "f"));
+    TokenDiscarder<String> discarder = new TokenDiscarder<>(a, b);
+    discarder.analyze();
+    // Only the frequent token within the run of discarded tokens is discarded
+    assertEquals(Arrays.asList("a", "b", "f"), discarder.getReducedFirst());
+  }
+
+  @Test
+  public void testKeepElements() {
+    List<XMLToken> a = Arrays.asList(new XMLStartElement("a"), new WordToken("x"), new XMLEndElement("a"));
+    List<XMLToken> b = Arrays.asList(new XMLStartElement("b"), new WordToken("y"), new XMLEndElement("b"));
+    TokenDiscarder<XMLToken> discarder = new TokenDiscarder<>(a, b);
+    assertEquals(2, discarder.analyze());
+    assertEquals(Arrays.asList(a.get(0), a.get(2)), discarder.getReducedFirst());
+    assertEquals(Arrays.asList(b.get(0), b.get(2)), discarder.getReducedSecond());
+  }
+
+  @Test
+  public void testNotAnalyzed() {
+    TokenDiscarder<String> discarder = new TokenDiscarder<>(Collections.emptyList(), Collections.emptyList());
+    assertThrows(IllegalStateException.class, discarder::getReducedFirst);
+  }
+
+  @Test
+  public void testDiff() {
+    List<String> a = Arrays.asList("a", "x", "b", "c", "y");
+    List<String> b = Arrays.asList("z", "a", "b", "w", "c");
+    OperationsBuffer<String> buffer = new OperationsBuffer<>();
+    TokenDiscarder.diff(new MyersGreedyAlgorithm<>(), a, b, buffer);
+    assertEquals("+z =a -x =b +w =c -y", toString(buffer.getOperations()));
+  }
+
+  private static String toString(List<Operation<String>> operations) {
+    return operations.stream().map(o -> toString(o.operator()) + o.token()).collect(Collectors.joining(" "));
+  }
+
+  private static String toString(Operator operator) {
+    return operator == Operator.INS ? "+" : operator == Operator.DEL ? "-" : "=";
+  }
+}
@@ -18,11 +18,15 @@ package org.pageseeder.diffx.sequence;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.pageseeder.diffx.DiffException;
+import org.pageseeder.diffx.action.Operation;
+import org.pageseeder.diffx.action.OperationsBuffer;
+import org.pageseeder.diffx.api.Operator;
 import org.pageseeder.diffx.config.DiffConfig;
 import org.pageseeder.diffx.config.TextGranularity;
 import org.pageseeder.diffx.load.SAXLoader;
 import org.pageseeder.diffx.token.impl.CharactersToken;
 import org.pageseeder.diffx.token.impl.XMLEndElement;
+import org.pageseeder.diffx.token.XMLToken;
 import org.pageseeder.diffx.token.impl.XMLStartElement;
 import org.pageseeder.diffx.xml.Sequence;
 import org.xml.sax.InputSource;
@@ -403,6 +407,22 @@ public final class XMLTokenListSlicerTest {
     return new TokenListSlicer(this.seqA, this.seqB);
   }
 
+  @Test
+  public void testAnalyzeHandler() throws IOException, DiffException {
+    String xml1 = "<a><b>X</b><c>Y</c></a>";
+    String xml2 = "<a><b>X</b><d>Y</d></a>";
+    TokenListSlicer slicer = init(xml1, xml2);
+    OperationsBuffer<XMLToken> buffer = new OperationsBuffer<>();
+    int common = slicer.analyze(buffer);
+    assertEquals(new TokenListSlicer(this.seqA, this.seqB).analyze(), common);
+    assertEquals(slicer.getStart().size(), buffer.getOperations().size());
+    for (int i = 0; i < buffer.getOperations().size(); i++) {
+      Operation<XMLToken> operation = buffer.getOperations().get(i);
+      assertEquals(Operator.MATCH, operation.operator());
+      assertEquals(slicer.getStart().get(i), operation.token());
+    }
+  }
+
   /**
    * Asserts that the sliceStart operation is OK.
    *
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2010-2021 Allette Systems (Australia)
+ *    http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.diffx.xml;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.pageseeder.diffx.api.Operator;
+import org.pageseeder.diffx.token.StartElementToken;
+import org.pageseeder.diffx.token.impl.WordToken;
+import org.pageseeder.diffx.token.impl.XMLEndElement;
+import org.pageseeder.diffx.token.impl.XMLStartElement;
+
+import java.util.NoSuchElementException;
+
+public final class ElementStackTest {
+
+  @Test
+  public void testEmpty() {
+    ElementStack stack = ElementStack.EMPTY;
+    Assertions.assertTrue(stack.isEmpty());
+    Assertions.assertEquals(0, stack.depth());
+    Assertions.assertNull(stack.operator());
+    Assertions.assertNull(stack.token());
+    Assertions.assertNull(stack.toOperation());
+    Assertions.assertFalse(stack.matchEnd(Operator.MATCH, new XMLEndElement("a")));
+    Assertions.assertFalse(stack.matchStart(Operator.MATCH, new XMLStartElement("a")));
+    Assertions.assertThrows(NoSuchElementException.class, stack::pop);
+  }
+
+  @Test
+  public void testPushPop() {
+    StartElementToken a = new XMLStartElement("a");
+    StartElementToken b = new XMLStartElement("b");
+    ElementStack stack1 = ElementStack.EMPTY.push(Operator.MATCH, a);
+    ElementStack stack2 = stack1.push(Operator.INS, b);
+    Assertions.assertEquals(1, stack1.depth());
+    Assertions.assertEquals(2, stack2.depth());
+    Assertions.assertSame(b, stack2.token());
+    Assertions.assertEquals(Operator.INS, stack2.operator());
+    Assertions.assertSame(stack1, stack2.pop());
+    Assertions.assertSame(ElementStack.EMPTY, stack1.pop());
+  }
+
+  @Test
+  public void testShared() {
+    ElementStack stack = ElementStack.EMPTY.push(Operator.MATCH, new XMLStartElement("a"));
+    ElementStack left = stack.push(Operator.DEL, new XMLStartElement("b"));
+    ElementStack right = stack.push(Operator.INS, new XMLStartElement("c"));
+    Assertions.assertSame(left.pop(), right.pop());
+    Assertions.assertEquals(1, stack.depth());
+    Assertions.assertEquals("b", left.token().getName());
+    Assertions.assertEquals("c", right.token().getName());
+  }
+
+  @Test
+  public void testUpdate() {
+    StartElementToken a = new XMLStartElement("a");
+    ElementStack stack = ElementStack.EMPTY.update(Operator.DEL, a);
+    Assertions.assertEquals(1, stack.depth());
+    Assertions.assertSame(stack, stack.update(Operator.DEL, new WordToken("x")));
+    Assertions.assertSame(ElementStack.EMPTY, stack.update(Operator.DEL, new XMLEndElement(a)));
+  }
+
+  @Test
+  public void testMatch() {
+    StartElementToken a = new XMLStartElement("a");
+    ElementStack stack = ElementStack.EMPTY.push(Operator.DEL, a);
+    Assertions.assertTrue(stack.matchEnd(Operator.DEL, new XMLEndElement("a")));
+    Assertions.assertFalse(stack.matchEnd(Operator.INS, new XMLEndElement("a")));
+    Assertions.assertFalse(stack.matchEnd(Operator.DEL, new XMLEndElement("b")));
+    Assertions.assertTrue(stack.matchStart(Operator.DEL, new XMLStartElement("a")));
+    Assertions.assertFalse(stack.matchStart(Operator.MATCH, a));
+    Assertions.assertEquals(Operator.DEL, stack.toOperation().operator());
+    Assertions.assertSame(a, stack.toOperation().token());
+  }
+
+}